@@ -27,7 +27,10 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.logging.Level;
 
 import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintNetwork;
@@ -38,6 +41,7 @@ import org.metacsp.framework.Variable;
 import org.sat4j.core.VecInt;
 import org.sat4j.minisat.SolverFactory;
 import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.IConstr;
 import org.sat4j.specs.ISolver;
 import org.sat4j.specs.TimeoutException;
 
@@ -50,6 +54,12 @@ import org.sat4j.specs.TimeoutException;
  * Note that {@link BooleanConstraint}s can be instantiated with a factory method from non-CNF formulas
  * (see {@link BooleanConstraint#createBooleanConstraints(BooleanVariable[], String)}.
  * 
+ * The SAT4J solver is kept between propagations: each {@link BooleanConstraint} is added to it once, as a clause
+ * guarded by a selector literal, and propagation solves under the assumption that the selectors of all unmasked
+ * constraints are true.  Removed constraints (and the blocking clauses used to enumerate models) are disabled
+ * by never assuming their selectors again, so that clauses learned by SAT4J remain valid.  The SAT4J solver
+ * is re-created from the current constraints when disabled selectors outnumber the active ones.
+ * 
  * @author Federico Pecora
  */
 public class BooleanSatisfiabilitySolver extends ConstraintSolver {
@@ -62,9 +72,21 @@ public class BooleanSatisfiabilitySolver extends ConstraintSolver {
 	public static final int MAX_SAT_VARS = 1000000;
 	public static final int MAX_SAT_CLAUSES = 500000;
 	
+	//Minimum number of disabled selectors before the SAT4J solver is re-created
+	private static final int MIN_DISABLED_SELECTORS = 1000;
+	
 	private transient ISolver sat4JSolver;
+	
+	//Selector literal and SAT4J clause of each constraint added to the SAT4J solver
+	private transient HashMap<BooleanConstraint,Integer> selectors;
+	private transient HashMap<BooleanConstraint,IConstr> clauses;
+	
+	//Selector IDs are above maxVars and the IDs of all BooleanVariables
+	private transient int selectorBase;
+	private transient int nextSelector;
 		
-	private Vector<HashMap<BooleanVariable,Boolean>> currentModels = new Vector<HashMap<BooleanVariable, Boolean>>();
+	//Models as bitsets of the IDs of variables that are false
+	private Vector<long[]> currentModels = new Vector<long[]>();
 	
 	//Progressively increasing IDs for BooleanVariables
 	protected int BVIDs = 1;
@@ -73,6 +95,16 @@ public class BooleanSatisfiabilitySolver extends ConstraintSolver {
 	private int maxClauses;
 	
 	private boolean enumerateModels = true;
+	private boolean lazyModels = false;
+	private int maxModels = Integer.MAX_VALUE;
+	private HashSet<Integer> modelVariables = null;
+	
+	//State of the current model enumeration (enumAssumptions is null if there is none)
+	private transient VecInt enumAssumptions = null;
+	private transient Vector<IConstr> blockingClauses = null;
+	private transient HashSet<Integer> enumVars;
+	private transient HashSet<Integer> domainVars;
+	private transient boolean enumExhausted;
 		
 	/**
 	 * Create a new {@link BooleanSatisfiabilitySolver} that will accept at most <code>MAX_SAT_VARS</code>
@@ -133,33 +165,225 @@ public class BooleanSatisfiabilitySolver extends ConstraintSolver {
 		return enumerateModels;
 	}
 	
+	/**
+	 * Sets the maximum number of models this {@link BooleanSatisfiabilitySolver} enumerates (by default, all
+	 * models are enumerated).  Domains of variables are exact also when not all models are enumerated.
+	 * @param maxModels The maximum number of models to enumerate.
+	 */
+	public void setMaxModels(int maxModels) {
+		this.maxModels = maxModels;
+	}
+	
+	/**
+	 * Returns the maximum number of models this {@link BooleanSatisfiabilitySolver} enumerates.
+	 * @return The maximum number of models this {@link BooleanSatisfiabilitySolver} enumerates.
+	 */
+	public int getMaxModels() {
+		return maxModels;
+	}
+	
+	/**
+	 * Sets whether this {@link BooleanSatisfiabilitySolver} should enumerate models lazily.  If so, propagation only
+	 * computes the domains of variables and the first model, and further models are enumerated when they are
+	 * requested through {@link #getModelNames()}.
+	 * @param lazyModels Whether this {@link BooleanSatisfiabilitySolver} should enumerate models lazily.
+	 */
+	public void setLazyModels(boolean lazyModels) {
+		this.lazyModels = lazyModels;
+	}
+	
+	/**
+	 * Returns whether this {@link BooleanSatisfiabilitySolver} enumerates models lazily.
+	 * @return <code>true</code> iff this {@link BooleanSatisfiabilitySolver} enumerates models lazily.
+	 */
+	public boolean enumeratesModelsLazily() {
+		return lazyModels;
+	}
+	
+	/**
+	 * Restricts enumeration to models that differ in the values of the given variables (by default,
+	 * models differ in the value of any variable).  Each model is still a complete assignment, in which other
+	 * variables have the values of one of the assignments that agree with the model on the given variables.
+	 * @param vars The variables whose values distinguish models (<code>null</code> for all variables).
+	 */
+	public void setModelVariables(BooleanVariable ... vars) {
+		if (vars == null) modelVariables = null;
+		else {
+			modelVariables = new HashSet<Integer>();
+			for (BooleanVariable var : vars) modelVariables.add(var.getID());
+		}
+	}
+	
+	/**
+	 * Get the names of the {@link ValueChoiceFunction}s ("model0", "model1", ...) of the models found at the
+	 * last propagation.  If models are enumerated lazily, each model is enumerated when the iterator reaches it.
+	 * The iterator ends early if propagation occurs while it is used.
+	 * @return An iterator over the names of the {@link ValueChoiceFunction}s of the models found at the last propagation.
+	 */
+	public Iterator<String> getModelNames() {
+		final VecInt enumeration = enumAssumptions;
+		final Vector<long[]> models = currentModels;
+		return new Iterator<String>() {
+			private int next = 0;
+			@Override
+			public boolean hasNext() {
+				if (models != currentModels) return false;
+				if (next < models.size()) return true;
+				return enumeration != null && enumeration == enumAssumptions && nextModel();
+			}
+			@Override
+			public String next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				return "model"+(next++);
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
 	private void initSat4JSolver() {
 		sat4JSolver = SolverFactory.newDefault();
 		sat4JSolver.newVar(maxVars);
 		sat4JSolver.setExpectedNumberOfClauses(maxClauses);
 		sat4JSolver.setDBSimplificationAllowed(false);
 		sat4JSolver.setKeepSolverHot(false);
+		selectors = new HashMap<BooleanConstraint,Integer>();
+		clauses = new HashMap<BooleanConstraint,IConstr>();
+		selectorBase = Math.max(maxVars, 2*BVIDs)+1;
+		nextSelector = selectorBase;
+		enumAssumptions = null;
+		blockingClauses = null;
+	}
+	
+	//Re-create the SAT4J solver with the clauses of all current constraints
+	private void rebuildSat4JSolver() {
+		initSat4JSolver();
+		for (Constraint con : this.getConstraintNetwork().getConstraints()) addClause((BooleanConstraint)con);
+		logger.finest("Rebuilt SAT4J solver");
+	}
+	
+	//Get a new selector, declaring more SAT4J variables if needed
+	private int newSelector() {
+		if (nextSelector > sat4JSolver.nVars()) sat4JSolver.newVar(nextSelector+Math.max(MIN_DISABLED_SELECTORS, 2*selectors.size()));
+		return nextSelector++;
+	}
+	
+	//Add the clause of a constraint to the SAT4J solver, guarded by a new selector
+	private int addClause(BooleanConstraint bc) {
+		int selector = newSelector();
+		VecInt lits = bc.getLiterals();
+		lits.push(-selector);
+		//Cannot fail, as the selector is a new variable
+		try { clauses.put(bc, sat4JSolver.addClause(lits)); }
+		catch (ContradictionException e) { throw new Error("Error adding clause to SAT4J Solver"); }
+		selectors.put(bc, selector);
+		return selector;
+	}
+	
+	//Disable the clause of a constraint in the SAT4J solver
+	private void removeClause(BooleanConstraint bc) {
+		if (selectors.remove(bc) == null) return;
+		IConstr clause = clauses.remove(bc);
+		if (clause != null) sat4JSolver.removeConstr(clause);
+	}
+	
+	private int getNumDisabledSelectors() {
+		return nextSelector-selectorBase-selectors.size();
+	}
+	
+	//Restrict a model to the given variables
+	private static int[] projectModel(int[] model, HashSet<Integer> vars) {
+		int[] ret = new int[model.length];
+		int n = 0;
+		for (int lit : model) if (vars.contains(Math.abs(lit))) ret[n++] = lit;
+		return Arrays.copyOf(ret, n);
 	}
 	
 	private void resetCurrentModels() {
-		currentModels = new Vector<HashMap<BooleanVariable,Boolean>>();
+		currentModels = new Vector<long[]>();
 		//generateDefaultModels(this.getConstraintNetwork().getVariables());
 		logger.finest("Reset current models");
 	}
 	
-	private void updateCurrentModels(int[]... models) {
-		currentModels = new Vector<HashMap<BooleanVariable,Boolean>>();
-		for (int[] oneModel : models) {
-			HashMap<BooleanVariable,Boolean> aModel = new HashMap<BooleanVariable, Boolean>();
-			currentModels.add(aModel);
-			for (int lit : oneModel) {
-				BooleanVariable bv = (BooleanVariable)this.getConstraintNetwork().getVariable(Math.abs(lit));
-				if (lit < 0) aModel.put(bv, false);
-				else aModel.put(bv, true);
+	//Pack a model into a bitset of the IDs of variables that are false
+	private static long[] packModel(int[] model) {
+		int maxID = 0;
+		for (int lit : model) maxID = Math.max(maxID, Math.abs(lit));
+		long[] ret = new long[(maxID >> 6)+1];
+		for (int lit : model) if (lit < 0) ret[-lit >> 6] |= 1L << (-lit & 63);
+		return ret;
+	}
+	
+	private static boolean isFalse(long[] model, int id) {
+		int word = id >> 6;
+		return word < model.length && (model[word] & (1L << (id & 63))) != 0;
+	}
+	
+	//Store the current SAT4J model, and block it from being enumerated again
+	private void recordModel() {
+		int[] model = projectModel(sat4JSolver.model(), domainVars);
+		allowValues(model);
+		currentModels.add(packModel(model));
+		int[] oneModel = enumVars == domainVars ? model : projectModel(model, enumVars);
+		if (enumAssumptions == null) return;
+		if (oneModel.length == 0) {
+			enumExhausted = true;
+			return;
+		}
+		//logger.info("Model: " + Arrays.toString(oneModel));
+		int[] negClause = new int[oneModel.length+1];
+		for (int i = 0; i < oneModel.length; i++) {
+			negClause[i] = -oneModel[i];
+		}
+		negClause[oneModel.length] = -enumAssumptions.last();
+		//Note: addBlockingClause seems to need neg clause (what's the difference with addClause?)
+		//Note: addClause and addBlockingClause seem to have same performance
+		try { blockingClauses.add(sat4JSolver.addBlockingClause(new VecInt(negClause))); }
+		catch (ContradictionException e) { enumExhausted = true; }
+	}
+	
+	//Enumerate one more model, returns false if there are no more (or the maximum number of models was reached)
+	private boolean nextModel() {
+		if (enumExhausted || currentModels.size() >= maxModels) return false;
+		try {
+			if (!sat4JSolver.isSatisfiable(enumAssumptions)) {
+				enumExhausted = true;
+				return false;
+			}
+		}
+		catch (TimeoutException e) {
+			e.printStackTrace();
+			enumExhausted = true;
+			return false;
+		}
+		recordModel();
+		registerValueChoiceFunction(currentModels.size()-1);
+		return true;
+	}
+	
+	//Stop the current model enumeration (its blocking clauses are removed, and its selector is never assumed again)
+	private void endEnumeration() {
+		if (enumAssumptions == null) return;
+		for (IConstr clause : blockingClauses) if (clause != null) sat4JSolver.removeConstr(clause);
+		enumAssumptions = null;
+		blockingClauses = null;
+	}
+	
+	//Allow the values of variables that are not in the enumerated models, but are in some model
+	private void completeDomains(VecInt assumptions) throws TimeoutException {
+		for (int id : domainVars) {
+			BooleanVariable bv = (BooleanVariable)this.getConstraintNetwork().getVariable(id);
+			if (bv == null) continue;
+			for (int lit : new int[] {id, -id}) {
+				BooleanDomain dom = (BooleanDomain)bv.getDomain();
+				if (lit > 0 ? dom.canBeTrue() : dom.canBeFalse()) continue;
+				assumptions.push(lit);
+				if (sat4JSolver.isSatisfiable(assumptions)) allowValues(projectModel(sat4JSolver.model(), domainVars));
+				assumptions.pop();
 			}
 		}
-		this.registerValueChoiceFunctions();
-		logger.finest("Updated current models");
 	}
 	
 //	private void resetSat4JSolver() {
@@ -192,23 +416,25 @@ public class BooleanSatisfiabilitySolver extends ConstraintSolver {
 //		tempConstraints = null;
 //	}
 
-	private void updateDomains(int[]... allModels) {
-		HashSet<Variable> allVars = new HashSet<Variable>();
-		allVars.addAll(Arrays.asList(this.getConstraintNetwork().getVariables()));
-		for (int[] oneModel : allModels) {
-			for (int i : oneModel) {
-				BooleanVariable bv = (BooleanVariable)this.getConstraintNetwork().getVariable(Math.abs(i));
-				if (bv != null) {
-					if (i < 0) bv.allowFalse();
-					else bv.allowTrue();
-					if (allVars.contains(bv)) allVars.remove(bv);
-					//System.out.println("BV (" + i + ") " + bv);
-				}
+	private void allowValues(int[] oneModel) {
+		for (int i : oneModel) {
+			BooleanVariable bv = (BooleanVariable)this.getConstraintNetwork().getVariable(Math.abs(i));
+			if (bv != null) {
+				if (i < 0) bv.allowFalse();
+				else bv.allowTrue();
+				//System.out.println("BV (" + i + ") " + bv);
 			}
 		}
-		for (Variable var : allVars) {
-			((BooleanVariable)var).allowFalse();
-			((BooleanVariable)var).allowTrue();
+	}
+	
+	//Variables that are in no model can have any value
+	private void allowUnconstrained() {
+		for (Variable var : this.getConstraintNetwork().getVariables()) {
+			BooleanDomain dom = (BooleanDomain)var.getDomain();
+			if (!dom.canBeTrue() && !dom.canBeFalse()) {
+				((BooleanVariable)var).allowFalse();
+				((BooleanVariable)var).allowTrue();
+			}
 		}
 	}
 	
@@ -216,70 +442,83 @@ public class BooleanSatisfiabilitySolver extends ConstraintSolver {
 	public boolean propagate() {
 		long start = Calendar.getInstance().getTimeInMillis();
 		
-		sat4JSolver.reset();
+		if (sat4JSolver == null || getNumDisabledSelectors() > Math.max(MIN_DISABLED_SELECTORS, selectors.size())) rebuildSat4JSolver();
 		
 		logger.finest("Solving SAT problem...");
 		Constraint[] cons = this.getConstraintNetwork().getUnmaskedConstraints();
 		//Constraint[] cons = this.getConstraintNetwork().getConstraints();
-				
+		
+		//Enforce the clauses of unmasked constraints, models are restricted to their variables
+		VecInt assumptions = new VecInt(cons.length+1);
+		HashSet<Integer> modelVars = new HashSet<Integer>();
 		for (Constraint con : cons) {
 			BooleanConstraint bc = (BooleanConstraint)con;
-			try { sat4JSolver.addClause(bc.getLiterals()); }
-			catch (ContradictionException e) { return false; }
+			Integer selector = selectors.get(bc);
+			if (selector == null) selector = addClause(bc);
+			assumptions.push(selector);
+			for (Variable var : bc.getScope()) modelVars.add(var.getID());
 		}
 		
-		Vector<int[]> allModels = new Vector<int[]>();
+		endEnumeration();
+		try { if (!sat4JSolver.isSatisfiable(assumptions)) return false; }
+		catch (TimeoutException e) { return false; }
 		
-		if (enumerateModels) {
-			try {
-				if (!sat4JSolver.isSatisfiable()) return false;
-				while (sat4JSolver.isSatisfiable()) {
-					int[] oneModel = sat4JSolver.model();
-					if (oneModel.length == 0) break;
-					allModels.add(oneModel);
-					//logger.info("Model: " + Arrays.toString(oneModel));
-					int[] negClause = new int[oneModel.length];
-					for (int i = 0; i < oneModel.length; i++) {
-						negClause[i] = -oneModel[i];
-					}
-					//Note: addBlockingClause seems to need neg clause (what's the difference with addClause?)
-					//Note: addClause and addBlockingClause seem to have same performance
-					try { sat4JSolver.addBlockingClause(new VecInt(negClause)); }
-					catch (ContradictionException e) { break; }				
-				}
-			}
-			catch (TimeoutException e1) { e1.printStackTrace(); }
-		}
+		if (enumerateModels && modelVars.isEmpty()) resetCurrentModels();
 		else {
-			try { if (!sat4JSolver.isSatisfiable()) return false; }
-			catch (TimeoutException e) { return false; }
-			int[] oneModel = sat4JSolver.model();
-			allModels.add(oneModel);
-		}
-		
-		if (!allModels.isEmpty()) {
-			logger.finest("allmodels[0].length: " + allModels.firstElement().length);
 			for (Variable var : this.getConstraintNetwork().getVariables()) {
 				BooleanVariable bv = (BooleanVariable)var;
 				bv.setDomain(new BooleanDomain(bv,false,false));					
 			}
-			updateDomains(allModels.toArray(new int[allModels.size()][]));
-			updateCurrentModels(allModels.toArray(new int[allModels.size()][]));
+			currentModels = new Vector<long[]>();
+			domainVars = modelVars;
+			enumVars = modelVars;
+			if (modelVariables != null) {
+				enumVars = new HashSet<Integer>(modelVars);
+				enumVars.retainAll(modelVariables);
+			}
+			if (enumerateModels) {
+				//Blocking clauses are guarded by a selector that is disabled when enumeration ends
+				enumAssumptions = new VecInt(assumptions.size()+1);
+				assumptions.copyTo(enumAssumptions);
+				enumAssumptions.push(newSelector());
+				blockingClauses = new Vector<IConstr>();
+				enumExhausted = false;
+			}
+			recordModel();
+			if (enumerateModels) {
+				if (!lazyModels) while (nextModel());
+				//Models found so far may not contain all values of variables
+				if (!enumExhausted || enumVars.size() < domainVars.size()) {
+					try { completeDomains(assumptions); }
+					catch (TimeoutException e) { e.printStackTrace(); }
+				}
+				if (!lazyModels) endEnumeration();
+			}
+			allowUnconstrained();
+			this.registerValueChoiceFunctions();
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Found " + currentModels.size() + " models");
 		}
-		else { resetCurrentModels(); }
 					
-		logger.finest("Time spent for SAT solving: " + (Calendar.getInstance().getTimeInMillis()-start));
+		if (logger.isLoggable(Level.FINEST)) logger.finest("Time spent for SAT solving: " + (Calendar.getInstance().getTimeInMillis()-start));
 		
 		return true;
 	}
 
 	@Override
 	protected boolean addConstraintsSub(Constraint[] c) {
+		if (sat4JSolver == null) return true;
+		for (Constraint con : c) {
+			BooleanConstraint bc = (BooleanConstraint)con;
+			if (!selectors.containsKey(bc)) addClause(bc);
+		}
 		return true;
 	}
 
 	@Override
-	protected void removeConstraintsSub(Constraint[] c) { /* do nothing */ }
+	protected void removeConstraintsSub(Constraint[] c) {
+		if (sat4JSolver == null) return;
+		for (Constraint con : c) removeClause((BooleanConstraint)con);
+	}
 
 	@Override
 	protected BooleanVariable[] createVariablesSub(int num) {
@@ -287,29 +526,31 @@ public class BooleanSatisfiabilitySolver extends ConstraintSolver {
 		for (int i = 0; i < num; i++) {
 			ret.add(new BooleanVariable(this,BVIDs++));
 		}
+		//Selectors must not have the IDs of BooleanVariables
+		if (sat4JSolver != null && BVIDs > selectorBase) rebuildSat4JSolver();
 		return ret.toArray(new BooleanVariable[ret.size()]);
 	}
 
 	@Override
 	protected void removeVariablesSub(Variable[] v) { /*do nothing */ }
 
+	private void registerValueChoiceFunction(int index) {
+		final long[] model = currentModels.get(index);
+		ValueChoiceFunction vcf = new ValueChoiceFunction() {
+			@Override
+			public Object getValue(Domain dom) {
+				return !isFalse(model, dom.getVariable().getID());
+			}
+		};
+		Domain.registerValueChoiceFunction(BooleanDomain.class, vcf, "model"+index);
+	}
+
 	@Override
 	public void registerValueChoiceFunctions() {
 		Domain.removeValueChoiceFunctions(BooleanDomain.class);
 		if (currentModels != null && !currentModels.isEmpty()) {
-			for (int i = 0; i < currentModels.size(); i++) {
-				final int index = i;
-				ValueChoiceFunction vcf = new ValueChoiceFunction() {
-					@Override
-					public Object getValue(Domain dom) {
-						if (currentModels.get(index).get(((BooleanVariable)dom.getVariable())) != null)
-							return currentModels.get(index).get(((BooleanVariable)dom.getVariable()));
-						return new Boolean(true);
-					}
-				};
-				Domain.registerValueChoiceFunction(BooleanDomain.class, vcf, "model"+i);
-			}
-			logger.finest("Updated value choice functions (there are currently " + currentModels.size() + " models)");
+			for (int i = 0; i < currentModels.size(); i++) registerValueChoiceFunction(i);
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Updated value choice functions (there are currently " + currentModels.size() + " models)");
 		}
 		else {
 			ValueChoiceFunction vcf = new ValueChoiceFunction() {
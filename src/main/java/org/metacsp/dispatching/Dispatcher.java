@@ -3,6 +3,7 @@ package org.metacsp.dispatching;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import org.hamcrest.core.IsEqual;
@@ -26,12 +27,34 @@ public class Dispatcher extends Thread {
 	private HashMap<String,DispatchingFunction> dfs;
 	private SymbolicVariableActivity future;
 	private Logger logger = MetaCSPLogging.getLogger(this.getClass());
-	private boolean teardown = false;
+	private volatile boolean teardown = false;
+	private volatile Executor executor = null;
+	private volatile boolean handedOver = false;
 	
 	public void teardown() {
 		this.teardown = true;
 	}
 
+	/**
+	 * Let another thread own this {@link Dispatcher}: once an {@link Executor} is set, the {@link Dispatcher}'s own thread
+	 * stops polling, the owner is expected to call {@link #step()} itself, and calls to {@link #finish(SymbolicVariableActivity...)}
+	 * are handed to the {@link Executor} so that they are applied by the owner.
+	 * @param executor The {@link Executor} through which the owner thread receives commands.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Get whether this {@link Dispatcher}'s own thread has stopped polling because an {@link Executor} was set (see
+	 * {@link #setExecutor(Executor)}).  The thread does not resume, so from then on the owner must call {@link #step()}
+	 * even if the {@link Executor} is removed.
+	 * @return <code>true</code> iff this {@link Dispatcher}'s thread has handed over stepping to the owner.
+	 */
+	public boolean isHandedOver() {
+		return handedOver;
+	}
+
 	public Dispatcher(final ActivityNetworkSolver ans, long period) {
 		this.ans = ans;
 		cn = ans.getConstraintNetwork();
@@ -82,90 +105,98 @@ public class Dispatcher extends Thread {
 	}
 	
 	public void run() {
-		while (true && !teardown) {
+		while (true && !teardown && executor == null) {
 			try { Thread.sleep(period); }
 			catch (InterruptedException e) { e.printStackTrace(); }
+			if (executor == null) step();
+		}
+		if (!teardown) handedOver = true;
+		logger.info("Shut down");
+	}
 
-			synchronized(ans) {
-				for (String component : dfs.keySet()) {
-					Variable[] currentVars = cn.getVariables(component);
-					Arrays.sort(currentVars);
-					for (Variable var : currentVars) {
-						if (var instanceof SymbolicVariableActivity) {
-							SymbolicVariableActivity act = (SymbolicVariableActivity)var;
-							if (dfs.get(component).skip(act)) continue;
-							
-							//New act, tag as not dispatched
-							if (!acts.containsKey(act)) {
-								boolean skip = false;
-								//... but test if activity is a unification - if so, ignore it!
-								Constraint[] outgoing = ans.getConstraintNetwork().getOutgoingEdges(act);
-								for (Constraint con : outgoing) {
-									if (con instanceof AllenIntervalConstraint) {
-										AllenIntervalConstraint aic = (AllenIntervalConstraint)con;
-										SymbolicVariableActivity to = (SymbolicVariableActivity)aic.getTo();
-										if (to.getComponent().equals(act.getComponent()) && to.getSymbolicVariable().getSymbols()[0].equals(act.getSymbolicVariable().getSymbols()[0]) && aic.getTypes()[0].equals(AllenIntervalConstraint.Type.Equals)) {
-											skip = true;
-											logger.warning("IGNORED UNIFICATION " + aic);
-											break;
-										}
+	/**
+	 * Perform one dispatching iteration: start planned activities whose earliest start time has passed,
+	 * and close activities that are finishing.
+	 */
+	public void step() {
+		synchronized(ans) {
+			for (String component : dfs.keySet()) {
+				Variable[] currentVars = cn.getVariables(component);
+				Arrays.sort(currentVars);
+				for (Variable var : currentVars) {
+					if (var instanceof SymbolicVariableActivity) {
+						SymbolicVariableActivity act = (SymbolicVariableActivity)var;
+						if (dfs.get(component).skip(act)) continue;
+						
+						//New act, tag as not dispatched
+						if (!acts.containsKey(act)) {
+							boolean skip = false;
+							//... but test if activity is a unification - if so, ignore it!
+							Constraint[] outgoing = ans.getConstraintNetwork().getOutgoingEdges(act);
+							for (Constraint con : outgoing) {
+								if (con instanceof AllenIntervalConstraint) {
+									AllenIntervalConstraint aic = (AllenIntervalConstraint)con;
+									SymbolicVariableActivity to = (SymbolicVariableActivity)aic.getTo();
+									if (to.getComponent().equals(act.getComponent()) && to.getSymbolicVariable().getSymbols()[0].equals(act.getSymbolicVariable().getSymbols()[0]) && aic.getTypes()[0].equals(AllenIntervalConstraint.Type.Equals)) {
+										skip = true;
+										logger.warning("IGNORED UNIFICATION " + aic);
+										break;
 									}
 								}
-								if (!skip) acts.put(act, ACTIVITY_STATE.PLANNED);
-								else acts.put(act, ACTIVITY_STATE.SKIP_BECAUSE_UNIFICATION);
 							}
+							if (!skip) acts.put(act, ACTIVITY_STATE.PLANNED);
+							else acts.put(act, ACTIVITY_STATE.SKIP_BECAUSE_UNIFICATION);
+						}
 
-							//Not dispatched, check if need to dispatch
-							if (acts.get(act).equals(ACTIVITY_STATE.PLANNED)) {
-								//System.out.println("PLANNED: " + act);
-								//time to dispatch, do it!
-								if (act.getTemporalVariable().getEST() < future.getTemporalVariable().getEST()) {
-									acts.put(act, ACTIVITY_STATE.STARTED);
-									AllenIntervalConstraint overlapsFuture = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Overlaps);
-									overlapsFuture.setFrom(act);
-									overlapsFuture.setTo(future);
-									boolean ret = ans.addConstraint(overlapsFuture);
-									if(!ret){
-										logger.warning("IGNORED dispatching (future is at " + future.getTemporalVariable().getEST() + "):\n\t" + act);
-										logger.warning("Constraints on ignored activity are:");
-										Constraint[] incident = ans.getConstraintNetwork().getIncidentEdges(act);
-										for (Constraint c : incident) {
-											logger.warning("\t" + c);
-										}
-										logger.warning(Arrays.toString(currentVars));
+						//Not dispatched, check if need to dispatch
+						if (acts.get(act).equals(ACTIVITY_STATE.PLANNED)) {
+							//System.out.println("PLANNED: " + act);
+							//time to dispatch, do it!
+							if (act.getTemporalVariable().getEST() < future.getTemporalVariable().getEST()) {
+								acts.put(act, ACTIVITY_STATE.STARTED);
+								AllenIntervalConstraint overlapsFuture = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Overlaps);
+								overlapsFuture.setFrom(act);
+								overlapsFuture.setTo(future);
+								boolean ret = ans.addConstraint(overlapsFuture);
+								if(!ret){
+									logger.warning("IGNORED dispatching (future is at " + future.getTemporalVariable().getEST() + "):\n\t" + act);
+									logger.warning("Constraints on ignored activity are:");
+									Constraint[] incident = ans.getConstraintNetwork().getIncidentEdges(act);
+									for (Constraint c : incident) {
+										logger.warning("\t" + c);
 									}
-									else {
-										overlapFutureConstraints.put(act, overlapsFuture);
-										this.dfs.get(component).dispatch(act);
-									}
-
+									logger.warning(Arrays.toString(currentVars));
 								}
+								else {
+									overlapFutureConstraints.put(act, overlapsFuture);
+									this.dfs.get(component).dispatch(act);
+								}
+
 							}
+						}
 
-							//If finished, tag as finished
-							else if (acts.get(act).equals(ACTIVITY_STATE.FINISHING)) {
-								acts.put(act, ACTIVITY_STATE.FINISHED);
-								ans.removeConstraint(overlapFutureConstraints.get(act));
-								AllenIntervalConstraint deadline = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Deadline, new Bounds(future.getTemporalVariable().getEST(),future.getTemporalVariable().getEST()));
-								deadline.setFrom(act);
-								deadline.setTo(act);
-								if (!ans.addConstraint(deadline)) {
-									AllenIntervalConstraint defaultDeadline = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Deadline, new Bounds(act.getTemporalVariable().getEET(),act.getTemporalVariable().getEET()));
-									defaultDeadline.setFrom(act);
-									defaultDeadline.setTo(act);
-									ans.addConstraint(defaultDeadline);
-									//System.out.println("++++++++++++++++++++ SHIT: " + act + " DAEDLINE AT " + future.getTemporalVariable().getEST());
-								}
-							}							
-							else if (acts.get(act).equals(ACTIVITY_STATE.MANUALLY_FINISHING)) {
-								acts.put(act, ACTIVITY_STATE.FINISHED);
+						//If finished, tag as finished
+						else if (acts.get(act).equals(ACTIVITY_STATE.FINISHING)) {
+							acts.put(act, ACTIVITY_STATE.FINISHED);
+							ans.removeConstraint(overlapFutureConstraints.get(act));
+							AllenIntervalConstraint deadline = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Deadline, new Bounds(future.getTemporalVariable().getEST(),future.getTemporalVariable().getEST()));
+							deadline.setFrom(act);
+							deadline.setTo(act);
+							if (!ans.addConstraint(deadline)) {
+								AllenIntervalConstraint defaultDeadline = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Deadline, new Bounds(act.getTemporalVariable().getEET(),act.getTemporalVariable().getEET()));
+								defaultDeadline.setFrom(act);
+								defaultDeadline.setTo(act);
+								ans.addConstraint(defaultDeadline);
+								//System.out.println("++++++++++++++++++++ SHIT: " + act + " DAEDLINE AT " + future.getTemporalVariable().getEST());
 							}
+						}							
+						else if (acts.get(act).equals(ACTIVITY_STATE.MANUALLY_FINISHING)) {
+							acts.put(act, ACTIVITY_STATE.FINISHED);
 						}
 					}
 				}
 			}
 		}
-		logger.info("Shut down");
 	}
 
 	public void addDispatchingFunction(String component, DispatchingFunction df) {
@@ -201,7 +232,19 @@ public class Dispatcher extends Thread {
 		return ret.toArray(new SymbolicVariableActivity[ret.size()]);
 	}
 
-	public void finish(SymbolicVariableActivity ... actsToFinish) { 
+	public void finish(final SymbolicVariableActivity ... actsToFinish) { 
+		if (executor != null) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					setFinishing(actsToFinish);
+				}
+			});
+		}
+		else setFinishing(actsToFinish);
+	}
+
+	private void setFinishing(SymbolicVariableActivity ... actsToFinish) {
 		for (SymbolicVariableActivity act : actsToFinish) {
 //			if (acts.get(act).equals(ACTIVITY_STATE.MANUALLY_STARTED)) acts.put(act, ACTIVITY_STATE.MANUALLY_FINISHING);
 //			else acts.put(act, ACTIVITY_STATE.FINISHING);
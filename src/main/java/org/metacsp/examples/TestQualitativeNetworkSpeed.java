@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2013 Federico Pecora <federico.pecora@oru.se>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package org.metacsp.examples;
+
+import java.util.Random;
+import java.util.Vector;
+
+import org.metacsp.spatial.RCC.RCCConstraint;
+import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint;
+import org.metacsp.utility.QualitativeCalculus;
+import org.metacsp.utility.QualitativeNetwork;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+/**
+ * Compares path consistency in {@link QualitativeNetwork} with the algorithms that {@link org.metacsp.spatial.RCC.RCCConstraintSolver}
+ * and {@link org.metacsp.time.qualitative.QualitativeAllenSolver} used before, on the same random networks.  The previous
+ * algorithms are reproduced here on relation matrices: for RCC-8, repeated sweeps over marked pairs with relations kept as arrays of
+ * {@link RCCConstraint.Type}s and compositions collected in {@link Vector}s; for Allen, PC-2 on bitmasks with a circular queue.
+ * Both use the current composition tables, so they must yield the same relations as {@link QualitativeNetwork}, which is checked.
+ */
+public class TestQualitativeNetworkSpeed {
+
+	//Relation i->j is given with probability density, and j->i is its inverse
+	private static int[] createNetwork(QualitativeCalculus calculus, int n, double density, Random rand) {
+		int[] relations = new int[n*n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i+1; j < n; j++) {
+				int mask = calculus.getUniversal();
+				if (rand.nextDouble() < density) mask = 1+rand.nextInt(calculus.getUniversal());
+				relations[i*n+j] = mask;
+				relations[j*n+i] = calculus.getInverse(mask);
+			}
+		}
+		return relations;
+	}
+
+	private static boolean kernelPathConsistency(QualitativeCalculus calculus, int[] relations, int n) {
+		QualitativeNetwork network = new QualitativeNetwork(calculus, n);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j) network.setRelation(i, j, relations[i*n+j]);
+			}
+		}
+		if (!network.enforcePathConsistency()) return false;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j) relations[i*n+j] = network.getRelation(i, j);
+			}
+		}
+		return true;
+	}
+
+	//Previous RCC-8 path consistency
+	private static boolean previousRCCPathConsistency(RCCConstraint.Type[][] rels, int n) {
+		int counter = n*n - n;
+		boolean[][] mark = new boolean[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) mark[i][j] = i != j;
+		}
+		while (counter != 0) {
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					if (i == j || !mark[i][j]) continue;
+					mark[i][j] = false;
+					counter--;
+					for (int k = 0; k < n; k++) {
+						if (k == i || k == j) continue;
+						//(k,j) <-- (k,j) n (k,i) + (i,j)
+						RCCConstraint.Type[] tmp = rels[k*n+j].clone();
+						rels[k*n+j] = intersect(rels[k*n+j], compose(rels[k*n+i], rels[i*n+j]));
+						if (rels[k*n+j].length == 0) return false;
+						if (!contains(rels[k*n+j], tmp) && !mark[k][j]) {
+							mark[k][j] = true;
+							counter++;
+						}
+						//(i,k) <-- (i,k) n (i,j) + (j,k)
+						tmp = rels[i*n+k].clone();
+						rels[i*n+k] = intersect(rels[i*n+k], compose(rels[i*n+j], rels[j*n+k]));
+						if (rels[i*n+k].length == 0) return false;
+						if (!contains(rels[i*n+k], tmp) && !mark[i][k]) {
+							mark[i][k] = true;
+							counter++;
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static Vector<RCCConstraint.Type> compose(RCCConstraint.Type[] r1, RCCConstraint.Type[] r2) {
+		Vector<RCCConstraint.Type> ret = new Vector<RCCConstraint.Type>();
+		for (RCCConstraint.Type t1 : r1) {
+			for (RCCConstraint.Type t2 : r2) {
+				for (RCCConstraint.Type t3 : RCCConstraint.transitionTable[t1.ordinal()][t2.ordinal()]) {
+					if (!ret.contains(t3)) ret.add(t3);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static RCCConstraint.Type[] intersect(RCCConstraint.Type[] r, Vector<RCCConstraint.Type> composition) {
+		Vector<RCCConstraint.Type> ret = new Vector<RCCConstraint.Type>();
+		for (RCCConstraint.Type t : r) {
+			if (composition.contains(t)) ret.add(t);
+		}
+		return ret.toArray(new RCCConstraint.Type[ret.size()]);
+	}
+
+	//Whether all basic relations of r2 are in r1
+	private static boolean contains(RCCConstraint.Type[] r1, RCCConstraint.Type[] r2) {
+		for (RCCConstraint.Type t2 : r2) {
+			boolean found = false;
+			for (RCCConstraint.Type t1 : r1) if (t1 == t2) found = true;
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	//Previous Allen path consistency
+	private static boolean previousAllenPathConsistency(int[] relations, int n) {
+		int[] queue = new int[n*n];
+		boolean[] queued = new boolean[n*n];
+		int head = 0, size = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j) {
+					queue[size++] = i*n+j;
+					queued[i*n+j] = true;
+				}
+			}
+		}
+		while (size > 0) {
+			int ij = queue[head];
+			head = (head+1) % queue.length;
+			size--;
+			queued[ij] = false;
+			int i = ij / n;
+			int j = ij % n;
+			for (int k = 0; k < n; k++) {
+				if (k != i && k != j) {
+					int ik = i*n+k;
+					int kj = k*n+j;
+					int interIK = relations[ik] & QualitativeAllenIntervalConstraint.getComposition(relations[ij], relations[j*n+k]);
+					int interKJ = relations[kj] & QualitativeAllenIntervalConstraint.getComposition(relations[k*n+i], relations[ij]);
+					if (interIK == 0 || interKJ == 0) return false;
+					if (interIK != relations[ik]) {
+						relations[ik] = interIK;
+						if (!queued[ik]) {
+							queue[(head+size++) % queue.length] = ik;
+							queued[ik] = true;
+						}
+					}
+					if (interKJ != relations[kj]) {
+						relations[kj] = interKJ;
+						if (!queued[kj]) {
+							queue[(head+size++) % queue.length] = kj;
+							queued[kj] = true;
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void compareRCC(int n, double density, int runs) {
+		QualitativeCalculus calculus = RCCConstraint.getCalculus();
+		long previous = 0, kernel = 0;
+		int consistent = 0, mismatches = 0;
+		for (int run = 0; run < runs; run++) {
+			int[] relations = createNetwork(calculus, n, density, new Random(run));
+			RCCConstraint.Type[][] rels = new RCCConstraint.Type[n*n][];
+			for (int ij = 0; ij < n*n; ij++) rels[ij] = QualitativeCalculus.getTypes(relations[ij], RCCConstraint.Type.values());
+
+			long before = System.nanoTime();
+			boolean previousResult = previousRCCPathConsistency(rels, n);
+			previous += System.nanoTime()-before;
+			before = System.nanoTime();
+			boolean kernelResult = kernelPathConsistency(calculus, relations, n);
+			kernel += System.nanoTime()-before;
+
+			if (kernelResult) consistent++;
+			if (previousResult != kernelResult) mismatches++;
+			else if (kernelResult) {
+				for (int ij = 0; ij < n*n; ij++) {
+					if (ij/n != ij%n && QualitativeCalculus.getMask(rels[ij]) != relations[ij]) {
+						mismatches++;
+						break;
+					}
+				}
+			}
+		}
+		print("RCC-8", n, runs, consistent, mismatches, previous, kernel);
+	}
+
+	private static void compareAllen(int n, double density, int runs) {
+		QualitativeCalculus calculus = QualitativeAllenIntervalConstraint.getCalculus();
+		long previous = 0, kernel = 0;
+		int consistent = 0, mismatches = 0;
+		for (int run = 0; run < runs; run++) {
+			int[] relations = createNetwork(calculus, n, density, new Random(run));
+			int[] previousRelations = relations.clone();
+
+			long before = System.nanoTime();
+			boolean previousResult = previousAllenPathConsistency(previousRelations, n);
+			previous += System.nanoTime()-before;
+			before = System.nanoTime();
+			boolean kernelResult = kernelPathConsistency(calculus, relations, n);
+			kernel += System.nanoTime()-before;
+
+			if (kernelResult) consistent++;
+			if (previousResult != kernelResult) mismatches++;
+			else if (kernelResult) {
+				for (int ij = 0; ij < n*n; ij++) {
+					if (ij/n != ij%n && previousRelations[ij] != relations[ij]) {
+						mismatches++;
+						break;
+					}
+				}
+			}
+		}
+		print("Allen", n, runs, consistent, mismatches, previous, kernel);
+	}
+
+	private static void print(String calculus, int n, int runs, int consistent, int mismatches, long previous, long kernel) {
+		System.out.println(calculus + ", " + n + " entities, " + runs + " networks (" + consistent + " path consistent, " + mismatches + " with different results)");
+		System.out.println("  previous: " + MetaCSPLogging.printDouble(previous/1000000.0/runs, 3) + " ms/network");
+		System.out.println("  kernel:   " + MetaCSPLogging.printDouble(kernel/1000000.0/runs, 3) + " ms/network");
+	}
+
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		double density = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+
+		//Warm-up
+		compareRCC(8, density, runs);
+		compareAllen(16, density, runs);
+		System.out.println();
+
+		for (int n = 6; n <= 12; n += 2) compareRCC(n, density, runs);
+		for (int n = 8; n <= 32; n *= 2) compareAllen(n, density, runs);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2013 Federico Pecora <federico.pecora@oru.se>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package org.metacsp.examples.meta;
+
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import org.metacsp.framework.Constraint;
+import org.metacsp.framework.ConstraintNetwork;
+import org.metacsp.framework.ValueOrderingH;
+import org.metacsp.framework.VariableOrderingH;
+import org.metacsp.meta.symbolsAndTime.ReusableResource;
+import org.metacsp.meta.symbolsAndTime.Scheduler;
+import org.metacsp.multi.activity.ActivityNetworkSolver;
+import org.metacsp.multi.activity.SymbolicVariableActivity;
+import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.time.APSPSolver;
+import org.metacsp.time.Bounds;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+/**
+ * Measures the cost of logging during meta-search.  The same scheduling problem is solved
+ * with all loggers at {@link Level#INFO} (debug messages are never built) and at {@link Level#FINEST}
+ * with output discarded (debug messages are built but not printed).  The difference is the time
+ * spent building messages that nobody reads.  This only reports timings, the fact that messages are not
+ * built at disabled levels is tested in {@link org.metacsp.tests.TestMetaCSPLogging}.
+ */
+public class TestMetaSearchLoggingOverhead {
+
+	private static Scheduler createProblem(int numActivities, long seed) {
+		Scheduler metaSolver = new Scheduler(0,100000,0);
+		ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)metaSolver.getConstraintSolvers()[0];
+		Random rand = new Random(seed);
+		Vector<Constraint> cons = new Vector<Constraint>();
+		SymbolicVariableActivity[] acts = new SymbolicVariableActivity[numActivities];
+		for (int i = 0; i < numActivities; i++) {
+			acts[i] = (SymbolicVariableActivity)groundSolver.createVariable("comp");
+			acts[i].setSymbolicDomain("1");
+			AllenIntervalConstraint dur = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(10+rand.nextInt(20), APSPSolver.INF));
+			dur.setFrom(acts[i]);
+			dur.setTo(acts[i]);
+			cons.add(dur);
+		}
+		groundSolver.addConstraints(cons.toArray(new Constraint[cons.size()]));
+
+		VariableOrderingH varOH = new VariableOrderingH() {
+			@Override
+			public int compare(ConstraintNetwork arg0, ConstraintNetwork arg1) {
+				return arg1.getVariables().length - arg0.getVariables().length;
+			}
+			@Override
+			public void collectData(ConstraintNetwork[] allMetaVariables) { }
+		};
+		ValueOrderingH valOH = new ValueOrderingH() {
+			@Override
+			public int compare(ConstraintNetwork o1, ConstraintNetwork o2) { return 0; }
+		};
+
+		ReusableResource rr = new ReusableResource(varOH, valOH, 3);
+		rr.setUsage(acts);
+		metaSolver.addMetaConstraint(rr);
+		return metaSolver;
+	}
+
+	private static long solve(int numActivities, int runs) {
+		long total = 0;
+		for (int i = 0; i < runs; i++) {
+			Scheduler metaSolver = createProblem(numActivities, i);
+			long before = System.nanoTime();
+			if (!metaSolver.backtrack()) System.out.println("Run " + i + " failed");
+			total += System.nanoTime()-before;
+		}
+		return total/runs;
+	}
+
+	//Make all existing loggers build FINEST messages without printing them
+	private static void discardOutput() {
+		Enumeration<String> names = LogManager.getLogManager().getLoggerNames();
+		while (names.hasMoreElements()) {
+			Logger logger = LogManager.getLogManager().getLogger(names.nextElement());
+			if (logger == null) continue;
+			for (Handler h : logger.getHandlers()) h.setLevel(Level.OFF);
+		}
+	}
+
+	public static void main(String[] args) {
+		int numActivities = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		//Warm-up (also creates all loggers)
+		MetaCSPLogging.setLevel(Level.INFO);
+		solve(numActivities, 1);
+		discardOutput();
+
+		MetaCSPLogging.setLevel(Level.INFO);
+		long info = solve(numActivities, runs);
+		MetaCSPLogging.setLevel(Level.FINEST);
+		long finest = solve(numActivities, runs);
+		MetaCSPLogging.setLevel(Level.INFO);
+
+		System.out.println("Activities: " + numActivities + ", runs: " + runs);
+		System.out.println("Level INFO:   " + MetaCSPLogging.printDouble(info/1000000.0, 2) + " ms/run");
+		System.out.println("Level FINEST: " + MetaCSPLogging.printDouble(finest/1000000.0, 2) + " ms/run (output discarded)");
+	}
+
+}
@@ -0,0 +1,209 @@
+package org.metacsp.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.metacsp.framework.meta.MetaConstraintSolver;
+
+/**
+ * An immutable {@link ConstraintNetwork} consisting of given {@link Variable}s and {@link Constraint}s, which are kept in plain arrays.
+ * It is meant for networks that are only containers, e.g., the meta-variables and meta-values of a {@link MetaConstraintSolver}
+ * which are not modified after they are created, and costs much less to build than a {@link ConstraintNetwork}.
+ * Adding or removing {@link Variable}s or {@link Constraint}s throws an {@link UnsupportedOperationException}.  Annotations,
+ * markings, weights and substitutions can be set as for any other {@link ConstraintNetwork}.
+ *
+ * @author Federico Pecora
+ */
+public class ConstraintBundle extends ConstraintNetwork {
+
+	private static final long serialVersionUID = -8203914519373958710L;
+
+	private final Variable[] vars;
+	private final Constraint[] cons;
+
+	/**
+	 * Create a new {@link ConstraintBundle}.  As in a {@link ConstraintNetwork}, the {@link Variable}s in the scope of the given
+	 * {@link Constraint}s are also part of the bundle, and duplicates are ignored.
+	 * @param sol The {@link ConstraintSolver} of the bundle (can be <code>null</code>).
+	 * @param variables The {@link Variable}s in the bundle.
+	 * @param constraints The {@link Constraint}s in the bundle.
+	 */
+	public ConstraintBundle(ConstraintSolver sol, Variable[] variables, Constraint ... constraints) {
+		super(sol);
+		this.cons = distinct(constraints, new Constraint[0]);
+		Variable[] allVars = variables;
+		for (Constraint con : cons) {
+			allVars = Arrays.copyOf(allVars, allVars.length+con.getScope().length);
+			System.arraycopy(con.getScope(), 0, allVars, allVars.length-con.getScope().length, con.getScope().length);
+		}
+		this.vars = distinct(allVars, new Variable[0]);
+		Arrays.sort(this.vars, ConstraintGraph.BY_ID);
+	}
+
+	/**
+	 * Create a new {@link ConstraintBundle} with no {@link Constraint}s.
+	 * @param sol The {@link ConstraintSolver} of the bundle (can be <code>null</code>).
+	 * @param variables The {@link Variable}s in the bundle.
+	 */
+	public ConstraintBundle(ConstraintSolver sol, Variable ... variables) {
+		this(sol, variables, new Constraint[0]);
+	}
+
+	//Bundles are small, so duplicates are found by scanning unless there are many elements
+	private static <T> T[] distinct(T[] elements, T[] empty) {
+		if (elements.length > 32) return new LinkedHashSet<T>(Arrays.asList(elements)).toArray(empty);
+		T[] ret = Arrays.copyOf(elements, elements.length);
+		int n = 0;
+		for (T e : elements) {
+			if (indexOf(ret, n, e) < 0) ret[n++] = e;
+		}
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
+	}
+
+	private static int indexOf(Object[] elements, int n, Object o) {
+		for (int i = 0; i < n; i++) if (elements[i].equals(o)) return i;
+		return -1;
+	}
+
+	@Override
+	public Variable[] getVariables() {
+		return vars.clone();
+	}
+
+	@Override
+	public Constraint[] getConstraints() {
+		return cons.clone();
+	}
+
+	@Override
+	public boolean containsVariable(Variable v) {
+		return indexOf(vars, vars.length, v) >= 0;
+	}
+
+	@Override
+	public boolean containsVariable(int ID) {
+		for (Variable v : vars) if (v.getID() == ID) return true;
+		return false;
+	}
+
+	@Override
+	public boolean containsConstraint(Constraint c) {
+		return indexOf(cons, cons.length, c) >= 0;
+	}
+
+	@Override
+	public Variable getVariable(int id) {
+		for (Variable v : vars) if (v.getID() == id) return v;
+		return null;
+	}
+
+	@Override
+	boolean isHyperEdge(Constraint c) {
+		return containsConstraint(c) && !ConstraintGraph.isBinary(c);
+	}
+
+	@Override
+	public Constraint getConstraint(Variable from, Variable to) {
+		for (Constraint c : cons) if (isEdge(c, from, to)) return c;
+		return null;
+	}
+
+	@Override
+	public Constraint[] getConstraints(Variable from, Variable to) {
+		ArrayList<Constraint> ret = new ArrayList<Constraint>();
+		for (Constraint c : cons) if (isEdge(c, from, to)) ret.add(c);
+		return ret.toArray(new Constraint[ret.size()]);
+	}
+
+	private static boolean isEdge(Constraint c, Variable from, Variable to) {
+		return ConstraintGraph.isBinary(c) && c.getScope()[0].equals(from) && c.getScope()[1].equals(to);
+	}
+
+	@Override
+	public Variable getVariableFrom(Constraint c) {
+		if (!ConstraintGraph.isBinary(c) || !containsConstraint(c)) return null;
+		return c.getScope()[0];
+	}
+
+	@Override
+	public Variable getVariableTo(Constraint c) {
+		if (!ConstraintGraph.isBinary(c) || !containsConstraint(c)) return null;
+		return c.getScope()[1];
+	}
+
+	@Override
+	public Constraint[] getIncidentEdges(Variable v) {
+		if (!containsVariable(v)) return null;
+		ArrayList<Constraint> ret = new ArrayList<Constraint>();
+		for (Constraint c : cons) {
+			Variable[] scope = c.getScope();
+			if (indexOf(scope, ConstraintGraph.isBinary(c) ? 2 : scope.length, v) >= 0) ret.add(c);
+		}
+		return ret.toArray(new Constraint[ret.size()]);
+	}
+
+	@Override
+	public Constraint[] getIngoingEdges(Variable v) {
+		if (!containsVariable(v)) return null;
+		ArrayList<Constraint> ret = new ArrayList<Constraint>();
+		for (Constraint c : cons) if (ConstraintGraph.isBinary(c) && c.getScope()[1].equals(v)) ret.add(c);
+		return ret.toArray(new Constraint[ret.size()]);
+	}
+
+	@Override
+	public Constraint[] getOutgoingEdges(Variable v) {
+		if (!containsVariable(v)) return null;
+		ArrayList<Constraint> ret = new ArrayList<Constraint>();
+		for (Constraint c : cons) if (ConstraintGraph.isBinary(c) && c.getScope()[0].equals(v)) ret.add(c);
+		return ret.toArray(new Constraint[ret.size()]);
+	}
+
+	@Override
+	public Variable[] getNeighboringVariables(Variable var) {
+		ArrayList<Variable> ret = new ArrayList<Variable>();
+		Constraint[] incident = getIncidentEdges(var);
+		if (incident == null) return new Variable[0];
+		for (Constraint c : incident) {
+			Variable[] scope = c.getScope();
+			int n = ConstraintGraph.isBinary(c) ? 2 : scope.length;
+			for (int i = 0; i < n; i++) {
+				if (!scope[i].equals(var) && !ret.contains(scope[i])) ret.add(scope[i]);
+			}
+		}
+		return ret.toArray(new Variable[ret.size()]);
+	}
+
+	@Override
+	public void addVariable(Variable v) {
+		throw new UnsupportedOperationException("Cannot add variables to a " + ConstraintBundle.class.getSimpleName());
+	}
+
+	@Override
+	public void removeVariable(Variable v) {
+		throw new UnsupportedOperationException("Cannot remove variables from a " + ConstraintBundle.class.getSimpleName());
+	}
+
+	@Override
+	public void addConstraint(Constraint c) {
+		throw new UnsupportedOperationException("Cannot add constraints to a " + ConstraintBundle.class.getSimpleName());
+	}
+
+	@Override
+	public void removeConstraint(Constraint c) {
+		throw new UnsupportedOperationException("Cannot remove constraints from a " + ConstraintBundle.class.getSimpleName());
+	}
+
+	/**
+	 * Get a modifiable copy of this {@link ConstraintBundle}.
+	 * @return A new {@link ConstraintNetwork} with the same {@link Variable}s and {@link Constraint}s as this bundle.
+	 */
+	@Override
+	public Object clone() {
+		ConstraintNetwork ret = new ConstraintNetwork(this.solver);
+		for (Variable v : vars) ret.addVariable(v);
+		for (Constraint c : cons) ret.addConstraint(c);
+		return ret;
+	}
+
+}
@@ -0,0 +1,321 @@
+package org.metacsp.framework;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import org.metacsp.framework.multi.MultiBinaryConstraint;
+
+/**
+ * The store underlying a {@link ConstraintNetwork}.  {@link Variable}s are kept in a vertex table and {@link Constraint}s in
+ * an edge table, both indexed by slot.  Each vertex has the list of its incident {@link Constraint}s, and (directed) binary
+ * {@link Constraint}s are also indexed by their pair of endpoints.  Non-binary {@link Constraint}s are stored as hyperedges
+ * over their scope.  The arrays of all {@link Variable}s and all {@link Constraint}s are cached until the next change.
+ *
+ * @author Federico Pecora
+ */
+final class ConstraintGraph implements Serializable {
+
+	private static final long serialVersionUID = -3517390542829712085L;
+
+	//Endpoints of an edge (source and destination for binary constraints, the scope for hyperedges)
+	private static final class Edge implements Serializable {
+		private static final long serialVersionUID = 6152311466920883466L;
+		private final Constraint con;
+		private final int[] ends;
+		private final boolean binary;
+		private int slot;
+		private Edge(Constraint con, int[] ends, boolean binary, int slot) {
+			this.con = con;
+			this.ends = ends;
+			this.binary = binary;
+			this.slot = slot;
+		}
+	}
+
+	static final Comparator<Variable> BY_ID = new Comparator<Variable>() {
+		@Override
+		public int compare(Variable o1, Variable o2) {
+			return o1.getID() < o2.getID() ? -1 : (o1.getID() == o2.getID() ? 0 : 1);
+		}
+	};
+
+	//Vertex table, free slots are reused
+	private Variable[] vertices = new Variable[8];
+	private ArrayList<ArrayList<Edge>> incidence = new ArrayList<ArrayList<Edge>>();
+	private int[] freeSlots = new int[8];
+	private int numFreeSlots = 0;
+	private int numVertices = 0;
+	private HashMap<Variable,Integer> vertexSlots = new HashMap<Variable,Integer>();
+	private HashMap<Integer,Integer> vertexIDs = new HashMap<Integer,Integer>();
+
+	//Edge table, kept dense by moving the last edge into the slot of a removed one
+	private Edge[] edges = new Edge[8];
+	private int numEdges = 0;
+	private HashMap<Constraint,Edge> edgeIndex = new HashMap<Constraint,Edge>();
+	private HashMap<Long,ArrayList<Constraint>> pairs = new HashMap<Long,ArrayList<Constraint>>();
+
+	//Cached views, null when out of date
+	private transient Variable[] variableView = null;
+	private transient Constraint[] constraintView = null;
+
+	static boolean isBinary(Constraint c) {
+		return c instanceof BinaryConstraint || c instanceof MultiBinaryConstraint;
+	}
+
+	private static Long pair(int from, int to) {
+		return Long.valueOf(((long)from << 32) | (to & 0xffffffffL));
+	}
+
+	/**
+	 * Add a vertex.
+	 * @param v The {@link Variable} to add.
+	 * @return <code>false</code> iff the vertex was already there.
+	 */
+	boolean addVertex(Variable v) {
+		if (vertexSlots.containsKey(v)) return false;
+		int slot;
+		if (numFreeSlots > 0) slot = freeSlots[--numFreeSlots];
+		else {
+			slot = incidence.size();
+			if (slot == vertices.length) vertices = Arrays.copyOf(vertices, 2*slot);
+			incidence.add(null);
+		}
+		vertices[slot] = v;
+		incidence.set(slot, new ArrayList<Edge>(4));
+		vertexSlots.put(v, slot);
+		Integer count = vertexIDs.get(v.getID());
+		vertexIDs.put(v.getID(), count == null ? 1 : count+1);
+		numVertices++;
+		variableView = null;
+		return true;
+	}
+
+	/**
+	 * Remove a vertex along with all its incident edges.
+	 * @param v The {@link Variable} to remove.
+	 * @return The {@link Constraint}s that were removed with the vertex, <code>null</code> if the vertex was not there.
+	 */
+	Constraint[] removeVertex(Variable v) {
+		Integer slot = vertexSlots.remove(v);
+		if (slot == null) return null;
+		ArrayList<Edge> incident = incidence.get(slot);
+		Constraint[] ret = new Constraint[incident.size()];
+		for (int i = ret.length-1; i >= 0; i--) {
+			ret[i] = incident.get(i).con;
+			removeEdge(ret[i]);
+		}
+		vertices[slot] = null;
+		incidence.set(slot, null);
+		if (numFreeSlots == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, 2*numFreeSlots);
+		freeSlots[numFreeSlots++] = slot;
+		int count = vertexIDs.get(v.getID());
+		if (count == 1) vertexIDs.remove(v.getID());
+		else vertexIDs.put(v.getID(), count-1);
+		numVertices--;
+		variableView = null;
+		return ret;
+	}
+
+	/**
+	 * Add an edge, adding its endpoints if they are not vertices yet.  {@link BinaryConstraint}s and {@link MultiBinaryConstraint}s
+	 * are directed from the first to the second {@link Variable} in their scope, all other {@link Constraint}s are hyperedges over their scope.
+	 * @param c The {@link Constraint} to add.
+	 * @return <code>false</code> iff the edge was already there.
+	 */
+	boolean addEdge(Constraint c) {
+		if (edgeIndex.containsKey(c)) return false;
+		Variable[] scope = c.getScope();
+		boolean binary = isBinary(c);
+		int[] ends = new int[binary ? 2 : scope.length];
+		for (int i = 0; i < ends.length; i++) {
+			addVertex(scope[i]);
+			ends[i] = vertexSlots.get(scope[i]);
+		}
+		if (numEdges == edges.length) edges = Arrays.copyOf(edges, 2*numEdges);
+		Edge e = new Edge(c, ends, binary, numEdges);
+		edges[numEdges++] = e;
+		edgeIndex.put(c, e);
+		for (int i = 0; i < ends.length; i++) {
+			if (!contains(ends, i, ends[i])) incidence.get(ends[i]).add(e);
+		}
+		if (binary) {
+			Long key = pair(ends[0], ends[1]);
+			ArrayList<Constraint> cons = pairs.get(key);
+			if (cons == null) {
+				cons = new ArrayList<Constraint>(1);
+				pairs.put(key, cons);
+			}
+			cons.add(c);
+		}
+		constraintView = null;
+		return true;
+	}
+
+	//Whether the first n endpoints contain the given slot
+	private static boolean contains(int[] ends, int n, int slot) {
+		for (int i = 0; i < n; i++) if (ends[i] == slot) return true;
+		return false;
+	}
+
+	/**
+	 * Remove an edge.
+	 * @param c The {@link Constraint} to remove.
+	 * @return <code>false</code> iff the edge was not there.
+	 */
+	boolean removeEdge(Constraint c) {
+		Edge e = edgeIndex.remove(c);
+		if (e == null) return false;
+		for (int i = 0; i < e.ends.length; i++) {
+			if (!contains(e.ends, i, e.ends[i])) incidence.get(e.ends[i]).remove(e);
+		}
+		if (e.binary) {
+			Long key = pair(e.ends[0], e.ends[1]);
+			ArrayList<Constraint> cons = pairs.get(key);
+			cons.remove(c);
+			if (cons.isEmpty()) pairs.remove(key);
+		}
+		Edge last = edges[--numEdges];
+		edges[e.slot] = last;
+		last.slot = e.slot;
+		edges[numEdges] = null;
+		constraintView = null;
+		return true;
+	}
+
+	boolean containsVertex(Variable v) {
+		return vertexSlots.containsKey(v);
+	}
+
+	boolean containsVertex(int id) {
+		return vertexIDs.containsKey(id);
+	}
+
+	boolean containsEdge(Constraint c) {
+		return edgeIndex.containsKey(c);
+	}
+
+	/**
+	 * @param c A {@link Constraint}.
+	 * @return <code>true</code> iff the given {@link Constraint} is a hyperedge of this graph.
+	 */
+	boolean isHyperEdge(Constraint c) {
+		Edge e = edgeIndex.get(c);
+		return e != null && !e.binary;
+	}
+
+	/**
+	 * @return All vertices, sorted by ID.
+	 */
+	Variable[] getVertices() {
+		if (variableView == null) {
+			Variable[] view = new Variable[numVertices];
+			int n = 0;
+			for (int i = 0; i < incidence.size(); i++) if (vertices[i] != null) view[n++] = vertices[i];
+			Arrays.sort(view, BY_ID);
+			variableView = view;
+		}
+		return variableView.clone();
+	}
+
+	/**
+	 * @return All edges.
+	 */
+	Constraint[] getEdges() {
+		if (constraintView == null) {
+			Constraint[] view = new Constraint[numEdges];
+			for (int i = 0; i < numEdges; i++) view[i] = edges[i].con;
+			constraintView = view;
+		}
+		return constraintView.clone();
+	}
+
+	/**
+	 * @param v A {@link Variable}.
+	 * @return All edges incident to the given vertex, <code>null</code> if it is not a vertex.
+	 */
+	Constraint[] getIncidentEdges(Variable v) {
+		Integer slot = vertexSlots.get(v);
+		if (slot == null) return null;
+		ArrayList<Edge> incident = incidence.get(slot);
+		Constraint[] ret = new Constraint[incident.size()];
+		for (int i = 0; i < ret.length; i++) ret[i] = incident.get(i).con;
+		return ret;
+	}
+
+	/**
+	 * @param v A {@link Variable}.
+	 * @param out Whether to get the binary edges leaving (<code>true</code>) or entering (<code>false</code>) the vertex.
+	 * @return The binary edges leaving or entering the given vertex, <code>null</code> if it is not a vertex.
+	 */
+	Constraint[] getBinaryEdges(Variable v, boolean out) {
+		Integer slot = vertexSlots.get(v);
+		if (slot == null) return null;
+		ArrayList<Constraint> ret = new ArrayList<Constraint>();
+		for (Edge e : incidence.get(slot)) {
+			if (e.binary && e.ends[out ? 0 : 1] == slot) ret.add(e.con);
+		}
+		return ret.toArray(new Constraint[ret.size()]);
+	}
+
+	/**
+	 * @param from The source {@link Variable}.
+	 * @param to The destination {@link Variable}.
+	 * @return The binary edges from one vertex to the other (empty if there are none).
+	 */
+	Constraint[] getEdges(Variable from, Variable to) {
+		ArrayList<Constraint> cons = getPair(from, to);
+		if (cons == null) return new Constraint[0];
+		return cons.toArray(new Constraint[cons.size()]);
+	}
+
+	/**
+	 * @param from The source {@link Variable}.
+	 * @param to The destination {@link Variable}.
+	 * @return A binary edge from one vertex to the other, <code>null</code> if there is none.
+	 */
+	Constraint getEdge(Variable from, Variable to) {
+		ArrayList<Constraint> cons = getPair(from, to);
+		if (cons == null) return null;
+		return cons.get(0);
+	}
+
+	private ArrayList<Constraint> getPair(Variable from, Variable to) {
+		Integer fromSlot = vertexSlots.get(from);
+		Integer toSlot = vertexSlots.get(to);
+		if (fromSlot == null || toSlot == null) return null;
+		return pairs.get(pair(fromSlot, toSlot));
+	}
+
+	/**
+	 * @param c A binary {@link Constraint}.
+	 * @param source Whether to get the source (<code>true</code>) or destination (<code>false</code>) of the edge.
+	 * @return The source or destination of the given binary edge, <code>null</code> if it is not a binary edge of this graph.
+	 */
+	Variable getEndpoint(Constraint c, boolean source) {
+		Edge e = edgeIndex.get(c);
+		if (e == null || !e.binary) return null;
+		return vertices[e.ends[source ? 0 : 1]];
+	}
+
+	/**
+	 * @param v A {@link Variable}.
+	 * @return The vertices sharing an edge with the given vertex (excluding the vertex itself).
+	 */
+	Variable[] getNeighbors(Variable v) {
+		Integer slot = vertexSlots.get(v);
+		if (slot == null) return new Variable[0];
+		ArrayList<Variable> ret = new ArrayList<Variable>();
+		HashMap<Integer,Boolean> seen = new HashMap<Integer,Boolean>();
+		seen.put(slot, true);
+		for (Edge e : incidence.get(slot)) {
+			for (int end : e.ends) {
+				if (seen.put(end, true) == null) ret.add(vertices[end]);
+			}
+		}
+		return ret.toArray(new Variable[ret.size()]);
+	}
+
+}
@@ -16,7 +16,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -74,7 +73,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	
 	public static HashMap<FieldOfObject,Object> backupForSerialization = new HashMap<FieldOfObject,Object>();
 	//This will back up the domain valuechoice functions for serialization
-	private HashMap<Class<?>,HashMap<String,ValueChoiceFunction>> domainValueChoiceFunctions = new HashMap<Class<?>, HashMap<String,ValueChoiceFunction>>();
+	private HashMap<Class<?>,HashMap<String,ValueChoiceFunction>> domainValueChoiceFunctions = null;
 
 	private class FieldOfObject {
 		private Field field;
@@ -96,16 +95,58 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	}
 
 	protected ConstraintSolver solver;
-	protected ObservableGraph<Variable,Constraint> graph;
-	protected DirectedSparseMultigraph<Variable,Constraint> g;
-	protected HashMap<Integer, Variable> variables = new HashMap<Integer, Variable>();
-	protected HashMap<Variable, Integer> variablesR = new HashMap<Variable, Integer>();
-	protected HashMap<VariablePrototype,Variable> substitutions = new HashMap<VariablePrototype, Variable>();
-	protected HashMap<Variable,VariablePrototype> substituted = new HashMap<Variable,VariablePrototype>();
+	//The store and the maps below are allocated when first needed
+	private ConstraintGraph store = null;
+	//JUNG view of the network, built only when drawing (subclasses that used the former graph, g and hyperEdges fields should call getGraph())
+	private ObservableGraph<Variable,Constraint> graph = null;
+	private HashMap<Constraint,DummyVariable> hyperEdges = null;
+	//These can be null in subclasses, which should use getVariable(int), getSubstitutions() and getInverseSubstitutions() instead
+	protected HashMap<Integer, Variable> variables = null;
+	protected HashMap<VariablePrototype,Variable> substitutions = null;
+	protected HashMap<Variable,VariablePrototype> substituted = null;
+
+	/**
+	 * Get a JUNG graph of this {@link ConstraintNetwork}, in which every non-binary {@link Constraint} is drawn as
+	 * a {@link DummyVariable} connected to the {@link Variable}s in its scope.  The graph is built on the first
+	 * call and is kept up to date from then on.
+	 * @return A JUNG graph of this {@link ConstraintNetwork}.
+	 */
+	public ObservableGraph<Variable,Constraint> getGraph() {
+		if (graph == null) {
+			graph = new ObservableGraph<Variable,Constraint>(new DirectedSparseMultigraph<Variable,Constraint>());
+			hyperEdges = new HashMap<Constraint,DummyVariable>();
+			for (Variable v : this.getVariables()) graph.addVertex(v);
+			for (Constraint c : this.getConstraints()) addToGraph(c);
+		}
+		return graph;
+	}
 
-	protected HashMap<Constraint,DummyVariable> hyperEdges = new HashMap<Constraint, DummyVariable>();
+	private ConstraintGraph store() {
+		if (store == null) store = new ConstraintGraph();
+		return store;
+	}
 
-	public ObservableGraph<Variable,Constraint> getGraph() { return graph; }
+	private void addToGraph(Constraint c) {
+		if (ConstraintGraph.isBinary(c)) graph.addEdge(c, c.getScope()[0], c.getScope()[1]);
+		else {
+			DummyVariable dv = new DummyVariable(this.solver, c.getEdgeLabel());
+			hyperEdges.put(c, dv);
+			graph.addVertex(dv);
+			for (Variable var : c.getScope()) {
+				DummyConstraint dm = new DummyConstraint("");
+				dm.setScope(new Variable[] {dv, var});
+				graph.addEdge(dm, dv, var);
+			}
+		}
+	}
+
+	private void removeFromGraph(Constraint c) {
+		if (ConstraintGraph.isBinary(c)) graph.removeEdge(c);
+		else {
+			DummyVariable dv = hyperEdges.remove(c);
+			if (dv != null) graph.removeVertex(dv);
+		}
+	}
 	
 	private transient Logger logger = MetaCSPLogging.getLogger(this.getClass());
 	private static final long serialVersionUID = 7526472295622776148L;
@@ -140,8 +181,8 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @param v The {@link Variable} that corresponds to the given {@link VariablePrototype}.
 	 */
 	public void addSubstitution(VariablePrototype vp, Variable v) {
-		substitutions.put(vp, v);
-		substituted.put(v,vp);
+		getSubstitutions().put(vp, v);
+		getInverseSubstitutions().put(v,vp);
 		logger.finest("Added susbstitution " + vp + " <-- " + v);
 	}
 
@@ -153,8 +194,8 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	public void addSubstitutions(HashedMap<VariablePrototype,Variable> vp2v) {
 
 		for(VariablePrototype vp: vp2v.keySet()){
-			substitutions.put(vp, vp2v.get(vp));
-			substituted.put(vp2v.get(vp),vp);
+			getSubstitutions().put(vp, vp2v.get(vp));
+			getInverseSubstitutions().put(vp2v.get(vp),vp);
 			logger.finest("Added susbstitution " + vp + " <-- " + vp2v.get(vp));
 		}
 	}
@@ -166,6 +207,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return The {@link Variable} corresponding to the given {@link VariablePrototype}.
 	 */
 	public Variable getSubstitution(VariablePrototype vp) {
+		if (substitutions == null) return null;
 		return substitutions.get(vp);
 	}
 
@@ -175,6 +217,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return The {@link VariablePrototype} corresponding to the given {@link Variable}.
 	 */
 	public VariablePrototype getSubstituted(Variable v) {
+		if (substituted == null) return null;
 		return substituted.get(v);
 	}
 
@@ -183,6 +226,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @param vp The {@link VariablePrototype} to look up.
 	 */
 	public void removeSubstitution(VariablePrototype vp) {
+		if (substitutions == null) return;
 		Variable v= this.substitutions.get(vp);
 		substitutions.remove(vp);
 		substituted.remove(v);
@@ -196,8 +240,6 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 */
 	public ConstraintNetwork(ConstraintSolver sol) {
 		solver = sol;
-		g = new DirectedSparseMultigraph<Variable,Constraint>();
-		graph = new ObservableGraph<Variable,Constraint>(g);
 		this.weight=-1;
 		this.annotation="NONE";
 		this.marking=new ConstraintNetworkMarking();
@@ -212,7 +254,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * no such {@link Constraint} exists. 
 	 */
 	public Constraint getConstraint(Variable from, Variable to) {
-		return this.graph.findEdge(from, to);
+		return store().getEdge(from, to);
 	}
 
 	/**
@@ -223,8 +265,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * no such {@link Constraint} exists.
 	 */
 	public Constraint[] getConstraints(Variable from, Variable to) {
-		Collection<Constraint> edges = this.graph.findEdgeSet(from, to);
-		return edges.toArray(new Constraint[edges.size()]);
+		return store().getEdges(from, to);
 	}
 
 	/**
@@ -232,10 +273,10 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @param v The {@link Variable} to add to the network.
 	 */
 	public void addVariable(Variable v) {
-		this.graph.addVertex(v);
+		if (store().addVertex(v) && graph != null) graph.addVertex(v);
+		if (this.variables == null) this.variables = new HashMap<Integer, Variable>();
 		this.variables.put(Integer.valueOf(v.getID()), v);
-		this.variablesR.put(v, Integer.valueOf(v.getID()));
-		logger.finest("Added variable " + v);
+		MetaCSPLogging.finest(logger, "Added variable ", v);
 		if (listeners != null) {
 			ConstraintNetwork added = new ConstraintNetwork(this.solver);
 			added.addVariable(v);
@@ -248,10 +289,13 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @param v The {@link Variable} to remove from the network.
 	 */
 	public void removeVariable(Variable v) {
-		this.graph.removeVertex(v);
-		this.variables.remove(Integer.valueOf(v.getID()));
-		this.variablesR.remove(v);
-		logger.finest("Removed variable " + v);
+		Constraint[] removedCons = store().removeVertex(v);
+		if (removedCons != null && graph != null) {
+			for (Constraint c : removedCons) removeFromGraph(c);
+			graph.removeVertex(v);
+		}
+		if (this.variables != null) this.variables.remove(Integer.valueOf(v.getID()));
+		MetaCSPLogging.finest(logger, "Removed variable ", v);
 		if (listeners != null) {
 			ConstraintNetwork removed = new ConstraintNetwork(this.solver);
 			removed.addVariable(v);
@@ -274,30 +318,12 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * {@link BinaryConstraint}s and {@link MultiBinaryConstraint}s in the current implementation. 
 	 */
 	public void addConstraint(Constraint c) {
-		if (c instanceof BinaryConstraint || c instanceof MultiBinaryConstraint) {
-			this.graph.addEdge(c, c.getScope()[0], c.getScope()[1]);
-			logger.finest("Added binary constraint " + c);
-			if (listeners != null) {
-				ConstraintNetwork added = new ConstraintNetwork(this.solver);
-				added.addConstraint(c);
-				dispatchEvent(added, null);
-			}
-		}
-		else {
-			DummyVariable dv = new DummyVariable(this.solver, c.getEdgeLabel());
-			hyperEdges.put(c, dv);
-			graph.addVertex(dv);
-			for (Variable var : c.getScope()) {
-				DummyConstraint dm = new DummyConstraint("");
-				dm.setScope(new Variable[] {dv, var});
-				this.graph.addEdge(dm, dv, var);
-			}
-			logger.finest("Added constraint " + c);
-			if (listeners != null) {
-				ConstraintNetwork added = new ConstraintNetwork(this.solver);
-				added.addConstraint(c);
-				dispatchEvent(added, null);
-			}
+		if (store().addEdge(c) && graph != null) addToGraph(c);
+		MetaCSPLogging.finest(logger, "Added constraint ", c);
+		if (listeners != null) {
+			ConstraintNetwork added = new ConstraintNetwork(this.solver);
+			added.addConstraint(c);
+			dispatchEvent(added, null);
 		}
 	}
 
@@ -306,30 +332,25 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @param c The {@link Constraint} to remove from the network.
 	 */
 	public void removeConstraint(Constraint c) {
-		if (c instanceof BinaryConstraint || c instanceof MultiBinaryConstraint) {
-			this.graph.removeEdge(c);
-			logger.finest("Removed binary constraint " + c);
+		if (store().removeEdge(c)) {
+			if (graph != null) removeFromGraph(c);
+			MetaCSPLogging.finest(logger, "Removed constraint ", c);
 			if (listeners != null) {
 				ConstraintNetwork removed = new ConstraintNetwork(this.solver);
 				removed.addConstraint(c);
 				dispatchEvent(null, removed);
 			}
 		}
-		else {
-			if (!(c instanceof DummyConstraint)) {
-				DummyVariable dv = hyperEdges.get(c);
-				Collection<Constraint> incident = graph.getIncidentEdges(dv);
-				for (Constraint auxCon : incident) this.graph.removeEdge(auxCon);
-				graph.removeVertex(dv);
-				hyperEdges.remove(c);
-				logger.finest("Removed constraint " + c);
-				if (listeners != null) {
-					ConstraintNetwork removed = new ConstraintNetwork(this.solver);
-					removed.addConstraint(c);
-					dispatchEvent(null, removed);
-				}
-			}
-		}
+	}
+
+	/**
+	 * Query the network for whether a given {@link Constraint} is a hyperedge, that is, neither a
+	 * {@link BinaryConstraint} nor a {@link MultiBinaryConstraint}.
+	 * @param c The {@link Constraint} for the query.
+	 * @return <code>true</code> iff the network contains the given {@link Constraint} and it is a hyperedge.
+	 */
+	boolean isHyperEdge(Constraint c) {
+		return store().isHyperEdge(c);
 	}
 
 	/**
@@ -338,7 +359,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return The source {@link Variable} of the given {@link Constraint}.
 	 */
 	public Variable getVariableFrom(Constraint c) {
-		return graph.getSource(c);
+		return store().getEndpoint(c, true);
 	}
 
 	/**
@@ -347,7 +368,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return The destination {@link Variable} of the given {@link Constraint}.
 	 */
 	public Variable getVariableTo(Constraint c) {
-		return graph.getDest(c);
+		return store().getEndpoint(c, false);
 	}
 
 	/**
@@ -356,6 +377,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return The {@link Variable} with the given ID (if it exists).
 	 */
 	public Variable getVariable(int id) {
+		if (this.variables == null) return null;
 		return this.variables.get(id);
 	}
 
@@ -388,7 +410,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 */
 	public static void draw(ConstraintNetwork cn, String title) {
 		Variable v = cn.checkDomainsInstantiated(); 
-		if (v == null) new ConstraintNetworkFrame(cn.graph, title, null);
+		if (v == null) new ConstraintNetworkFrame(cn.getGraph(), title, null);
 		else throw new NonInstantiatedDomain(v);
 	}
 
@@ -403,7 +425,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 */
 	public static void draw(ConstraintNetwork cn, String title, Callback cb) {
 		Variable v = cn.checkDomainsInstantiated(); 
-		if (v == null) new ConstraintNetworkFrame(cn.graph, title, cb);
+		if (v == null) new ConstraintNetworkFrame(cn.getGraph(), title, cb);
 		else throw new NonInstantiatedDomain(v);
 	}
 
@@ -435,19 +457,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All {@link Constraint}s involving the given {@link Variable}.
 	 */
 	public Constraint[] getIncidentEdges(Variable v) {
-		Collection<Constraint> in = this.graph.getInEdges(v);
-		Constraint[] inArray = new Constraint[0];
-		if (in != null) inArray = in.toArray(new Constraint[in.size()]);
-		Collection<Constraint> out = this.graph.getOutEdges(v);
-		Constraint[] outArray = new Constraint[0];
-		if (out != null) outArray = out.toArray(new Constraint[out.size()]);
-		if (in == null && out == null) return null;
-		HashSet<Constraint> retSet = new HashSet<Constraint>();
-		for (int i = 0; i < in.size(); i++) retSet.add(inArray[i]);
-		for (int i = 0; i < out.size(); i++) retSet.add(outArray[i]);
-		Constraint[] ret = retSet.toArray(new Constraint[retSet.size()]);
-		//		if(ret.length==0){return null;}
-		return ret;
+		return store().getIncidentEdges(v);
 	}
 	
 	/**
@@ -477,13 +487,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All {@link Constraint}s for which a given {@link Variable} is source.
 	 */
 	public Constraint[] getIngoingEdges(Variable v) {
-		Collection<Constraint> in = this.graph.getInEdges(v);
-		if (in == null) return null;
-		Constraint[] inArray = in.toArray(new Constraint[in.size()]);
-		HashSet<Constraint> retSet = new HashSet<Constraint>();
-		for (int i = 0; i < in.size(); i++) retSet.add(inArray[i]);
-		Constraint[] ret = retSet.toArray(new Constraint[retSet.size()]);
-		return ret;
+		return store().getBinaryEdges(v, false);
 	}
 
 
@@ -493,13 +497,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All {@link Constraint}s for which a given {@link Variable} is destination.
 	 */
 	public Constraint[] getOutgoingEdges(Variable v) {
-		Collection<Constraint> out = this.graph.getOutEdges(v);
-		if (out == null) return null;
-		Constraint[] outArray = out.toArray(new Constraint[out.size()]);
-		HashSet<Constraint> retSet = new HashSet<Constraint>();
-		for (int i = 0; i < out.size(); i++) retSet.add(outArray[i]);
-		Constraint[] ret = retSet.toArray(new Constraint[retSet.size()]);
-		return ret;
+		return store().getBinaryEdges(v, true);
 	}
 
 	/**
@@ -507,17 +505,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All variables in the network.
 	 */
 	public Variable[] getVariables() {
-		HashSet<Variable> ret = new HashSet<Variable>();
-		for (Variable v : this.graph.getVertices()) {
-			if (!hyperEdges.containsValue(v)) ret.add(v);
-		}
-		for (Constraint c : hyperEdges.keySet()) {
-			for (Variable v : c.getScope()) {
-				ret.add(v);
-			}
-		}
-		return ret.toArray(new Variable[ret.size()]);
-		//return this.graph.getVertices().toArray(new Variable[this.graph.getVertexCount()]);
+		return store().getVertices();
 	}
 
 	/**
@@ -570,16 +558,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All the {@link Constraint}s in the network.
 	 */
 	public Constraint[] getConstraints() {
-		Vector<Constraint> ret = new Vector<Constraint>();
-		for (Constraint c : this.graph.getEdges()) {
-			//if (c.getScope().length == 2) {
-			if (c instanceof BinaryConstraint || c instanceof MultiBinaryConstraint) {
-				ret.add(c);
-			}
-		}
-		for (Constraint c : hyperEdges.keySet()) ret.add(c);
-		return ret.toArray(new Constraint[ret.size()]);
-		//return this.graph.getEdges().toArray(new Constraint[this.graph.getEdgeCount()]);
+		return store().getEdges();
 	}
 
 
@@ -589,7 +568,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return <code>true</code> iff the network contains the given {@link Constraint} 
 	 */
 	public boolean containsConstraint(Constraint c) {
-		return (this.graph.containsEdge(c) || this.hyperEdges.containsKey(c));
+		return store().containsEdge(c);
 	}
 
 	/**
@@ -598,7 +577,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return <code>true</code> iff the network contains the given {@link Variable} 
 	 */
 	public boolean containsVariable(Variable v) {
-		return this.graph.containsVertex(v);
+		return store().containsVertex(v);
 	}
 
 	/**
@@ -607,9 +586,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return <code>true</code> iff the network contains the {@link Variable} with the given ID.
 	 */
 	public boolean containsVariable(int ID) {
-		Collection<Variable> vars = this.graph.getVertices();
-		for (Variable v : vars) if (v.getID() == ID) return true;
-		return false;
+		return store().containsVertex(ID);
 	}
 
 	/**
@@ -689,8 +666,12 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	public Object clone() {
 
 		try {
-			Constructor<?> c = this.getClass().getConstructor(new Class[] {ConstraintSolver.class});
-			ConstraintNetwork ret = (ConstraintNetwork)c.newInstance(new Object[] {this.solver});
+			ConstraintNetwork ret;
+			if (this.getClass().equals(ConstraintNetwork.class)) ret = new ConstraintNetwork(this.solver);
+			else {
+				Constructor<?> c = this.getClass().getConstructor(new Class[] {ConstraintSolver.class});
+				ret = (ConstraintNetwork)c.newInstance(new Object[] {this.solver});
+			}
 			for (Variable v : this.getVariables()) ret.addVariable(v);
 			for (Constraint con : this.getConstraints()) ret.addConstraint(con);
 			return ret;
@@ -721,6 +702,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All the substitutions of {@link VariablePrototype}s to {@link Variable}s.
 	 */
 	public HashMap<VariablePrototype, Variable> getSubstitutions() {
+		if (substitutions == null) substitutions = new HashMap<VariablePrototype, Variable>();
 		return substitutions;
 	}
 
@@ -729,6 +711,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All the inverse substitutions of {@link VariablePrototype}s to {@link Variable}s.
 	 */
 	public HashMap<Variable, VariablePrototype> getInverseSubstitutions() {
+		if (substituted == null) substituted = new HashMap<Variable,VariablePrototype>();
 		return substituted;
 	}
 
@@ -753,6 +736,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return The variables which have been created in the network based on {@link VariablePrototype}s. 
 	 */
 	Variable[] getNativeVariables(){
+		if (substituted == null) return new Variable[0];
 		return this.substituted.keySet().toArray(new Variable[this.substituted.keySet().size()]);
 	}
 
@@ -788,20 +772,7 @@ public class ConstraintNetwork implements Cloneable, Serializable  {
 	 * @return All {@link Variable}s that are directly connected to a given {@link Variable} through one {@link Constraint}.
 	 */
 	public Variable[] getNeighboringVariables(Variable var) {
-		HashSet<Variable> ret = new HashSet<Variable>();
-		if (var instanceof DummyVariable) return ret.toArray(new Variable[ret.size()]);
-		Collection<Variable> neighbors = this.g.getNeighbors(var);
-		for (Variable neighbor : neighbors) {
-			if (neighbor instanceof DummyVariable) {
-				Collection<Variable> neighborsOfNeighbor = this.g.getNeighbors(neighbor);
-				ret.addAll(neighborsOfNeighbor);
-				ret.remove(var);
-			}
-			else {
-				ret.add(neighbor);
-			}
-		}
-		return ret.toArray(new Variable[ret.size()]);
+		return store().getNeighbors(var);
 	}
 
 
@@ -30,8 +30,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.metacsp.framework.multi.MultiConstraint;
@@ -108,6 +108,14 @@ public abstract class ConstraintSolver implements Serializable {
 	
 	protected HashMap<String,ArrayList<Variable>> components = new HashMap<String,ArrayList<Variable>>();
 
+	//Checkpoints (see checkpoint()): each checkpoint is a position in the log of changes to the network
+	//and the token of the corresponding solver-specific checkpoint (or -1)
+	private static final int LOG_ADD = 0, LOG_REMOVE = 1, LOG_VARIABLES = 2;
+	private ArrayList<int[]> checkpoints = new ArrayList<int[]>();
+	private ArrayList<Constraint[]> checkpointLog = new ArrayList<Constraint[]>();
+	private ArrayList<Integer> checkpointLogTypes = new ArrayList<Integer>();
+	private boolean rollingBack = false;
+
 	protected transient Logger logger = MetaCSPLogging.getLogger(this.getClass());
 	
 	public void setName(String name) { this.name = name; }
@@ -258,9 +266,10 @@ public abstract class ConstraintSolver implements Serializable {
 			//NOTE: must add new cons before attempting propagation, because some solvers call
 			//constraint network methods in their implementation of propagate()... 
 			for (Constraint con : toAddArray) this.theNetwork.addConstraint(con);
+			logChange(LOG_ADD, toAddArray);
 			if (!skipPropagation && autoprop && checkDomainsInstantiated()) { 
 				if (this.propagate()) {
-					logger.finest("Added and propagated constraints " + Arrays.toString(toAddArray));
+					MetaCSPLogging.finest(logger, "Added and propagated constraints ", toAddArray);
 					this.unmaskConstraints(c);
 					return true;
 				}
@@ -269,10 +278,10 @@ public abstract class ConstraintSolver implements Serializable {
 //				for (Constraint con : toAddArray) {
 //					this.theNetwork.removeConstraint(con);
 //				}
-				logger.finest("Failed to add constraints " + Arrays.toString(toAddArray));
+				MetaCSPLogging.finest(logger, "Failed to add constraints ", toAddArray);
 			}
 			else {
-				logger.finest("Added constraints " + Arrays.toString(toAddArray) + " BUT DELAYED PROPAGATION (autoprop = " + autoprop + ")");
+				if (logger.isLoggable(Level.FINEST)) logger.finest("Added constraints " + Arrays.toString(toAddArray) + " BUT DELAYED PROPAGATION (autoprop = " + autoprop + ")");
 				this.unmaskConstraints(c);
 				return true;
 			}
@@ -327,8 +336,9 @@ public abstract class ConstraintSolver implements Serializable {
 			
 			removeConstraintsSub(toRemoveArray);
 			for (Constraint con : toRemove) this.theNetwork.removeConstraint(con);
+			logChange(LOG_REMOVE, toRemoveArray);
 			if (!skipPropagation && autoprop && checkDomainsInstantiated()) this.propagate();
-			logger.finest("Removed constraints " + toRemove);
+			MetaCSPLogging.finest(logger, "Removed constraints ", toRemove);
 		}
 	}
 	
@@ -393,8 +403,9 @@ public abstract class ConstraintSolver implements Serializable {
 		if (ret == null) return null;
 		//need to add all to network so if sth goes wrong I can delete all of them concurrently
 		for (Variable v : ret) this.theNetwork.addVariable(v);
+		logChange(LOG_VARIABLES, null);
 		if (!skipPropagation && autoprop && checkDomainsInstantiated() && !noPropOnVarCreation) this.propagate();
-		logger.finest("Created variables " + Arrays.toString(ret));
+		MetaCSPLogging.finest(logger, "Created variables ", ret);
 		return ret;
 	}
 
@@ -427,7 +438,7 @@ public abstract class ConstraintSolver implements Serializable {
 	protected Variable[] createVariablesSub(int num, String component) {
 		Variable[] ret = createVariablesSub(num);
 		if (component != null) {
-			logger.finest("Set component of " + Arrays.toString(ret) + " to " + component);
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Set component of " + Arrays.toString(ret) + " to " + component);
 			this.setComponent(component, ret);
 		}
 		return ret;
@@ -442,21 +453,6 @@ public abstract class ConstraintSolver implements Serializable {
 	} 
 		
 	
-	private Constraint removeDummyConstraint(DummyConstraint c) {
-		DummyVariable dv = c.getDummyVariable();
-		Constraint toReturn = null;
-		for (Entry<Constraint,DummyVariable> e : this.getConstraintNetwork().hyperEdges.entrySet()) {
-			if (e.getValue().equals(dv)) {
-				toReturn = e.getKey();
-				break;
-			}
-		}
-		
-//		for (Constraint c1 : this.getConstraintNetwork().getIncidentEdges(dv)) this.getConstraintNetwork().removeConstraint(c1);
-
-		return toReturn;
-	}
-	
 	/**
 	 * Remove a batch of {@link Variable}s from this {@link ConstraintSolver}.
 	 * @param v The batch of {@link Variable}s to remove.
@@ -472,14 +468,11 @@ public abstract class ConstraintSolver implements Serializable {
 			if (!this.theNetwork.containsVariable(var) ) throw new VariableNotFound(var);
 			Constraint[] incident = this.theNetwork.getIncidentEdges(var);
 			for (Constraint con : incident) {
-				if ((!con.isAutoRemovable() && !(con instanceof DummyConstraint))) {
+				//Non-binary constraints are removed along with any of the variables in their scope
+				if (!con.isAutoRemovable() && !this.theNetwork.isHyperEdge(con)) {
 					throw new IllegalVariableRemoval(var, this.theNetwork.getIncidentEdges(var));
 				}
-				else if (con instanceof DummyConstraint) {
-					Constraint toRemove = this.removeDummyConstraint((DummyConstraint)con);
-					if (toRemove != null) incidentRevised.add(toRemove);
-				}
-				else incidentRevised.add(con);
+				incidentRevised.add(con);
 			}
 			
 			//Gather solvers of dependent variables
@@ -494,7 +487,7 @@ public abstract class ConstraintSolver implements Serializable {
 		//Remove dependent variables
 		for (ConstraintSolver cs : solversToDepVars.keySet()) {
 			cs.removeVariables(solversToDepVars.get(cs).toArray(new Variable[solversToDepVars.get(cs).size()]));
-			logger.finest("Removed " + solversToDepVars.get(cs).size() + " dependent variables");
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Removed " + solversToDepVars.get(cs).size() + " dependent variables");
 		}
 		
 		this.removeConstraints(incidentRevised.toArray(new Constraint[incidentRevised.size()]));
@@ -503,11 +496,12 @@ public abstract class ConstraintSolver implements Serializable {
 		for (Variable var : v) {
 			this.theNetwork.removeVariable(var);
 		}
+		logChange(LOG_VARIABLES, null);
 		for (ArrayList<Variable> vec : components.values()) {
 			vec.removeAll(Arrays.asList(v));
 		}
 		if (!skipPropagation && autoprop && checkDomainsInstantiated()) this.propagate();
-		logger.finest("Removed variables " + Arrays.toString(v));
+		MetaCSPLogging.finest(logger, "Removed variables ", v);
 		
 	}
 
@@ -524,6 +518,131 @@ public abstract class ConstraintSolver implements Serializable {
 	 * @return the {@link ConstraintNetwork} of this {@link ConstraintSolver}.
 	 */
 	public ConstraintNetwork getConstraintNetwork() { return theNetwork; }
+
+	//Record a change to the network if there are checkpoints
+	private void logChange(int type, Constraint[] cons) {
+		if (checkpoints.isEmpty() || rollingBack) return;
+		checkpointLogTypes.add(type);
+		checkpointLog.add(cons);
+	}
+
+	/**
+	 * Create a checkpoint of the state of this {@link ConstraintSolver}, which can be restored with
+	 * {@link #rollback(int)}.  From now on, all constraints added to and removed from this {@link ConstraintSolver}
+	 * are logged.  If the solver supports it (see {@link #checkpointSub()}), rolling back restores its state directly,
+	 * with a cost proportional to the changes since the checkpoint; otherwise, constraints are retracted and re-added.
+	 * @return A token identifying the checkpoint.
+	 */
+	public int checkpoint() {
+		int logPos = checkpointLog.size();
+		checkpoints.add(new int[] {logPos, checkpointSub()});
+		return checkpoints.size()-1;
+	}
+
+	/**
+	 * Restore the state of this {@link ConstraintSolver} at the given checkpoint, that is, retract all
+	 * constraints added since then and re-add all constraints removed since then.  {@link Variable}s created
+	 * or removed since the checkpoint are not affected.  The given checkpoint and all later ones are discarded.
+	 * @param token A token obtained through {@link #checkpoint()}.
+	 */
+	public void rollback(int token) {
+		int[] cp = checkpoints.get(token);
+		//The solver-specific state can be restored only if no variables were created/removed
+		boolean restoreState = cp[1] >= 0;
+		for (int i = cp[0]; i < checkpointLog.size() && restoreState; i++) {
+			if (checkpointLogTypes.get(i) == LOG_VARIABLES) restoreState = false;
+		}
+		rollingBack = true;
+		if (restoreState) {
+			for (int i = checkpointLog.size()-1; i >= cp[0]; i--) {
+				int type = checkpointLogTypes.get(i);
+				if (type == LOG_ADD) for (Constraint con : checkpointLog.get(i)) this.theNetwork.removeConstraint(con);
+				else if (type == LOG_REMOVE) for (Constraint con : checkpointLog.get(i)) this.theNetwork.addConstraint(con);
+			}
+			rollbackSub(cp[1]);
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Rolled back to checkpoint " + token + " (restored state)");
+		}
+		else {
+			for (int i = token; i < checkpoints.size(); i++) {
+				if (checkpoints.get(i)[1] >= 0) {
+					removeCheckpointSub(checkpoints.get(i)[1]);
+					break;
+				}
+			}
+			for (int i = checkpointLog.size()-1; i >= cp[0]; i--) {
+				int type = checkpointLogTypes.get(i);
+				if (type == LOG_ADD) {
+					ArrayList<Constraint> toRemove = new ArrayList<Constraint>();
+					for (Constraint con : checkpointLog.get(i)) if (this.theNetwork.containsConstraint(con)) toRemove.add(con);
+					this.removeConstraints(toRemove.toArray(new Constraint[toRemove.size()]));
+				}
+				else if (type == LOG_REMOVE) {
+					if (!this.addConstraints(checkpointLog.get(i))) logger.warning("Could not re-add constraints " + Arrays.toString(checkpointLog.get(i)));
+				}
+			}
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Rolled back to checkpoint " + token + " (retracted constraints)");
+		}
+		rollingBack = false;
+		discardCheckpoints(token, cp[0]);
+	}
+
+	/**
+	 * Discard the given checkpoint and all later ones, keeping the current state of this {@link ConstraintSolver}.
+	 * @param token A token obtained through {@link #checkpoint()}.
+	 */
+	public void removeCheckpoint(int token) {
+		for (int i = token; i < checkpoints.size(); i++) {
+			if (checkpoints.get(i)[1] >= 0) {
+				removeCheckpointSub(checkpoints.get(i)[1]);
+				break;
+			}
+		}
+		//Changes since the checkpoint are still needed by earlier checkpoints
+		discardCheckpoints(token, checkpointLog.size());
+	}
+
+	private void discardCheckpoints(int token, int logPos) {
+		while (checkpoints.size() > token) checkpoints.remove(checkpoints.size()-1);
+		if (checkpoints.isEmpty()) logPos = 0;
+		while (checkpointLog.size() > logPos) {
+			checkpointLog.remove(checkpointLog.size()-1);
+			checkpointLogTypes.remove(checkpointLogTypes.size()-1);
+		}
+	}
+
+	/**
+	 * Get the number of checkpoints of this {@link ConstraintSolver} (see {@link #checkpoint()}).
+	 * @return The number of checkpoints of this {@link ConstraintSolver}.
+	 */
+	public int numCheckpoints() {
+		return checkpoints.size();
+	}
+
+	/**
+	 * Override this method to support the direct restoration of the state of a specific {@link ConstraintSolver}
+	 * upon {@link #rollback(int)} (the base implementation returns -1, meaning that rolling back
+	 * retracts and re-adds constraints).  Implementations should save (or start logging) the
+	 * internal state of the solver.
+	 * @return A non-negative token identifying the solver-specific checkpoint, or -1 if not supported.
+	 */
+	protected int checkpointSub() {
+		return -1;
+	}
+
+	/**
+	 * Override this method to restore the internal state of a specific {@link ConstraintSolver}
+	 * at a checkpoint created by {@link #checkpointSub()}, discarding that and all later checkpoints.
+	 * The {@link ConstraintNetwork} has already been restored when this is called.
+	 * @param token A token returned by {@link #checkpointSub()}.
+	 */
+	protected void rollbackSub(int token) { }
+
+	/**
+	 * Override this method to discard a checkpoint created by {@link #checkpointSub()} (and all later ones),
+	 * keeping the current internal state of a specific {@link ConstraintSolver}.
+	 * @param token A token returned by {@link #checkpointSub()}.
+	 */
+	protected void removeCheckpointSub(int token) { }
 	
 	/**
 	 * Get a {@link Variable} given its ID. 
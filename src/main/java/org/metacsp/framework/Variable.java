@@ -32,6 +32,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.metacsp.framework.multi.MultiVariable;
@@ -243,7 +244,7 @@ public abstract class Variable implements Comparable<Variable>, Serializable {
 	 */
 	public void setMarking(Object marking) { 
 		this.marking = marking;
-		logger.finest("Set marking of variable " + this.getID() + " to " + marking);
+		if (logger.isLoggable(Level.FINEST)) logger.finest("Set marking of variable " + this.getID() + " to " + marking);
 	}
 	
 	/**
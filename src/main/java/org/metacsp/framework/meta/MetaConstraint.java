@@ -23,6 +23,7 @@
 package org.metacsp.framework.meta;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.logging.Logger;
 
 import org.metacsp.framework.Constraint;
@@ -115,9 +116,27 @@ public abstract class MetaConstraint extends Constraint {
 	 * @return The best meta value for the given {@link MetaVariable}.
 	 */
 	public ConstraintNetwork getMetaValue(MetaVariable metaVariable) {
+		Iterator<ConstraintNetwork> vals = this.getMetaValueIterator(metaVariable);
+		if (vals == null || !vals.hasNext()) return null;
+		return vals.next();
+	}
+
+	/**
+	 * Get the meta values for a given {@link MetaVariable} in the order in which they should be tried by
+	 * the meta-CSP search.  The default implementation calls {@link #getMetaValues(MetaVariable)} and sorts
+	 * the values according to this {@link MetaConstraint}'s {@link ValueOrderingH}.  Override this
+	 * method to generate meta values lazily (in heuristic order), so that values which are never
+	 * tried are never built.  Each value must be annotated with the given {@link MetaVariable} by the time
+	 * it is returned.
+	 * @param metaVariable The {@link MetaVariable} for which we seek meta values.
+	 * @return An iterator over the meta values for the given {@link MetaVariable}, or <code>null</code> if there are none.
+	 */
+	public Iterator<ConstraintNetwork> getMetaValueIterator(MetaVariable metaVariable) {
 		ConstraintNetwork[] vals = this.getMetaValues(metaVariable);
+		if (vals == null) return null;
+		for (ConstraintNetwork val : vals) val.setAnnotation(metaVariable);
 		if (valOH != null) Arrays.sort(vals, valOH);
-		return vals[0];
+		return Arrays.asList(vals).iterator();
 	}
 	
 	/**
@@ -9,9 +9,11 @@ import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.metacsp.framework.Constraint;
@@ -101,7 +103,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		Set<ConstraintNetwork> vars = resolvers.keySet();
 		for (ConstraintNetwork var : vars) {
 			ConstraintNetwork value = resolvers.get(var);
-			logger.fine("=== ||| === Retracting value: " + Arrays.toString(value.getConstraints()));
+			logValue("=== ||| === Retracting value: ", value, false);
 			this.retractResolver(var, value);
 		}
 		this.resolvers = new HashMap<ConstraintNetwork, ConstraintNetwork>();
@@ -199,7 +201,11 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		MetaVariable conflict = null;
 		if ((conflict = this.getConflict()) != null) {
 			currentVertex = conflict;
-			if (backtrackHelper(conflict)) {
+			//Checkpoints taken during search are discarded, the solution is kept
+			int numCheckpoints = this.numCheckpoints();
+			boolean solved = backtrackHelper(conflict);
+			if (this.numCheckpoints() > numCheckpoints) this.removeCheckpoint(numCheckpoints);
+			if (solved) {
 //				postBacktrack();
 				logger.info("... solution found");
 				return true;
@@ -222,28 +228,24 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		preBacktrack();
 		if (this.g.getRoot() == null) this.g.addVertex(currentVertex);
 		ConstraintNetwork mostProblematicNetwork = metaVariable.getConstraintNetwork();
-		logger.fine("Solving conflict: " + metaVariable);
-		ConstraintNetwork[] values = metaVariable.getMetaConstraint().getMetaValues(metaVariable);
-		if (values != null) for (ConstraintNetwork value : values) value.setAnnotation(metaVariable);
-		if (metaVariable.getMetaConstraint().valOH != null && values!=null) {
-			//System.out.println("SORTING with " + metaVariable.getMetaConstraint().valOH.getClass());
-			Arrays.sort(values, metaVariable.getMetaConstraint().valOH);
-		}
-		if (values == null || values.length == 0) {
+		MetaCSPLogging.fine(logger, "Solving conflict: ", metaVariable);
+		//Values are obtained (possibly generated) one at a time, in heuristic order
+		Iterator<ConstraintNetwork> values = metaVariable.getMetaConstraint().getMetaValueIterator(metaVariable);
+		if (values == null || !values.hasNext()) {
 			this.g.addEdge(new NullConstraintNetwork(null), currentVertex, new TerminalNode(false));
 			logger.fine("Failure (1)...");		
 		}
 		else {
-			for (ConstraintNetwork value : values) {
+			while (values.hasNext()) {
+				ConstraintNetwork value = values.next();
 				if (animationTime != 0) {
 					try { Thread.sleep(animationTime); }
 					catch (InterruptedException e) { e.printStackTrace(); }
 				}
-				String valString = "";
-				if (value.getVariables().length != 0) valString += "Vars = " + Arrays.toString(value.getVariables());
-				if (value.getConstraints().length != 0) valString += " Cons = " + Arrays.toString(value.getConstraints());
-				logger.fine("Trying value: " + valString);
+				logValue("Trying value: ", value, true);
 				
+				//The state of the ground solvers is restored from this checkpoint upon retraction
+				int checkpoint = this.checkpoint();
 				if (this.addResolver(mostProblematicNetwork, value)) {
 					this.resolvers.put(mostProblematicNetwork, value);
 					this.metaVarsToMetaCons.put(mostProblematicNetwork, metaVariable.getMetaConstraint());
@@ -264,8 +266,8 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 					this.g.addEdge(value, currentVertex, newConflict);
 					currentVertex = newConflict;
 					if (backtrackHelper(newConflict)) return true;					
-					logger.fine("Retracting value: " + Arrays.toString(value.getConstraints()));		
-					this.retractResolver(mostProblematicNetwork, value);
+					logValue("Retracting value: ", value, false);		
+					this.rollbackResolver(checkpoint, mostProblematicNetwork, value);
 					this.resolvers.remove(mostProblematicNetwork);		
 					this.metaVarsToMetaCons.remove(mostProblematicNetwork);
 					this.resolversInverseMapping.remove(value);
@@ -273,6 +275,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 
 				}
 				else {
+					this.removeCheckpoint(checkpoint);
 					this.g.addEdge(value, currentVertex, new TerminalNode(false));
 					logger.fine("Failure... (2)");
 				}
@@ -284,6 +287,35 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		return false;
 	}
 
+	//Log a meta-value at level FINE (the message is built only if it is logged)
+	private void logValue(String prefix, ConstraintNetwork value, boolean withVariables) {
+		if (!logger.isLoggable(Level.FINE)) return;
+		String valString = "";
+		if (withVariables) {
+			if (value.getVariables().length != 0) valString += "Vars = " + Arrays.toString(value.getVariables());
+			if (value.getConstraints().length != 0) valString += " Cons = " + Arrays.toString(value.getConstraints());
+		}
+		else valString = Arrays.toString(value.getConstraints());
+		logger.fine(prefix + valString);
+	}
+
+	//Retract a resolver by rolling back the ground solvers to the given checkpoint
+	private void rollbackResolver(int checkpoint, ConstraintNetwork metaVar, ConstraintNetwork res) {
+		this.rollback(checkpoint);
+		//Constraints posted to solvers that are not (transitively) internal to this one are retracted explicitly
+		HashMap<ConstraintSolver, Vector<Constraint>> solvers2constraints = new HashMap<ConstraintSolver, Vector<Constraint>>();
+		for (Constraint c : res.getConstraints()) {
+			ConstraintSolver cs = c.getScope()[0].getConstraintSolver();
+			if (!cs.getConstraintNetwork().containsConstraint(c)) continue;
+			if (!solvers2constraints.containsKey(cs)) solvers2constraints.put(cs, new Vector<Constraint>());
+			solvers2constraints.get(cs).add(c);
+		}
+		for (ConstraintSolver cs : solvers2constraints.keySet()) {
+			cs.removeConstraints(solvers2constraints.get(cs).toArray(new Constraint[solvers2constraints.get(cs).size()]));
+		}
+		this.retractResolverSub(metaVar, res);
+	}
+
 	/**
 	 * Service method for backtracking with serialization-based saving of {@link ConstraintNetwork}s.
 	 * This method backs up {@link ConstraintNetwork}s before branching. 
@@ -297,7 +329,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 			bos = new ByteArrayOutputStream();
 			oos = new ObjectOutputStream(bos);
 			for (ConstraintSolver cs : conSol.getConstraintSolvers()) {
-				logger.finest("Backing up CN of " + cs.getClass().getSimpleName());
+				MetaCSPLogging.finest(logger, "Backing up CN of ", cs.getClass().getSimpleName());
 				ConstraintNetwork cn = cs.getConstraintNetwork();
 				oos.writeObject(cn);
 				byte[] backup = bos.toByteArray();
@@ -325,7 +357,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		for (Entry<ConstraintSolver,byte[]> entry : backup.entrySet()) {
 			byte[] backedUpNetwork = entry.getValue();
 			ConstraintSolver cs = entry.getKey();
-			logger.finest("Restoring CN of " + cs.getClass().getSimpleName());
+			MetaCSPLogging.finest(logger, "Restoring CN of ", cs.getClass().getSimpleName());
 			ByteArrayInputStream bis = new ByteArrayInputStream(backedUpNetwork);
 	        ObjectInputStream in = null;
 			try {
@@ -350,7 +382,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		preBacktrack();
 		if (this.g.getRoot() == null) this.g.addVertex(currentVertex);
 		ConstraintNetwork mostProblematicNetwork = metaVariable.getConstraintNetwork();
-		logger.fine("Solving conflict: " + metaVariable);
+		MetaCSPLogging.fine(logger, "Solving conflict: ", metaVariable);
 		ConstraintNetwork[] values = metaVariable.getMetaConstraint().getMetaValues(metaVariable);	
 		if (metaVariable.getMetaConstraint().valOH != null && values!=null) Arrays.sort(values, metaVariable.getMetaConstraint().valOH);
 		if (values == null || values.length == 0) {
@@ -363,10 +395,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 					try { Thread.sleep(animationTime); }
 					catch (InterruptedException e) { e.printStackTrace(); }
 				}
-				String valString = "";
-				if (value.getVariables().length != 0) valString += "Vars = " + Arrays.toString(value.getVariables());
-				if (value.getConstraints().length != 0) valString += " Cons = " + Arrays.toString(value.getConstraints());
-				logger.fine("Trying value: " + valString);
+				logValue("Trying value: ", value, true);
 								
 				this.backedUpCNs.add(backupCNs(this));
 				
@@ -402,7 +431,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 					this.g.addEdge(value, currentVertex, newConflict);
 					currentVertex = newConflict;
 					if (backtrackHelper(newConflict)) return true;					
-					logger.fine("Retracting value: " + Arrays.toString(value.getConstraints()));
+					logValue("Retracting value: ", value, false);
 					
 					//this.retractResolver(mostProblematicNetwork, value);
 					this.restoreCNs();
@@ -454,8 +483,8 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 
 	protected final void retractResolver(ConstraintNetwork metaVar, ConstraintNetwork res) {
 		this.logger.finest("Retracting resolver:");
-		this.logger.finest("  MetaVariable: " + metaVar.toString());
-		this.logger.finest("  MetaValue: " + res.toString());
+		MetaCSPLogging.finest(logger, "  MetaVariable: ", metaVar);
+		MetaCSPLogging.finest(logger, "  MetaValue: ", res);
 		
 		Constraint[] groundConstraints = res.getConstraints();
 		HashMap<ConstraintSolver, Vector<Constraint>> solvers2constraints = new HashMap<ConstraintSolver, Vector<Constraint>>();
@@ -567,7 +596,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 		if (this.g.getRoot() == null) this.g.addVertex(currentVertex);
 		ConstraintNetwork cn = metaVariable.getConstraintNetwork();
 		
-		logger.fine("Solving conflict: " + metaVariable);
+		MetaCSPLogging.fine(logger, "Solving conflict: ", metaVariable);
 		ConstraintNetwork[] values = metaVariable.getMetaConstraint().getMetaValues(metaVariable);
 		
 		if (metaVariable.getMetaConstraint().valOH != null) Arrays.sort(values, metaVariable.getMetaConstraint().valOH);
@@ -582,7 +611,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 					try { Thread.sleep(animationTime); }
 					catch (InterruptedException e) { e.printStackTrace(); }
 				}
-				logger.fine("Trying value: " + Arrays.toString(value.getConstraints()));
+				logValue("Trying value: ", value, false);
 
 				if(hasConflictClause(value))
 					continue;
@@ -607,7 +636,7 @@ public abstract class MetaConstraintSolver extends MultiConstraintSolver {
 					setLowerBound();
 				if(branchAndBoundHelper(newCon))
 					return true;
-				logger.fine("Retracting value: " + Arrays.toString(value.getConstraints()));
+				logValue("Retracting value: ", value, false);
 				this.retractResolver(cn, value);
 				logger.fine("Failure... (2)");
 			}
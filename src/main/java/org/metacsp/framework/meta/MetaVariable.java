@@ -64,7 +64,7 @@ public class MetaVariable {
 		this.metaConstraint = df;
 		this.mv = mv;
 		this.annotation = null;
-		logger.finest("Created MetaVariable " + this);
+		MetaCSPLogging.finest(logger, "Created MetaVariable ", this);
 	}
 
 	/**
@@ -78,7 +78,7 @@ public class MetaVariable {
 		this.metaConstraint = metaConstraint;
 		this.mv = mv;
 		this.annotation = annotation;
-		logger.finest("Created MetaVariable " + this);
+		MetaCSPLogging.finest(logger, "Created MetaVariable ", this);
 	}
 	
 	/**
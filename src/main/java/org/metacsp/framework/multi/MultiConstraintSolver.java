@@ -24,10 +24,10 @@ package org.metacsp.framework.multi;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.logging.Level;
 
 import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintNetwork;
@@ -37,6 +37,7 @@ import org.metacsp.throwables.ConstraintNotFound;
 import org.metacsp.throwables.UnimplementedSubVariableException;
 import org.metacsp.utility.UI.ConstraintNetworkHierarchyFrame;
 import org.metacsp.utility.UI.ConstraintSolverHierarchyFrame;
+import org.metacsp.utility.logging.MetaCSPLogging;
 
 import edu.uci.ics.jung.graph.DelegateTree;
 import edu.uci.ics.jung.graph.util.TreeUtils;
@@ -71,6 +72,12 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 	protected ConstraintSolver[] constraintSolvers;
 	protected int[] ingredients;
 	private HashMap<Constraint,Constraint> newConstraintMapping = new HashMap<Constraint,Constraint>();
+
+	//Checkpoints of the internal solvers (one token per internal solver) and trail of
+	//changes to newConstraintMapping (pairs {key, previous value}) since the first checkpoint 
+	private ArrayList<int[]> internalCheckpoints = new ArrayList<int[]>();
+	private ArrayList<Integer> mappingTrailPositions = new ArrayList<Integer>();
+	private ArrayList<Constraint[]> mappingTrail = new ArrayList<Constraint[]>();
 	
 	public static ConstraintSolver getConstraintSolver(ConstraintSolver cs, Class<?> constraintSolverClass) {
 		if (cs.getClass().equals(constraintSolverClass)) return cs;
@@ -154,28 +161,28 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 			//if caller is noprop do not prop
 			if (!this.skipPropagation) {
 				if (cs.addConstraints(sortedCons.get(cs).toArray(new Constraint[sortedCons.get(cs).size()]))) {
-					logger.finest("Added sub-constraints " + sortedCons.get(cs));
+					MetaCSPLogging.finest(logger, "Added sub-constraints ", sortedCons.get(cs));
 					sortedConsRetract.put(cs, sortedCons.get(cs));
 				}
 				else {
 					for (ConstraintSolver cs1 : sortedConsRetract.keySet()) {
-						logger.finest("Removing internal constraints (" + this.getClass().getSimpleName() + ") " + sortedConsRetract.get(cs1));
+						if (logger.isLoggable(Level.FINEST)) logger.finest("Removing internal constraints (" + this.getClass().getSimpleName() + ") " + sortedConsRetract.get(cs1));
 						cs1.removeConstraints(sortedConsRetract.get(cs1).toArray(new Constraint[sortedConsRetract.get(cs1).size()]));
 					}
-					logger.finest("Failed to add sub-constraints " + Arrays.toString(c));
+					MetaCSPLogging.finest(logger, "Failed to add sub-constraints ", c);
 					return false;
 				}				
 			}
 			else {
 				cs.addConstraintsNoPropagation(sortedCons.get(cs).toArray(new Constraint[sortedCons.get(cs).size()]));
-				logger.finest("Added sub-constraints " + sortedCons.get(cs) + " (but DELAYED propagation)");
+				if (logger.isLoggable(Level.FINEST)) logger.finest("Added sub-constraints " + sortedCons.get(cs) + " (but DELAYED propagation)");
 			}
 		}
 
 		if (!instantiateLiftedConstraints(c)) {
 			for (ConstraintSolver cs1 : sortedConsRetract.keySet()) 
 				cs1.removeConstraints(sortedConsRetract.get(cs1).toArray(new Constraint[sortedConsRetract.get(cs1).size()]));
-			logger.finest("Failed to instantiate lifted constraints " + Arrays.toString(c));
+			MetaCSPLogging.finest(logger, "Failed to instantiate lifted constraints ", c);
 			return false;
 		}
 		return true;
@@ -204,7 +211,7 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 					Constraint newConstraint = (Constraint)constr.clone();
 					newConstraint.setScope(internalScopeArray);
 					newToAdd.elementAt(i).add(newConstraint);
-					newConstraintMapping.put(constr, newConstraint);
+					putMapping(constr, newConstraint);
 					break;
 				}
 			}
@@ -240,7 +247,7 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 						}
 					}
 					for (Constraint toRemoveFromMapping : toRemoveFromNewConstraintMapping)
-						newConstraintMapping.remove(toRemoveFromMapping);
+						removeMapping(toRemoveFromMapping);
 				}
 			}
 			return false;
@@ -326,7 +333,7 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 			}		
 		}
 		for (ConstraintSolver cs : solvers.keySet()) {
-			logger.finest("Removing " + solvers.get(cs).size() + " internal variables (" + cs.getClass().getSimpleName() + ")");
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Removing " + solvers.get(cs).size() + " internal variables (" + cs.getClass().getSimpleName() + ")");
 			cs.removeVariables(solvers.get(cs).toArray(new Variable[solvers.get(cs).size()]));
 		}
 	}
@@ -335,7 +342,7 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 		Vector<Vector<Variable>> ret = new Vector<Vector<Variable>>();
 		for (int k = 0; k < this.getConstraintSolvers().length; k++) {
 			Variable[] oneType = this.getConstraintSolvers()[k].createVariables(ingredients[k]*num);
-			logger.finest("Created " + ingredients[k]*num + " internal variables for " + this.getConstraintSolvers()[k].getClass().getSimpleName());
+			if (logger.isLoggable(Level.FINEST)) logger.finest("Created " + ingredients[k]*num + " internal variables for " + this.getConstraintSolvers()[k].getClass().getSimpleName());
 			for (int i = 0; i < num; i++) {
 				Vector<Variable> oneVar = null;
 				if (ret.size() > i) oneVar = ret.elementAt(i);
@@ -375,13 +382,13 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 				for (Variable internalVar : internalVars[i]) {
 					if (component != null) {
 						internalVar.getConstraintSolver().setComponent(component, internalVar);
-						logger.finest("Set component of " + internalVar + " to " + component);
+						if (logger.isLoggable(Level.FINEST)) logger.finest("Set component of " + internalVar + " to " + component);
 					}
 					internalVar.setParentVariable((MultiVariable)ret[i]);
 				}
 				if (component != null) {
 					ret[i].getConstraintSolver().setComponent(component, ret[i]);
-					logger.finest("Set component of " + ret[i] + " to " + component);
+					if (logger.isLoggable(Level.FINEST)) logger.finest("Set component of " + ret[i] + " to " + component);
 //					for (Variable internalVar : internalVars[i]) {
 //						internalVar.getConstraintSolver().setComponent(component, internalVar);
 //						logger.finest("Set component of " + internalVar + " to " + component);
@@ -410,7 +417,7 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 			if (ret[i] instanceof MultiVariable) {
 				Constraint[] internalCons = ((MultiVariable)ret[i]).getInternalConstraints();
 				if (internalCons != null) {
-					logger.finest("Adding internal constraints for " + ret[i]);
+					MetaCSPLogging.finest(logger, "Adding internal constraints for ", ret[i]);
 					for (Constraint con : internalCons) {
 						if (!solvers2Constraints.containsKey(con.getScope()[0].getConstraintSolver()))
 							solvers2Constraints.put(con.getScope()[0].getConstraintSolver(), new Vector<Constraint>());
@@ -423,7 +430,7 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 			//if we are called from addconstraintsnoprop, call addconsnoprop on the internals, otherwise call normal addconstraints
 			if (!es.getKey().addConstraintsNoPropagation(es.getValue().toArray(new Constraint[es.getValue().size()])))
 				throw new Error("Malformed internal constraints: " + es.getValue());
-			else logger.finest("Added " + es.getValue().size() + " internal constraints to " + es.getKey().getClass().getSimpleName() + " (but DELAYED propagation)");
+			else if (logger.isLoggable(Level.FINEST)) logger.finest("Added " + es.getValue().size() + " internal constraints to " + es.getKey().getClass().getSimpleName() + " (but DELAYED propagation)");
 		}
 		return ret;
 	}
@@ -489,8 +496,56 @@ public abstract class MultiConstraintSolver extends ConstraintSolver {
 			}
 		}
 		for (Constraint constr : c) {
-			newConstraintMapping.remove(constr);
+			removeMapping(constr);
+		}
+	}
+
+	private void putMapping(Constraint constr, Constraint newConstraint) {
+		Constraint old = newConstraintMapping.put(constr, newConstraint);
+		if (!internalCheckpoints.isEmpty()) mappingTrail.add(new Constraint[] {constr, old});
+	}
+
+	private void removeMapping(Constraint constr) {
+		Constraint old = newConstraintMapping.remove(constr);
+		if (!internalCheckpoints.isEmpty() && old != null) mappingTrail.add(new Constraint[] {constr, old});
+	}
+
+	//Checkpoints of this solver are checkpoints of all internal solvers
+	@Override
+	protected int checkpointSub() {
+		int[] tokens = new int[constraintSolvers.length];
+		for (int i = 0; i < constraintSolvers.length; i++) tokens[i] = constraintSolvers[i].checkpoint();
+		internalCheckpoints.add(tokens);
+		mappingTrailPositions.add(mappingTrail.size());
+		return internalCheckpoints.size()-1;
+	}
+
+	@Override
+	protected void rollbackSub(int token) {
+		int trailPos = mappingTrailPositions.get(token);
+		for (int i = mappingTrail.size()-1; i >= trailPos; i--) {
+			Constraint[] entry = mappingTrail.remove(i);
+			if (entry[1] == null) newConstraintMapping.remove(entry[0]);
+			else newConstraintMapping.put(entry[0], entry[1]);
+		}
+		int[] tokens = internalCheckpoints.get(token);
+		for (int i = 0; i < constraintSolvers.length; i++) constraintSolvers[i].rollback(tokens[i]);
+		discardInternalCheckpoints(token);
+	}
+
+	@Override
+	protected void removeCheckpointSub(int token) {
+		int[] tokens = internalCheckpoints.get(token);
+		for (int i = 0; i < constraintSolvers.length; i++) constraintSolvers[i].removeCheckpoint(tokens[i]);
+		discardInternalCheckpoints(token);
+	}
+
+	private void discardInternalCheckpoints(int token) {
+		while (internalCheckpoints.size() > token) {
+			internalCheckpoints.remove(internalCheckpoints.size()-1);
+			mappingTrailPositions.remove(mappingTrailPositions.size()-1);
 		}
+		if (internalCheckpoints.isEmpty()) mappingTrail.clear();
 	}
 
 	/**
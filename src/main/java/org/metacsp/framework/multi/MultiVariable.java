@@ -40,8 +40,8 @@ import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
 import org.metacsp.multi.allenInterval.AllenIntervalNetworkSolver;
 import org.metacsp.time.TimePoint;
 import org.metacsp.utility.UI.VariableHierarchyFrame;
+import org.metacsp.utility.logging.MetaCSPLogging;
 
-import cern.colt.Arrays;
 import edu.uci.ics.jung.graph.DelegateTree;
 import edu.uci.ics.jung.graph.util.TreeUtils;
 
@@ -105,9 +105,9 @@ public abstract class MultiVariable extends Variable {
 		super(cs, id);
 		this.internalSolvers = internalSolvers;
 		this.variables = internalVars;
-		logger.finest("Set internal variables " + (this.variables == null ? this.variables : Arrays.toString(this.variables)));		
+		MetaCSPLogging.finest(logger, "Set internal variables ", this.variables);		
 		this.constraints = this.createInternalConstraints(this.variables);
-		logger.finest("Created internal constraints " + ((this.constraints == null) ? this.constraints : Arrays.toString(this.constraints)));
+		MetaCSPLogging.finest(logger, "Created internal constraints ", this.constraints);
 	}
 
 	/**
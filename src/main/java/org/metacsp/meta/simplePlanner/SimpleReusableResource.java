@@ -68,6 +68,12 @@ public class SimpleReusableResource extends Schedulable {
 		return false;
 	}
 
+	//Usages are given by the domain for each activity, and do not change
+	@Override
+	protected boolean isPeakCacheable() {
+		return true;
+	}
+
 //	@Override
 //	public boolean isConflicting(Activity[] peak) {
 //		int sum = 0;
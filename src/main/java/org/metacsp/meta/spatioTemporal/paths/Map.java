@@ -22,6 +22,7 @@
  ******************************************************************************/
 package org.metacsp.meta.spatioTemporal.paths;
 
+import java.util.IdentityHashMap;
 import java.util.logging.Level;
 
 import org.metacsp.framework.Constraint;
@@ -51,6 +52,10 @@ import com.vividsolutions.jts.geom.Geometry;
 public class Map extends Schedulable {
 	
 	private static final long serialVersionUID = 1841609052418422805L;
+	
+	//Results of intersection tests between envelopes, keyed by their geometries (which are
+	//replaced when an envelope changes), valid until the usage changes
+	private transient IdentityHashMap<Geometry,IdentityHashMap<Geometry,Boolean>> intersections = null;
 
 	/**
 	 * Create a new {@link Map} with given variable and value ordering heuristics.
@@ -73,12 +78,60 @@ public class Map extends Schedulable {
 		GeometricShapeVariable poly2 = te2.getEnvelopeVariable();
 		Geometry shape1 = ((GeometricShapeDomain)poly1.getDomain()).getGeometry();
 		Geometry shape2 = ((GeometricShapeDomain)poly2.getDomain()).getGeometry();
-		boolean conflicting = shape1.intersects(shape2);
+		boolean conflicting = intersects(shape1, shape2);
 		if (!conflicting) return false;
 		logger.finest("Resolving peak "  + Arrays.toString(peak));
 		return true;
 	}
 	
+	//The same pairs of envelopes are tested at every step of backtracking search
+	private boolean intersects(Geometry shape1, Geometry shape2) {
+		if (intersections == null) intersections = new IdentityHashMap<Geometry,IdentityHashMap<Geometry,Boolean>>();
+		IdentityHashMap<Geometry,Boolean> with1 = intersections.get(shape1);
+		if (with1 == null) {
+			with1 = new IdentityHashMap<Geometry,Boolean>();
+			intersections.put(shape1, with1);
+		}
+		Boolean ret = with1.get(shape2);
+		if (ret == null) {
+			//Cheap bounding box test first
+			ret = shape1.getEnvelopeInternal().intersects(shape2.getEnvelopeInternal()) && shape1.intersects(shape2);
+			with1.put(shape2, ret);
+			IdentityHashMap<Geometry,Boolean> with2 = intersections.get(shape2);
+			if (with2 == null) {
+				with2 = new IdentityHashMap<Geometry,Boolean>();
+				intersections.put(shape2, with2);
+			}
+			with2.put(shape1, ret);
+		}
+		return ret;
+	}
+	
+	@Override
+	public void setUsage(Activity... acts) {
+		super.setUsage(acts);
+		//Envelopes are refined by replacing the usage, so entries of the old geometries would pile up
+		intersections = null;
+	}
+	
+	@Override
+	public void removeUsage(Activity... acts) {
+		super.removeUsage(acts);
+		//Forget the intersection tests of envelopes which are no longer used
+		if (intersections == null) return;
+		for (Activity act : acts) {
+			if (!(act instanceof TrajectoryEnvelope)) continue;
+			Geometry shape = ((GeometricShapeDomain)((TrajectoryEnvelope)act).getEnvelopeVariable().getDomain()).getGeometry();
+			IdentityHashMap<Geometry,Boolean> with = intersections.remove(shape);
+			if (with != null) {
+				for (Geometry other : with.keySet()) {
+					IdentityHashMap<Geometry,Boolean> withOther = intersections.get(other);
+					if (withOther != null) withOther.remove(shape);
+				}
+			}
+		}
+	}
+	
 
 	@Override
 	public void draw(ConstraintNetwork network) {
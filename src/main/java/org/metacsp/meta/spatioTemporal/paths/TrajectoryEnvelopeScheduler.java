@@ -24,7 +24,9 @@ package org.metacsp.meta.spatioTemporal.paths;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.TreeSet;
 
 import org.metacsp.framework.Constraint;
@@ -36,7 +38,6 @@ import org.metacsp.multi.activity.ActivityNetworkSolver;
 import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
 import org.metacsp.multi.spatial.DE9IM.DE9IMRelation;
 import org.metacsp.multi.spatial.DE9IM.GeometricShapeDomain;
-import org.metacsp.multi.spatial.DE9IM.GeometricShapeVariable;
 import org.metacsp.multi.spatioTemporal.paths.Pose;
 import org.metacsp.multi.spatioTemporal.paths.PoseSteering;
 import org.metacsp.multi.spatioTemporal.paths.Trajectory;
@@ -57,6 +58,7 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 /**
  * This class is used to backtrack over {@link TrajectoryEnvelope} conflicts (see the {@link Map} meta-constraint).
@@ -69,6 +71,7 @@ public class TrajectoryEnvelopeScheduler extends MetaConstraintSolver {
 	private static final long serialVersionUID = 8551829132754804513L;
 	private HashMap<TrajectoryEnvelope,ArrayList<TrajectoryEnvelope>> refinedWith = new HashMap<TrajectoryEnvelope, ArrayList<TrajectoryEnvelope>>();
 	private static final int MINIMUM_SIZE = 5;
+	private boolean spatialIndex = true;
 
 	/**
 	 * Create a {@link TrajectoryEnvelopeScheduler} with a given origin and temporal horizon.
@@ -89,6 +92,20 @@ public class TrajectoryEnvelopeScheduler extends MetaConstraintSolver {
 		super(new Class[] {AllenIntervalConstraint.class, DE9IMRelation.class}, 0, new TrajectoryEnvelopeSolver(origin, horizon));
 	}
 	
+	/**
+	 * Set whether {@link #refineTrajectoryEnvelopes()} should only examine the pairs of {@link TrajectoryEnvelope}s
+	 * whose bounding boxes intersect (found through a spatial index) and which may not have been examined already,
+	 * rather than all pairs.  The default is <code>true</code>, and refinements are the same in both cases.
+	 * @param spatialIndex Whether candidate pairs for refinement should be found through a spatial index.
+	 */
+	public void setSpatialIndex(boolean spatialIndex) {
+		this.spatialIndex = spatialIndex;
+	}
+
+	public boolean getSpatialIndex() {
+		return spatialIndex;
+	}
+
 	/**
 	 * Get the dependency graph of trajectory envelopes from the resolving constraints added by this
 	 * {@link TrajectoryEnvelopeScheduler}.
@@ -399,30 +416,53 @@ public class TrajectoryEnvelopeScheduler extends MetaConstraintSolver {
 	public ConstraintNetwork refineTrajectoryEnvelopes() {
 		ConstraintNetwork ret = new ConstraintNetwork(null);
 		
+		//Envelopes whose pairs were all examined in the previous iteration: pairs of such envelopes
+		//cannot lead to further refinements, as the conditions for refining only become false
+		HashSet<Variable> examined = null;
 		boolean done = false;
 		while (!done) {
 			done = true;
 			Variable[] varsOneIteration = this.getConstraintSolvers()[0].getVariables();
+			for (Variable var : varsOneIteration) {
+				if (!refinedWith.containsKey(var)) refinedWith.put((TrajectoryEnvelope)var,new ArrayList<TrajectoryEnvelope>());
+			}
+			
+			//Only pairs whose bounding boxes intersect are candidates
+			STRtree index = null;
+			if (spatialIndex) {
+				index = new STRtree();
+				for (int i = 0; i < varsOneIteration.length; i++) {
+					index.insert(getEnvelopeGeometry((TrajectoryEnvelope)varsOneIteration[i]).getEnvelopeInternal(), i);
+				}
+			}
+			
 			for (int i = 0; i < varsOneIteration.length-1; i++) {
-				for (int j = i+1; j < varsOneIteration.length; j++) {
+				ArrayList<Integer> candidates = new ArrayList<Integer>();
+				if (spatialIndex) {
+					boolean newI = examined == null || !examined.contains(varsOneIteration[i]);
+					for (Object item : index.query(getEnvelopeGeometry((TrajectoryEnvelope)varsOneIteration[i]).getEnvelopeInternal())) {
+						int j = (Integer)item;
+						if (j > i && (newI || !examined.contains(varsOneIteration[j]))) candidates.add(j);
+					}
+					//Same order as examining all pairs
+					Collections.sort(candidates);
+				}
+				else {
+					for (int j = i+1; j < varsOneIteration.length; j++) candidates.add(j);
+				}
+				for (int j : candidates) {
 
 					//Get TEs
 					TrajectoryEnvelope te1 = (TrajectoryEnvelope)varsOneIteration[i];
 					TrajectoryEnvelope te2 = (TrajectoryEnvelope)varsOneIteration[j];
 
-					//Init data structures
-					if (!refinedWith.containsKey(te1)) refinedWith.put(te1,new ArrayList<TrajectoryEnvelope>());
-					if (!refinedWith.containsKey(te2)) refinedWith.put(te2,new ArrayList<TrajectoryEnvelope>());
-
 					// If != robots
 					boolean te1HasSub = te1.hasSubEnvelopes();
 					boolean te2HasSub = te2.hasSubEnvelopes();
 					if (te1.getRobotID() != te2.getRobotID()) {
 						//if they intersect
-						GeometricShapeVariable poly1 = te1.getEnvelopeVariable();
-						GeometricShapeVariable poly2 = te2.getEnvelopeVariable();
-						Geometry shape1 = ((GeometricShapeDomain)poly1.getDomain()).getGeometry();
-						Geometry shape2 = ((GeometricShapeDomain)poly2.getDomain()).getGeometry();
+						Geometry shape1 = getEnvelopeGeometry(te1);
+						Geometry shape2 = getEnvelopeGeometry(te2);
 						if (shape1.intersects(shape2)) {
 //							logger.info("===>Refinement 1: " + (!te2HasSub && te1.getRefinable() && !refinedWith.get(te1).contains(te2))+
 //									" Refinement 2: "+(!te1HasSub && te2.getRefinable() && !refinedWith.get(te2).contains(te1)));
@@ -444,12 +484,18 @@ public class TrajectoryEnvelopeScheduler extends MetaConstraintSolver {
 //					logger.info("Refined " + te1 + " into " + te1.getGroundEnvelopes().size() + " envelopes");
 //					logger.info("Refined " + te2 + " into " + te2.getGroundEnvelopes().size() + " envelopes");
 				}
-			}			
+			}
+			examined = new HashSet<Variable>();
+			for (Variable var : varsOneIteration) examined.add(var);
 		}
 		recomputeUsages();
 		return ret;
 	}
 	
+	private static Geometry getEnvelopeGeometry(TrajectoryEnvelope te) {
+		return ((GeometricShapeDomain)te.getEnvelopeVariable().getDomain()).getGeometry();
+	}
+	
 	private void recomputeUsages() {
 		//recompute usages
 		for (Variable v : this.getConstraintSolvers()[0].getVariables()) {
@@ -534,8 +580,9 @@ public class TrajectoryEnvelopeScheduler extends MetaConstraintSolver {
 		
 		boolean in  = false;
 		int countIn = 0;
+		Coordinate[] positions = var1.getTrajectory().getPositions();
 		for (int i = 0; i < var1.getPathLength(); i++) {
-			Coordinate coord = var1.getTrajectory().getPositions()[i];
+			Coordinate coord = positions[i];
 			Point point = gf.createPoint(coord);
 			if (intersectionse1se2.contains(point) && !in) {
 				in = true;
@@ -586,7 +633,7 @@ public class TrajectoryEnvelopeScheduler extends MetaConstraintSolver {
 		}
 		else {	
 			for (int i = 0; i < var1.getPathLength(); i++) {
-				Coordinate coord = var1.getTrajectory().getPositions()[i];
+				Coordinate coord = positions[i];
 				PoseSteering ps = var1.getTrajectory().getPoseSteering()[i];
 				Point point = gf.createPoint(coord);
 				Geometry fp = var1.makeFootprint(ps);
@@ -54,6 +54,12 @@ public class ReusableResource extends Schedulable {
 		return false;
 	}
 
+	//Usages are given by the symbols of activities, which do not change
+	@Override
+	protected boolean isPeakCacheable() {
+		return true;
+	}
+
 	@Override
 	public void draw(ConstraintNetwork network) {
 		// TODO Auto-generated method stub
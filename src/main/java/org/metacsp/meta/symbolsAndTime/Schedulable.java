@@ -22,13 +22,18 @@
  ******************************************************************************/
 package org.metacsp.meta.symbolsAndTime;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Logger;
 
+import org.metacsp.framework.ConstraintBundle;
 import org.metacsp.framework.ConstraintNetwork;
 import org.metacsp.framework.ValueOrderingH;
 import org.metacsp.framework.Variable;
@@ -37,7 +42,9 @@ import org.metacsp.framework.meta.MetaConstraint;
 import org.metacsp.framework.meta.MetaVariable;
 import org.metacsp.multi.activity.Activity;
 import org.metacsp.multi.activity.ActivityComparator;
+import org.metacsp.multi.allenInterval.AllenInterval;
 import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.throwables.InconsistentMCSException;
 import org.metacsp.time.APSPSolver;
 import org.metacsp.time.Bounds;
 import org.metacsp.utility.PowerSet;
@@ -69,8 +76,21 @@ public abstract class Schedulable extends MetaConstraint {
 	}
 
 	protected Vector<Activity> activities;
+
+	//State of the SWEEP peak collection: bounds of activities and peaks found at the start of each
+	//activity at the last collection, and the order of start/end events
+	private HashMap<Activity,long[]> sweepBounds = new HashMap<Activity,long[]>();
+	private HashMap<Activity,Activity[][]> sweepPeaks = new HashMap<Activity,Activity[][]>();
+	private Vector<Activity> sweepStarts = null;
+	private Vector<Activity> sweepEnds = null;
 	
-	public static enum PEAKCOLLECTION {SAMPLING, COMPLETE, BINARY};
+	/**
+	 * Strategies for collecting peaks (sets of temporally overlapping activities which are conflicting):
+	 * SAMPLING and COMPLETE compare activities pairwise, BINARY collects only pairs,
+	 * and SWEEP scans the EST/EET events of activities in temporal order, emitting minimal
+	 * conflicting sets among the activities that are active when each activity starts.
+	 */
+	public static enum PEAKCOLLECTION {SAMPLING, COMPLETE, BINARY, SWEEP};
 	
 	protected PEAKCOLLECTION peakCollectionStrategy = PEAKCOLLECTION.SAMPLING;
 	
@@ -79,6 +99,14 @@ public abstract class Schedulable extends MetaConstraint {
 	}
 	
 	
+	// A peak, i.e., a meta-variable made of the variables of the given activities.  Peaks are only read by
+	// meta-solvers, so they are immutable bundles (meta-values are not, see getResolver())
+	private static ConstraintNetwork makePeak(Activity ... acts) {
+		Variable[] vars = new Variable[acts.length];
+		for (int i = 0; i < acts.length; i++) vars[i] = acts[i].getVariable();
+		return new ConstraintBundle(null, vars);
+	}
+
 	// Finds sets of overlapping activities and assesses whether they are conflicting (e.g., over-consuming a resource)
 	protected ConstraintNetwork[] samplingPeakCollection() {
 
@@ -98,9 +126,7 @@ public abstract class Schedulable extends MetaConstraint {
 			// the resource
 			for (Activity act : activities) {
 				if (isConflicting(new Activity[] {act})) {
-					ConstraintNetwork temp = new ConstraintNetwork(null);
-					temp.addVariable(act.getVariable());
-					ret.add(temp);
+					ret.add(makePeak(act));
 				}
 			}
 	
@@ -140,9 +166,7 @@ public abstract class Schedulable extends MetaConstraint {
 			for (Vector<Activity> overlapping : overlappingAll) {
 				if (overlapping.size() > 1) {
 					Activity first = overlapping.get(0);
-					ConstraintNetwork temp = new ConstraintNetwork(null);
-					for (Activity act : overlapping) temp.addVariable(act.getVariable());
-					usages.put(first, temp);
+					usages.put(first, makePeak(overlapping.toArray(new Activity[overlapping.size()])));
 				}
 			}
 			
@@ -190,8 +214,7 @@ public abstract class Schedulable extends MetaConstraint {
 			for (HashSet<Activity> superSet : superPeaks) {
 				for (Set<Activity> s : PowerSet.powerSet(superSet)) {
 					if (!s.isEmpty()) {
-						ConstraintNetwork cn = new ConstraintNetwork(null);
-						for (Activity a : s) cn.addVariable(a.getVariable()); 
+						ConstraintNetwork cn = makePeak(s.toArray(new Activity[s.size()]));
 						if (!ret.contains(cn) && isConflicting(s.toArray(new Activity[s.size()]))) ret.add(cn);
 					}
 				}
@@ -211,9 +234,7 @@ public abstract class Schedulable extends MetaConstraint {
 			Activity[] groundVars = activities.toArray(new Activity[activities.size()]);
 			for (Activity a : groundVars) {
 				if (isConflicting(new Activity[] {a})) {
-					ConstraintNetwork cn = new ConstraintNetwork(null);
-					cn.addVariable(a.getVariable());
-					ret.add(cn);
+					ret.add(makePeak(a));
 				}
 			}
 			if (!ret.isEmpty()) {
@@ -224,10 +245,7 @@ public abstract class Schedulable extends MetaConstraint {
 					Bounds bi = new Bounds(groundVars[i].getTemporalVariable().getEST(), groundVars[i].getTemporalVariable().getEET());
 					Bounds bj = new Bounds(groundVars[j].getTemporalVariable().getEST(), groundVars[j].getTemporalVariable().getEET());
 					if (bi.intersectStrict(bj) != null && isConflicting(new Activity[] {groundVars[i], groundVars[j]})) {
-						ConstraintNetwork cn = new ConstraintNetwork(null);
-						cn.addVariable(groundVars[i].getVariable());
-						cn.addVariable(groundVars[j].getVariable());
-						ret.add(cn);
+						ret.add(makePeak(groundVars[i], groundVars[j]));
 					}
 				}
 			}
@@ -238,6 +256,217 @@ public abstract class Schedulable extends MetaConstraint {
 		return (new ConstraintNetwork[0]);
 	}
 	
+	// Sweeps the EST/EET events of activities in temporal order: when an activity starts, it is checked
+	// against the activities active at that time (those whose [EST,EET) strictly overlaps it).
+	// Peaks found at each start event are cached (if isPeakCacheable()), and only the events that may be
+	// affected by activities whose bounds have changed since the last call are re-checked.
+	protected ConstraintNetwork[] sweepPeakCollection() {
+		if (!isPeakCacheable()) invalidatePeaks();
+		if (activities != null && !activities.isEmpty()) {
+			logger.finest("Doing sweep peak collection with " + activities.size() + " activities...");
+			final Activity[] groundVars = activities.toArray(new Activity[activities.size()]);
+			final long[] est = new long[groundVars.length];
+			final long[] eet = new long[groundVars.length];
+			for (int i = 0; i < groundVars.length; i++) {
+				est[i] = groundVars[i].getTemporalVariable().getEST();
+				eet[i] = groundVars[i].getTemporalVariable().getEET();
+			}
+
+			//Find the activities whose bounds have changed (or which were added/removed) and the
+			//time spans they covered or cover now
+			boolean[] changed = new boolean[groundVars.length];
+			ArrayList<long[]> dirty = new ArrayList<long[]>();
+			HashMap<Activity,long[]> newBounds = new HashMap<Activity,long[]>();
+			for (int i = 0; i < groundVars.length; i++) {
+				long[] old = sweepBounds.remove(groundVars[i]);
+				if (old == null || old[0] != est[i] || old[1] != eet[i]) {
+					changed[i] = true;
+					dirty.add(new long[] {est[i], eet[i]});
+					if (old != null) dirty.add(old);
+				}
+				newBounds.put(groundVars[i], new long[] {est[i], eet[i]});
+			}
+			for (Activity removed : sweepBounds.keySet()) {
+				dirty.add(sweepBounds.get(removed));
+				sweepPeaks.remove(removed);
+			}
+			sweepBounds = newBounds;
+			long[][] dirtySpans = mergeSpans(dirty);
+
+			//Stable sort of the previous order, which is (nearly) sorted if few bounds have changed
+			HashMap<Activity,Integer> index = new HashMap<Activity,Integer>();
+			for (int i = 0; i < groundVars.length; i++) index.put(groundVars[i], i);
+			final Integer[] starts = sweepOrder(sweepStarts, index);
+			final Integer[] ends = sweepOrder(sweepEnds, index);
+			Arrays.sort(starts, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) { return Long.compare(est[o1], est[o2]); }
+			});
+			Arrays.sort(ends, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) { return Long.compare(eet[o1], eet[o2]); }
+			});
+			sweepStarts = new Vector<Activity>(groundVars.length);
+			sweepEnds = new Vector<Activity>(groundVars.length);
+			for (int i = 0; i < groundVars.length; i++) {
+				sweepStarts.add(groundVars[starts[i]]);
+				sweepEnds.add(groundVars[ends[i]]);
+			}
+
+			ArrayList<Activity> active = new ArrayList<Activity>();
+			boolean[] isActive = new boolean[groundVars.length];
+			int nextEnd = 0;
+			for (int s = 0; s < starts.length; s++) {
+				int i = starts[s];
+				//Activities ending at or before this start do not overlap it
+				while (nextEnd < ends.length && eet[ends[nextEnd]] <= est[i]) {
+					if (isActive[ends[nextEnd]]) {
+						active.remove(groundVars[ends[nextEnd]]);
+						isActive[ends[nextEnd]] = false;
+					}
+					nextEnd++;
+				}
+				Activity act = groundVars[i];
+				if (changed[i] || inSpans(dirtySpans, est[i]) || !sweepPeaks.containsKey(act)) {
+					sweepPeaks.put(act, peaksAtStart(act, est[i] < eet[i] ? active : null));
+				}
+				if (est[i] < eet[i]) {
+					active.add(act);
+					isActive[i] = true;
+				}
+			}
+
+			Vector<ConstraintNetwork> ret = new Vector<ConstraintNetwork>();
+			HashSet<HashSet<Activity>> emitted = new HashSet<HashSet<Activity>>();
+			for (Activity act : sweepStarts) {
+				for (Activity[] peak : sweepPeaks.get(act)) {
+					if (peak.length > 2 && !emitted.add(new HashSet<Activity>(Arrays.asList(peak)))) continue;
+					ret.add(makePeak(peak));
+				}
+			}
+			logger.finest("Done sweep peak collection");
+			return ret.toArray(new ConstraintNetwork[ret.size()]);
+		}
+		invalidatePeaks();
+		return (new ConstraintNetwork[0]);
+	}
+
+	/**
+	 * Get whether the {@link PEAKCOLLECTION#SWEEP} strategy can reuse the peaks found at the previous call
+	 * for activities whose temporal bounds have not changed.  This holds if {@link #isConflicting(Activity[])} depends only
+	 * on properties of activities that do not change during search (e.g., a fixed resource usage).  The default is
+	 * <code>false</code>, as conflicts may depend on other parts of the constraint network (e.g., the symbols of activities),
+	 * in which case all peaks are re-checked at every call.
+	 * @return <code>true</code> iff peaks can be cached across calls to {@link #getMetaVariables()}.
+	 */
+	protected boolean isPeakCacheable() {
+		return false;
+	}
+
+	/**
+	 * Discard the peaks cached by the {@link PEAKCOLLECTION#SWEEP} strategy (see {@link #isPeakCacheable()}).  Changes in the temporal
+	 * bounds of activities are detected automatically, other changes which affect
+	 * {@link #isConflicting(Activity[])} (e.g., the capacity of a resource) require calling this method.
+	 */
+	public void invalidatePeaks() {
+		sweepBounds = new HashMap<Activity,long[]>();
+		sweepPeaks = new HashMap<Activity,Activity[][]>();
+		sweepStarts = null;
+		sweepEnds = null;
+	}
+
+	// Peaks including act and the given active activities (null if act cannot overlap others)
+	private Activity[][] peaksAtStart(Activity act, ArrayList<Activity> active) {
+		ArrayList<Activity[]> ret = new ArrayList<Activity[]>();
+		if (isConflicting(new Activity[] {act})) ret.add(new Activity[] {act});
+		if (active != null && !active.isEmpty()) {
+			Activity[] pair = new Activity[2];
+			pair[0] = act;
+			for (Activity other : active) {
+				pair[1] = other;
+				if (isConflicting(pair)) ret.add(new Activity[] {other, act});
+			}
+			if (ret.isEmpty() || ret.size() == 1 && ret.get(0).length == 1) {
+				Activity[] peak = minimalPeak(act, active);
+				if (peak != null && peak.length > 1) ret.add(peak);
+			}
+		}
+		return ret.toArray(new Activity[ret.size()][]);
+	}
+
+	// Indices of the activities in the given order, followed by those not in it
+	private static Integer[] sweepOrder(Vector<Activity> previous, HashMap<Activity,Integer> index) {
+		Integer[] ret = new Integer[index.size()];
+		boolean[] added = new boolean[index.size()];
+		int size = 0;
+		if (previous != null) {
+			for (Activity act : previous) {
+				Integer i = index.get(act);
+				if (i != null) {
+					ret[size++] = i;
+					added[i] = true;
+				}
+			}
+		}
+		for (int i = 0; i < added.length; i++) if (!added[i]) ret[size++] = i;
+		return ret;
+	}
+
+	// Sorted, disjoint spans covering the given (closed) spans
+	private static long[][] mergeSpans(ArrayList<long[]> spans) {
+		long[][] sorted = spans.toArray(new long[spans.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) { return Long.compare(o1[0], o2[0]); }
+		});
+		ArrayList<long[]> ret = new ArrayList<long[]>();
+		for (long[] span : sorted) {
+			long[] last = ret.isEmpty() ? null : ret.get(ret.size()-1);
+			if (last != null && span[0] <= last[1]) last[1] = Math.max(last[1], span[1]);
+			else ret.add(new long[] {span[0], span[1]});
+		}
+		return ret.toArray(new long[ret.size()][]);
+	}
+
+	private static boolean inSpans(long[][] spans, long t) {
+		int low = 0, high = spans.length-1;
+		while (low <= high) {
+			int mid = (low+high) >>> 1;
+			if (spans[mid][1] < t) low = mid+1;
+			else if (spans[mid][0] > t) high = mid-1;
+			else return true;
+		}
+		return false;
+	}
+
+	// Grows a peak from act with the given (overlapping) activities until it is conflicting, then removes
+	// the activities that are not needed for the conflict.  Returns null if there is no conflict.
+	private Activity[] minimalPeak(Activity act, ArrayList<Activity> overlapping) {
+		Activity[] peak = new Activity[overlapping.size()+1];
+		peak[0] = act;
+		int size = 1;
+		boolean conflicting = false;
+		for (Activity other : overlapping) {
+			peak[size++] = other;
+			if (isConflicting(Arrays.copyOf(peak, size))) {
+				conflicting = true;
+				break;
+			}
+		}
+		if (!conflicting) return null;
+		//The last activity is needed (the peak was not conflicting without it), the others may not be
+		for (int i = size-2; i > 0; i--) {
+			Activity[] smaller = new Activity[size-1];
+			System.arraycopy(peak, 0, smaller, 0, i);
+			System.arraycopy(peak, i+1, smaller, i, size-i-1);
+			if (isConflicting(smaller)) {
+				peak = smaller;
+				size--;
+			}
+		}
+		return Arrays.copyOf(peak, size);
+	}
+
 //	private ConstraintNetwork[] binaryPeakCollection() {
 //		ConstraintNetwork[] nonMinimalPeaks = this.completePeakCollection();
 //		Vector<ConstraintNetwork> ret = null;
@@ -260,6 +489,8 @@ public abstract class Schedulable extends MetaConstraint {
 			return samplingPeakCollection();
 		else if (peakCollectionStrategy.equals(PEAKCOLLECTION.BINARY))
 			return binaryPeakCollection();
+		else if (peakCollectionStrategy.equals(PEAKCOLLECTION.SWEEP))
+			return sweepPeakCollection();
 		return completePeakCollection();
 	}
 
@@ -281,20 +512,69 @@ public abstract class Schedulable extends MetaConstraint {
 			return null;
 		}
 		
-		for (MCSData mcs : mcsinfo) {
-			AllenIntervalConstraint before = new AllenIntervalConstraint(AllenIntervalConstraint.Type.BeforeOrMeets, new Bounds(this.beforeParameter, APSPSolver.INF));
-			before.setFrom(mcs.mcsActFrom.getVariable());			
-			before.setTo(mcs.mcsActTo.getVariable());
-			ConstraintNetwork resolver = new ConstraintNetwork(mcs.mcsActFrom.getVariable().getConstraintSolver());
-			resolver.addVariable(mcs.mcsActFrom.getVariable());
-			resolver.addVariable(mcs.mcsActTo.getVariable());
-			resolver.addConstraint(before);
-			ret.add(resolver);
-		}
+		for (MCSData mcs : mcsinfo) ret.add(getResolver(mcs));
 
 		return ret.toArray(new ConstraintNetwork[ret.size()]);
 
 	}
+
+	// The resolver of an MCS: the first activity must precede the second.  Resolvers are modifiable networks,
+	// as meta-solvers (e.g., planners) may rewrite the constraints of a meta-value when adding it
+	private ConstraintNetwork getResolver(MCSData mcs) {
+		AllenIntervalConstraint before = new AllenIntervalConstraint(AllenIntervalConstraint.Type.BeforeOrMeets, new Bounds(this.beforeParameter, APSPSolver.INF));
+		before.setFrom(mcs.mcsActFrom.getVariable());			
+		before.setTo(mcs.mcsActTo.getVariable());
+		ConstraintNetwork resolver = new ConstraintNetwork(mcs.mcsActFrom.getVariable().getConstraintSolver());
+		resolver.addVariable(mcs.mcsActFrom.getVariable());
+		resolver.addVariable(mcs.mcsActTo.getVariable());
+		resolver.addConstraint(before);
+		return resolver;
+	}
+
+	/**
+	 * Get the resolvers of the given peak one at a time, by decreasing k (see {@link #getOrderedMCSs(ConstraintNetwork)}).
+	 * Resolvers are built only when they are requested.  If a {@link ValueOrderingH} is set, or if
+	 * {@link #getMetaValues(MetaVariable)} is overridden, all values are built and sorted instead.
+	 */
+	@Override
+	public Iterator<ConstraintNetwork> getMetaValueIterator(final MetaVariable metaVariable) {
+		if (valOH != null || !isMetaValuesInherited()) return super.getMetaValueIterator(metaVariable);
+		final MCSData[] mcsinfo = getOrderedMCSs(metaVariable.getConstraintNetwork());
+		if (mcsinfo == null) return null;
+		return new Iterator<ConstraintNetwork>() {
+			private int next = 0;
+			@Override
+			public boolean hasNext() {
+				return next < mcsinfo.length;
+			}
+			@Override
+			public ConstraintNetwork next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				ConstraintNetwork ret = getResolver(mcsinfo[next++]);
+				ret.setAnnotation(metaVariable);
+				return ret;
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// Whether getMetaValues() is the one defined in this class, looked up once per subclass
+	private static final ClassValue<Boolean> metaValuesInherited = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("getMetaValues", MetaVariable.class).getDeclaringClass().equals(Schedulable.class);
+			}
+			catch (NoSuchMethodException e) { return false; }
+		}
+	};
+
+	private boolean isMetaValuesInherited() {
+		return metaValuesInherited.get(this.getClass());
+	}
 	
 	
 	/**
@@ -302,167 +582,133 @@ public abstract class Schedulable extends MetaConstraint {
 	 * of the amount of flexibility which is maintained when imposing a temporal constraint that resolves an MCS -
 	 * see [P. Laborie, M. Ghallab, "Planning with Sharable Resource Constraints", IJCAI 1995].
 	 * @param peak The peaks from which to sample MCSs and compute the k-based ordering.
-	 * @return An ordered array of {@link MCSData} objects.
+	 * @return An ordered array of {@link MCSData} objects, or <code>null</code> if the peak contains an unresolvable MCS.
+	 * @throws InconsistentMCSException If the temporal bounds of two activities in the peak are inconsistent.
 	 */
-	public MCSData[] getOrderedMCSs(ConstraintNetwork peak)
-	{
-		
-		//System.out.println("PEAK SIZE: " + peak.getVariables().length);
-		
-		Vector<Variable[]> mcslist = new Vector<Variable[]>();
-		
+	public MCSData[] getOrderedMCSs(ConstraintNetwork peak) {
+		return getOrderedMCSs(peak, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get the (at most) <code>maxMCSs</code> {@link MCSData} objects with the highest k (see {@link #getOrderedMCSs(ConstraintNetwork)}),
+	 * ordered according to decreasing k.  Only the returned {@link MCSData} objects are created.
+	 * @param peak The peaks from which to sample MCSs and compute the k-based ordering.
+	 * @param maxMCSs The maximum number of {@link MCSData} objects to return.
+	 * @return An ordered array of {@link MCSData} objects, or <code>null</code> if the peak contains an unresolvable MCS.
+	 * @throws InconsistentMCSException If the temporal bounds of two activities in the peak are inconsistent.
+	 */
+	public MCSData[] getOrderedMCSs(ConstraintNetwork peak, int maxMCSs) {
 		Variable[] vars = peak.getVariables();
-		for (int i = 0; i < vars.length; i++) {
-			for (int j = i+1; j < vars.length; j++) {
-				Variable[] oneMcs = new Variable[2];
-				oneMcs[0] = vars[i];
-				oneMcs[1] = vars[j];
-				mcslist.add(oneMcs);
-			}
+		int n = vars.length;
+
+		//Read the bounds only once
+		long[] est = new long[n];
+		long[] eet = new long[n];
+		long[] lst = new long[n];
+		long[] let = new long[n];
+		for (int i = 0; i < n; i++) {
+			AllenInterval interval = ((Activity)vars[i]).getTemporalVariable();
+			est[i] = interval.getEST();
+			eet[i] = interval.getEET();
+			lst[i] = interval.getLST();
+			let[i] = interval.getLET();
 		}
 
-		//MCSData[] mcsinfo = new MCSData[mcslist.size()];
-		Vector<MCSData> mcsinfo = new Vector<MCSData>();
-		
-		int index = 0;
-		boolean unresMCSFound = false;
-		//System.out.println("MCSINFO size: " + mcsinfo.length);
-		
-		while((!unresMCSFound) && (index < mcslist.size())) //Per ogni MCS
-		{
-			float pcmin = 1.0f; //Valore del pcmin
-			float pcminBad = 1.0f; //Valore del pcmin
-			float kReciprocal = 0.0f; //Reciproco di K (Ribaltare prima di uscire)
-			Variable actFrom = null;
-			Variable actTo = null;
-			int unresMCS = 0;
-			
-			Variable[] currentMcs = mcslist.elementAt(index);
-			//Vector che conterrà i valori dei commit
-			Vector<Float> pcVector = new Vector<Float>();
-			
-			int mcsSize = currentMcs.length;
-						
-			//Per ogni coppia di attività {Ag, Ah} dell'MCS
-			for (int g = 0; g < mcsSize; g++)
-			{
-				long est1 = ((Activity)currentMcs[g]).getTemporalVariable().getEST();
-				long eet1 = ((Activity)currentMcs[g]).getTemporalVariable().getEST();
-				long lst1 = ((Activity)currentMcs[g]).getTemporalVariable().getLST();
-				long let1 = ((Activity)currentMcs[g]).getTemporalVariable().getLET();
-			
-				for (int h = g+1; h < mcsSize; h++)
-				{
-					long est2 = ((Activity)currentMcs[h]).getTemporalVariable().getEST();
-					long eet2 = ((Activity)currentMcs[h]).getTemporalVariable().getEET();
-					long lst2 = ((Activity)currentMcs[h]).getTemporalVariable().getLST();
-					long let2 = ((Activity)currentMcs[h]).getTemporalVariable().getLET();
-
-					//Analisi coppia diretta
-					long dmin = est2 - let1;
-					long dmax = lst2 - eet1;
-
-					if(dmin > dmax)
-					{
-						logger.severe("Direct pair and dmin > dmax: IMPOSSIBLE");
-						System.exit(0);
-					}
-					
-					float pc = 0.0f; //pc corrente
-					if(dmin != dmax) 
-					{
-						pc = ((float)(Math.min(dmax, 0) - Math.min(dmin, 0)))/((float)(dmax - dmin));
-						pcVector.add(pc);
-												
-						if(pc < pcmin)
-						{
-							//System.out.println("ADDED DIRECT: " + pc);
-							pcmin = pc;
-							pcminBad = pcmin;
-							actFrom = currentMcs[g];
-							actTo = currentMcs[h];
-						}
-						else
-						{
-							unresMCS++;
-						}
-					}
-					else //If dmin == dmax, we can skip the analysis of the pair {Ag, Ah}
-					{
-						unresMCS++;
-					}
-										
-					//Analisi coppia inversa
-					dmin = est1 - let2;
-					dmax = lst1 - eet2;
-
-					if(dmin > dmax)
-					{
-						logger.severe("Inverse pair and dmin > dmax: IMPOSSIBLE");
-						System.exit(0);
-					}
-					
-					if(dmin != dmax) //Se dmin == dmax, possiamo skippare l'analisi della coppia {Ag, Ah}
-					{
-						pc = ((float)(Math.min(dmax, 0) - Math.min(dmin, 0)))/((float)(dmax - dmin));
-						pcVector.add(pc);
-						
-						if(pc < pcmin)
-						{
-							//System.out.println("ADDED INVERSE: " + pc);
-							pcmin = pc;
-							actFrom = currentMcs[h];
-							actTo = currentMcs[g];
-						}
-						else
-						{
-							unresMCS++;
-						}
+		//Each MCS is a pair of activities, and yields two MCSData (one per sequencing)
+		int numMCSData = n*(n-1);
+		float[] mcsPcMin = new float[numMCSData];
+		float[] mcsK = new float[numMCSData];
+		int[] mcsFrom = new int[numMCSData];
+		int[] mcsTo = new int[numMCSData];
+		int count = 0;
+
+		for (int g = 0; g < n; g++) {
+			for (int h = g+1; h < n; h++) {
+				float pcmin = 1.0f;
+				float pcminBad = 1.0f;
+				int actFrom = -1;
+				int actTo = -1;
+				int unresMCS = 0;
+
+				//Direct pair (NOTE: the EST of the first activity is used as its EET, as in previous versions)
+				long dmin = est[h] - let[g];
+				long dmax = lst[h] - est[g];
+				if (dmin > dmax) {
+					logger.severe("Direct pair and dmin > dmax: IMPOSSIBLE");
+					throw new InconsistentMCSException((Activity)vars[g], (Activity)vars[h]);
+				}
+				boolean direct = dmin != dmax;
+				float pcDirect = 0.0f;
+				if (direct) {
+					pcDirect = ((float)(Math.min(dmax, 0) - Math.min(dmin, 0)))/((float)(dmax - dmin));
+					if (pcDirect < pcmin) {
+						pcmin = pcDirect;
+						pcminBad = pcmin;
+						actFrom = g;
+						actTo = h;
 					}
-					else
-					{
-						unresMCS++;
+					else unresMCS++;
+				}
+				else unresMCS++;
+
+				//Inverse pair
+				dmin = est[g] - let[h];
+				dmax = lst[g] - eet[h];
+				if (dmin > dmax) {
+					logger.severe("Inverse pair and dmin > dmax: IMPOSSIBLE");
+					throw new InconsistentMCSException((Activity)vars[h], (Activity)vars[g]);
+				}
+				boolean inverse = dmin != dmax;
+				float pcInverse = 0.0f;
+				if (inverse) {
+					pcInverse = ((float)(Math.min(dmax, 0) - Math.min(dmin, 0)))/((float)(dmax - dmin));
+					if (pcInverse < pcmin) {
+						pcmin = pcInverse;
+						actFrom = h;
+						actTo = g;
 					}
-				}					
-			}
-			
-			//SE INCONTRIAMO UN MCS IRRISOLVIBILE POSSIAMO INTERROMPERE IL CICLO: LA SOLUZIONE E' IMPOSSIBILE
-			if(unresMCS < (mcsSize*(mcsSize-1)))
-			{
-				//Calcolo del K(MCS)
-				for(int g=0; g<pcVector.size(); g++)
-				{
-					//Dbg.printMsg("" + pcVector.elementAt(g), LogLvl.Normal);
-					kReciprocal += 1.0f/(1.0f + pcVector.elementAt(g) - pcmin);
+					else unresMCS++;
 				}
-						
-				//mcsinfo[index] = new MCSData(pcmin, (Activity)actFrom, (Activity)actTo, (kReciprocal == 0.0f) ? 1 : 1.0f/kReciprocal);			
-				mcsinfo.add(new MCSData(pcmin, (Activity)actFrom, (Activity)actTo, (kReciprocal == 0.0f) ? 1 : 1.0f/kReciprocal));
-				mcsinfo.add(new MCSData(pcminBad, (Activity)actTo, (Activity)actFrom, (kReciprocal == 0.0f) ? 1 : 1.0f/kReciprocal));
-				index++;
-			}
-			else
-			{
-				unresMCSFound = true;
+				else unresMCS++;
+
+				//An unresolvable MCS means that there is no solution
+				if (unresMCS >= 2) return null;
+
+				float kReciprocal = 0.0f;
+				if (direct) kReciprocal += 1.0f/(1.0f + pcDirect - pcmin);
+				if (inverse) kReciprocal += 1.0f/(1.0f + pcInverse - pcmin);
+				float k = (kReciprocal == 0.0f) ? 1 : 1.0f/kReciprocal;
+				mcsPcMin[count] = pcmin;
+				mcsFrom[count] = actFrom;
+				mcsTo[count] = actTo;
+				mcsK[count++] = k;
+				mcsPcMin[count] = pcminBad;
+				mcsFrom[count] = actTo;
+				mcsTo[count] = actFrom;
+				mcsK[count++] = k;
 			}
 		}
 
-		MCSData[] mcsinfoArray = mcsinfo.toArray(new MCSData[mcsinfo.size()]);
-		//Se abbiamo trovato una soluzione
-		if(!unresMCSFound)
-		{
-			//Arrays.sort(mcsinfo);		
-			Arrays.sort(mcsinfoArray);
+		//Indices of the MCSData to return, by decreasing k (ties in order of generation)
+		int[] selected = new int[Math.min(count, Math.max(maxMCSs, 0))];
+		int numSelected = 0;
+		for (int i = 0; i < count && selected.length > 0; i++) {
+			if (numSelected == selected.length && mcsK[i] <= mcsK[selected[numSelected-1]]) continue;
+			int pos = numSelected == selected.length ? numSelected-1 : numSelected++;
+			while (pos > 0 && mcsK[selected[pos-1]] < mcsK[i]) {
+				selected[pos] = selected[pos-1];
+				pos--;
+			}
+			selected[pos] = i;
 		}
-		else
-		{
-			//mcsinfo = null;
-			mcsinfoArray = null;
+
+		MCSData[] ret = new MCSData[numSelected];
+		for (int i = 0; i < numSelected; i++) {
+			int j = selected[i];
+			ret[i] = new MCSData(mcsPcMin[j], (Activity)vars[mcsFrom[j]], (Activity)vars[mcsTo[j]], mcsK[j]);
 		}
-		
-		//return mcsinfo;
-		return mcsinfoArray;
-	}	
+		return ret;
+	}
 
 	protected boolean temporalOverlap(Activity a1, Activity a2) {
 		return !(
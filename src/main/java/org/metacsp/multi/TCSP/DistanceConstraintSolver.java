@@ -22,16 +22,15 @@
  ******************************************************************************/
 package org.metacsp.multi.TCSP;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 
-import org.metacsp.framework.ConstraintNetwork;
+import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintSolver;
 import org.metacsp.framework.Variable;
 import org.metacsp.framework.multi.MultiConstraintSolver;
 import org.metacsp.time.APSPSolver;
 import org.metacsp.time.Bounds;
-import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint;
-import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint.Type;
 
 public class DistanceConstraintSolver extends MultiConstraintSolver {
 
@@ -39,7 +38,7 @@ public class DistanceConstraintSolver extends MultiConstraintSolver {
 	private MultiTimePoint source = null;
 	private MultiTimePoint sink = null;
 	
-	private ConstraintNetwork completeNetwork = null;
+	private int maxFragments = 0;
 	
 	public DistanceConstraintSolver(long origin, long horizon) {
 		super(new Class[]{DistanceConstraint.class}, MultiTimePoint.class, createConstraintSolvers(origin, horizon), new int[] {1});	
@@ -66,86 +65,141 @@ public class DistanceConstraintSolver extends MultiConstraintSolver {
 //		return ret;
 //	}
 	
-	private void createCompleteNetwork() {
-		this.completeNetwork = new ConstraintNetwork(this);
-		ConstraintNetwork originalNetwork = this.getConstraintNetwork();
-		for (Variable var : originalNetwork.getVariables()) this.completeNetwork.addVariable(var);
-		//for (Constraint con : originalNetwork.getConstraints()) this.completeNetwork.addConstraint(con);
-		Variable[] vars = this.completeNetwork.getVariables();
-		for (int i = 0; i < vars.length; i++) {
-			for (int j = 0; j < vars.length; j++) {
-				if (i != j) {
-					if (originalNetwork.getConstraint(vars[i],vars[j]) == null) {
-						if (originalNetwork.getConstraint(vars[j],vars[i]) != null) {
-							//add inverse
-							DistanceConstraint orig = (DistanceConstraint)originalNetwork.getConstraint(vars[j],vars[i]);
-							Bounds[] origBounds = orig.getBounds();
-							Bounds[] inverseBounds = new Bounds[origBounds.length];
-							for (int k = 0; k < origBounds.length; k++) {
-								// i --[10,20]--> j ==> i --(20)--> j + j --(-10)--> i
-								// j --[-20,-10]--> i ==> j --(-10)--> i + i --(20)--> j
-								inverseBounds[k] = new Bounds(-origBounds[k].max, -origBounds[k].min);
-							}
-							DistanceConstraint inverse = new DistanceConstraint(inverseBounds);
-							inverse.setFrom(vars[i]);
-							inverse.setTo(vars[j]);
-							this.completeNetwork.addConstraint(inverse);
-						}
-						else {
-							//create universal relation
-							Bounds universalBounds = new Bounds(-APSPSolver.INF, APSPSolver.INF);
-							DistanceConstraint universal = new DistanceConstraint(universalBounds);
-							universal.setFrom(vars[i]);
-							universal.setTo(vars[j]);
-							this.completeNetwork.addConstraint(universal);
-						}
-					}
-					else {
-						//add copy of constraint to complete network
-						DistanceConstraint orig = (DistanceConstraint)originalNetwork.getConstraint(vars[i],vars[j]);
-						Bounds[] origBounds = orig.getBounds();
-						Bounds[] newBounds = new Bounds[origBounds.length];
-						for (int k = 0; k < origBounds.length; k++) {
-							newBounds[k] = new Bounds(origBounds[k].min, origBounds[k].max);
-						}
-						DistanceConstraint copy = new DistanceConstraint(newBounds);
-						copy.setFrom(vars[i]);
-						copy.setTo(vars[j]);						
-						this.completeNetwork.addConstraint(copy);
-					}
+	/**
+	 * Set the maximum number of intervals kept in the composition of two disjunctive constraints during propagation.
+	 * When a composition has more intervals, the closest ones are joined, which over-approximates the composition:
+	 * propagation stays sound but prunes less.  With a maximum of one interval, propagation amounts to upper-lower
+	 * tightening (ULT), i.e., each composition is replaced by its hull.
+	 * @param maxFragments The maximum number of intervals in a composition (0 for no maximum).
+	 */
+	public void setMaxFragments(int maxFragments) {
+		this.maxFragments = maxFragments;
+	}
+
+	/**
+	 * @return The maximum number of intervals kept in the composition of two disjunctive constraints during propagation (0 for no maximum).
+	 */
+	public int getMaxFragments() {
+		return maxFragments;
+	}
+
+	//Disjunctions are sorted lists of disjoint intervals, stored as {min0, max0, min1, max1, ...}
+	private static long[] toList(Bounds ... bounds) {
+		Bounds[] sorted = Arrays.copyOf(bounds, bounds.length);
+		Arrays.sort(sorted, new Comparator<Bounds>() {
+			@Override
+			public int compare(Bounds o1, Bounds o2) {
+				return o1.min < o2.min ? -1 : (o1.min == o2.min ? 0 : 1);
+			}
+		});
+		long[] ret = new long[2*sorted.length];
+		int n = 0;
+		for (Bounds b : sorted) n = append(ret, n, b.min, b.max);
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
+	}
+
+	private static Bounds[] toBounds(long[] list) {
+		Bounds[] ret = new Bounds[list.length/2];
+		for (int i = 0; i < ret.length; i++) ret[i] = new Bounds(list[2*i], list[2*i+1]);
+		return ret;
+	}
+
+	//Append an interval starting no earlier than the last one, joining the two if they overlap
+	private static int append(long[] list, int n, long min, long max) {
+		if (n > 0 && min <= list[n-1]) {
+			if (max > list[n-1]) list[n-1] = max;
+			return n;
+		}
+		list[n] = min;
+		list[n+1] = max;
+		return n+2;
+	}
+
+	//Sum of two distances, saturating at (-)INF
+	private static long add(long d1, long d2) {
+		if (d1 >= APSPSolver.INF || d2 >= APSPSolver.INF) return APSPSolver.INF;
+		if (d1 <= -APSPSolver.INF || d2 <= -APSPSolver.INF) return -APSPSolver.INF;
+		return Math.max(-APSPSolver.INF, Math.min(APSPSolver.INF, d1+d2));
+	}
+
+	//Composition as the union of the second list shifted by each interval of the first, each shift merged in linear time
+	private static long[] compose(long[] l1, long[] l2, int maxFragments) {
+		long[] ret = new long[0];
+		for (int i = 0; i < l1.length; i += 2) {
+			long[] merged = new long[ret.length+l2.length];
+			int n = 0, r = 0, s = 0;
+			while (r < ret.length || s < l2.length) {
+				if (s >= l2.length || (r < ret.length && ret[r] <= add(l1[i], l2[s]))) {
+					n = append(merged, n, ret[r], ret[r+1]);
+					r += 2;
+				}
+				else {
+					n = append(merged, n, add(l1[i], l2[s]), add(l1[i+1], l2[s+1]));
+					s += 2;
 				}
-			}	
+			}
+			ret = n == merged.length ? merged : Arrays.copyOf(merged, n);
 		}
+		if (maxFragments > 0) ret = approximate(ret, maxFragments);
+		return ret;
 	}
-	
-	public DistanceConstraint getComposition(DistanceConstraint c1, DistanceConstraint c2) {
-		Bounds[] b1 = c1.getBounds();
-		Bounds[] b2 = c2.getBounds();
-		ArrayList<Bounds> compBounds = new ArrayList<Bounds>();
-		for (int i = 0; i < b1.length; i++) {
-			for (int j = 0; j < b2.length; j++) {
-				Bounds oneSum = new Bounds(b1[i].min+b2[j].min, b1[i].max+b2[j].max);
-				compBounds.add(oneSum);
+
+	//Join the intervals separated by the smallest gaps until at most maxFragments are left
+	private static long[] approximate(long[] list, int maxFragments) {
+		int fragments = list.length/2;
+		if (fragments <= maxFragments) return list;
+		long[] gaps = new long[fragments-1];
+		for (int i = 0; i < gaps.length; i++) gaps[i] = list[2*i+2]-list[2*i+1];
+		long[] sortedGaps = gaps.clone();
+		Arrays.sort(sortedGaps);
+		//Gaps up to the threshold are closed, those equal to it only as long as needed
+		long threshold = sortedGaps[fragments-maxFragments-1];
+		int atThreshold = fragments-maxFragments;
+		for (long g : sortedGaps) if (g < threshold) atThreshold--;
+		long[] ret = new long[2*maxFragments];
+		int n = 0;
+		ret[n++] = list[0];
+		for (int i = 0; i < gaps.length; i++) {
+			boolean close = gaps[i] < threshold || (gaps[i] == threshold && atThreshold-- > 0);
+			if (!close) {
+				ret[n++] = list[2*i+1];
+				ret[n++] = list[2*i+2];
 			}
 		}
-		
-		//Filter out bounds that are contained in other bounds
-		ArrayList<Bounds> toRemove = new ArrayList<Bounds>();
-		for (int i = 0; i < compBounds.size(); i++) {
-			for (int j = 0; j < compBounds.size(); j++) {
-				if (i != j) {
-					if (compBounds.get(i).min >= compBounds.get(j).min && compBounds.get(i).max <= compBounds.get(j).max) {
-						toRemove.add(compBounds.get(i));
-					}
-				}
-			}	
+		ret[n++] = list[list.length-1];
+		return ret;
+	}
+
+	//Intersection of two lists in linear time
+	private static long[] intersect(long[] l1, long[] l2) {
+		long[] ret = new long[l1.length+l2.length];
+		int n = 0, r = 0, s = 0;
+		while (r < l1.length && s < l2.length) {
+			long min = Math.max(l1[r], l2[s]);
+			long max = Math.min(l1[r+1], l2[s+1]);
+			if (min <= max) {
+				ret[n++] = min;
+				ret[n++] = max;
+			}
+			if (l1[r+1] < l2[s+1]) r += 2;
+			else s += 2;
 		}
-		for (Bounds b : toRemove) compBounds.remove(b);
-		
-		DistanceConstraint ret = new DistanceConstraint(compBounds.toArray(new Bounds[compBounds.size()]));
+		return n == ret.length ? ret : Arrays.copyOf(ret, n);
+	}
+
+	private static long[] inverse(long[] list) {
+		long[] ret = new long[list.length];
+		for (int i = 0; i < list.length; i += 2) {
+			ret[list.length-i-2] = -list[i+1];
+			ret[list.length-i-1] = -list[i];
+		}
+		return ret;
+	}
+
+	public DistanceConstraint getComposition(DistanceConstraint c1, DistanceConstraint c2) {
+		DistanceConstraint ret = new DistanceConstraint(toBounds(compose(toList(c1.getBounds()), toList(c2.getBounds()), maxFragments)));
 		ret.setFrom(c1.getFrom());
 		ret.setTo(c2.getTo());
-		
 		return ret;
 	}
 	
@@ -153,21 +207,10 @@ public class DistanceConstraintSolver extends MultiConstraintSolver {
 		
 		if (!c1.getFrom().equals(c2.getFrom()) || !c1.getTo().equals(c2.getTo())) return null;
 		
-		Bounds[] b1 = c1.getBounds();
-		Bounds[] b2 = c2.getBounds();
-		ArrayList<Bounds> intBounds = new ArrayList<Bounds>();
-		for (int i = 0; i < b1.length; i++) {
-			for (int j = 0; j < b2.length; j++) {
-				if (b1[i].isIntersecting(b2[j])) {
-					Bounds oneInt = b1[i].intersect(b2[j]);
-					intBounds.add(oneInt);					
-				}
-			}
-		}
-		
-		if (intBounds.isEmpty()) return null;
+		long[] inters = intersect(toList(c1.getBounds()), toList(c2.getBounds()));
+		if (inters.length == 0) return null;
 		
-		DistanceConstraint ret = new DistanceConstraint(intBounds.toArray(new Bounds[intBounds.size()]));
+		DistanceConstraint ret = new DistanceConstraint(toBounds(inters));
 		ret.setFrom(c1.getFrom());
 		ret.setTo(c1.getTo());
 		
@@ -178,48 +221,67 @@ public class DistanceConstraintSolver extends MultiConstraintSolver {
 	public boolean propagate() {
 		// APSPSolver will also propagate what it can...
 		// but first, let's reduce these intervals!
-		this.createCompleteNetwork();
-		boolean fixedpoint = false;
-		Variable[] vars = this.completeNetwork.getVariables();
-		while (!fixedpoint) {
-			fixedpoint = true;
-			for (int k = 0; k < vars.length; k++) {
-				for (int i = 0; i < vars.length; i++) {
-					if (i != k) {
-						for (int j = 0; j < vars.length; j++) {
-							if (j != k && j != i) {
-								DistanceConstraint r_ij = (DistanceConstraint)completeNetwork.getConstraint(vars[i], vars[j]);
-								DistanceConstraint r_ik = (DistanceConstraint)completeNetwork.getConstraint(vars[i], vars[k]);
-								DistanceConstraint r_kj = (DistanceConstraint)completeNetwork.getConstraint(vars[k], vars[j]);
-								//comp = R_ik * R_kj
-								DistanceConstraint comp = getComposition(r_ik, r_kj);
-								//inters = R_ij ^ comp
-								DistanceConstraint inters = getIntersection(r_ij, comp);
-								//if inters = 0 return false
-								if (inters == null) return false;
-								//if inters != R_ij
-								Bounds[] bOrig = r_ij.getBounds();
-								Bounds[] bNew = inters.getBounds();
-								for (int i1 = 0; i1 < bOrig.length; i1++) {
-									boolean found_i1 = false;
-									for (int i2 = 0; i2 < bNew.length; i2++) {
-										if (bOrig[i1].equals(bNew[i2])) {
-											found_i1 = true;
-											break;
-										}
-									}
-									if (!found_i1) {
-										System.out.println("Replaced " + r_ij + " with " + inters);
-										this.completeNetwork.removeConstraint(r_ij);
-										this.completeNetwork.addConstraint(inters);
-										fixedpoint = false;
-										break;
-									}
-								}
-							}
-						}	
+		Variable[] vars = this.getConstraintNetwork().getVariables();
+		int n = vars.length;
+		//Complete network: each pair is constrained by the constraints between the two variables, in either direction
+		long[][] relations = new long[n*n][];
+		long[] universal = new long[] {-APSPSolver.INF, APSPSolver.INF};
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j) {
+					long[] rel = universal;
+					for (Constraint con : this.getConstraintNetwork().getConstraints(vars[i], vars[j])) {
+						rel = intersect(rel, toList(((DistanceConstraint)con).getBounds()));
+					}
+					for (Constraint con : this.getConstraintNetwork().getConstraints(vars[j], vars[i])) {
+						rel = intersect(rel, inverse(toList(((DistanceConstraint)con).getBounds())));
 					}
-				}				
+					if (rel.length == 0) return false;
+					relations[i*n+j] = rel;
+				}
+			}
+		}
+		
+		//Path consistency, where only the triples involving a relation which has changed are revised
+		int[] queue = new int[n*n];
+		boolean[] queued = new boolean[n*n];
+		int head = 0, size = 0;
+		for (int ij = 0; ij < n*n; ij++) {
+			if (ij/n != ij%n) {
+				queue[size++] = ij;
+				queued[ij] = true;
+			}
+		}
+		while (size > 0) {
+			int ij = queue[head];
+			head = (head+1) % queue.length;
+			size--;
+			queued[ij] = false;
+			int i = ij / n;
+			int j = ij % n;
+			for (int k = 0; k < n; k++) {
+				if (k != i && k != j) {
+					//R_ik = R_ik ^ (R_ij * R_jk) and R_kj = R_kj ^ (R_ki * R_ij)
+					int ik = i*n+k;
+					int kj = k*n+j;
+					long[] interIK = intersect(relations[ik], compose(relations[ij], relations[j*n+k], maxFragments));
+					long[] interKJ = intersect(relations[kj], compose(relations[k*n+i], relations[ij], maxFragments));
+					if (interIK.length == 0 || interKJ.length == 0) return false;
+					if (!Arrays.equals(interIK, relations[ik])) {
+						relations[ik] = interIK;
+						if (!queued[ik]) {
+							queue[(head+size++) % queue.length] = ik;
+							queued[ik] = true;
+						}
+					}
+					if (!Arrays.equals(interKJ, relations[kj])) {
+						relations[kj] = interKJ;
+						if (!queued[kj]) {
+							queue[(head+size++) % queue.length] = kj;
+							queued[kj] = true;
+						}
+					}
+				}
 			}
 		}
 		
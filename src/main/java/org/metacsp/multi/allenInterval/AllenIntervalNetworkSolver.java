@@ -47,6 +47,17 @@ public class AllenIntervalNetworkSolver extends MultiConstraintSolver {
 		super(new Class[]{AllenIntervalConstraint.class}, AllenInterval.class, createConstraintSolvers(origin, horizon, -1), new int[] {2});
 	}
 	
+	/**
+	 * Create a new {@link AllenIntervalNetworkSolver} whose underlying {@link APSPSolver} uses the given backend.
+	 * @param origin The origin of time.
+	 * @param horizon The temporal horizon.
+	 * @param backend The backend of the underlying {@link APSPSolver} (e.g., {@link APSPSolver.BACKEND#SPARSE}
+	 * for large and sparsely constrained networks).
+	 */
+	public AllenIntervalNetworkSolver(long origin, long horizon, APSPSolver.BACKEND backend) {
+		super(new Class<?>[]{AllenIntervalConstraint.class}, AllenInterval.class, new ConstraintSolver[] {new APSPSolver(origin, horizon, backend)}, new int[] {2});
+	}
+	
 	protected AllenIntervalNetworkSolver(Class<?>[] constraintTypes, Class<?> variableType, ConstraintSolver[] internalSolvers, int[] ingredients) {
 		super(constraintTypes,variableType,internalSolvers,ingredients);
 	}
@@ -0,0 +1,163 @@
+package org.metacsp.multi.spatioTemporal.paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vividsolutions.jts.algorithm.ConvexHull;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Builds the spatial envelope swept by a footprint along a path, that is, the union of the convex hulls
+ * of the footprints in every two successive {@link PoseSteering}s.  The hulls are merged with a cascaded union
+ * rather than one by one.
+ *
+ * The path is split into chunks whose boundaries depend only on the poses (so that a piece of a path, e.g., the path of a
+ * sub-envelope, has mostly the same chunks as the whole path), and the envelope of each chunk is cached.
+ *
+ * Optionally, successive poses can be merged into one convex hull if none of the vertices of the intermediate footprints
+ * is further than a given tolerance from the segment joining the same vertex in the first and last footprint.  The resulting
+ * envelope contains the exact one.
+ *
+ * @author Federico Pecora
+ */
+final class EnvelopeBuilder {
+
+	//Chunks end at poses whose hash is a multiple of this (or when they reach MAX_CHUNK poses)
+	private static final int CHUNK = 32;
+	private static final int MAX_CHUNK = 4*CHUNK;
+	private static final int CACHE_SIZE = 4096;
+
+	//Envelopes of chunks, least recently used first
+	private static final LinkedHashMap<ChunkKey,Geometry> cache = new LinkedHashMap<ChunkKey,Geometry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 2270245286478911318L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ChunkKey,Geometry> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private EnvelopeBuilder() { }
+
+	/**
+	 * Compute the envelope swept by a footprint between two poses of a path.
+	 * @param path The path.
+	 * @param from The first pose (inclusive).
+	 * @param to The last pose (inclusive).
+	 * @param footprint The footprint, centered in (0,0).
+	 * @param tolerance Maximum distance of merged footprints from the hull of their neighbors (0 for no merging).
+	 * @return The envelope swept by the footprint.
+	 */
+	static Geometry getEnvelope(PoseSteering[] path, int from, int to, Polygon footprint, double tolerance) {
+		if (from == to) return TrajectoryEnvelope.makeFootprint(path[from], footprint);
+		Coordinate[] fp = footprint.getExteriorRing().getCoordinates();
+		fp = Arrays.copyOf(fp, fp.length-1);
+		ArrayList<Geometry> chunks = new ArrayList<Geometry>();
+		int start = from;
+		for (int i = from+1; i <= to; i++) {
+			if (i == to || i-start >= MAX_CHUNK || (path[i].hashCode() & (CHUNK-1)) == 0) {
+				chunks.add(getChunkEnvelope(Arrays.copyOfRange(path, start, i+1), fp, tolerance));
+				start = i;
+			}
+		}
+		//Cached envelopes are shared
+		if (chunks.size() == 1) return (Geometry)chunks.get(0).clone();
+		return UnaryUnionOp.union(chunks);
+	}
+
+	private static Geometry getChunkEnvelope(PoseSteering[] chunk, Coordinate[] fp, double tolerance) {
+		ChunkKey key = new ChunkKey(chunk, fp, tolerance);
+		synchronized (cache) {
+			Geometry ret = cache.get(key);
+			if (ret != null) return ret;
+		}
+		GeometryFactory gf = new GeometryFactory();
+		Coordinate[][] vertices = new Coordinate[chunk.length][];
+		for (int i = 0; i < chunk.length; i++) vertices[i] = transform(chunk[i], fp);
+		ArrayList<Geometry> hulls = new ArrayList<Geometry>();
+		int first = 0;
+		while (first < chunk.length-1) {
+			int last = first+1;
+			while (tolerance > 0.0 && last < chunk.length-1 && canMerge(vertices, first, last+1, tolerance)) last++;
+			ArrayList<Coordinate> coords = new ArrayList<Coordinate>();
+			for (int i = first; i <= last; i++) for (Coordinate c : vertices[i]) coords.add(c);
+			hulls.add(new ConvexHull(coords.toArray(new Coordinate[coords.size()]), gf).getConvexHull());
+			first = last;
+		}
+		Geometry ret = UnaryUnionOp.union(hulls);
+		synchronized (cache) {
+			cache.put(key, ret);
+		}
+		return ret;
+	}
+
+	//Whether the footprints strictly between first and last are within tolerance of the hull of the footprints in first and last
+	private static boolean canMerge(Coordinate[][] vertices, int first, int last, double tolerance) {
+		for (int i = first+1; i < last; i++) {
+			for (int k = 0; k < vertices[i].length; k++) {
+				if (distanceToSegment(vertices[i][k], vertices[first][k], vertices[last][k]) > tolerance) return false;
+			}
+		}
+		return true;
+	}
+
+	private static double distanceToSegment(Coordinate p, Coordinate a, Coordinate b) {
+		double dx = b.x-a.x;
+		double dy = b.y-a.y;
+		double len2 = dx*dx+dy*dy;
+		double t = len2 == 0.0 ? 0.0 : Math.max(0.0, Math.min(1.0, ((p.x-a.x)*dx+(p.y-a.y)*dy)/len2));
+		double ex = a.x+t*dx-p.x;
+		double ey = a.y+t*dy-p.y;
+		return Math.sqrt(ex*ex+ey*ey);
+	}
+
+	//Vertices of the footprint in a given pose (same transformation as TrajectoryEnvelope.makeFootprint())
+	private static Coordinate[] transform(PoseSteering ps, Coordinate[] fp) {
+		AffineTransformation at = new AffineTransformation();
+		at.rotate(ps.getTheta());
+		at.translate(ps.getX(), ps.getY());
+		Coordinate[] ret = new Coordinate[fp.length];
+		for (int i = 0; i < fp.length; i++) ret[i] = at.transform(fp[i], new Coordinate());
+		return ret;
+	}
+
+	//Identifies a chunk by the position and orientation of its poses (the only components that affect the envelope,
+	//which also avoids comparing 2D and 3D poses with Pose.equals()), the footprint and the tolerance
+	private static final class ChunkKey {
+		private final double[] poses;
+		private final Coordinate[] footprint;
+		private final double tolerance;
+		private final int hash;
+
+		private ChunkKey(PoseSteering[] chunk, Coordinate[] footprint, double tolerance) {
+			this.poses = new double[3*chunk.length];
+			for (int i = 0; i < chunk.length; i++) {
+				poses[3*i] = chunk[i].getX();
+				poses[3*i+1] = chunk[i].getY();
+				poses[3*i+2] = chunk[i].getTheta();
+			}
+			this.footprint = footprint;
+			this.tolerance = tolerance;
+			this.hash = 31*(31*Arrays.hashCode(poses)+Arrays.hashCode(footprint))+Double.valueOf(tolerance).hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ChunkKey)) return false;
+			ChunkKey other = (ChunkKey)obj;
+			return hash == other.hash && tolerance == other.tolerance && Arrays.equals(poses, other.poses) && Arrays.equals(footprint, other.footprint);
+		}
+	}
+
+}
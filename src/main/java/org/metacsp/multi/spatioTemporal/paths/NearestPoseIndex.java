@@ -0,0 +1,90 @@
+package org.metacsp.multi.spatioTemporal.paths;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A 2D tree over the positions of a path, used by {@link Trajectory} to find the path point closest to
+ * a given coordinate.  The result is the same as that of a linear scan, that is, among equally
+ * close path points, the one with the lowest index.
+ *
+ * @author Federico Pecora
+ */
+final class NearestPoseIndex {
+
+	private final Coordinate[] positions;
+	//Implicit balanced tree: the node of range [lo,hi) is at (lo+hi)/2, split on x at even depths and on y at odd depths
+	private final int[] tree;
+
+	//State of the current query
+	private Coordinate query;
+	private double bestDist;
+	private int bestIndex;
+
+	NearestPoseIndex(Coordinate[] positions) {
+		this.positions = positions;
+		Integer[] indices = new Integer[positions.length];
+		for (int i = 0; i < indices.length; i++) indices[i] = i;
+		build(indices, 0, indices.length, 0);
+		this.tree = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) tree[i] = indices[i];
+	}
+
+	private void build(Integer[] indices, int lo, int hi, int depth) {
+		if (hi-lo <= 1) return;
+		final boolean onX = depth % 2 == 0;
+		Arrays.sort(indices, lo, hi, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return onX ? Double.compare(positions[o1].x, positions[o2].x) : Double.compare(positions[o1].y, positions[o2].y);
+			}
+		});
+		int mid = (lo+hi) >>> 1;
+		build(indices, lo, mid, depth+1);
+		build(indices, mid+1, hi, depth+1);
+	}
+
+	/**
+	 * Get the index of the position closest to a given coordinate.
+	 * @param coord The coordinate.
+	 * @param hint An index which is likely to be close to the coordinate (e.g., the last known index), -1 if none.
+	 * @return The index of the position closest to the given coordinate.
+	 */
+	synchronized int nearest(Coordinate coord, int hint) {
+		query = coord;
+		bestDist = Double.MAX_VALUE;
+		bestIndex = 0;
+		//The hint only serves to prune the search early
+		if (hint >= 0 && hint < positions.length) {
+			bestDist = positions[hint].distance(coord);
+			bestIndex = hint;
+		}
+		search(0, tree.length, 0);
+		query = null;
+		return bestIndex;
+	}
+
+	private void search(int lo, int hi, int depth) {
+		if (lo >= hi) return;
+		int mid = (lo+hi) >>> 1;
+		int index = tree[mid];
+		double dist = positions[index].distance(query);
+		if (dist < bestDist || (dist == bestDist && index < bestIndex)) {
+			bestDist = dist;
+			bestIndex = index;
+		}
+		double delta = depth % 2 == 0 ? query.x-positions[index].x : query.y-positions[index].y;
+		//Points on the splitting line can be on either side
+		if (delta <= 0) {
+			search(lo, mid, depth+1);
+			if (delta >= -bestDist) search(mid+1, hi, depth+1);
+		}
+		else {
+			search(mid+1, hi, depth+1);
+			if (delta <= bestDist) search(lo, mid, depth+1);
+		}
+	}
+
+}
@@ -31,6 +31,10 @@ public class Trajectory implements Serializable {
 	private static double MAX_ACCELERATION = 0.3;
 	private int sequenceNumberStart = -1;
 	private int sequenceNumberEnd = -1;
+	//Sums of the DTs preceding each path point, and the DTs they were computed from
+	private transient double[] cumulativeDTs = null;
+	private transient double[] cumulativeDTsOf = null;
+	private transient NearestPoseIndex nearestPoseIndex = null;
 	
 	/**
 	 * Create a new {@link Trajectory} given a list of {@link Pose}s. The
@@ -226,15 +230,21 @@ public class Trajectory implements Serializable {
 	 * @return The sequence number of the path point that is closest to the given coordinate.
 	 */
 	public int getSequenceNumber(Coordinate coord) {
-		int minIndex = 0;
-		double minDist = Double.MAX_VALUE;
-		for (int i = 0; i < this.getPositions().length; i++) {
-			if (this.getPositions()[i].distance(coord) < minDist) {
-				minDist = this.getPositions()[i].distance(coord);
-				minIndex = i;
-			}
-		}
-		return minIndex;
+		return getSequenceNumber(coord, -1);
+	}
+
+	/**
+	 * Get the sequence number of the path point that is closest to a 
+	 * given coordinate, given a path point which is likely to be close to it (e.g., the last known
+	 * position of the robot). The result is the same as that of {@link #getSequenceNumber(Coordinate)},
+	 * but it is found faster if the hint is good.
+	 * @param coord The coordinate to which the closest sequence number should be found.
+	 * @param hint The sequence number of a path point close to the coordinate (-1 if none).
+	 * @return The sequence number of the path point that is closest to the given coordinate.
+	 */
+	public int getSequenceNumber(Coordinate coord, int hint) {
+		if (nearestPoseIndex == null) nearestPoseIndex = new NearestPoseIndex(this.getPositions());
+		return nearestPoseIndex.nearest(coord, hint);
 	}
 
 	/**
@@ -246,15 +256,7 @@ public class Trajectory implements Serializable {
 	 * given the current position.
 	 */
 	public double getTimeLeftEstimate(Coordinate positionNow) {
-		int minIndex = 0;
-		double minDist = Double.MAX_VALUE;
-		for (int i = 0; i < this.getPositions().length; i++) {
-			if (this.getPositions()[i].distance(positionNow) < minDist) {
-				minDist = this.getPositions()[i].distance(positionNow);
-				minIndex = i;
-			}
-		}
-		return getTimeLeftEstimate(minIndex);
+		return getTimeLeftEstimate(getSequenceNumber(positionNow));
 	}
 
 	
@@ -268,11 +270,10 @@ public class Trajectory implements Serializable {
 	 * given the current path index.
 	 */
 	public double getTimeToEstimate(int sequenceNumNow, int sequenceNumTo) {
-		double timeCounter = 0.0;
-		for (int i = sequenceNumNow-this.sequenceNumberStart; i <= sequenceNumTo; i++) {
-			timeCounter += this.getDTs()[i];
-		}
-		return timeCounter;
+		int from = sequenceNumNow-this.sequenceNumberStart;
+		if (from > sequenceNumTo) return 0.0;
+		double[] cumulative = getCumulativeDTs();
+		return cumulative[sequenceNumTo+1]-cumulative[from];
 	}
 	
 	/**
@@ -284,11 +285,21 @@ public class Trajectory implements Serializable {
 	 * given the current path index.
 	 */
 	public double getTimeLeftEstimate(int sequenceNum) {
-		double timeCounter = 0.0;
-		for (int i = sequenceNum-this.sequenceNumberStart; i < this.getDTs().length; i++) {
-			timeCounter += this.getDTs()[i];
+		int from = sequenceNum-this.sequenceNumberStart;
+		if (from >= this.getDTs().length) return 0.0;
+		double[] cumulative = getCumulativeDTs();
+		return cumulative[cumulative.length-1]-cumulative[from];
+	}
+	
+	//cumulative[i] is the sum of the first i DTs (recomputed if the DTs are replaced)
+	private double[] getCumulativeDTs() {
+		if (cumulativeDTs == null || cumulativeDTsOf != dts) {
+			double[] cumulative = new double[dts.length+1];
+			for (int i = 0; i < dts.length; i++) cumulative[i+1] = cumulative[i]+dts[i];
+			cumulativeDTs = cumulative;
+			cumulativeDTsOf = dts;
 		}
-		return timeCounter;
+		return cumulativeDTs;
 	}
 	
 //	public double getTimeLeftEstimate(int sequenceNum, int endIndex) {
@@ -308,9 +319,10 @@ public class Trajectory implements Serializable {
 		s.add(0.0);
 		u.add(0.0);
 		double totDistance = 0.0;
+		Coordinate[] positions = getPositions();
 		for (int i = 1; i < dts.length; i++) {
-			Coordinate prev = getPositions()[i-1];
-			Coordinate current = getPositions()[i];
+			Coordinate prev = positions[i-1];
+			Coordinate current = positions[i];
 			totDistance += prev.distance(current);
 		}
 		while (s.get(s.size()-1) < totDistance) {
@@ -325,8 +337,8 @@ public class Trajectory implements Serializable {
 		dts[0] = 0.0;
 		double prevSum = 0.0;
 		for (int i = 1; i < dts.length; i++) {
-			Coordinate prev = getPositions()[i-1];
-			Coordinate current = getPositions()[i];
+			Coordinate prev = positions[i-1];
+			Coordinate current = positions[i];
 			totDistance += prev.distance(current);
 			int countDts = 0;
 			for (int j = 0; j < s.size(); j++) {
@@ -48,6 +48,11 @@ public class TrajectoryEnvelope extends MultiVariable implements Activity {
 
 	private static final long serialVersionUID = 183736569434737103L;
 	public static long RESOLUTION = 1000;
+	/**
+	 * Maximum distance by which footprints along the path can be approximated when building envelopes
+	 * (0 means that every pose is used, see {@link #getPartialEnvelopeGeometry(int, int)}).
+	 */
+	public static double ENVELOPE_TOLERANCE = 0.0;
 	private Trajectory trajectory = null;
 	private boolean refinable = true;
 	private TrajectoryEnvelope superEnvelope  = null;
@@ -718,44 +723,13 @@ public class TrajectoryEnvelope extends MultiVariable implements Activity {
 	 * @return A {@link Geometry} representing the spatial envelope between two given indices.
 	 */
 	public Geometry getPartialEnvelopeGeometry(int indexFrom, int indexTo) {
-		Geometry onePoly = null;
-		Geometry prevPoly = null;
 		if (indexFrom > indexTo || indexFrom < 0 || indexFrom > this.trajectory.getPoseSteering().length-1 || indexTo < 0 || indexTo >= this.trajectory.getPoseSteering().length) throw new Error("Indices incorrect!");
-		for (int i = indexFrom; i <= indexTo; i++) {
-			PoseSteering ps = this.trajectory.getPoseSteering()[i];
-			Geometry rect = makeFootprint(ps);
-			if (onePoly == null) {
-				onePoly = rect;
-				prevPoly = rect;
-			}
-			else {
-				Geometry auxPoly = prevPoly.union(rect);
-				onePoly = onePoly.union(auxPoly.convexHull());
-				prevPoly = rect;
-			}
-		}
-		return onePoly;
+		return EnvelopeBuilder.getEnvelope(this.trajectory.getPoseSteering(), indexFrom, indexTo, footprint, ENVELOPE_TOLERANCE);
 	}
 	
 	private Coordinate[] createEnvelope() {
-		Geometry onePoly = null;
-		Geometry prevPoly = null;
-		PoseSteering ps = null;
-		//Forward
-		for (int i = 0; i < this.trajectory.getPoseSteering().length; i++) {
-			ps = this.trajectory.getPoseSteering()[i];
-			Geometry rect = makeFootprint(ps);			
-			if (onePoly == null) {
-				onePoly = rect;
-				prevPoly = rect;
-			}
-			else {
-				Geometry auxPoly = prevPoly.union(rect);
-				onePoly = onePoly.union(auxPoly.convexHull());
-				prevPoly = rect;
-			}
-		}
-
+		PoseSteering[] path = this.trajectory.getPoseSteering();
+		Geometry onePoly = EnvelopeBuilder.getEnvelope(path, 0, path.length-1, footprint, ENVELOPE_TOLERANCE);
 //		this.envelopeBoundingBox = onePoly.getEnvelope();
 //		Geometry ret = GeometryPrecisionReducer.reduce(onePoly, new PrecisionModel(PrecisionModel.FLOATING_SINGLE));
 //		return ret.getCoordinates();
@@ -787,21 +761,8 @@ public class TrajectoryEnvelope extends MultiVariable implements Activity {
 	}
 	
 	public static SpatialEnvelope createSpatialEnvelope(PoseSteering[] path, Coordinate ... footprint) {
-		Geometry onePoly = null;
-		Geometry prevPoly = null;
 		Polygon fp = TrajectoryEnvelope.createFootprintPolygon(footprint);
-		for (PoseSteering ps : path) {
-			Geometry rect = TrajectoryEnvelope.makeFootprint(ps, fp);			
-			if (onePoly == null) {
-				onePoly = rect;
-				prevPoly = rect;
-			}
-			else {
-				Geometry auxPoly = prevPoly.union(rect);
-				onePoly = onePoly.union(auxPoly.convexHull());
-				prevPoly = rect;
-			}
-		}
+		Geometry onePoly = EnvelopeBuilder.getEnvelope(path, 0, path.length-1, fp, ENVELOPE_TOLERANCE);
 		return new SpatialEnvelope(path, onePoly, fp);
 	}
 	
@@ -834,20 +795,8 @@ public class TrajectoryEnvelope extends MultiVariable implements Activity {
 	}
 	
 	private Coordinate[] createInnerEnvelope() {
-		Geometry onePoly = null;
-		Geometry prevPoly = null;
-		for (PoseSteering ps : this.trajectory.getPoseSteering()) {
-			Geometry rect = makeInnerFootprint(ps);			
-			if (onePoly == null) {
-				onePoly = rect;
-				prevPoly = rect;
-			}
-			else {
-				Geometry auxPoly = prevPoly.union(rect);
-				onePoly = onePoly.union(auxPoly.convexHull());
-				prevPoly = rect;
-			}
-		}
+		PoseSteering[] path = this.trajectory.getPoseSteering();
+		Geometry onePoly = EnvelopeBuilder.getEnvelope(path, 0, path.length-1, innerFootprint, ENVELOPE_TOLERANCE);
 //		Geometry ret = GeometryPrecisionReducer.reduce(onePoly, new PrecisionModel(PrecisionModel.FLOATING_SINGLE));
 //		return ret.getCoordinates();
 		return onePoly.getCoordinates();
@@ -1088,4 +1037,16 @@ public class TrajectoryEnvelope extends MultiVariable implements Activity {
 		return this.trajectory.getSequenceNumber(coord);
 	}
 
+	/**
+	 * Get the sequence number of the path point that is closest to a 
+	 * given coordinate, given a path point which is likely to be close to it
+	 * (see {@link Trajectory#getSequenceNumber(Coordinate, int)}).
+	 * @param coord The coordinate to which the closest sequence number should be found.
+	 * @param hint The sequence number of a path point close to the coordinate (-1 if none).
+	 * @return The sequence number of the path point that is closest to the given coordinate.
+	 */
+	public int getSequenceNumber(Coordinate coord, int hint) {
+		return this.trajectory.getSequenceNumber(coord, hint);
+	}
+
 }
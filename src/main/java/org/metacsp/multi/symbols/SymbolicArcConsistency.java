@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2013 Federico Pecora <federico.pecora@oru.se>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package org.metacsp.multi.symbols;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.metacsp.booleanSAT.BooleanDomain;
+import org.metacsp.booleanSAT.BooleanVariable;
+import org.metacsp.framework.Constraint;
+import org.metacsp.framework.Variable;
+import org.metacsp.multi.symbols.SymbolicValueConstraint.Type;
+
+/**
+ * Arc consistency for {@link SymbolicVariable}s that must have exactly one symbol, used by the
+ * {@link SymbolicVariableConstraintSolver} instead of the underlying SAT solver whenever it yields the same domains.
+ * Domains are bitsets indexed by symbol.  Unary constraints restrict domains directly, variables related by
+ * {@link Type#EQUALS} (or {@link Type#CONTAINS}, which is the same for single symbols) share one domain, and
+ * {@link Type#DIFFERENT} constraints between these classes of variables are made arc consistent (AC-3).
+ * Arc consistency is exact if the {@link Type#DIFFERENT} constraints form a forest, which is checked first;
+ * otherwise, this class declines and propagation is left to the SAT solver.
+ *
+ * Variables whose internal constraints are masked (see {@link SymbolicVariableConstraintSolver#maskConstraints(Constraint[])})
+ * are not required to have exactly one symbol, and are only restricted by unary constraints.
+ *
+ * @author Federico Pecora
+ */
+final class SymbolicArcConsistency {
+
+	/**
+	 * Outcome of propagation.
+	 */
+	static enum Result {
+		/**
+		 * The constraints are satisfiable, and the domains of all variables have been updated.
+		 */
+		CONSISTENT,
+		/**
+		 * The constraints are not satisfiable (domains are unchanged).
+		 */
+		INCONSISTENT,
+		/**
+		 * Arc consistency would not be exact for these constraints (domains are unchanged).
+		 */
+		UNSUPPORTED
+	};
+
+	private final int numSymbols;
+	private final int numWords;
+	private final SymbolicVariable[] vars;
+	private final HashMap<Variable,Integer> indices = new HashMap<Variable,Integer>();
+
+	//Per variable: symbols ruled out, and symbols required by unary constraints
+	private final long[][] excluded;
+	private final long[][] required;
+	private final boolean[] masked;
+	//Union-find over variables related by EQUALS/CONTAINS
+	private final int[] parent;
+	//DIFFERENT constraints, as pairs of variable indices
+	private final ArrayList<int[]> different = new ArrayList<int[]>();
+
+	private SymbolicArcConsistency(SymbolicVariable[] vars, int numSymbols) {
+		this.vars = vars;
+		this.numSymbols = numSymbols;
+		this.numWords = (numSymbols+63) >> 6;
+		this.excluded = new long[vars.length][numWords];
+		this.required = new long[vars.length][numWords];
+		this.masked = new boolean[vars.length];
+		this.parent = new int[vars.length];
+		for (int i = 0; i < vars.length; i++) {
+			indices.put(vars[i], i);
+			parent[i] = i;
+			Constraint[] internalCons = vars[i].getInternalConstraints();
+			masked[i] = internalCons.length > 0 && internalCons[0].isMasked();
+		}
+	}
+
+	/**
+	 * Compute the domains of the variables of a {@link SymbolicVariableConstraintSolver}, if this can be done exactly
+	 * by arc consistency (which requires the solver to be single valued, see {@link SymbolicVariableConstraintSolver#getSingleValue()}).
+	 * @param solver The solver whose variables and constraints should be propagated.
+	 * @return The outcome of propagation.
+	 */
+	static Result propagate(SymbolicVariableConstraintSolver solver) {
+		//Variables with several symbols are left to the SAT solver
+		if (!solver.getSingleValue()) return Result.UNSUPPORTED;
+		int numSymbols = solver.getSymbols().length;
+		if (numSymbols == 0) return Result.UNSUPPORTED;
+		Variable[] netVars = solver.getConstraintNetwork().getVariables();
+		SymbolicVariable[] vars = new SymbolicVariable[netVars.length];
+		for (int i = 0; i < netVars.length; i++) {
+			vars[i] = (SymbolicVariable)netVars[i];
+			if (vars[i].getInternalConstraints() == null || vars[i].getInternalVariables().length != numSymbols) return Result.UNSUPPORTED;
+		}
+		SymbolicArcConsistency ac = new SymbolicArcConsistency(vars, numSymbols);
+		for (Constraint con : solver.getConstraintNetwork().getConstraints()) {
+			SymbolicValueConstraint svc = (SymbolicValueConstraint)con;
+			//Constraints to be propagated later have no internal constraints yet
+			if (!svc.propagateImmediately()) continue;
+			if (!ac.add(svc)) return Result.UNSUPPORTED;
+		}
+		return ac.propagate();
+	}
+
+	//Record a constraint, returns false if it is not supported
+	private boolean add(SymbolicValueConstraint con) {
+		Variable[] scope = con.getScope();
+		Type type = (Type)con.getType();
+		if (type.equals(Type.EQUALS) || type.equals(Type.DIFFERENT) || type.equals(Type.CONTAINS)) {
+			for (int i = 0; i < scope.length; i++) {
+				for (int j = i+1; j < scope.length; j++) {
+					int a = indices.get(scope[i]);
+					int b = indices.get(scope[j]);
+					if (a == b || masked[a] || masked[b]) return false;
+					if (type.equals(Type.DIFFERENT)) different.add(new int[] {a,b});
+					else parent[find(a)] = find(b);
+				}
+			}
+			return true;
+		}
+		boolean[] value = con.getUnaryValue();
+		if (value == null || value.length != numSymbols) return false;
+		long[] symbols = toBits(value);
+		//Unary constraints restrict the first variable in their scope (see SymbolicValueConstraint)
+		int a = indices.get(scope[0]);
+		//Trivial constraints have no internal constraints
+		if (type.equals(Type.VALUESUBSET)) {
+			if (!isFull(symbols)) andNot(excluded[a], symbols, true);
+		}
+		else if (type.equals(Type.VALUEEQUALS)) {
+			if (!isFull(symbols)) {
+				or(required[a], symbols);
+				andNot(excluded[a], symbols, true);
+			}
+		}
+		else if (type.equals(Type.VALUEDIFFERENT)) {
+			or(excluded[a], symbols);
+		}
+		else return false;
+		return true;
+	}
+
+	private int find(int a) {
+		while (parent[a] != a) {
+			parent[a] = parent[parent[a]];
+			a = parent[a];
+		}
+		return a;
+	}
+
+	private Result propagate() {
+		//Domains of classes of equal variables
+		long[][] domains = new long[vars.length][];
+		for (int i = 0; i < vars.length; i++) {
+			long[] required = this.required[i];
+			if (intersects(required, excluded[i])) return Result.INCONSISTENT;
+			if (masked[i]) continue;
+			int numRequired = count(required);
+			//Exactly one symbol
+			if (numRequired > 1) return Result.INCONSISTENT;
+			long[] domain = numRequired == 1 ? required.clone() : complement(excluded[i]);
+			int root = find(i);
+			if (domains[root] == null) domains[root] = domain;
+			else and(domains[root], domain);
+		}
+		for (int i = 0; i < vars.length; i++) {
+			if (domains[i] != null && count(domains[i]) == 0) return Result.INCONSISTENT;
+		}
+
+		//DIFFERENT constraints between classes, which must form a forest
+		HashMap<Integer,ArrayList<Integer>> neighbors = new HashMap<Integer,ArrayList<Integer>>();
+		HashSet<Long> pairs = new HashSet<Long>();
+		int[] treeParent = new int[vars.length];
+		for (int i = 0; i < vars.length; i++) treeParent[i] = i;
+		for (int[] diff : different) {
+			int a = find(diff[0]);
+			int b = find(diff[1]);
+			if (a == b) return Result.INCONSISTENT;
+			if (!pairs.add(((long)Math.min(a,b) << 32) | Math.max(a,b))) continue;
+			int ra = a, rb = b;
+			while (treeParent[ra] != ra) ra = treeParent[ra];
+			while (treeParent[rb] != rb) rb = treeParent[rb];
+			if (ra == rb) return Result.UNSUPPORTED;
+			treeParent[ra] = rb;
+			addNeighbor(neighbors, a, b);
+			addNeighbor(neighbors, b, a);
+		}
+
+		//AC-3: a value of x has no support in y only if y's domain is that value
+		ArrayList<int[]> queue = new ArrayList<int[]>();
+		for (Integer x : neighbors.keySet()) {
+			for (Integer y : neighbors.get(x)) queue.add(new int[] {x,y});
+		}
+		while (!queue.isEmpty()) {
+			int[] arc = queue.remove(queue.size()-1);
+			long[] dx = domains[arc[0]];
+			long[] dy = domains[arc[1]];
+			if (count(dy) != 1 || !intersects(dx, dy)) continue;
+			andNot(dx, dy, false);
+			if (count(dx) == 0) return Result.INCONSISTENT;
+			for (Integer z : neighbors.get(arc[0])) {
+				if (z != arc[1]) queue.add(new int[] {z,arc[0]});
+			}
+		}
+
+		for (int i = 0; i < vars.length; i++) {
+			Variable[] internalVars = vars[i].getInternalVariables();
+			long[] canBeTrue, canBeFalse;
+			if (masked[i]) {
+				canBeTrue = complement(excluded[i]);
+				canBeFalse = complement(required[i]);
+			}
+			else {
+				canBeTrue = domains[find(i)];
+				canBeFalse = count(canBeTrue) == 1 ? complement(canBeTrue) : complement(new long[numWords]);
+			}
+			for (int j = 0; j < numSymbols; j++) {
+				BooleanVariable bv = (BooleanVariable)internalVars[j];
+				bv.setDomain(new BooleanDomain(bv, get(canBeTrue, j), get(canBeFalse, j)));
+			}
+		}
+		return Result.CONSISTENT;
+	}
+
+	private static void addNeighbor(HashMap<Integer,ArrayList<Integer>> neighbors, int a, int b) {
+		ArrayList<Integer> n = neighbors.get(a);
+		if (n == null) {
+			n = new ArrayList<Integer>();
+			neighbors.put(a, n);
+		}
+		n.add(b);
+	}
+
+	//Bitset operations (bits beyond numSymbols are always 0)
+
+	private long[] toBits(boolean[] value) {
+		long[] ret = new long[numWords];
+		for (int i = 0; i < value.length; i++) if (value[i]) ret[i >> 6] |= 1L << (i & 63);
+		return ret;
+	}
+
+	private long[] complement(long[] a) {
+		long[] ret = new long[numWords];
+		for (int i = 0; i < numWords; i++) ret[i] = ~a[i];
+		int extra = (numWords << 6) - numSymbols;
+		if (extra > 0) ret[numWords-1] &= -1L >>> extra;
+		return ret;
+	}
+
+	private boolean isFull(long[] a) {
+		return count(a) == numSymbols;
+	}
+
+	private static boolean get(long[] a, int i) {
+		return (a[i >> 6] & (1L << (i & 63))) != 0;
+	}
+
+	private static int count(long[] a) {
+		int ret = 0;
+		for (long w : a) ret += Long.bitCount(w);
+		return ret;
+	}
+
+	private static boolean intersects(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) if ((a[i] & b[i]) != 0) return true;
+		return false;
+	}
+
+	private static void and(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) a[i] &= b[i];
+	}
+
+	private static void or(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) a[i] |= b[i];
+	}
+
+	//a = a & ~b, or a = a | ~b if complementOr (used to add the symbols not in b to a set of excluded symbols)
+	private void andNot(long[] a, long[] b, boolean complementOr) {
+		if (complementOr) or(a, complement(b));
+		else for (int i = 0; i < a.length; i++) a[i] &= ~b[i];
+	}
+
+}
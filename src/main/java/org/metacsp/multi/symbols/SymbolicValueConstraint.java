@@ -71,6 +71,12 @@ public class SymbolicValueConstraint extends MultiConstraint {
 		this.unaryValueStrings = symbols;
 	}
 	
+	//Get the unary value as a boolean array indexed by symbol (used by SymbolicArcConsistency)
+	boolean[] getUnaryValue() {
+		if (unaryValue == null && unaryValueStrings != null) createUnaryValueFromStrings();
+		return unaryValue;
+	}
+
 	private void createUnaryValueFromStrings() {
 		SymbolicVariableConstraintSolver svcs = (SymbolicVariableConstraintSolver)MultiConstraintSolver.getConstraintSolver(this.scope[0].getConstraintSolver(), SymbolicVariableConstraintSolver.class);
 		if (svcs != null) {
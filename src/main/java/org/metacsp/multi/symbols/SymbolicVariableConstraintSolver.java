@@ -23,13 +23,17 @@
 package org.metacsp.multi.symbols;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 
+import org.metacsp.booleanSAT.BooleanDomain;
 import org.metacsp.booleanSAT.BooleanSatisfiabilitySolver;
 import org.metacsp.booleanSAT.BooleanVariable;
 import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintNetwork;
 import org.metacsp.framework.ConstraintSolver;
+import org.metacsp.framework.Domain;
+import org.metacsp.framework.ValueChoiceFunction;
 import org.metacsp.framework.Variable;
 import org.metacsp.framework.multi.MultiConstraintSolver;
 import org.metacsp.multi.symbols.SymbolicValueConstraint.Type;
@@ -47,6 +51,8 @@ public class SymbolicVariableConstraintSolver extends MultiConstraintSolver {
 	protected boolean enumerateSets = true;
 	protected static SymbolicVariableConstraintSolver thisSolver = null;
 	protected HashSet<Constraint> toMask = new HashSet<Constraint>();
+	protected boolean arcConsistency = false;
+	private HashMap<String,Integer> symbolIndices = null;
 
 	public SymbolicVariableConstraintSolver() {
 		super(new Class[] {SymbolicValueConstraint.class}, SymbolicVariable.class, createConstraintSolvers(), new int[] {0});
@@ -101,22 +107,36 @@ public class SymbolicVariableConstraintSolver extends MultiConstraintSolver {
 		return false;
 	}
 	
+	//Index of each symbol (the position of its BooleanVariable in every SymbolicVariable)
+	private int getSymbolIndex(String symbol) {
+		if (symbolIndices == null) {
+			symbolIndices = new HashMap<String,Integer>();
+			for (int i = 0; i < symbols.length; i++) symbolIndices.put(symbols[i], i);
+		}
+		Integer ret = symbolIndices.get(symbol);
+		return ret == null ? -1 : ret;
+	}
+
+	//The symbols that the given variable can take, as a bitset indexed by symbol
+	private long[] getSymbolSet(SymbolicVariable var) {
+		long[] ret = new long[(symbols.length+63) >> 6];
+		for (String symbol : var.getSymbols()) {
+			int i = getSymbolIndex(symbol);
+			if (i >= 0) ret[i >> 6] |= 1L << (i & 63);
+		}
+		return ret;
+	}
+
 	public static Variable union(Variable ... vars) {
 		SymbolicVariable ret = (SymbolicVariable)thisSolver.createVariable(vars[0].getComponent());
 		SymbolicValueConstraint unaryEquals = new SymbolicValueConstraint(Type.VALUEEQUALS);
-		boolean[] unaryValue = new boolean[thisSolver.symbols.length];
-		for (int i = 0; i < unaryValue.length; i++) unaryValue[i] = false;
+		long[] set = new long[(thisSolver.symbols.length+63) >> 6];
 		for (int j = 0; j < vars.length; j++) {
-			String[] symb = ((SymbolicVariable)vars[j]).getSymbols();
-			for (int i = 0; i < symb.length; i++) {
-				for (int k = 0; k < thisSolver.symbols.length; k++) {
-					if (symb[i].equals(thisSolver.getSymbols()[k])) {
-						unaryValue[k] = true;
-						break;
-					}
-				}
-			}
+			long[] varSet = thisSolver.getSymbolSet((SymbolicVariable)vars[j]);
+			for (int w = 0; w < set.length; w++) set[w] |= varSet[w];
 		}
+		boolean[] unaryValue = new boolean[thisSolver.symbols.length];
+		for (int i = 0; i < unaryValue.length; i++) unaryValue[i] = (set[i >> 6] & (1L << (i & 63))) != 0;
 		unaryEquals.setValue(unaryValue);
 		unaryEquals.setFrom(ret);
 		unaryEquals.setTo(ret);
@@ -126,26 +146,16 @@ public class SymbolicVariableConstraintSolver extends MultiConstraintSolver {
 		
 	public static Variable intersection(Variable ... vars) {
 		SymbolicValueConstraint unaryEquals = new SymbolicValueConstraint(Type.VALUEEQUALS);
+		long[] set = thisSolver.getSymbolSet((SymbolicVariable)vars[0]);
+		for (int j = 1; j < vars.length; j++) {
+			long[] varSet = thisSolver.getSymbolSet((SymbolicVariable)vars[j]);
+			for (int w = 0; w < set.length; w++) set[w] &= varSet[w];
+		}
 		boolean[] unaryValue = new boolean[thisSolver.symbols.length];
-		String[] allSymbols = thisSolver.symbols;
 		boolean atLeastOneValue = false;
-		for (int i = 0; i < allSymbols.length; i++) {
-			boolean found = true;
-			for (int j = 0; j < vars.length; j++) {
-				for (int k = 0; k < ((SymbolicVariable)vars[j]).getSymbols().length; k++) {
-					String oneSymbol = ((SymbolicVariable)vars[j]).getSymbols()[k];
-					if (oneSymbol.equals(allSymbols[i])) {
-						break;
-					}
-					if (k == ((SymbolicVariable)vars[j]).getSymbols().length-1) found = false;
-				}
-				if (!found) break;
-			}
-			if (found) {
-				unaryValue[i] = true;
-				atLeastOneValue = true;
-			}
-			else unaryValue[i] = false;
+		for (int i = 0; i < unaryValue.length; i++) {
+			unaryValue[i] = (set[i >> 6] & (1L << (i & 63))) != 0;
+			if (unaryValue[i]) atLeastOneValue = true;
 		}
 		if (!atLeastOneValue) return null;
 		SymbolicVariable ret = (SymbolicVariable)thisSolver.createVariable(vars[0].getComponent());
@@ -156,6 +166,30 @@ public class SymbolicVariableConstraintSolver extends MultiConstraintSolver {
 		return ret;
 	}
 	
+	/**
+	 * Set whether this solver should propagate by arc consistency when possible (disabled by default).
+	 * Arc consistency is used when variables have exactly one symbol each
+	 * (see {@link #setSingleValue(boolean)}), and the {@link Type#DIFFERENT} constraints do not form cycles;
+	 * in all other cases, and if arc consistency is disabled, propagation is performed by the underlying
+	 * {@link BooleanSatisfiabilitySolver}.  Note that with arc consistency, the domains of the {@link BooleanVariable}s
+	 * reflect the possible symbols, while the models of the {@link BooleanSatisfiabilitySolver} are recomputed
+	 * only when a value is chosen with the "model0" value choice function.
+	 * @param arcConsistency Whether arc consistency should be used.
+	 */
+	public void setArcConsistency(boolean arcConsistency) {
+		this.arcConsistency = arcConsistency;
+		if (arcConsistency) this.getConstraintSolvers()[0].setOptions(ConstraintSolver.OPTIONS.MANUAL_PROPAGATE);
+		else this.getConstraintSolvers()[0].setOptions(ConstraintSolver.OPTIONS.AUTO_PROPAGATE);
+	}
+
+	/**
+	 * Get whether this solver propagates by arc consistency when possible (see {@link #setArcConsistency(boolean)}).
+	 * @return <code>true</code> iff this solver propagates by arc consistency when possible.
+	 */
+	public boolean getArcConsistency() {
+		return arcConsistency;
+	}
+
 	public void setSingleValue(boolean singleValue) {
 		this.singleValue = singleValue;
 	}
@@ -196,9 +230,42 @@ public class SymbolicVariableConstraintSolver extends MultiConstraintSolver {
 		
 	@Override
 	public boolean propagate() {
-		//Do nothing - propagation is taken care of
+		//Without arc consistency, propagation is taken care of
 		//by the underlying BooleanSatisfiabilitySolver
-		return true;
+		if (!arcConsistency) return true;
+		SymbolicArcConsistency.Result result = SymbolicArcConsistency.propagate(this);
+		if (result.equals(SymbolicArcConsistency.Result.UNSUPPORTED)) {
+			logger.finest("Propagating with SAT solver");
+			return this.getConstraintSolvers()[0].propagate();
+		}
+		if (result.equals(SymbolicArcConsistency.Result.CONSISTENT)) {
+			registerStaleValueChoiceFunction();
+			return true;
+		}
+		return false;
+	}
+
+	//The models of the underlying BooleanSatisfiabilitySolver are stale after arc consistency,
+	//so they are recomputed (and the value choice functions registered again) when a value is first chosen
+	private void registerStaleValueChoiceFunction() {
+		final ConstraintSolver satSolver = this.getConstraintSolvers()[0];
+		Domain.removeValueChoiceFunctions(BooleanDomain.class);
+		Domain.registerValueChoiceFunction(BooleanDomain.class, new ValueChoiceFunction() {
+			@Override
+			public Object getValue(Domain dom) {
+				satSolver.propagate();
+				HashMap<String,ValueChoiceFunction> vcfs = dom.getValueChoiceFunctions(BooleanDomain.class);
+				if (vcfs == null || vcfs.get("model0") == null || vcfs.get("model0") == this) return new Boolean(true);
+				return vcfs.get("model0").getValue(dom);
+			}
+		}, "model0");
+	}
+
+	@Override
+	protected void rollbackSub(int token) {
+		super.rollbackSub(token);
+		//The underlying BooleanSatisfiabilitySolver does not propagate
+		if (arcConsistency) this.propagate();
 	}
 	
 	@Override
@@ -3,7 +3,12 @@ package org.metacsp.sensing;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 
 import org.metacsp.dispatching.Dispatcher;
@@ -17,8 +22,12 @@ import org.metacsp.framework.multi.MultiVariable;
 import org.metacsp.meta.fuzzyActivity.FuzzyActivityDomain.markings;
 import org.metacsp.multi.activity.ActivityNetworkSolver;
 import org.metacsp.multi.activity.SymbolicVariableActivity;
+import org.metacsp.multi.allenInterval.AllenInterval;
 import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.time.APSPSolver;
 import org.metacsp.time.Bounds;
+import org.metacsp.time.SimpleDistanceConstraint;
+import org.metacsp.time.TimePoint;
 import org.metacsp.utility.logging.MetaCSPLogging;
 
 import cern.colt.Arrays;
@@ -32,14 +41,29 @@ public class ConstraintNetworkAnimator extends Thread {
 	private long firstTick;
 	private long period;
 	private AllenIntervalConstraint currentReleaseFuture = null;
-	private HashMap<Sensor,HashMap<Long,String>> sensorValues = new HashMap<Sensor, HashMap<Long,String>>();
+	private double timeScale = 1.0;
+	private HashMap<Sensor,SensorTrace> sensorValues = new HashMap<Sensor,SensorTrace>();
 	private InferenceCallback cb = null;
 	private ArrayList<PeriodicCallback> pcbs = null;
 	private Dispatcher dis = null;
 	private boolean paused = false;
-	private boolean teardown = false;
+	private volatile boolean teardown = false;
 	private boolean autoClean = false;
 
+	//Event-driven mode: updates are posted as commands, which are applied by this thread (the only one that touches the network)
+	private volatile boolean eventDriven = false;
+	private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+	private final Executor commandExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			commands.add(command);
+			LockSupport.unpark(ConstraintNetworkAnimator.this);
+		}
+	};
+
+	//Release/Deadline constraints keeping the effects of removed finished activities on remaining activities
+	private HashMap<SymbolicVariableActivity,AllenIntervalConstraint[]> anchors = new HashMap<SymbolicVariableActivity,AllenIntervalConstraint[]>();
+
 	private HashMap<Controllable,HashMap<Long,String>> controllableValues = new HashMap<Controllable, HashMap<Long,String>>();
 
 	private transient Logger logger = MetaCSPLogging.getLogger(ConstraintNetworkAnimator.class);
@@ -74,6 +98,26 @@ public class ConstraintNetworkAnimator extends Thread {
 		this.autoClean = ac;
 	}
 
+	/**
+	 * Set whether this {@link ConstraintNetworkAnimator} should be event-driven.  In event-driven mode, posted sensor and controllable
+	 * values, as well as activities finished through the {@link Dispatcher}, are queued as commands without locking the network, and wake up
+	 * the animator, which applies them and performs an iteration immediately (rather than after the current period has elapsed).  The animator
+	 * also wakes up when the next posted sensor value is due, and at least once every period.  The {@link Dispatcher} is
+	 * stepped by the animator after the inference callbacks, instead of polling in its own thread.
+	 * @param eventDriven <code>true</code> iff this {@link ConstraintNetworkAnimator} should be event-driven.
+	 */
+	public void setEventDriven(boolean eventDriven) {
+		synchronized(ans) {
+			this.eventDriven = eventDriven;
+			if (this.dis != null) this.dis.setExecutor(eventDriven ? commandExecutor : null);
+		}
+		LockSupport.unpark(this);
+	}
+
+	public boolean isEventDriven() {
+		return this.eventDriven;
+	}
+
 	public boolean isUnknown(SymbolicVariableActivity act) {
 		for (SymbolicVariableActivity activity : dis.getActivities()) {
 			if (activity.equals(act)) return true;
@@ -102,49 +146,172 @@ public class ConstraintNetworkAnimator extends Thread {
 		return false;
 	}
 		
+	/**
+	 * Remove all finished activities (and the variables that depend on them) from the network.  All constraints to be removed
+	 * are retracted with one call per {@link ConstraintSolver}, and all variables are removed with one call per {@link ConstraintSolver}.
+	 * Before removal, the bounds that the finished activities impose on the remaining activities are kept as
+	 * {@link AllenIntervalConstraint.Type#Release} and {@link AllenIntervalConstraint.Type#Deadline} constraints on the latter.
+	 */
+	public void cleanUpFinishedVariables() {
+		synchronized(ans) {
+			cleanUp();
+		}
+	}
+
 	private void cleanUp() {
 		SymbolicVariableActivity[] finishedActs = this.getDispatcher().getFinishedActs();
-		for (int i = 0; i < finishedActs.length; i++) {		
+
+		//Gather what has to go: root variables (by solver), activities, and constraints (by solver)
+		HashMap<ConstraintSolver,LinkedHashSet<Variable>> varsToRemove = new HashMap<ConstraintSolver,LinkedHashSet<Variable>>();
+		HashMap<ConstraintSolver,LinkedHashSet<Constraint>> consToRemove = new HashMap<ConstraintSolver,LinkedHashSet<Constraint>>();
+		HashSet<SymbolicVariableActivity> retiredActs = new HashSet<SymbolicVariableActivity>();
+		int countVars = 0;
+		for (int i = 0; i < finishedActs.length; i++) {
 			Variable finishedVar = finishedActs[i].getRootVariable();
 			ConstraintSolver varSolver = finishedVar.getConstraintSolver();
 			
 			if (varSolver.getConstraintNetwork().containsVariable(finishedVar) && !finishedVar.isDependentVariable()) {
+				if (!varsToRemove.containsKey(varSolver)) varsToRemove.put(varSolver, new LinkedHashSet<Variable>());
+				if (!varsToRemove.get(varSolver).add(finishedVar)) continue;
+				retiredActs.add(finishedActs[i]);
 
-				int countCons = 0;
-				
-				//Remove var constraints
-				Constraint[] consToRemove = varSolver.getConstraintNetwork().getIncidentEdgesIncludingDependentVariables(finishedVar);
-				varSolver.removeConstraints(consToRemove);
-				if (consToRemove != null) countCons += consToRemove.length;
+				//Var constraints
+				addAll(consToRemove, varSolver, varSolver.getConstraintNetwork().getIncidentEdgesIncludingDependentVariables(finishedVar));
 	
 				Variable[] depVars = finishedVar.getRecursivelyDependentVariables();
 				for (Variable depVar : depVars) {
-					
-					//Remove constraints of dependent variables
+					//Constraints of dependent variables
 					ConstraintSolver depVarSolver = depVar.getConstraintSolver();
-					Constraint[] consToRemoveDepVars = depVar.getConstraintSolver().getConstraintNetwork().getIncidentEdges(depVar);
-					depVarSolver.removeConstraints(consToRemoveDepVars);
-					if (consToRemoveDepVars != null) countCons += consToRemoveDepVars.length;
+					addAll(consToRemove, depVarSolver, depVarSolver.getConstraintNetwork().getIncidentEdges(depVar));
 
-					//Remove act constraints of dependent variables
+					//Act constraints of dependent variables
 					SymbolicVariableActivity depAct = (SymbolicVariableActivity)((MultiVariable)depVar).getVariablesFromVariableHierarchy(SymbolicVariableActivity.class)[0];
-					Constraint[] consToRemoveDepAct = ans.getConstraintNetwork().getIncidentEdges(depAct);
-					ans.removeConstraints(consToRemoveDepAct);
-					if (consToRemoveDepAct != null) countCons += consToRemoveDepAct.length;
-					
-					//Notify dispatcher that dep act is no longer there
-					this.getDispatcher().removeFinishedVariable(depAct);
+					addAll(consToRemove, ans, ans.getConstraintNetwork().getIncidentEdges(depAct));
+					retiredActs.add(depAct);
 				}
-					
-				//Notify dispatcher that act is no longer there
-				this.getDispatcher().removeFinishedVariable(finishedActs[i]);
-	
-				logger.info("Cleaned up " + depVars.length + " variables and " + countCons + " constraints");
-	
-				//Remove TE
-				varSolver.removeVariable(finishedVar);
-			}			
+				countVars += depVars.length;
+			}
+		}
+		if (retiredActs.isEmpty()) return;
+
+		//Keep the effects of retired activities on the remaining ones, or leave everything in place if this fails
+		HashMap<SymbolicVariableActivity,AllenIntervalConstraint[]> oldAnchors = new HashMap<SymbolicVariableActivity,AllenIntervalConstraint[]>(anchors);
+		Constraint[] newAnchors = anchor(retiredActs, consToRemove);
+		if (!ans.addConstraints(newAnchors)) {
+			anchors = oldAnchors;
+			logger.warning("Could not anchor activities to finished activities, finished activities are not cleaned up");
+			return;
+		}
+		for (SymbolicVariableActivity act : retiredActs) anchors.remove(act);
+
+		//One removal per solver
+		int countCons = 0;
+		for (ConstraintSolver cs : consToRemove.keySet()) {
+			LinkedHashSet<Constraint> cons = consToRemove.get(cs);
+			cs.removeConstraints(cons.toArray(new Constraint[cons.size()]));
+			countCons += cons.size();
+		}
+		for (ConstraintSolver cs : varsToRemove.keySet()) {
+			LinkedHashSet<Variable> vars = varsToRemove.get(cs);
+			cs.removeVariables(vars.toArray(new Variable[vars.size()]));
+			countVars += vars.size();
+		}
+
+		//Notify dispatcher that acts are no longer there
+		for (SymbolicVariableActivity act : retiredActs) this.getDispatcher().removeFinishedVariable(act);
+
+		logger.info("Cleaned up " + countVars + " variables and " + countCons + " constraints");
+	}
+
+	private static void addAll(HashMap<ConstraintSolver,LinkedHashSet<Constraint>> consToRemove, ConstraintSolver cs, Constraint[] cons) {
+		if (cons == null) return;
+		if (!consToRemove.containsKey(cs)) consToRemove.put(cs, new LinkedHashSet<Constraint>());
+		for (Constraint con : cons) consToRemove.get(cs).add(con);
+	}
+
+	//Make the Release/Deadline anchors implied by the constraints between retired and remaining activities (anchors replaced by these are added to the constraints to remove)
+	private Constraint[] anchor(HashSet<SymbolicVariableActivity> retiredActs, HashMap<ConstraintSolver,LinkedHashSet<Constraint>> consToRemove) {
+		//Bounds of start and end of remaining activities
+		HashMap<SymbolicVariableActivity,Bounds[]> bounds = new HashMap<SymbolicVariableActivity,Bounds[]>();
+		LinkedHashSet<Constraint> ansCons = consToRemove.get(ans);
+		if (ansCons == null) return new Constraint[0];
+		for (Constraint con : ansCons) {
+			if (!(con instanceof AllenIntervalConstraint)) continue;
+			AllenIntervalConstraint aic = (AllenIntervalConstraint)con;
+			if (!(aic.getFrom() instanceof SymbolicVariableActivity) || !(aic.getTo() instanceof SymbolicVariableActivity)) continue;
+			SymbolicVariableActivity from = (SymbolicVariableActivity)aic.getFrom();
+			SymbolicVariableActivity to = (SymbolicVariableActivity)aic.getTo();
+			SymbolicVariableActivity other = null;
+			if (retiredActs.contains(from) && !retiredActs.contains(to)) other = to;
+			else if (retiredActs.contains(to) && !retiredActs.contains(from)) other = from;
+			//The future moves, so it is never anchored
+			if (other == null || other.equals(future)) continue;
+
+			//The same constraint between the underlying intervals
+			AllenIntervalConstraint internal = (AllenIntervalConstraint)aic.clone();
+			internal.setFrom(from.getTemporalVariable());
+			internal.setTo(to.getTemporalVariable());
+			Constraint[] sdcs = internal.getInternalConstraints();
+			if (sdcs == null) continue;
+			for (Constraint c : sdcs) {
+				if (c == null) continue;
+				SimpleDistanceConstraint sdc = (SimpleDistanceConstraint)c;
+				TimePoint tpFrom = (TimePoint)sdc.getFrom();
+				TimePoint tpTo = (TimePoint)sdc.getTo();
+				AllenInterval otherInterval = other.getTemporalVariable();
+				boolean fromOther = tpFrom.equals(otherInterval.getStart()) || tpFrom.equals(otherInterval.getEnd());
+				boolean toOther = tpTo.equals(otherInterval.getStart()) || tpTo.equals(otherInterval.getEnd());
+				if (fromOther == toOther) continue;
+				TimePoint tpOther = fromOther ? tpFrom : tpTo;
+				TimePoint tpRetired = fromOther ? tpTo : tpFrom;
+				APSPSolver stp = (APSPSolver)tpRetired.getConstraintSolver();
+				if (tpRetired.equals(stp.getSource()) || tpRetired.equals(stp.getSink())) continue;
+				//tpTo-tpFrom in [min,max]
+				long min = sdc.getMinimum();
+				long max = sdc.getMaximum();
+				long lb, ub;
+				if (fromOther) {
+					lb = max == APSPSolver.INF ? -APSPSolver.INF : tpRetired.getLowerBound()-max;
+					ub = min == -APSPSolver.INF ? APSPSolver.INF : tpRetired.getUpperBound()-min;
+				}
+				else {
+					lb = min == -APSPSolver.INF ? -APSPSolver.INF : tpRetired.getLowerBound()+min;
+					ub = max == APSPSolver.INF ? APSPSolver.INF : tpRetired.getUpperBound()+max;
+				}
+				if (!bounds.containsKey(other)) bounds.put(other, new Bounds[2]);
+				int which = tpOther.equals(otherInterval.getStart()) ? 0 : 1;
+				Bounds[] b = bounds.get(other);
+				b[which] = b[which] == null ? new Bounds(lb, ub) : new Bounds(Math.max(lb, b[which].min), Math.min(ub, b[which].max));
+			}
+		}
+
+		ArrayList<Constraint> ret = new ArrayList<Constraint>();
+		for (SymbolicVariableActivity act : bounds.keySet()) {
+			AllenIntervalConstraint[] oldAnchors = anchors.get(act);
+			if (oldAnchors == null) oldAnchors = new AllenIntervalConstraint[2];
+			AllenIntervalConstraint[] newAnchors = new AllenIntervalConstraint[] {oldAnchors[0], oldAnchors[1]};
+			for (int i = 0; i < 2; i++) {
+				Bounds b = bounds.get(act)[i];
+				if (b == null) continue;
+				long lb = Math.max(b.min, ans.getOrigin());
+				long ub = b.max >= ans.getHorizon() ? APSPSolver.INF : b.max;
+				if (oldAnchors[i] != null) {
+					lb = Math.max(lb, oldAnchors[i].getBounds()[0].min);
+					ub = Math.min(ub, oldAnchors[i].getBounds()[0].max);
+				}
+				//Nothing to keep
+				if (lb <= ans.getOrigin() && ub == APSPSolver.INF) continue;
+				if (oldAnchors[i] != null && lb == oldAnchors[i].getBounds()[0].min && ub == oldAnchors[i].getBounds()[0].max) continue;
+				AllenIntervalConstraint anchor = new AllenIntervalConstraint(i == 0 ? AllenIntervalConstraint.Type.Release : AllenIntervalConstraint.Type.Deadline, new Bounds(lb, ub));
+				anchor.setFrom(act);
+				anchor.setTo(act);
+				ret.add(anchor);
+				newAnchors[i] = anchor;
+				if (oldAnchors[i] != null) ansCons.add(oldAnchors[i]);
+			}
+			anchors.put(act, newAnchors);
 		}
+		return ret.toArray(new Constraint[ret.size()]);
 	}
 
 	public ConstraintNetworkAnimator(final ActivityNetworkSolver ans, long period, boolean startPaused) {
@@ -177,30 +344,74 @@ public class ConstraintNetworkAnimator extends Thread {
 
 	public ActivityNetworkSolver getActivityNetworkSolver() { return this.ans; }
 
-	public void postSensorValueToDispatch(Sensor sensor, long time, String value) {
-		synchronized(ans) {
-			if (!this.sensorValues.keySet().contains(sensor))
-				this.sensorValues.put(sensor, new HashMap<Long, String>());
-			HashMap<Long, String> sensorVal = this.sensorValues.get(sensor);
-			sensorVal.put(time, value);
+	public void postSensorValueToDispatch(final Sensor sensor, final long time, final String value) {
+		if (eventDriven) {
+			commandExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					addSensorValue(sensor, time, value);
+				}
+			});
+		}
+		else {
+			synchronized(ans) {
+				addSensorValue(sensor, time, value);
+			}
 		}
 	}
 
-	public void postControllableValueToDispatch(Controllable controllable, long time, String value) {
-		synchronized(ans) {
-			if (!this.controllableValues.keySet().contains(controllable))
-				this.controllableValues.put(controllable, new HashMap<Long, String>());
-			HashMap<Long, String> contrVal = this.controllableValues.get(controllable);
-			contrVal.put(time, value);
+	private void addSensorValue(Sensor sensor, long time, String value) {
+		if (!this.sensorValues.keySet().contains(sensor))
+			this.sensorValues.put(sensor, new SensorTrace());
+		SensorTrace sensorVal = this.sensorValues.get(sensor);
+		sensorVal.put(time, value);
+	}
+
+	public void postControllableValueToDispatch(final Controllable controllable, final long time, final String value) {
+		if (eventDriven) {
+			commandExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					addControllableValue(controllable, time, value);
+				}
+			});
+		}
+		else {
+			synchronized(ans) {
+				addControllableValue(controllable, time, value);
+			}
 		}
 	}
 
-	public void registerSensorValuesToDispatch(Sensor sensor, HashMap<Long,String> values) {
-		this.sensorValues.put(sensor, values);
+	private void addControllableValue(Controllable controllable, long time, String value) {
+		if (!this.controllableValues.keySet().contains(controllable))
+			this.controllableValues.put(controllable, new HashMap<Long, String>());
+		HashMap<Long, String> contrVal = this.controllableValues.get(controllable);
+		contrVal.put(time, value);
 	}
 
-	public void registerControllableValuesToDispatch(Controllable controllable, HashMap<Long,String> values) {
-		this.controllableValues.put(controllable, values);
+	public void registerSensorValuesToDispatch(final Sensor sensor, final HashMap<Long,String> values) {
+		if (eventDriven) {
+			commandExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					sensorValues.put(sensor, new SensorTrace(values));
+				}
+			});
+		}
+		else this.sensorValues.put(sensor, new SensorTrace(values));
+	}
+
+	public void registerControllableValuesToDispatch(final Controllable controllable, final HashMap<Long,String> values) {
+		if (eventDriven) {
+			commandExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					controllableValues.put(controllable, values);
+				}
+			});
+		}
+		else this.controllableValues.put(controllable, values);
 	}
 
 	@Deprecated
@@ -208,6 +419,7 @@ public class ConstraintNetworkAnimator extends Thread {
 		boolean start = false;
 		if (this.dis == null) {
 			this.dis = new Dispatcher(ans, period);
+			if (eventDriven) this.dis.setExecutor(commandExecutor);
 			start = true;
 		}
 		for (DispatchingFunction df : dfs) dis.addDispatchingFunction(df.getComponent(), df);
@@ -218,6 +430,7 @@ public class ConstraintNetworkAnimator extends Thread {
 		boolean start = false;
 		if (this.dis == null) {
 			this.dis = new Dispatcher(ans, period);
+			if (eventDriven) this.dis.setExecutor(commandExecutor);
 			start = true;
 		}
 		for (DispatchingFunction df : dfs) dis.addDispatchingFunction(df.getComponent(), df);
@@ -225,7 +438,27 @@ public class ConstraintNetworkAnimator extends Thread {
 	}
 
 	public long getTimeNow() {
-		return getCurrentTimeInMillis()-firstTick+originOfTime;
+		return (long)((getCurrentTimeInMillis()-firstTick)*timeScale)+originOfTime;
+	}
+
+	/**
+	 * Set how fast time passes in the animated network with respect to real time, e.g., to replay sensor traces
+	 * faster than real time.  The current time is not affected, and the period of this {@link ConstraintNetworkAnimator} (and of its
+	 * {@link Dispatcher}) remains in real time.
+	 * @param timeScale Milliseconds of network time per millisecond of real time (1.0 for real time).
+	 */
+	public void setTimeScale(double timeScale) {
+		if (timeScale <= 0.0) throw new IllegalArgumentException("Time scale must be positive: " + timeScale);
+		synchronized(ans) {
+			originOfTime = getTimeNow();
+			firstTick = getCurrentTimeInMillis();
+			this.timeScale = timeScale;
+		}
+		LockSupport.unpark(this);
+	}
+
+	public double getTimeScale() {
+		return this.timeScale;
 	}
 	
 	public void setPaused(boolean paused) {
@@ -234,13 +467,45 @@ public class ConstraintNetworkAnimator extends Thread {
 	
 	public void teardown() {
 		this.teardown = true;
+		LockSupport.unpark(this);
+	}
+
+	//Wait for the next period, or (in event-driven mode) until a command arrives or the next sensor value is due
+	private void waitForNextIteration() {
+		if (!eventDriven) {
+			//Sleep for the whole period, unless switched to event-driven mode (or torn down) in the meantime
+			long deadline = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(period);
+			long remaining;
+			while (!eventDriven && !teardown && (remaining = deadline-System.nanoTime()) > 0) LockSupport.parkNanos(this, remaining);
+			return;
+		}
+		long wait = period;
+		if (!paused) synchronized(ans) {
+			long timeNow = getTimeNow();
+			for (SensorTrace values : sensorValues.values()) {
+				if (!values.isEmpty()) wait = Math.min(wait, (long)Math.ceil((values.getNextTime()-timeNow)/timeScale));
+			}
+		}
+		if (wait > 0 && commands.isEmpty() && !teardown) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+	}
+
+	//Apply all queued commands (called by this thread only)
+	private void processCommands() {
+		Runnable command;
+		while ((command = commands.poll()) != null) command.run();
 	}
 
 	public void run() {
 		int iteration = 0;
 		while (true && !teardown) {
-			try { Thread.sleep(period); }
-			catch (InterruptedException e) { e.printStackTrace(); }
+			waitForNextIteration();
+
+			//Commands may remain from event-driven mode, so always apply them
+			if (!commands.isEmpty()) {
+				synchronized(ans) {
+					processCommands();
+				}
+			}
 
 			if (!paused) {
 				synchronized(ans) {
@@ -258,15 +523,11 @@ public class ConstraintNetworkAnimator extends Thread {
 
 					//If there are registered sensor traces, animate them too
 					for (Sensor sensor : sensorValues.keySet()) {
-						Vector<Long> toRemove = new Vector<Long>();
-						HashMap<Long,String> values = sensorValues.get(sensor);
-						for (long time : values.keySet()) {
-							if (time <= timeNow) {
-								sensor.modelSensorValue(values.get(time), time);
-								toRemove.add(time);
-							}
+						SensorTrace values = sensorValues.get(sensor);
+						while (values.hasDue(timeNow)) {
+							sensor.modelSensorValue(values.getNextValue(), values.getNextTime());
+							values.removeNext();
 						}
-						for (long time : toRemove) values.remove(time);
 					}
 
 					//If there is a registered InferenceCallback (e.g., call a planner), run it
@@ -276,6 +537,9 @@ public class ConstraintNetworkAnimator extends Thread {
 						for (PeriodicCallback pc : pcbs) pc.callback(timeNow);
 					}
 
+					//In event-driven mode (or if its thread has handed over to this one), the dispatcher is stepped here
+					if (this.dis != null && (eventDriven || dis.isHandedOver())) dis.step();
+
 					//Remove finished vars
 					if (this.autoClean) {
 						int finishedVars = this.getDispatcher().getFinishedActs().length;
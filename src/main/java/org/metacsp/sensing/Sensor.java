@@ -89,11 +89,11 @@ public class Sensor implements Serializable {
 	
 	protected static HashMap<Long,String> parseSensorValue(String everything, long delta) {
 		HashMap<Long,String> ret = new HashMap<Long,String>();
-		int lastSV = everything.lastIndexOf("SensorValue");
-		while (lastSV != -1) {
-			int bw = lastSV;
-			int fw = lastSV;
-			while (everything.charAt(--bw) != '(') { }
+		//Single forward pass; if a time occurs more than once, the first value is kept
+		int sv = everything.indexOf("SensorValue");
+		while (sv != -1) {
+			int bw = everything.lastIndexOf('(', sv);
+			int fw = sv;
 			int parcounter = 1;
 			while (parcounter != 0) {
 				if (everything.charAt(fw) == '(') parcounter++;
@@ -105,9 +105,8 @@ public class Sensor implements Serializable {
 			long time = Long.parseLong(value.substring(value.indexOf(" "),value.lastIndexOf(")")).trim());
 			time += delta;
 			value = value.substring(0,value.indexOf(" ")).trim();
-			ret.put(time,value);
-			everything = everything.substring(0,bw);
-			lastSV = everything.lastIndexOf("SensorValue");
+			if (!ret.containsKey(time)) ret.put(time,value);
+			sv = everything.indexOf("SensorValue", fw);
 		}
 		return ret;
 	}
@@ -0,0 +1,108 @@
+package org.metacsp.sensing;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The values of a {@link Sensor} that are yet to be modeled by a {@link ConstraintNetworkAnimator}, sorted by time.
+ * A cursor points to the earliest value, so that the values that are due at a given time are found without scanning the others.
+ * As with a map from times to values, posting a value at a time which already has one replaces it.
+ *
+ * @author Federico Pecora
+ */
+public final class SensorTrace {
+
+	private long[] times = new long[16];
+	private String[] values = new String[16];
+	//Values in [first,size) are still to be modeled
+	private int first = 0;
+	private int size = 0;
+
+	public SensorTrace() { }
+
+	public SensorTrace(Map<Long,String> values) {
+		Long[] sortedTimes = values.keySet().toArray(new Long[values.size()]);
+		Arrays.sort(sortedTimes);
+		for (Long time : sortedTimes) put(time, values.get(time));
+	}
+
+	/**
+	 * Add a value to this trace.
+	 * @param time The time of the value.
+	 * @param value The value.
+	 */
+	public void put(long time, String value) {
+		//Values usually arrive in chronological order
+		if (first == size || times[size-1] < time) {
+			ensureCapacity();
+			times[size] = time;
+			values[size++] = value;
+			return;
+		}
+		int i = Arrays.binarySearch(times, first, size, time);
+		if (i >= 0) {
+			values[i] = value;
+			return;
+		}
+		i = -i-1;
+		int oldFirst = first;
+		ensureCapacity();
+		i -= oldFirst-first;
+		System.arraycopy(times, i, times, i+1, size-i);
+		System.arraycopy(values, i, values, i+1, size-i);
+		times[i] = time;
+		values[i] = value;
+		size++;
+	}
+
+	//Make room for one more value, first reclaiming the space of modeled values
+	private void ensureCapacity() {
+		if (size < times.length) return;
+		if (first > 0) {
+			System.arraycopy(times, first, times, 0, size-first);
+			System.arraycopy(values, first, values, 0, size-first);
+			Arrays.fill(values, size-first, size, null);
+			size -= first;
+			first = 0;
+		}
+		if (size == times.length) {
+			times = Arrays.copyOf(times, 2*size);
+			values = Arrays.copyOf(values, 2*size);
+		}
+	}
+
+	/**
+	 * @param timeNow The current time.
+	 * @return <code>true</code> iff the earliest value of this trace is due at the given time.
+	 */
+	public boolean hasDue(long timeNow) {
+		return first < size && times[first] <= timeNow;
+	}
+
+	/**
+	 * @return The time of the earliest value of this trace, {@link Long#MAX_VALUE} if it is empty.
+	 */
+	public long getNextTime() {
+		return first < size ? times[first] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return The earliest value of this trace.
+	 */
+	public String getNextValue() {
+		return values[first];
+	}
+
+	/**
+	 * Remove the earliest value of this trace.
+	 */
+	public void removeNext() {
+		values[first++] = null;
+		if (first == size) first = size = 0;
+	}
+
+	public boolean isEmpty() {
+		return first == size;
+	}
+
+}
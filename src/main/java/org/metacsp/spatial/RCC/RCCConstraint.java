@@ -26,6 +26,7 @@ import java.util.Arrays;
 
 import org.metacsp.framework.BinaryConstraint;
 import org.metacsp.framework.Constraint;
+import org.metacsp.utility.QualitativeCalculus;
 
 /**
  * Implementation of RCC-8 (Region Connection Calculus) constraints.
@@ -175,7 +176,7 @@ public class RCCConstraint extends BinaryConstraint{
 			{Type.DC, Type.EC, Type.PO, Type.TPP, Type.NTPP},
 			{Type.TPP, Type.NTPP},
 			{Type.NTPP},
-			{Type.DC, Type.EC, Type.PO, Type.TPPI, Type.NTPPI, Type.EQ},
+			{Type.DC, Type.EC, Type.PO, Type.TPP, Type.TPPI, Type.EQ},
 			{Type.DC, Type.EC, Type.PO, Type.TPPI, Type.NTPPI},
 			{Type.TPP}
 			
@@ -229,12 +230,32 @@ public class RCCConstraint extends BinaryConstraint{
 	};//3 by 3 composition Table
 
 	
+	//The calculus is compiled from the transitionTable when first needed
+	private static QualitativeCalculus calculus = null;
+
+	/**
+	 * Get the {@link QualitativeCalculus} of RCC-8 relations.
+	 * @return The {@link QualitativeCalculus} of RCC-8 relations.
+	 */
+	public static synchronized QualitativeCalculus getCalculus() {
+		if (calculus == null) {
+			Type[] inverses = new Type[Type.values().length];
+			for (Type t : Type.values()) inverses[t.ordinal()] = getInverseRelation(t);
+			calculus = new QualitativeCalculus(transitionTable, inverses);
+		}
+		return calculus;
+	}
+
 	public static Type getInverseRelation(Type t)
 	{		
 		if (t.equals(Type.TPP))
 			return Type.TPPI;
 		else if (t.equals(Type.NTPP))
 			return Type.NTPPI;
+		else if (t.equals(Type.TPPI))
+			return Type.TPP;
+		else if (t.equals(Type.NTPPI))
+			return Type.NTPP;
 		else
 			return t;
 	}
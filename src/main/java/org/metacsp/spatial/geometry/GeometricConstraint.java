@@ -2,6 +2,7 @@ package org.metacsp.spatial.geometry;
 
 import org.metacsp.framework.BinaryConstraint;
 import org.metacsp.framework.Constraint;
+import org.metacsp.utility.QualitativeCalculus;
 
 
 
@@ -35,6 +36,17 @@ public class GeometricConstraint extends BinaryConstraint{
 		}	
 	};
 	
+	//The calculus is compiled from the transitionTable when first needed (INSIDE has no inverse in RCC2)
+	private static QualitativeCalculus calculus = null;
+	
+	/**
+	 * Get the {@link QualitativeCalculus} of RCC2 relations.
+	 * @return The {@link QualitativeCalculus} of RCC2 relations.
+	 */
+	public static synchronized QualitativeCalculus getCalculus() {
+		if (calculus == null) calculus = new QualitativeCalculus(transitionTable, null);
+		return calculus;
+	}
 	
 	@Override
 	public String getEdgeLabel() {
@@ -1,9 +1,8 @@
 package org.metacsp.spatial.geometry;
-import java.util.Arrays;
-
 import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintSolver;
 import org.metacsp.framework.Variable;
+import org.metacsp.utility.QualitativeCalculus;
 
 
 public class RCC2ConstraintSolver extends ConstraintSolver {
@@ -25,21 +24,23 @@ public class RCC2ConstraintSolver extends ConstraintSolver {
 	@Override
 	public boolean propagate() {
 		Variable[] vars = this.getConstraintNetwork().getVariables();
-		for (int k = 0; k < vars.length; k++) {
-			for (int i = 0; i < vars.length; i++) {
-				if (i != k) {
-					for (int j = 0; j < vars.length; j++) {
-						if (j != k && j != i) {
-							GeometricConstraint r_ij = (GeometricConstraint)this.getConstraintNetwork().getConstraint(vars[i], vars[j]);
-							if(r_ij == null) continue;
-							GeometricConstraint r_ik = (GeometricConstraint)this.getConstraintNetwork().getConstraint(vars[i], vars[k]);
-							if(r_ik == null) continue;
-							GeometricConstraint r_kj = (GeometricConstraint)this.getConstraintNetwork().getConstraint(vars[k], vars[j]);
-							if(r_kj == null) continue;
-							//comp = R_ik * R_kj
-							GeometricConstraint.Type[] comp = getComposition(r_ik.getType(), r_kj.getType());
-							//inters = R_ij ^ comp
-							if(!Arrays.asList(comp).contains(r_ij.getType())) return false;
+		int n = vars.length;
+		//Relations as bitmasks, 0 where there is no constraint
+		int[] relations = new int[n*n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				GeometricConstraint r_ij = (i == j) ? null : (GeometricConstraint)this.getConstraintNetwork().getConstraint(vars[i], vars[j]);
+				if (r_ij != null) relations[i*n+j] = QualitativeCalculus.getMask(r_ij.getType());
+			}
+		}
+		QualitativeCalculus calculus = GeometricConstraint.getCalculus();
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < n; i++) {
+				if (i != k && relations[i*n+k] != 0) {
+					for (int j = 0; j < n; j++) {
+						if (j != k && j != i && relations[i*n+j] != 0 && relations[k*n+j] != 0) {
+							//R_ij must be in R_ik * R_kj
+							if ((calculus.getComposition(relations[i*n+k], relations[k*n+j]) & relations[i*n+j]) == 0) return false;
 						}
 					}	
 				}
@@ -47,11 +48,6 @@ public class RCC2ConstraintSolver extends ConstraintSolver {
 		}
 		return true;
 	}
-	
-
-	private GeometricConstraint.Type[] getComposition(GeometricConstraint.Type o1, GeometricConstraint.Type o2){
-		return GeometricConstraint.transitionTable[o1.ordinal()][o2.ordinal()];
-	}
 
 	@Override
 	protected void removeConstraintsSub(Constraint[] c) {
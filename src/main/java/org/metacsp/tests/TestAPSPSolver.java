@@ -1,12 +1,18 @@
 package org.metacsp.tests;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
 import java.util.logging.Level;
 
 import junit.framework.TestCase;
 
+import org.metacsp.framework.Constraint;
 import org.metacsp.framework.Variable;
 import org.metacsp.time.APSPSolver;
+import org.metacsp.time.Bounds;
 import org.metacsp.time.SimpleDistanceConstraint;
 import org.metacsp.time.TimePoint;
 import org.metacsp.utility.logging.MetaCSPLogging;
@@ -23,7 +29,14 @@ public class TestAPSPSolver extends TestCase {
 	}
 
 	public void testBoundsAfterPropagation() {
-		APSPSolver solver = new APSPSolver(100, 500);
+		checkBoundsAfterPropagation(new APSPSolver(100, 500));
+	}
+	
+	public void testBoundsAfterPropagationSparse() {
+		checkBoundsAfterPropagation(new APSPSolver(100, 500, APSPSolver.BACKEND.SPARSE));
+	}
+	
+	private void checkBoundsAfterPropagation(APSPSolver solver) {
 		Variable[] vars = solver.createVariables(3);
 		Variable one = vars[0];
 		Variable two = vars[1];
@@ -75,7 +88,14 @@ public class TestAPSPSolver extends TestCase {
 	}
 	
 	public void testInconsistency() {
-		APSPSolver solver = new APSPSolver(100, 500);
+		checkInconsistency(new APSPSolver(100, 500));
+	}
+	
+	public void testInconsistencySparse() {
+		checkInconsistency(new APSPSolver(100, 500, APSPSolver.BACKEND.SPARSE));
+	}
+	
+	private void checkInconsistency(APSPSolver solver) {
 		Variable[] vars = solver.createVariables(3);
 		Variable one = vars[0];
 		Variable two = vars[1];
@@ -112,4 +132,524 @@ public class TestAPSPSolver extends TestCase {
 		assertTrue(solver.addConstraints(con4));
 	}
 	
+	public void testSparseGrowsBeyondInitialCapacity() {
+		APSPSolver solver = new APSPSolver(0, 100000, 4, APSPSolver.BACKEND.SPARSE);
+		Variable[] vars = solver.createVariables(50);
+		SimpleDistanceConstraint last = null;
+		for (int i = 1; i < vars.length; i++) {
+			last = new SimpleDistanceConstraint();
+			last.setFrom(vars[i-1]);
+			last.setTo(vars[i]);
+			last.setMinimum(10);
+			last.setMaximum(APSPSolver.INF);
+			assertTrue(solver.addConstraint(last));
+		}
+		assertEquals(490, ((TimePoint)vars[49]).getLowerBound());
+		solver.removeConstraint(last);
+		solver.removeVariable(vars[49]);
+		Variable[] more = solver.createVariables(10);
+		assertEquals(0, ((TimePoint)more[0]).getLowerBound());
+		assertEquals(100000, ((TimePoint)more[0]).getUpperBound());
+	}
+	
+	public void testSparseAgreesWithDense() {
+		Random rand = new Random(1234);
+		APSPSolver dense = new APSPSolver(0, 1000, 100);
+		APSPSolver sparse = new APSPSolver(0, 1000, APSPSolver.BACKEND.SPARSE);
+		Variable[] dVars = dense.createVariables(30);
+		Variable[] sVars = sparse.createVariables(30);
+		for (int k = 0; k < 60; k++) {
+			int from = rand.nextInt(30);
+			int to = rand.nextInt(30);
+			if (from == to) continue;
+			long min = rand.nextInt(50);
+			long max = min + rand.nextInt(200);
+			SimpleDistanceConstraint dCon = new SimpleDistanceConstraint();
+			dCon.setFrom(dVars[from]);
+			dCon.setTo(dVars[to]);
+			dCon.setMinimum(min);
+			dCon.setMaximum(max);
+			SimpleDistanceConstraint sCon = new SimpleDistanceConstraint();
+			sCon.setFrom(sVars[from]);
+			sCon.setTo(sVars[to]);
+			sCon.setMinimum(min);
+			sCon.setMaximum(max);
+			assertEquals(dense.addConstraint(dCon), sparse.addConstraint(sCon));
+		}
+		for (int i = 0; i < 30; i++) {
+			assertEquals(((TimePoint)dVars[i]).getLowerBound(), ((TimePoint)sVars[i]).getLowerBound());
+			assertEquals(((TimePoint)dVars[i]).getUpperBound(), ((TimePoint)sVars[i]).getUpperBound());
+			for (int j = 0; j < 30; j++) {
+				if (i == j) continue;
+				Bounds dBounds = dense.getDistanceBounds((TimePoint)dVars[i], (TimePoint)dVars[j]);
+				Bounds sBounds = sparse.getDistanceBounds((TimePoint)sVars[i], (TimePoint)sVars[j]);
+				assertEquals(dBounds, sBounds);
+			}
+		}
+	}
+	
+	public void testRemoveOneOfTwoConstraints() {
+		checkRemoveOneOfTwoConstraints(new APSPSolver(0, 1000));
+	}
+
+	public void testRemoveOneOfTwoConstraintsSparse() {
+		checkRemoveOneOfTwoConstraints(new APSPSolver(0, 1000, APSPSolver.BACKEND.SPARSE));
+	}
+
+	private void checkRemoveOneOfTwoConstraints(APSPSolver solver) {
+		Variable[] vars = solver.createVariables(3);
+		TimePoint one = (TimePoint)vars[0];
+		TimePoint two = (TimePoint)vars[1];
+		TimePoint three = (TimePoint)vars[2];
+
+		//Two constraints on the same pair, with negative distances
+		SimpleDistanceConstraint con1 = new SimpleDistanceConstraint();
+		con1.setFrom(two);
+		con1.setTo(one);
+		con1.setMinimum(-20);
+		con1.setMaximum(-10);
+
+		SimpleDistanceConstraint con2 = new SimpleDistanceConstraint();
+		con2.setFrom(two);
+		con2.setTo(one);
+		con2.setMinimum(-30);
+		con2.setMaximum(-15);
+
+		SimpleDistanceConstraint con3 = new SimpleDistanceConstraint();
+		con3.setFrom(two);
+		con3.setTo(three);
+		con3.setMinimum(5);
+		con3.setMaximum(5);
+
+		assertTrue(solver.addConstraint(con1));
+		assertTrue(solver.addConstraint(con2));
+		assertTrue(solver.addConstraint(con3));
+		assertEquals(new Bounds(15, 20), solver.getDistanceBounds(one, two));
+		assertEquals(new Bounds(20, 25), solver.getDistanceBounds(one, three));
+
+		solver.removeConstraint(con1);
+		assertEquals(new Bounds(15, 30), solver.getDistanceBounds(one, two));
+		assertEquals(new Bounds(20, 35), solver.getDistanceBounds(one, three));
+		assertEquals(15, two.getLowerBound());
+		assertEquals(20, three.getLowerBound());
+		assertEquals(1000, three.getUpperBound());
+
+		solver.removeConstraint(con2);
+		assertEquals(new Bounds(-1000, 995), solver.getDistanceBounds(one, two));
+		assertEquals(5, three.getLowerBound());
+	}
+
+	public void testChangeHorizonSparse() {
+		checkChangeHorizon(new APSPSolver(0, 1000, APSPSolver.BACKEND.SPARSE), 800);
+		checkChangeHorizon(new APSPSolver(0, 1000, APSPSolver.BACKEND.SPARSE), 2000);
+	}
+
+	private void checkChangeHorizon(APSPSolver solver, long horizon) {
+		Variable[] vars = solver.createVariables(1);
+		TimePoint one = (TimePoint)vars[0];
+		assertTrue(solver.changeHorizon(horizon));
+		assertEquals(horizon, solver.getH());
+		assertEquals(horizon, solver.getSink().getLowerBound());
+		assertEquals(horizon, one.getUpperBound());
+		Variable[] more = solver.createVariables(1);
+		TimePoint two = (TimePoint)more[0];
+		assertEquals(horizon, two.getUpperBound());
+		assertEquals(new Bounds(0, horizon), solver.getDistanceBounds(two, solver.getSink()));
+
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(one);
+		con.setTo(two);
+		con.setMinimum(700);
+		con.setMaximum(APSPSolver.INF);
+		assertTrue(solver.addConstraint(con));
+		assertEquals(700, two.getLowerBound());
+		assertEquals(horizon-700, one.getUpperBound());
+		assertEquals(new Bounds(0, horizon-700), solver.getDistanceBounds(two, solver.getSink()));
+	}
+
+	public void testBookmarkRevertDelete() {
+		APSPSolver solver = new APSPSolver(0, 1000, 50);
+		Variable[] vars = solver.createVariables(2);
+		TimePoint tp = (TimePoint)vars[1];
+		TimePoint horizon = (TimePoint)solver.getVariable(1);
+		SimpleDistanceConstraint conH = solver.getConstraint(tp, horizon);
+		assertNotNull(conH);
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(vars[0]);
+		con.setTo(vars[1]);
+		con.setMinimum(10);
+		con.setMaximum(20);
+		assertTrue(solver.addConstraint(con));
+		int bm = solver.bookmark();
+
+		solver.removeConstraint(con);
+		solver.removeVariable(vars[1]);
+		assertFalse(tp.isUsed());
+		solver.revert(bm);
+		assertTrue(tp.isUsed());
+		assertSame(tp, solver.getTimePoint(tp.getID()));
+		//The edges of the deleted TP are restored
+		assertSame(conH, solver.getConstraint(tp, horizon));
+		assertNotNull(solver.getConstraint((TimePoint)vars[0], tp));
+		assertEquals(new Bounds(10, 20), solver.getDistanceBounds((TimePoint)vars[0], tp));
+	}
+
+	public void testSparseBookmarkRevert() {
+		APSPSolver solver = new APSPSolver(0, 1000, APSPSolver.BACKEND.SPARSE);
+		Variable[] vars = solver.createVariables(2);
+		int bm = solver.bookmark();
+		Variable[] more = solver.createVariables(1);
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(solver.getVariable(0));
+		con.setTo(vars[0]);
+		con.setMinimum(200);
+		con.setMaximum(300);
+		assertTrue(solver.addConstraint(con));
+		SimpleDistanceConstraint con1 = new SimpleDistanceConstraint();
+		con1.setFrom(vars[0]);
+		con1.setTo(more[0]);
+		con1.setMinimum(10);
+		con1.setMaximum(10);
+		assertTrue(solver.addConstraint(con1));
+		assertEquals(210, ((TimePoint)more[0]).getLowerBound());
+		solver.revert(bm);
+		TimePoint tp = solver.getTimePoint(((TimePoint)vars[0]).getID());
+		assertEquals(0, tp.getLowerBound());
+		assertEquals(1000, tp.getUpperBound());
+		assertNull(solver.getTimePoint(((TimePoint)more[0]).getID()));
+	}
+	
+	public void testAffectedPairsPropagation() {
+		checkBoundsAfterPropagation(new APSPSolver(100, 500));
+		APSPSolver affected = new APSPSolver(100, 500);
+		affected.setPropagation(APSPSolver.PROPAGATION.AFFECTED_PAIRS);
+		checkBoundsAfterPropagation(affected);
+		checkInconsistency(affected);
+	}
+	
+	public void testAffectedPairsAgreesWithFullSweep() {
+		Random rand = new Random(4321);
+		APSPSolver full = new APSPSolver(0, 1000, 100);
+		APSPSolver affected = new APSPSolver(0, 1000, 100);
+		affected.setPropagation(APSPSolver.PROPAGATION.AFFECTED_PAIRS);
+		Variable[] fVars = full.createVariables(60);
+		Variable[] aVars = affected.createVariables(60);
+		for (int k = 0; k < 100; k++) {
+			int from = rand.nextInt(60);
+			int to = rand.nextInt(60);
+			if (from == to) continue;
+			long min = rand.nextInt(50);
+			long max = min + rand.nextInt(200);
+			SimpleDistanceConstraint fCon = new SimpleDistanceConstraint();
+			fCon.setFrom(fVars[from]);
+			fCon.setTo(fVars[to]);
+			fCon.setMinimum(min);
+			fCon.setMaximum(max);
+			SimpleDistanceConstraint aCon = new SimpleDistanceConstraint();
+			aCon.setFrom(aVars[from]);
+			aCon.setTo(aVars[to]);
+			aCon.setMinimum(min);
+			aCon.setMaximum(max);
+			assertEquals(full.addConstraint(fCon), affected.addConstraint(aCon));
+		}
+		for (int i = 0; i < 60; i++) {
+			for (int j = 0; j < 60; j++) {
+				if (i == j) continue;
+				assertEquals(full.getDistanceBounds((TimePoint)fVars[i], (TimePoint)fVars[j]), affected.getDistanceBounds((TimePoint)aVars[i], (TimePoint)aVars[j]));
+			}
+		}
+		assertTrue(affected.getTouchedCells() < full.getTouchedCells());
+	}
+	
+	public void testBookmarkRevert() {
+		APSPSolver solver = new APSPSolver(0, 1000, 50);
+		Variable[] vars = solver.createVariables(3);
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(vars[0]);
+		con.setTo(vars[1]);
+		con.setMinimum(10);
+		con.setMaximum(20);
+		assertTrue(solver.addConstraint(con));
+		String dist0 = solver.printDist();
+		int bm0 = solver.bookmark();
+
+		SimpleDistanceConstraint con1 = new SimpleDistanceConstraint();
+		con1.setFrom(solver.getVariable(0));
+		con1.setTo(vars[0]);
+		con1.setMinimum(200);
+		con1.setMaximum(300);
+		assertTrue(solver.addConstraint(con1));
+		String dist1 = solver.printDist();
+		int bm1 = solver.bookmark();
+
+		Variable[] more = solver.createVariables(1);
+		SimpleDistanceConstraint con2 = new SimpleDistanceConstraint();
+		con2.setFrom(vars[1]);
+		con2.setTo(more[0]);
+		con2.setMinimum(5);
+		con2.setMaximum(5);
+		assertTrue(solver.addConstraint(con2));
+		SimpleDistanceConstraint con3 = new SimpleDistanceConstraint();
+		con3.setFrom(vars[0]);
+		con3.setTo(vars[1]);
+		con3.setMinimum(15);
+		con3.setMaximum(30);
+		assertTrue(solver.addConstraint(con3));
+		assertEquals(220, ((TimePoint)more[0]).getLowerBound());
+		assertEquals(2, solver.numBookmarks());
+
+		solver.revert(bm1);
+		assertEquals(1, solver.numBookmarks());
+		assertEquals(dist1, solver.printDist());
+		assertNull(solver.getTimePoint(((TimePoint)more[0]).getID()));
+		assertEquals(200, ((TimePoint)vars[0]).getLowerBound());
+		assertEquals(20, ((TimePoint)vars[0]).getOut(((TimePoint)vars[1]).getID()).getMaximum());
+
+		solver.revert(bm0);
+		assertEquals(0, solver.numBookmarks());
+		assertEquals(dist0, solver.printDist());
+		assertEquals(0, ((TimePoint)vars[0]).getLowerBound());
+		assertEquals(990, ((TimePoint)vars[0]).getUpperBound());
+		SimpleDistanceConstraint conO = ((TimePoint)solver.getVariable(0)).getOut(((TimePoint)vars[0]).getID());
+		assertEquals(0, conO.getMinimum());
+		assertEquals(1000, conO.getMaximum());
+	}
+	
+	public void testFromScratchAgreesWithIncremental() {
+		Random rand = new Random(777);
+		int n = 150;
+		long[] times = new long[n];
+		for (int i = 0; i < n; i++) times[i] = rand.nextInt(1000);
+		APSPSolver incremental = new APSPSolver(0, 2000, n);
+		APSPSolver sequential = new APSPSolver(0, 2000, n);
+		APSPSolver parallel = new APSPSolver(0, 2000, n);
+		parallel.setParallelPropagation(true);
+		APSPSolver[] solvers = new APSPSolver[] {incremental, sequential, parallel};
+		Variable[][] vars = new Variable[solvers.length][];
+		for (int s = 0; s < solvers.length; s++) vars[s] = solvers[s].createVariables(n);
+		for (int k = 0; k < 3*n; k++) {
+			int from = rand.nextInt(n);
+			int to = rand.nextInt(n);
+			if (times[from] > times[to]) { int tmp = from; from = to; to = tmp; }
+			if (from == to) continue;
+			long diff = times[to]-times[from];
+			long min = Math.max(0, diff-rand.nextInt(20));
+			long max = diff+rand.nextInt(20);
+			for (int s = 0; s < solvers.length; s++) {
+				SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+				con.setFrom(vars[s][from]);
+				con.setTo(vars[s][to]);
+				con.setMinimum(min);
+				con.setMaximum(max);
+				assertTrue(solvers[s].addConstraint(con));
+			}
+		}
+		assertTrue(sequential.propagate());
+		assertTrue(parallel.propagate());
+		assertEquals(incremental.printDist(), sequential.printDist());
+		assertEquals(incremental.printDist(), parallel.printDist());
+	}
+	
+	private static SimpleDistanceConstraint createConstraint(Variable from, Variable to, long min, long max) {
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(from);
+		con.setTo(to);
+		con.setMinimum(min);
+		con.setMaximum(max);
+		return con;
+	}
+
+	private static ArrayList<Constraint> createChain(Variable[] vars) {
+		ArrayList<Constraint> cons = new ArrayList<Constraint>();
+		for (int i = 0; i < vars.length-1; i++) cons.add(createConstraint(vars[i], vars[i+1], 1, 10));
+		for (int i = 0; i < vars.length-2; i++) cons.add(createConstraint(vars[i], vars[i+2], 2, 20));
+		return cons;
+	}
+
+	//More constraints than time points, so that propagation is from scratch over several tiles
+	private static void checkFromScratchInconsistency(boolean parallel) {
+		int n = 150;
+		//Negative cycle in the first and in the last tile
+		for (int from : new int[] {1, n-1}) {
+			APSPSolver solver = new APSPSolver(0, 2000, n);
+			solver.setParallelPropagation(parallel);
+			Variable[] vars = solver.createVariables(n);
+			ArrayList<Constraint> cons = createChain(vars);
+			cons.add(createConstraint(vars[from], vars[from-1], 1, 10));
+			assertFalse(solver.addConstraints(cons.toArray(new Constraint[cons.size()])));
+			assertEquals(0, solver.getConstraints().length);
+		}
+	}
+
+	public void testFromScratchInconsistency() {
+		checkFromScratchInconsistency(false);
+	}
+
+	public void testFromScratchInconsistencyParallel() {
+		checkFromScratchInconsistency(true);
+	}
+
+	public void testCheckpointRollback() {
+		checkCheckpointRollback(new APSPSolver(0, 1000, 50));
+	}
+
+	public void testCheckpointRollbackSparse() {
+		checkCheckpointRollback(new APSPSolver(0, 1000, APSPSolver.BACKEND.SPARSE));
+	}
+
+	private void checkCheckpointRollback(APSPSolver solver) {
+		Variable[] vars = solver.createVariables(3);
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(vars[0]);
+		con.setTo(vars[1]);
+		con.setMinimum(10);
+		con.setMaximum(20);
+		assertTrue(solver.addConstraint(con));
+		String dist0 = solver.printDist();
+		int numCons0 = solver.getConstraints().length;
+		int cp0 = solver.checkpoint();
+
+		SimpleDistanceConstraint con1 = new SimpleDistanceConstraint();
+		con1.setFrom(vars[1]);
+		con1.setTo(vars[2]);
+		con1.setMinimum(100);
+		con1.setMaximum(100);
+		assertTrue(solver.addConstraint(con1));
+		String dist1 = solver.printDist();
+		int cp1 = solver.checkpoint();
+
+		solver.removeConstraint(con);
+		SimpleDistanceConstraint con2 = new SimpleDistanceConstraint();
+		con2.setFrom(vars[0]);
+		con2.setTo(vars[2]);
+		con2.setMinimum(500);
+		con2.setMaximum(600);
+		assertTrue(solver.addConstraint(con2));
+		assertEquals(2, solver.numCheckpoints());
+
+		//Rollback restores the network and the distances
+		solver.rollback(cp1);
+		assertEquals(1, solver.numCheckpoints());
+		assertEquals(dist1, solver.printDist());
+		assertTrue(solver.getConstraintNetwork().containsConstraint(con));
+		assertFalse(solver.getConstraintNetwork().containsConstraint(con2));
+
+		//Discarding a checkpoint keeps the current state
+		int cp2 = solver.checkpoint();
+		SimpleDistanceConstraint con3 = new SimpleDistanceConstraint();
+		con3.setFrom(vars[0]);
+		con3.setTo(vars[2]);
+		con3.setMinimum(110);
+		con3.setMaximum(115);
+		assertTrue(solver.addConstraint(con3));
+		String dist2 = solver.printDist();
+		solver.removeCheckpoint(cp2);
+		assertEquals(1, solver.numCheckpoints());
+		assertEquals(dist2, solver.printDist());
+
+		//Changes since a discarded checkpoint are undone by earlier checkpoints
+		solver.rollback(cp0);
+		assertEquals(0, solver.numCheckpoints());
+		assertEquals(dist0, solver.printDist());
+		assertEquals(numCons0, solver.getConstraints().length);
+		assertEquals(10, ((TimePoint)solver.getVariable(vars[1].getID())).getLowerBound());
+	}
+
+	public void testCompactionKeepsDistances() {
+		Random rand = new Random(4321);
+		APSPSolver solver = new APSPSolver(0, 1000, 100);
+		APSPSolver reference = new APSPSolver(0, 1000, 100);
+		Variable[] vars = solver.createVariables(40);
+		Variable[] refVars = reference.createVariables(40);
+		ArrayList<SimpleDistanceConstraint> cons = new ArrayList<SimpleDistanceConstraint>();
+		for (int k = 0; k < 50; k++) {
+			int from = rand.nextInt(40);
+			int to = rand.nextInt(40);
+			if (from == to) continue;
+			long min = rand.nextInt(20);
+			long max = min + rand.nextInt(200);
+			SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+			con.setFrom(vars[from]);
+			con.setTo(vars[to]);
+			con.setMinimum(min);
+			con.setMaximum(max);
+			if (solver.addConstraint(con)) cons.add(con);
+		}
+
+		//Remove every other TP, keeping the constraints among the others
+		ArrayList<Variable> removed = new ArrayList<Variable>();
+		for (int i = 0; i < 40; i += 2) removed.add(vars[i]);
+		ArrayList<Constraint> toRemove = new ArrayList<Constraint>();
+		for (SimpleDistanceConstraint con : cons) {
+			if (removed.contains(con.getFrom()) || removed.contains(con.getTo())) toRemove.add(con);
+			else {
+				SimpleDistanceConstraint refCon = new SimpleDistanceConstraint();
+				refCon.setFrom(refVars[Arrays.asList(vars).indexOf(con.getFrom())]);
+				refCon.setTo(refVars[Arrays.asList(vars).indexOf(con.getTo())]);
+				refCon.setMinimum(con.getMinimum());
+				refCon.setMaximum(con.getMaximum());
+				assertTrue(reference.addConstraint(refCon));
+			}
+		}
+		solver.removeConstraints(toRemove.toArray(new Constraint[toRemove.size()]));
+		solver.removeVariables(removed.toArray(new Variable[removed.size()]));
+		assertTrue(solver.getFragmentation() > 0.4);
+		HashSet<Variable> kept = new HashSet<Variable>();
+		for (int i = 1; i < 40; i += 2) kept.add(vars[i]);
+
+		assertTrue(solver.compact());
+		//Renumbered TPs are still found in hash-based collections
+		assertEquals(20, kept.size());
+		for (int i = 1; i < 40; i += 2) assertTrue(kept.contains(vars[i]));
+		for (int i = 0; i < 40; i += 2) assertFalse(kept.contains(vars[i]));
+		assertEquals(0.0, solver.getFragmentation());
+		assertEquals(1, solver.getCompactionCount());
+		for (int i = 1; i < 40; i += 2) {
+			assertTrue(((TimePoint)vars[i]).getID() < 22);
+			assertSame(vars[i], solver.getVariable(vars[i].getID()));
+			assertEquals(((TimePoint)refVars[i]).getLowerBound(), ((TimePoint)vars[i]).getLowerBound());
+			assertEquals(((TimePoint)refVars[i]).getUpperBound(), ((TimePoint)vars[i]).getUpperBound());
+			for (int j = 1; j < 40; j += 2) {
+				if (i == j) continue;
+				assertEquals(reference.getDistanceBounds((TimePoint)refVars[i], (TimePoint)refVars[j]), solver.getDistanceBounds((TimePoint)vars[i], (TimePoint)vars[j]));
+			}
+		}
+		for (SimpleDistanceConstraint con : cons) {
+			if (!toRemove.contains(con)) assertTrue(solver.getConstraintNetwork().containsConstraint(con));
+		}
+
+		//Constraints added after compaction are propagated as usual
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(vars[1]);
+		con.setTo(vars[3]);
+		con.setMinimum(0);
+		con.setMaximum(APSPSolver.INF);
+		SimpleDistanceConstraint refCon = new SimpleDistanceConstraint();
+		refCon.setFrom(refVars[1]);
+		refCon.setTo(refVars[3]);
+		refCon.setMinimum(0);
+		refCon.setMaximum(APSPSolver.INF);
+		assertEquals(reference.addConstraint(refCon), solver.addConstraint(con));
+		assertEquals(((TimePoint)refVars[3]).getLowerBound(), ((TimePoint)vars[3]).getLowerBound());
+		solver.removeConstraint(con);
+		reference.removeConstraint(refCon);
+		assertEquals(((TimePoint)refVars[3]).getLowerBound(), ((TimePoint)vars[3]).getLowerBound());
+	}
+
+	public void testAutomaticCompaction() {
+		APSPSolver solver = new APSPSolver(0, 1000, 100);
+		solver.setCompactionThreshold(0.5);
+		Variable[] vars = solver.createVariables(20);
+		solver.removeVariables(new Variable[] {vars[0], vars[1], vars[2], vars[3], vars[4], vars[5], vars[6], vars[7], vars[8], vars[9], vars[10], vars[11], vars[12]});
+		assertEquals(0, solver.getCompactionCount());
+		solver.createVariables(1);
+		assertEquals(1, solver.getCompactionCount());
+		assertEquals(0.0, solver.getFragmentation());
+
+		//No compaction with bookmarks
+		solver.removeVariables(new Variable[] {vars[13], vars[14], vars[15], vars[16], vars[17]});
+		solver.bookmark();
+		assertFalse(solver.compact());
+	}
+
 }
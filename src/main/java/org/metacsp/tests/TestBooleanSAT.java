@@ -1,5 +1,8 @@
 package org.metacsp.tests;
 
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Vector;
 import java.util.logging.Level;
 
 import junit.framework.TestCase;
@@ -96,4 +99,97 @@ public class TestBooleanSAT extends TestCase {
 		assertFalse(solver.addConstraints(cons));
 	}
 	
-}
\ No newline at end of file
+	public void testIncrementalAddAndRemove() {
+		//Domains of a solver to which constraints are added and removed one by one
+		//must be the same as those of a solver that is given all current constraints at once
+		Random rand = new Random(123);
+		int numVars = 6;
+		BooleanSatisfiabilitySolver solver = new BooleanSatisfiabilitySolver(10, 10);
+		BooleanVariable[] vars = (BooleanVariable[])solver.createVariables(numVars);
+		Vector<BooleanConstraint> added = new Vector<BooleanConstraint>();
+		for (int step = 0; step < 200; step++) {
+			if (!added.isEmpty() && rand.nextInt(3) == 0) {
+				solver.removeConstraint(added.remove(rand.nextInt(added.size())));
+			}
+			else {
+				BooleanVariable[] scope = new BooleanVariable[] {vars[rand.nextInt(numVars)], vars[rand.nextInt(numVars)]};
+				BooleanConstraint clause = new BooleanConstraint(scope, new boolean[] {rand.nextBoolean(), rand.nextBoolean()});
+				if (solver.addConstraint(clause)) added.add(clause);
+			}
+			BooleanSatisfiabilitySolver fresh = new BooleanSatisfiabilitySolver(10, 10);
+			BooleanVariable[] freshVars = (BooleanVariable[])fresh.createVariables(numVars);
+			Vector<BooleanConstraint> freshClauses = new Vector<BooleanConstraint>();
+			for (BooleanConstraint clause : added) {
+				BooleanVariable[] scope = new BooleanVariable[clause.getScope().length];
+				boolean[] positive = new boolean[scope.length];
+				int[] lits = clause.getLiterals().toArray();
+				for (int i = 0; i < scope.length; i++) {
+					scope[i] = freshVars[Math.abs(lits[i])-1];
+					positive[i] = lits[i] > 0;
+				}
+				freshClauses.add(new BooleanConstraint(scope, positive));
+			}
+			assertTrue(fresh.addConstraints(freshClauses.toArray(new BooleanConstraint[freshClauses.size()])));
+			for (int i = 0; i < numVars; i++) {
+				BooleanDomain dom = (BooleanDomain)vars[i].getDomain();
+				BooleanDomain freshDom = (BooleanDomain)freshVars[i].getDomain();
+				assertEquals(freshDom.canBeTrue(), dom.canBeTrue());
+				assertEquals(freshDom.canBeFalse(), dom.canBeFalse());
+			}
+		}
+	}
+	
+	public void testBoundedAndLazyModels() {
+		//(x1 v x2) ^ (~x3 v x4), 9 models over x1..x4
+		BooleanSatisfiabilitySolver solver = new BooleanSatisfiabilitySolver(10, 10);
+		BooleanVariable[] vars = (BooleanVariable[])solver.createVariables(4);
+		BooleanConstraint clause1 = new BooleanConstraint(new BooleanVariable[] {vars[0],vars[1]}, new boolean[] {true,true});
+		BooleanConstraint clause2 = new BooleanConstraint(new BooleanVariable[] {vars[2],vars[3]}, new boolean[] {false,true});
+		assertTrue(solver.addConstraints(new BooleanConstraint[] {clause1,clause2}));
+		assertEquals(9, countModels(solver, vars));
+
+		//At most two models, domains are still complete
+		solver.setMaxModels(2);
+		solver.propagate();
+		assertEquals(2, countModels(solver, vars));
+		for (BooleanVariable var : vars) {
+			assertTrue(((BooleanDomain)var.getDomain()).canBeTrue() && ((BooleanDomain)var.getDomain()).canBeFalse());
+		}
+
+		//Lazy enumeration finds all models through the iterator
+		solver.setMaxModels(Integer.MAX_VALUE);
+		solver.setLazyModels(true);
+		solver.propagate();
+		assertEquals(9, countModels(solver, vars));
+
+		//Models that differ in x1 and x2 only
+		solver.setModelVariables(vars[0], vars[1]);
+		solver.propagate();
+		assertEquals(3, countModels(solver, vars));
+		
+		//Adding a constraint invalidates the enumeration
+		Iterator<String> it = solver.getModelNames();
+		it.next();
+		assertTrue(solver.addConstraint(new BooleanConstraint(new BooleanVariable[] {vars[0]}, new boolean[] {false})));
+		assertFalse(it.hasNext());
+		assertEquals(1, countModels(solver, vars));
+		assertTrue(!((BooleanDomain)vars[0].getDomain()).canBeTrue() && ((BooleanDomain)vars[0].getDomain()).canBeFalse());
+		assertTrue(((BooleanDomain)vars[1].getDomain()).canBeTrue() && !((BooleanDomain)vars[1].getDomain()).canBeFalse());
+	}
+	
+	//Count models, checking that each satisfies (x1 v x2) ^ (~x3 v x4)
+	private static int countModels(BooleanSatisfiabilitySolver solver, BooleanVariable[] vars) {
+		int ret = 0;
+		Iterator<String> it = solver.getModelNames();
+		while (it.hasNext()) {
+			String model = it.next();
+			boolean[] values = new boolean[vars.length];
+			for (int i = 0; i < vars.length; i++) values[i] = (Boolean)vars[i].getDomain().chooseValue(model);
+			assertTrue(values[0] || values[1]);
+			assertTrue(!values[2] || values[3]);
+			ret++;
+		}
+		return ret;
+	}
+	
+}
@@ -0,0 +1,183 @@
+package org.metacsp.tests;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.booleanSAT.BooleanConstraint;
+import org.metacsp.booleanSAT.BooleanSatisfiabilitySolver;
+import org.metacsp.booleanSAT.BooleanVariable;
+import org.metacsp.framework.Constraint;
+import org.metacsp.framework.ConstraintNetwork;
+import org.metacsp.framework.Variable;
+import org.metacsp.time.SimpleDistanceConstraint;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestConstraintNetwork extends TestCase {
+
+	private BooleanVariable[] vars = null;
+	private ConstraintNetwork cn = null;
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+		BooleanSatisfiabilitySolver solver = new BooleanSatisfiabilitySolver(10, 10);
+		vars = (BooleanVariable[])solver.createVariables(4);
+		cn = new ConstraintNetwork(null);
+		for (Variable var : vars) cn.addVariable(var);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	//A binary constraint
+	private static SimpleDistanceConstraint createBinary(Variable from, Variable to) {
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		con.setFrom(from);
+		con.setTo(to);
+		return con;
+	}
+
+	//A hyperedge
+	private static BooleanConstraint createHyperEdge(BooleanVariable ... scope) {
+		boolean[] positive = new boolean[scope.length];
+		Arrays.fill(positive, true);
+		return new BooleanConstraint(scope, positive);
+	}
+
+	private static <T> HashSet<T> set(T ... elements) {
+		return new HashSet<T>(Arrays.asList(elements));
+	}
+
+	public void testRemoveHyperEdge() {
+		BooleanConstraint h1 = createHyperEdge(vars[0], vars[1], vars[2]);
+		BooleanConstraint h2 = createHyperEdge(vars[1], vars[2], vars[3]);
+		SimpleDistanceConstraint b01 = createBinary(vars[0], vars[1]);
+		cn.addConstraints(h1, h2, b01);
+		assertEquals(set(h1, h2, b01), set(cn.getConstraints()));
+		assertEquals(set(h1, h2, b01), set(cn.getIncidentEdges(vars[1])));
+		assertEquals(set(vars[1], vars[2]), set(cn.getNeighboringVariables(vars[0])));
+		//Dummy vertices for hyperedges
+		assertEquals(6, cn.getGraph().getVertexCount());
+
+		cn.removeConstraint(h1);
+		assertFalse(cn.containsConstraint(h1));
+		assertEquals(set(h2, b01), set(cn.getConstraints()));
+		assertEquals(set(b01), set(cn.getIncidentEdges(vars[0])));
+		assertEquals(set(h2), set(cn.getIncidentEdges(vars[2])));
+		assertEquals(set(vars[1]), set(cn.getNeighboringVariables(vars[0])));
+		assertSame(b01, cn.getConstraint(vars[0], vars[1]));
+		assertEquals(5, cn.getGraph().getVertexCount());
+
+		//Removing it again changes nothing
+		cn.removeConstraint(h1);
+		assertEquals(set(h2, b01), set(cn.getConstraints()));
+		cn.removeConstraint(h2);
+		assertEquals(set(b01), set(cn.getConstraints()));
+		assertEquals(0, cn.getIncidentEdges(vars[3]).length);
+		assertEquals(4, cn.getGraph().getVertexCount());
+		assertEquals(1, cn.getGraph().getEdgeCount());
+	}
+
+	public void testRemoveVariableWithIncidentEdges() {
+		//The JUNG view must follow as well
+		cn.getGraph();
+		SimpleDistanceConstraint b01 = createBinary(vars[0], vars[1]);
+		SimpleDistanceConstraint b10 = createBinary(vars[1], vars[0]);
+		SimpleDistanceConstraint b12 = createBinary(vars[1], vars[2]);
+		SimpleDistanceConstraint b12a = createBinary(vars[1], vars[2]);
+		SimpleDistanceConstraint b23 = createBinary(vars[2], vars[3]);
+		BooleanConstraint h123 = createHyperEdge(vars[1], vars[2], vars[3]);
+		cn.addConstraints(b01, b10, b12, b12a, b23, h123);
+
+		cn.removeVariable(vars[1]);
+		assertFalse(cn.containsVariable(vars[1]));
+		assertFalse(cn.containsVariable(vars[1].getID()));
+		assertNull(cn.getVariable(vars[1].getID()));
+		assertEquals(set(vars[0], vars[2], vars[3]), set(cn.getVariables()));
+		assertEquals(set(b23), set(cn.getConstraints()));
+		for (Constraint con : new Constraint[] {b01, b10, b12, b12a, h123}) assertFalse(cn.containsConstraint(con));
+		assertEquals(0, cn.getIncidentEdges(vars[0]).length);
+		assertEquals(set(b23), set(cn.getIncidentEdges(vars[2])));
+		assertEquals(set(b23), set(cn.getIncidentEdges(vars[3])));
+		assertNull(cn.getConstraint(vars[0], vars[1]));
+		assertEquals(0, cn.getConstraints(vars[1], vars[2]).length);
+		assertEquals(0, cn.getNeighboringVariables(vars[0]).length);
+		assertEquals(3, cn.getGraph().getVertexCount());
+		assertEquals(1, cn.getGraph().getEdgeCount());
+
+		//The variable can come back, without its old constraints
+		cn.addVariable(vars[1]);
+		assertEquals(0, cn.getIncidentEdges(vars[1]).length);
+		cn.addConstraint(b12);
+		assertSame(b12, cn.getConstraint(vars[1], vars[2]));
+		assertEquals(set(b12), set(cn.getConstraints(vars[1], vars[2])));
+	}
+
+	public void testPairLookupsAfterRemoval() {
+		SimpleDistanceConstraint c1 = createBinary(vars[0], vars[1]);
+		SimpleDistanceConstraint c2 = createBinary(vars[0], vars[1]);
+		SimpleDistanceConstraint c3 = createBinary(vars[1], vars[0]);
+		cn.addConstraints(c1, c2, c3);
+		assertEquals(set(c1, c2), set(cn.getConstraints(vars[0], vars[1])));
+		assertSame(c3, cn.getConstraint(vars[1], vars[0]));
+
+		cn.removeConstraint(c1);
+		assertEquals(set(c2), set(cn.getConstraints(vars[0], vars[1])));
+		assertSame(c2, cn.getConstraint(vars[0], vars[1]));
+		cn.removeConstraint(c2);
+		assertNull(cn.getConstraint(vars[0], vars[1]));
+		assertEquals(0, cn.getConstraints(vars[0], vars[1]).length);
+		assertSame(c3, cn.getConstraint(vars[1], vars[0]));
+		assertEquals(0, cn.getOutgoingEdges(vars[0]).length);
+		assertEquals(set(c3), set(cn.getIngoingEdges(vars[0])));
+		assertEquals(set(vars[1]), set(cn.getNeighboringVariables(vars[0])));
+		cn.addConstraint(c1);
+		assertSame(c1, cn.getConstraint(vars[0], vars[1]));
+
+		//Slots of removed constraints are reused
+		SimpleDistanceConstraint[][] cons = new SimpleDistanceConstraint[vars.length][vars.length];
+		for (int i = 0; i < vars.length; i++) {
+			for (int j = 0; j < vars.length; j++) {
+				if (i == j) continue;
+				cons[i][j] = createBinary(vars[i], vars[j]);
+				cn.addConstraint(cons[i][j]);
+			}
+		}
+		for (int i = 0; i < vars.length; i++) {
+			for (int j = 0; j < vars.length; j++) {
+				if ((i+j)%2 == 0 && i != j) cn.removeConstraint(cons[i][j]);
+			}
+		}
+		cn.removeConstraint(c1);
+		cn.removeConstraint(c3);
+		for (int i = 0; i < vars.length; i++) {
+			for (int j = 0; j < vars.length; j++) {
+				if (i == j) continue;
+				if ((i+j)%2 == 0) assertNull(cn.getConstraint(vars[i], vars[j]));
+				else {
+					assertSame(cons[i][j], cn.getConstraint(vars[i], vars[j]));
+					assertEquals(1, cn.getConstraints(vars[i], vars[j]).length);
+				}
+			}
+		}
+		for (int i = 0; i < vars.length; i++) {
+			for (int j = 0; j < vars.length; j++) {
+				if ((i+j)%2 == 0 && i != j) {
+					cons[i][j] = createBinary(vars[i], vars[j]);
+					cn.addConstraint(cons[i][j]);
+				}
+			}
+		}
+		assertEquals(vars.length*(vars.length-1), cn.getConstraints().length);
+		for (int i = 0; i < vars.length; i++) {
+			for (int j = 0; j < vars.length; j++) {
+				if (i != j) assertSame(cons[i][j], cn.getConstraint(vars[i], vars[j]));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+package org.metacsp.tests;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.dispatching.Dispatcher;
+import org.metacsp.dispatching.DispatchingFunction;
+import org.metacsp.framework.Constraint;
+import org.metacsp.framework.ConstraintSolver;
+import org.metacsp.multi.activity.ActivityNetworkSolver;
+import org.metacsp.multi.activity.SymbolicVariableActivity;
+import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.sensing.ConstraintNetworkAnimator;
+import org.metacsp.sensing.Sensor;
+import org.metacsp.time.APSPSolver;
+import org.metacsp.time.Bounds;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestConstraintNetworkAnimator extends TestCase {
+
+	private ConstraintNetworkAnimator animator = null;
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		if (animator != null) animator.teardown();
+	}
+
+	//Fails propagation on demand
+	private static class FailingActivityNetworkSolver extends ActivityNetworkSolver {
+		private static final long serialVersionUID = 1L;
+		private boolean fail = false;
+		public FailingActivityNetworkSolver(long origin, long horizon) {
+			super(origin, horizon);
+			this.setOptions(ConstraintSolver.OPTIONS.AUTO_PROPAGATE);
+		}
+		@Override
+		public boolean propagate() {
+			return !fail && super.propagate();
+		}
+	}
+
+	//Time does not pass
+	private static class StoppedAnimator extends ConstraintNetworkAnimator {
+		public StoppedAnimator(ActivityNetworkSolver ans) {
+			super(ans, 100, true);
+		}
+		@Override
+		protected long getCurrentTimeInMillis() {
+			return 0;
+		}
+	}
+
+	//Time only passes when the test says so
+	private static class ManualClockAnimator extends ConstraintNetworkAnimator {
+		private volatile long clock = 0;
+		public ManualClockAnimator(ActivityNetworkSolver ans) {
+			super(ans, 100, true);
+		}
+		@Override
+		protected long getCurrentTimeInMillis() {
+			return clock;
+		}
+	}
+
+	//Records the values it models, with the time at which they are modeled
+	private static class RecordingSensor extends Sensor {
+		private static final long serialVersionUID = 1L;
+		private Vector<String> modeled = new Vector<String>();
+		public RecordingSensor(String name, ConstraintNetworkAnimator animator) {
+			super(name, animator);
+		}
+		@Override
+		public void modelSensorValue(String value, long time) {
+			modeled.add(value + "@" + time + (animator.getTimeNow() < time ? " (early)" : ""));
+			super.modelSensorValue(value, time);
+		}
+	}
+
+	private static DispatchingFunction createDispatchingFunction(String component) {
+		return new DispatchingFunction(component) {
+			@Override
+			public void dispatch(SymbolicVariableActivity act) { }
+			@Override
+			public boolean skip(SymbolicVariableActivity act) { return false; }
+		};
+	}
+
+	//A paused animator whose dispatcher is only stepped by the test
+	private Dispatcher createAnimator(ActivityNetworkSolver ans) throws InterruptedException {
+		animator = new StoppedAnimator(ans);
+		animator.setEventDriven(true);
+		animator.addDispatchingFunctions(createDispatchingFunction("Robot"), createDispatchingFunction("Arm"));
+		Dispatcher dis = animator.getDispatcher();
+		dis.join();
+		assertTrue(dis.isHandedOver());
+		animator.setEventDriven(false);
+		return dis;
+	}
+
+	private static SymbolicVariableActivity createActivity(ActivityNetworkSolver ans, String component, String symbol) {
+		SymbolicVariableActivity act = (SymbolicVariableActivity)ans.createVariable(component);
+		act.setSymbolicDomain(symbol);
+		return act;
+	}
+
+	private static AllenIntervalConstraint createConstraint(AllenIntervalConstraint.Type type, SymbolicVariableActivity from, SymbolicVariableActivity to, Bounds ... bounds) {
+		AllenIntervalConstraint con = new AllenIntervalConstraint(type, bounds);
+		con.setFrom(from);
+		con.setTo(to);
+		return con;
+	}
+
+	private static String getBounds(SymbolicVariableActivity ... acts) {
+		String ret = "";
+		for (SymbolicVariableActivity act : acts) {
+			ret += act.getTemporalVariable().getEST() + " " + act.getTemporalVariable().getLST() + " " + act.getTemporalVariable().getEET() + " " + act.getTemporalVariable().getLET() + "\n";
+		}
+		return ret;
+	}
+
+	//Move -> Grasp -> Place on the robot, with Lift during Move on the arm
+	private static SymbolicVariableActivity[] createActivities(ActivityNetworkSolver ans) {
+		SymbolicVariableActivity move = createActivity(ans, "Robot", "Move");
+		SymbolicVariableActivity grasp = createActivity(ans, "Robot", "Grasp");
+		SymbolicVariableActivity place = createActivity(ans, "Robot", "Place");
+		SymbolicVariableActivity lift = createActivity(ans, "Arm", "Lift");
+		assertTrue(ans.addConstraints(new Constraint[] {
+				createConstraint(AllenIntervalConstraint.Type.Release, move, move, new Bounds(10, 10)),
+				createConstraint(AllenIntervalConstraint.Type.Duration, move, move, new Bounds(20, 30)),
+				createConstraint(AllenIntervalConstraint.Type.Before, move, grasp, new Bounds(5, 15)),
+				createConstraint(AllenIntervalConstraint.Type.Duration, grasp, grasp, new Bounds(10, 10)),
+				createConstraint(AllenIntervalConstraint.Type.Before, grasp, place, new Bounds(1, APSPSolver.INF)),
+				createConstraint(AllenIntervalConstraint.Type.Duration, place, place, new Bounds(5, 50)),
+				createConstraint(AllenIntervalConstraint.Type.During, lift, move, new Bounds(2, APSPSolver.INF), new Bounds(3, APSPSolver.INF))
+		}));
+		return new SymbolicVariableActivity[] {move, grasp, place, lift};
+	}
+
+	private static void finish(Dispatcher dis, SymbolicVariableActivity act) {
+		dis.finish(act);
+		dis.step();
+		assertTrue(Arrays.asList(dis.getFinishedActs()).contains(act));
+	}
+
+	public void testCleanUpKeepsBounds() throws InterruptedException {
+		ActivityNetworkSolver ans = new ActivityNetworkSolver(0, 1000);
+		SymbolicVariableActivity[] acts = createActivities(ans);
+		Dispatcher dis = createAnimator(ans);
+
+		finish(dis, acts[0]);
+		String bounds = getBounds(acts[1], acts[2], acts[3]);
+		animator.cleanUpFinishedVariables();
+		assertFalse(ans.getConstraintNetwork().containsVariable(acts[0]));
+		assertEquals(0, dis.getFinishedActs().length);
+		assertEquals(bounds, getBounds(acts[1], acts[2], acts[3]));
+
+		//Anchors of remaining activities are replaced by tighter ones
+		finish(dis, acts[1]);
+		bounds = getBounds(acts[2], acts[3]);
+		animator.cleanUpFinishedVariables();
+		assertFalse(ans.getConstraintNetwork().containsVariable(acts[1]));
+		assertEquals(bounds, getBounds(acts[2], acts[3]));
+
+		finish(dis, acts[2]);
+		finish(dis, acts[3]);
+		animator.cleanUpFinishedVariables();
+		assertFalse(ans.getConstraintNetwork().containsVariable(acts[2]));
+		assertFalse(ans.getConstraintNetwork().containsVariable(acts[3]));
+		//Only the future is left, with no anchors
+		assertEquals(1, ans.getVariables().length);
+		assertEquals(2, ans.getConstraintNetwork().getConstraints().length);
+	}
+
+	public void testCleanUpAbortsIfAnchoringFails() throws InterruptedException {
+		FailingActivityNetworkSolver ans = new FailingActivityNetworkSolver(0, 1000);
+		SymbolicVariableActivity[] acts = createActivities(ans);
+		Dispatcher dis = createAnimator(ans);
+
+		finish(dis, acts[0]);
+		String bounds = getBounds(acts);
+		HashSet<Constraint> constraints = new HashSet<Constraint>(Arrays.asList(ans.getConstraintNetwork().getConstraints()));
+		ans.fail = true;
+		animator.cleanUpFinishedVariables();
+		ans.fail = false;
+		assertTrue(ans.getConstraintNetwork().containsVariable(acts[0]));
+		assertTrue(Arrays.asList(dis.getFinishedActs()).contains(acts[0]));
+		assertEquals(constraints, new HashSet<Constraint>(Arrays.asList(ans.getConstraintNetwork().getConstraints())));
+		assertEquals(bounds, getBounds(acts));
+
+		//Clean-up succeeds later
+		animator.cleanUpFinishedVariables();
+		assertFalse(ans.getConstraintNetwork().containsVariable(acts[0]));
+		assertEquals(getBounds(acts[1], acts[2], acts[3]), bounds.substring(bounds.indexOf('\n')+1));
+	}
+
+	//Wait until the activity is finished and the sensor has been modeled
+	private boolean isFinishedAndSensed(ActivityNetworkSolver ans, SymbolicVariableActivity act, Sensor sensor) throws InterruptedException {
+		for (int i = 0; i < 1000; i++) {
+			synchronized(ans) {
+				if (animator.isFinished(act) && ans.getConstraintNetwork().getVariables(sensor.getName()).length == 1) return true;
+			}
+			Thread.sleep(10);
+		}
+		return false;
+	}
+
+	public void testEventDrivenWakeUp() throws InterruptedException {
+		ActivityNetworkSolver ans = new ActivityNetworkSolver(0, 100000000);
+		SymbolicVariableActivity move = createActivity(ans, "Robot", "Move");
+
+		//Waking up only at the end of the period would take too long
+		long period = 600000;
+		animator = new ConstraintNetworkAnimator(ans, period);
+		//Let the animator start waiting for the end of its first period
+		Thread.sleep(100);
+		animator.setEventDriven(true);
+		long start = System.currentTimeMillis();
+		//Finishing as soon as dispatched is a command that wakes up the animator
+		animator.addDispatchingFunctions(new DispatchingFunction("Robot") {
+			@Override
+			public void dispatch(SymbolicVariableActivity act) { finish(act); }
+			@Override
+			public boolean skip(SymbolicVariableActivity act) { return false; }
+		});
+		animator.getDispatcher().join(10000);
+		assertTrue(animator.getDispatcher().isHandedOver());
+
+		//So is a posted sensor value
+		Sensor sensor = new Sensor("Light", animator);
+		animator.postSensorValueToDispatch(sensor, 0, "On");
+		assertTrue(isFinishedAndSensed(ans, move, sensor));
+		assertTrue(System.currentTimeMillis()-start < period);
+	}
+
+	public void testTimeScale() {
+		ManualClockAnimator clockAnimator = new ManualClockAnimator(new ActivityNetworkSolver(0, 1000));
+		animator = clockAnimator;
+		assertEquals(0, animator.getTimeNow());
+		clockAnimator.clock = 100;
+		assertEquals(100, animator.getTimeNow());
+
+		//Changing the scale does not make time jump
+		animator.setTimeScale(10.0);
+		assertEquals(10.0, animator.getTimeScale());
+		assertEquals(100, animator.getTimeNow());
+		clockAnimator.clock = 110;
+		assertEquals(200, animator.getTimeNow());
+		animator.setTimeScale(0.5);
+		assertEquals(200, animator.getTimeNow());
+		clockAnimator.clock = 130;
+		assertEquals(210, animator.getTimeNow());
+
+		try {
+			animator.setTimeScale(0.0);
+			fail("Time scale must be positive");
+		}
+		catch (IllegalArgumentException e) { }
+		assertEquals(0.5, animator.getTimeScale());
+	}
+
+	public void testSensorTraceWakeUp() throws InterruptedException {
+		ActivityNetworkSolver ans = new ActivityNetworkSolver(0, 100000000);
+		//Waking up only at the end of the period would take too long
+		long period = 600000;
+		animator = new ConstraintNetworkAnimator(ans, period);
+		animator.setEventDriven(true);
+		//Sensor values 20 and 40 seconds ahead are due in 200 and 400 milliseconds
+		animator.setTimeScale(100.0);
+		RecordingSensor sensor = new RecordingSensor("Light", animator);
+		long start = System.currentTimeMillis();
+		long timeNow = animator.getTimeNow();
+		animator.postSensorValueToDispatch(sensor, timeNow+40000, "Off");
+		animator.postSensorValueToDispatch(sensor, timeNow+20000, "On");
+		for (int i = 0; i < 1000 && sensor.modeled.size() < 2; i++) Thread.sleep(10);
+		assertTrue(System.currentTimeMillis()-start < period);
+		assertEquals(Arrays.asList("On@" + (timeNow+20000), "Off@" + (timeNow+40000)), sensor.modeled);
+	}
+
+}
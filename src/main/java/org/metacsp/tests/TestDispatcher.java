@@ -0,0 +1,176 @@
+package org.metacsp.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.dispatching.Dispatcher;
+import org.metacsp.dispatching.Dispatcher.ACTIVITY_STATE;
+import org.metacsp.dispatching.DispatchingFunction;
+import org.metacsp.multi.activity.ActivityNetworkSolver;
+import org.metacsp.multi.activity.SymbolicVariableActivity;
+import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.time.APSPSolver;
+import org.metacsp.time.Bounds;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestDispatcher extends TestCase {
+
+	private ActivityNetworkSolver ans = null;
+	private SymbolicVariableActivity future = null;
+	private AllenIntervalConstraint releaseFuture = null;
+	private SymbolicVariableActivity move = null;
+	private SymbolicVariableActivity grasp = null;
+	private ArrayList<SymbolicVariableActivity> dispatched = null;
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+		ans = new ActivityNetworkSolver(0, 1000);
+		future = (SymbolicVariableActivity)ans.createVariable("Time");
+		future.setSymbolicDomain("Future");
+		moveFuture(0);
+
+		//Move -> Grasp
+		move = (SymbolicVariableActivity)ans.createVariable("Robot");
+		move.setSymbolicDomain("Move");
+		grasp = (SymbolicVariableActivity)ans.createVariable("Robot");
+		grasp.setSymbolicDomain("Grasp");
+		assertTrue(ans.addConstraints(
+				createConstraint(AllenIntervalConstraint.Type.Release, move, move, new Bounds(10, 10)),
+				createConstraint(AllenIntervalConstraint.Type.Duration, move, move, new Bounds(10, APSPSolver.INF)),
+				createConstraint(AllenIntervalConstraint.Type.Before, move, grasp, new Bounds(1, APSPSolver.INF)),
+				createConstraint(AllenIntervalConstraint.Type.Duration, grasp, grasp, new Bounds(5, APSPSolver.INF))));
+		dispatched = new ArrayList<SymbolicVariableActivity>();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	private static AllenIntervalConstraint createConstraint(AllenIntervalConstraint.Type type, SymbolicVariableActivity from, SymbolicVariableActivity to, Bounds ... bounds) {
+		AllenIntervalConstraint con = new AllenIntervalConstraint(type, bounds);
+		con.setFrom(from);
+		con.setTo(to);
+		return con;
+	}
+
+	//What the animator does at each iteration
+	private void moveFuture(long time) {
+		if (releaseFuture != null) ans.removeConstraint(releaseFuture);
+		releaseFuture = createConstraint(AllenIntervalConstraint.Type.Release, future, future, new Bounds(time, time));
+		assertTrue(ans.addConstraint(releaseFuture));
+	}
+
+	//A dispatcher whose thread is not started, so that it is only stepped by the test
+	private Dispatcher createDispatcher() {
+		Dispatcher dis = new Dispatcher(ans, 10);
+		dis.addDispatchingFunction("Robot", new DispatchingFunction("Robot") {
+			@Override
+			public void dispatch(SymbolicVariableActivity act) {
+				dispatched.add(act);
+			}
+			@Override
+			public boolean skip(SymbolicVariableActivity act) { return false; }
+		});
+		return dis;
+	}
+
+	//Runs commands only when told to
+	private static class QueueExecutor implements Executor {
+		private ArrayList<Runnable> commands = new ArrayList<Runnable>();
+		@Override
+		public void execute(Runnable command) {
+			commands.add(command);
+		}
+		public void runAll() {
+			for (Runnable command : commands) command.run();
+			commands.clear();
+		}
+	}
+
+	public void testStepDispatchesAndFinishesInOrder() {
+		Dispatcher dis = createDispatcher();
+		dis.step();
+		assertEquals(2, dis.getActsInState(ACTIVITY_STATE.PLANNED).length);
+		assertTrue(dispatched.isEmpty());
+
+		//Only Move can start
+		moveFuture(11);
+		dis.step();
+		assertEquals(Arrays.asList(move), dispatched);
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getStartedActs()));
+
+		//Move is closed at the next step, when the future is at 25
+		dis.finish(move);
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getActsInState(ACTIVITY_STATE.FINISHING)));
+		moveFuture(25);
+		dis.step();
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getFinishedActs()));
+		assertEquals(25, move.getTemporalVariable().getEET());
+		assertEquals(25, move.getTemporalVariable().getLET());
+		assertEquals(26, grasp.getTemporalVariable().getEST());
+		assertEquals(Arrays.asList(move), dispatched);
+
+		moveFuture(30);
+		dis.step();
+		assertEquals(Arrays.asList(move, grasp), dispatched);
+		dis.finish(grasp);
+		moveFuture(40);
+		dis.step();
+		assertEquals(2, dis.getFinishedActs().length);
+		assertEquals(0, dis.getStartedActs().length);
+		assertEquals(40, grasp.getTemporalVariable().getEET());
+	}
+
+	public void testFinishThroughExecutor() {
+		Dispatcher dis = createDispatcher();
+		QueueExecutor executor = new QueueExecutor();
+		dis.setExecutor(executor);
+		moveFuture(11);
+		dis.step();
+		assertEquals(Arrays.asList(move), dispatched);
+
+		//Finishing is left to the owner of the executor
+		dis.finish(move);
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getStartedActs()));
+		moveFuture(25);
+		dis.step();
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getStartedActs()));
+		assertEquals(0, dis.getFinishedActs().length);
+
+		executor.runAll();
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getActsInState(ACTIVITY_STATE.FINISHING)));
+		dis.step();
+		assertEquals(Arrays.asList(move), Arrays.asList(dis.getFinishedActs()));
+
+		//Without executor, finishing is immediate again
+		dis.setExecutor(null);
+		moveFuture(30);
+		dis.step();
+		dis.finish(grasp);
+		assertEquals(Arrays.asList(grasp), Arrays.asList(dis.getActsInState(ACTIVITY_STATE.FINISHING)));
+	}
+
+	public void testHandOver() throws InterruptedException {
+		Dispatcher dis = createDispatcher();
+		dis.start();
+		assertFalse(dis.isHandedOver());
+		dis.setExecutor(new QueueExecutor());
+		dis.join(10000);
+		assertFalse(dis.isAlive());
+		assertTrue(dis.isHandedOver());
+
+		//A dispatcher that is torn down has not handed over
+		Dispatcher dis1 = createDispatcher();
+		dis1.start();
+		dis1.teardown();
+		dis1.join(10000);
+		assertFalse(dis1.isAlive());
+		assertFalse(dis1.isHandedOver());
+	}
+
+}
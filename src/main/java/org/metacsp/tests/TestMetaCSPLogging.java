@@ -0,0 +1,75 @@
+package org.metacsp.tests;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.metacsp.utility.logging.LogMessage;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestMetaCSPLogging extends TestCase {
+
+	private Logger logger;
+
+	//Counts how many times messages are built
+	private int[] built;
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+		logger = MetaCSPLogging.getLogger(this.getClass());
+		for (Handler h : logger.getHandlers()) h.setLevel(Level.OFF);
+		built = new int[1];
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	private LogMessage countingMessage() {
+		return new LogMessage() {
+			@Override
+			public String get() {
+				built[0]++;
+				return "Message";
+			}
+		};
+	}
+
+	private Object countingObject() {
+		return new Object() {
+			@Override
+			public String toString() {
+				built[0]++;
+				return "Object";
+			}
+		};
+	}
+
+	public void testDisabledLevel() {
+		MetaCSPLogging.setLevel(this.getClass(), Level.INFO);
+		MetaCSPLogging.fine(logger, countingMessage());
+		MetaCSPLogging.finest(logger, countingMessage());
+		MetaCSPLogging.fine(logger, "Prefix ", countingObject());
+		MetaCSPLogging.finest(logger, "Prefix ", countingObject());
+		MetaCSPLogging.log(logger, Level.FINER, countingMessage());
+		assertEquals(0, built[0]);
+	}
+
+	public void testEnabledLevel() {
+		MetaCSPLogging.setLevel(this.getClass(), Level.FINE);
+		MetaCSPLogging.fine(logger, countingMessage());
+		MetaCSPLogging.fine(logger, "Prefix ", countingObject());
+		assertEquals(2, built[0]);
+		MetaCSPLogging.finest(logger, countingMessage());
+		MetaCSPLogging.finest(logger, "Prefix ", new Object[] {countingObject(), countingObject()});
+		assertEquals(2, built[0]);
+		MetaCSPLogging.setLevel(this.getClass(), Level.FINEST);
+		MetaCSPLogging.finest(logger, "Prefix ", new Object[] {countingObject(), countingObject()});
+		assertEquals(4, built[0]);
+	}
+
+}
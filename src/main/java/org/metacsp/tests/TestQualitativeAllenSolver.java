@@ -0,0 +1,75 @@
+package org.metacsp.tests;
+
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.Variable;
+import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint;
+import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint.Type;
+import org.metacsp.time.qualitative.QualitativeAllenSolver;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestQualitativeAllenSolver extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	public void testConsistency() {
+		QualitativeAllenSolver solver = new QualitativeAllenSolver();
+		Variable[] vars = solver.createVariables(3);
+
+		QualitativeAllenIntervalConstraint con0 = new QualitativeAllenIntervalConstraint(Type.Before, Type.Meets);
+		con0.setFrom(vars[0]);
+		con0.setTo(vars[1]);
+
+		QualitativeAllenIntervalConstraint con1 = new QualitativeAllenIntervalConstraint(Type.During);
+		con1.setFrom(vars[2]);
+		con1.setTo(vars[1]);
+		assertTrue(solver.addConstraints(new QualitativeAllenIntervalConstraint[] {con0, con1}));
+
+		//vars[0] {Before,Meets} vars[1] Contains vars[2] implies vars[0] Before vars[2]
+		QualitativeAllenIntervalConstraint inferred = (QualitativeAllenIntervalConstraint)solver.getConstraintNetwork().getConstraint(vars[0], vars[2]);
+		assertEquals(QualitativeAllenIntervalConstraint.getMask(Type.Before), QualitativeAllenIntervalConstraint.getMask(inferred.getTypes()));
+		QualitativeAllenIntervalConstraint inverse = (QualitativeAllenIntervalConstraint)solver.getConstraintNetwork().getConstraint(vars[2], vars[0]);
+		assertEquals(QualitativeAllenIntervalConstraint.getMask(Type.After), QualitativeAllenIntervalConstraint.getMask(inverse.getTypes()));
+	}
+
+	public void testInconsistency() {
+		QualitativeAllenSolver solver = new QualitativeAllenSolver();
+		Variable[] vars = solver.createVariables(3);
+
+		QualitativeAllenIntervalConstraint con0 = new QualitativeAllenIntervalConstraint(Type.Before);
+		con0.setFrom(vars[0]);
+		con0.setTo(vars[1]);
+
+		QualitativeAllenIntervalConstraint con1 = new QualitativeAllenIntervalConstraint(Type.Before);
+		con1.setFrom(vars[1]);
+		con1.setTo(vars[2]);
+
+		QualitativeAllenIntervalConstraint con2 = new QualitativeAllenIntervalConstraint(Type.Before, Type.Meets, Type.Overlaps);
+		con2.setFrom(vars[2]);
+		con2.setTo(vars[0]);
+		assertFalse(solver.addConstraints(new QualitativeAllenIntervalConstraint[] {con0, con1, con2}));
+	}
+
+	public void testMaskComposition() {
+		int meets = QualitativeAllenIntervalConstraint.getMask(Type.Meets);
+		int starts = QualitativeAllenIntervalConstraint.getMask(Type.Starts);
+		int all = (1 << Type.values().length)-1;
+		assertEquals(meets, QualitativeAllenIntervalConstraint.getComposition(meets, starts));
+		assertEquals(all, QualitativeAllenIntervalConstraint.getComposition(QualitativeAllenIntervalConstraint.getMask(Type.Before), QualitativeAllenIntervalConstraint.getMask(Type.After)));
+		assertEquals(0, QualitativeAllenIntervalConstraint.getComposition(0, all));
+		Type[] types = QualitativeAllenIntervalConstraint.getTypes(meets | starts);
+		assertEquals(2, types.length);
+		assertEquals(Type.Meets, types[0]);
+		assertEquals(Type.Starts, types[1]);
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.metacsp.tests;
+
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.Variable;
+import org.metacsp.spatial.RCC.RCCConstraint;
+import org.metacsp.spatial.RCC.RCCConstraintSolver;
+import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint;
+import org.metacsp.utility.QualitativeCalculus;
+import org.metacsp.utility.QualitativeNetwork;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestQualitativeNetwork extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	public void testInverses() {
+		QualitativeCalculus rcc = RCCConstraint.getCalculus();
+		for (RCCConstraint.Type t : RCCConstraint.Type.values()) {
+			int mask = QualitativeCalculus.getMask(t);
+			assertEquals(mask, rcc.getInverse(rcc.getInverse(mask)));
+			for (RCCConstraint.Type t2 : RCCConstraint.Type.values()) {
+				int mask2 = QualitativeCalculus.getMask(t2);
+				//inverse(a * b) = inverse(b) * inverse(a)
+				assertEquals(rcc.getInverse(rcc.getComposition(mask, mask2)), rcc.getComposition(rcc.getInverse(mask2), rcc.getInverse(mask)));
+			}
+		}
+	}
+
+	public void testPathConsistency() {
+		QualitativeCalculus rcc = RCCConstraint.getCalculus();
+		QualitativeNetwork network = new QualitativeNetwork(rcc, 3);
+		int ntpp = QualitativeCalculus.getMask(RCCConstraint.Type.NTPP);
+		network.setRelation(0, 1, ntpp);
+		network.setRelation(1, 0, rcc.getInverse(ntpp));
+		network.setRelation(1, 2, ntpp);
+		network.setRelation(2, 1, rcc.getInverse(ntpp));
+		assertTrue(network.enforcePathConsistency());
+		assertEquals(ntpp, network.getRelation(0, 2));
+		assertEquals(QualitativeCalculus.getMask(RCCConstraint.Type.NTPPI), network.getRelation(2, 0));
+
+		int dc = QualitativeCalculus.getMask(RCCConstraint.Type.DC);
+		network.setRelation(0, 2, dc);
+		network.setRelation(2, 0, dc);
+		assertFalse(network.enforcePathConsistency());
+	}
+
+	public void testBacktracking() {
+		QualitativeCalculus allen = QualitativeAllenIntervalConstraint.getCalculus();
+		QualitativeNetwork network = new QualitativeNetwork(allen, 4);
+		int rel = QualitativeAllenIntervalConstraint.getMask(QualitativeAllenIntervalConstraint.Type.Before, QualitativeAllenIntervalConstraint.Type.During, QualitativeAllenIntervalConstraint.Type.OverlappedBy);
+		for (int i = 0; i < 4; i++) {
+			for (int j = i+1; j < 4; j++) {
+				network.setRelation(i, j, rel);
+				network.setRelation(j, i, allen.getInverse(rel));
+			}
+		}
+		assertFalse(allen.isTractable(rel));
+		assertTrue(network.solve());
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				if (i != j) {
+					assertTrue(allen.isTractable(network.getRelation(i, j)));
+					assertEquals(network.getRelation(i, j), allen.getInverse(network.getRelation(j, i)));
+				}
+			}
+		}
+	}
+
+	public void testRCCSolverBacktracking() {
+		RCCConstraintSolver solver = new RCCConstraintSolver();
+		solver.setBacktracking(true);
+		Variable[] vars = solver.createVariables(3);
+
+		RCCConstraint con0 = new RCCConstraint(RCCConstraint.Type.TPPI, RCCConstraint.Type.NTPPI);
+		con0.setFrom(vars[0]);
+		con0.setTo(vars[1]);
+		RCCConstraint con1 = new RCCConstraint(RCCConstraint.Type.TPPI, RCCConstraint.Type.EC);
+		con1.setFrom(vars[1]);
+		con1.setTo(vars[2]);
+		RCCConstraint con2 = new RCCConstraint(RCCConstraint.Type.DC);
+		con2.setFrom(vars[0]);
+		con2.setTo(vars[2]);
+		assertFalse(solver.addConstraints(con0, con1, con2));
+
+		con2 = new RCCConstraint(RCCConstraint.Type.NTPPI, RCCConstraint.Type.DC);
+		con2.setFrom(vars[0]);
+		con2.setTo(vars[2]);
+		assertTrue(solver.addConstraints(con0, con1, con2));
+		assertEquals(1, con2.getTypes().length);
+		assertEquals(RCCConstraint.Type.NTPPI, con2.getTypes()[0]);
+	}
+
+}
@@ -1,5 +1,7 @@
 package org.metacsp.tests;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.logging.Level;
 
 import junit.framework.TestCase;
@@ -8,13 +10,18 @@ import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintNetwork;
 import org.metacsp.framework.ValueOrderingH;
 import org.metacsp.framework.VariableOrderingH;
+import org.metacsp.framework.meta.MetaVariable;
+import org.metacsp.meta.symbolsAndTime.MCSData;
 import org.metacsp.meta.symbolsAndTime.ReusableResource;
 import org.metacsp.meta.symbolsAndTime.Schedulable.PEAKCOLLECTION;
 import org.metacsp.meta.symbolsAndTime.Scheduler;
+import org.metacsp.meta.symbolsAndTime.StateVariable;
+import org.metacsp.multi.activity.Activity;
 import org.metacsp.multi.activity.SymbolicVariableActivity;
 import org.metacsp.multi.activity.ActivityNetworkSolver;
 import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
 import org.metacsp.multi.allenInterval.AllenIntervalConstraint.Type;
+import org.metacsp.time.APSPSolver;
 import org.metacsp.time.Bounds;
 import org.metacsp.utility.logging.MetaCSPLogging;
 import org.metacsp.utility.timelinePlotting.TimelinePublisher;
@@ -519,4 +526,163 @@ public class TestReusableResourceScheduler extends TestCase {
 	}
 	
 	
-}
\ No newline at end of file
+	public void testSweepPeakCollection() {
+		final Scheduler metaSolver = new Scheduler(0,100,0);
+		final ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)metaSolver.getConstraintSolvers()[0];
+		long[][] times = new long[][] {{0,10},{5,15},{8,20},{12,30},{30,40}};
+		SymbolicVariableActivity[] acts = new SymbolicVariableActivity[times.length];
+		for (int i = 0; i < times.length; i++) {
+			acts[i] = (SymbolicVariableActivity)groundSolver.createVariable("comp1");
+			acts[i].setSymbolicDomain("1");
+			AllenIntervalConstraint rel = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Release, new Bounds(times[i][0], times[i][0]));
+			rel.setFrom(acts[i]); rel.setTo(acts[i]);
+			AllenIntervalConstraint dead = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Deadline, new Bounds(times[i][1], times[i][1]));
+			dead.setFrom(acts[i]); dead.setTo(acts[i]);
+			assertTrue(groundSolver.addConstraints(new Constraint[] {rel, dead}));
+		}
+
+		ReusableResource rr1 = new ReusableResource(null, null, 2);
+		rr1.setPeakCollectionStrategy(PEAKCOLLECTION.SWEEP);
+		rr1.setUsage(acts);
+		
+		//Peaks are {a0,a1,a2} (at time 8) and {a1,a2,a3} (at time 12), a4 only meets a3
+		ConstraintNetwork[] peaks = rr1.getMetaVariables();
+		assertEquals(2, peaks.length);
+		for (ConstraintNetwork peak : peaks) assertEquals(3, peak.getVariables().length);
+		assertTrue(peaks[0].containsVariable(acts[0]));
+		assertTrue(peaks[1].containsVariable(acts[3]));
+		assertFalse(peaks[1].containsVariable(acts[0]));
+		
+		ReusableResource rr2 = new ReusableResource(null, null, 3);
+		rr2.setPeakCollectionStrategy(PEAKCOLLECTION.SWEEP);
+		rr2.setUsage(acts);
+		assertEquals(0, rr2.getMetaVariables().length);
+	}
+
+	//Counts the conflict checks
+	private static class CountingReusableResource extends ReusableResource {
+		private static final long serialVersionUID = 1L;
+		private int[] calls = new int[1];
+		public CountingReusableResource(int capacity) {
+			super(null, null, capacity);
+		}
+		@Override
+		public boolean isConflicting(Activity[] peak) {
+			calls[0]++;
+			return super.isConflicting(peak);
+		}
+	}
+
+	public void testIncrementalSweepPeakCollection() {
+		final Scheduler metaSolver = new Scheduler(0,1000,0);
+		final ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)metaSolver.getConstraintSolvers()[0];
+		int n = 20;
+		SymbolicVariableActivity[] acts = new SymbolicVariableActivity[n];
+		for (int i = 0; i < n; i++) {
+			acts[i] = (SymbolicVariableActivity)groundSolver.createVariable("comp1");
+			acts[i].setSymbolicDomain("1");
+			AllenIntervalConstraint rel = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Release, new Bounds(i*20, 900));
+			rel.setFrom(acts[i]); rel.setTo(acts[i]);
+			AllenIntervalConstraint dur = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(30, APSPSolver.INF));
+			dur.setFrom(acts[i]); dur.setTo(acts[i]);
+			assertTrue(groundSolver.addConstraints(new Constraint[] {rel, dur}));
+		}
+		
+		CountingReusableResource rr1 = new CountingReusableResource(1);
+		int[] calls = rr1.calls;
+		rr1.setPeakCollectionStrategy(PEAKCOLLECTION.SWEEP);
+		rr1.setUsage(acts);
+		
+		//Consecutive activities overlap
+		assertEquals(n-1, rr1.getMetaVariables().length);
+		int fullCalls = calls[0];
+		
+		//Nothing has changed, so nothing is re-checked
+		calls[0] = 0;
+		assertEquals(n-1, rr1.getMetaVariables().length);
+		assertEquals(0, calls[0]);
+		
+		//Resolve one peak: only the events around the two activities are re-checked
+		AllenIntervalConstraint before = new AllenIntervalConstraint(AllenIntervalConstraint.Type.BeforeOrMeets);
+		before.setFrom(acts[10]); before.setTo(acts[11]);
+		assertTrue(groundSolver.addConstraint(before));
+		calls[0] = 0;
+		ConstraintNetwork[] peaks = rr1.getMetaVariables();
+		assertTrue(calls[0] < fullCalls);
+		
+		ReusableResource rr2 = new ReusableResource(null, null, 1);
+		rr2.setPeakCollectionStrategy(PEAKCOLLECTION.SWEEP);
+		rr2.setUsage(acts);
+		ConstraintNetwork[] expected = rr2.getMetaVariables();
+		assertEquals(expected.length, peaks.length);
+		for (int i = 0; i < peaks.length; i++) assertEquals(Arrays.toString(expected[i].getVariables()), Arrays.toString(peaks[i].getVariables()));
+		
+		//Removing a usage is detected as well
+		rr1.removeUsage(acts[5]);
+		rr2.removeUsage(acts[5]);
+		assertEquals(rr2.getMetaVariables().length, rr1.getMetaVariables().length);
+	}
+
+	//Conflicts between state variable activities depend on their symbols, so changing these is detected
+	public void testSweepPeakCollectionSymbolChange() {
+		final Scheduler metaSolver = new Scheduler(0,1000,0);
+		final ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)metaSolver.getConstraintSolvers()[0];
+		SymbolicVariableActivity[] acts = new SymbolicVariableActivity[2];
+		for (int i = 0; i < acts.length; i++) {
+			acts[i] = (SymbolicVariableActivity)groundSolver.createVariable("comp1");
+			AllenIntervalConstraint rel = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Release, new Bounds(i*10, i*10));
+			rel.setFrom(acts[i]); rel.setTo(acts[i]);
+			AllenIntervalConstraint dur = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(30, 30));
+			dur.setFrom(acts[i]); dur.setTo(acts[i]);
+			assertTrue(groundSolver.addConstraints(new Constraint[] {rel, dur}));
+		}
+		acts[0].setSymbolicDomain("A","B");
+		acts[1].setSymbolicDomain("B");
+
+		StateVariable sv = new StateVariable(null, null, metaSolver, new String[] {"A","B"});
+		sv.setPeakCollectionStrategy(PEAKCOLLECTION.SWEEP);
+		sv.setUsage(acts);
+		assertEquals(0, sv.getMetaVariables().length);
+
+		//The temporal bounds are the same, but the activities can no longer be in the same state
+		acts[0].setSymbolicDomain("A");
+		assertEquals(1, sv.getMetaVariables().length);
+	}
+
+	public void testTopOrderedMCSs() {
+		final Scheduler metaSolver = new Scheduler(0,1000,0);
+		final ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)metaSolver.getConstraintSolvers()[0];
+		ConstraintNetwork peak = new ConstraintNetwork(null);
+		for (int i = 0; i < 8; i++) {
+			SymbolicVariableActivity act = (SymbolicVariableActivity)groundSolver.createVariable("comp1");
+			act.setSymbolicDomain("1");
+			AllenIntervalConstraint rel = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Release, new Bounds(i*7, 100+i*13));
+			rel.setFrom(act); rel.setTo(act);
+			AllenIntervalConstraint dur = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(10+i, 50));
+			dur.setFrom(act); dur.setTo(act);
+			assertTrue(groundSolver.addConstraints(new Constraint[] {rel, dur}));
+			peak.addVariable(act);
+		}
+		ReusableResource rr1 = new ReusableResource(null, null, 1);
+		MCSData[] all = rr1.getOrderedMCSs(peak);
+		assertEquals(8*7, all.length);
+		for (int i = 1; i < all.length; i++) assertTrue(all[i-1].mcsK >= all[i].mcsK);
+		MCSData[] top = rr1.getOrderedMCSs(peak, 5);
+		assertEquals(5, top.length);
+		for (int i = 0; i < top.length; i++) assertEquals(all[i].toString(), top[i].toString());
+		assertEquals(0, rr1.getOrderedMCSs(peak, 0).length);
+		
+		//Resolvers are generated lazily in the same order
+		MetaVariable mv = new MetaVariable(rr1, peak);
+		ConstraintNetwork[] values = rr1.getMetaValues(mv);
+		Iterator<ConstraintNetwork> lazyValues = rr1.getMetaValueIterator(mv);
+		for (ConstraintNetwork value : values) {
+			assertTrue(lazyValues.hasNext());
+			ConstraintNetwork lazyValue = lazyValues.next();
+			assertEquals(Arrays.toString(value.getConstraints()), Arrays.toString(lazyValue.getConstraints()));
+			assertSame(mv, lazyValue.getAnnotation());
+		}
+		assertFalse(lazyValues.hasNext());
+	}
+
+}
@@ -0,0 +1,148 @@
+package org.metacsp.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.sensing.SensorTrace;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestSensorTrace extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	//Remove all values, checking they come out in order
+	private static void assertTrace(SensorTrace trace, long[] times, String[] values) {
+		for (int i = 0; i < times.length; i++) {
+			assertFalse(trace.isEmpty());
+			assertEquals(times[i], trace.getNextTime());
+			assertEquals(values[i], trace.getNextValue());
+			trace.removeNext();
+		}
+		assertTrue(trace.isEmpty());
+		assertEquals(Long.MAX_VALUE, trace.getNextTime());
+	}
+
+	public void testEmpty() {
+		SensorTrace trace = new SensorTrace();
+		assertTrue(trace.isEmpty());
+		assertEquals(Long.MAX_VALUE, trace.getNextTime());
+		assertFalse(trace.hasDue(Long.MAX_VALUE));
+	}
+
+	public void testOutOfOrder() {
+		SensorTrace trace = new SensorTrace();
+		trace.put(50, "e");
+		trace.put(10, "a");
+		trace.put(30, "c");
+		trace.put(40, "d");
+		trace.put(20, "b");
+		trace.put(60, "f");
+		assertTrace(trace, new long[] {10,20,30,40,50,60}, new String[] {"a","b","c","d","e","f"});
+	}
+
+	public void testDuplicateTimes() {
+		SensorTrace trace = new SensorTrace();
+		trace.put(10, "a");
+		trace.put(20, "b");
+		trace.put(30, "c");
+		//Replace the last, a middle and the first value
+		trace.put(30, "C");
+		trace.put(20, "B");
+		trace.put(10, "A");
+		assertTrace(trace, new long[] {10,20,30}, new String[] {"A","B","C"});
+	}
+
+	public void testHasDue() {
+		SensorTrace trace = new SensorTrace();
+		trace.put(10, "a");
+		trace.put(20, "b");
+		assertFalse(trace.hasDue(9));
+		assertTrue(trace.hasDue(10));
+		trace.removeNext();
+		assertFalse(trace.hasDue(19));
+		assertTrue(trace.hasDue(25));
+		trace.removeNext();
+		assertFalse(trace.hasDue(25));
+	}
+
+	public void testGrowth() {
+		//In order
+		SensorTrace trace = new SensorTrace();
+		long[] times = new long[100];
+		String[] values = new String[100];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = i;
+			values[i] = "v" + i;
+			trace.put(times[i], values[i]);
+		}
+		assertTrace(trace, times, values);
+
+		//Shuffled, with duplicates
+		ArrayList<Long> shuffled = new ArrayList<Long>();
+		for (long time : times) shuffled.add(time);
+		Collections.shuffle(shuffled, new Random(1));
+		trace = new SensorTrace();
+		for (long time : shuffled) trace.put(time, "x" + time);
+		for (long time : shuffled) trace.put(time, "v" + time);
+		assertTrace(trace, times, values);
+	}
+
+	public void testInsertAfterRemoval() {
+		SensorTrace trace = new SensorTrace();
+		//Fill the initial capacity
+		for (int i = 0; i < 16; i++) trace.put(10*i, "v" + 10*i);
+		for (int i = 0; i < 4; i++) trace.removeNext();
+		//The space of removed values is reclaimed before inserting
+		trace.put(55, "v55");
+		trace.put(5, "v5");
+		trace.put(1000, "v1000");
+		long[] times = new long[] {5,40,50,55,60,70,80,90,100,110,120,130,140,150,1000};
+		String[] values = new String[times.length];
+		for (int i = 0; i < times.length; i++) values[i] = "v" + times[i];
+		assertTrace(trace, times, values);
+	}
+
+	public void testRewind() {
+		SensorTrace trace = new SensorTrace();
+		for (int i = 0; i < 10; i++) trace.put(i, "a" + i);
+		for (int i = 0; i < 10; i++) trace.removeNext();
+		assertTrue(trace.isEmpty());
+		//Once empty, the trace starts over, also with earlier times
+		for (int i = 0; i < 20; i++) trace.put(19-i, "b" + (19-i));
+		long[] times = new long[20];
+		String[] values = new String[20];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = i;
+			values[i] = "b" + i;
+		}
+		assertTrace(trace, times, values);
+	}
+
+	public void testFromMap() {
+		HashMap<Long,String> map = new HashMap<Long,String>();
+		for (long time = 100; time > 0; time -= 7) map.put(time, "v" + time);
+		SensorTrace trace = new SensorTrace(map);
+		ArrayList<Long> times = new ArrayList<Long>(map.keySet());
+		Collections.sort(times);
+		long[] timesArray = new long[times.size()];
+		String[] values = new String[times.size()];
+		for (int i = 0; i < timesArray.length; i++) {
+			timesArray[i] = times.get(i);
+			values[i] = map.get(times.get(i));
+		}
+		assertTrace(trace, timesArray, values);
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.metacsp.tests.meta;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.Constraint;
+import org.metacsp.framework.ConstraintNetwork;
+import org.metacsp.framework.meta.MetaVariable;
+import org.metacsp.meta.symbolsAndTime.ReusableResource;
+import org.metacsp.meta.symbolsAndTime.Scheduler;
+import org.metacsp.multi.activity.ActivityNetworkSolver;
+import org.metacsp.multi.activity.SymbolicVariableActivity;
+import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.time.APSPSolver;
+import org.metacsp.time.Bounds;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestMetaConstraintSolver extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	//Counts the resolvers that were successfully added
+	private static class CountingReusableResource extends ReusableResource {
+		private static final long serialVersionUID = 1L;
+		private int resolved = 0;
+		public CountingReusableResource(int capacity) {
+			super(null, null, capacity);
+		}
+		@Override
+		public void markResolvedSub(MetaVariable con, ConstraintNetwork metaValue) {
+			resolved++;
+			super.markResolvedSub(con, metaValue);
+		}
+	}
+
+	private static String getBounds(SymbolicVariableActivity[] acts) {
+		String ret = "";
+		for (SymbolicVariableActivity act : acts) {
+			ret += act.getTemporalVariable().getEST() + " " + act.getTemporalVariable().getLST() + " " + act.getTemporalVariable().getEET() + " " + act.getTemporalVariable().getLET() + "\n";
+		}
+		return ret;
+	}
+
+	//Four activities of 10 time units must be sequenced within 35: any three can be, so search
+	//adds and retracts several resolvers before failing, and the ground network must be as before
+	public void testRollbackAfterFailedSearch() {
+		Scheduler metaSolver = new Scheduler(0,1000,0);
+		ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)metaSolver.getConstraintSolvers()[0];
+		APSPSolver stp = (APSPSolver)groundSolver.getConstraintSolversFromConstraintSolverHierarchy(APSPSolver.class)[0];
+		SymbolicVariableActivity[] acts = new SymbolicVariableActivity[4];
+		for (int i = 0; i < acts.length; i++) {
+			acts[i] = (SymbolicVariableActivity)groundSolver.createVariable("comp1");
+			acts[i].setSymbolicDomain("1");
+			AllenIntervalConstraint dur = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(10, 10));
+			dur.setFrom(acts[i]); dur.setTo(acts[i]);
+			AllenIntervalConstraint dead = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Deadline, new Bounds(0, 35));
+			dead.setFrom(acts[i]); dead.setTo(acts[i]);
+			assertTrue(groundSolver.addConstraints(new Constraint[] {dur, dead}));
+		}
+		CountingReusableResource rr = new CountingReusableResource(1);
+		rr.setUsage(acts);
+		metaSolver.addMetaConstraint(rr);
+
+		HashSet<Constraint> constraints = new HashSet<Constraint>(Arrays.asList(groundSolver.getConstraintNetwork().getConstraints()));
+		int numVariables = groundSolver.getVariables().length;
+		String bounds = getBounds(acts);
+		String dist = stp.printDist();
+
+		assertFalse(metaSolver.backtrack());
+		assertTrue(rr.resolved > 3);
+		assertEquals(0, metaSolver.getAddedResolvers().length);
+
+		assertEquals(constraints, new HashSet<Constraint>(Arrays.asList(groundSolver.getConstraintNetwork().getConstraints())));
+		assertEquals(numVariables, groundSolver.getVariables().length);
+		assertEquals(bounds, getBounds(acts));
+		assertEquals(dist, stp.printDist());
+		assertEquals(0, groundSolver.numCheckpoints());
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.metacsp.tests.meta;
+
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.Constraint;
+import org.metacsp.meta.simplePlanner.SimpleDomain;
+import org.metacsp.meta.simplePlanner.SimpleDomain.markings;
+import org.metacsp.meta.simplePlanner.SimplePlanner;
+import org.metacsp.multi.activity.ActivityNetworkSolver;
+import org.metacsp.multi.activity.SymbolicVariableActivity;
+import org.metacsp.multi.allenInterval.AllenIntervalConstraint;
+import org.metacsp.time.APSPSolver;
+import org.metacsp.time.Bounds;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestSimplePlanner extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	/**
+	 * Two goals which use the same serial port (capacity 1) lead to a resource conflict,
+	 * which the planner must resolve by ordering them.
+	 */
+	public void testResourceConflict() {
+		SimplePlanner planner = new SimplePlanner(0,600,0);
+		SimpleDomain.parseDomain(planner, "domains/testSimplePlanner.ddl", SimpleDomain.class);
+		ActivityNetworkSolver groundSolver = (ActivityNetworkSolver)planner.getConstraintSolvers()[0];
+
+		SymbolicVariableActivity one = (SymbolicVariableActivity)groundSolver.createVariable("LaserScanner1");
+		one.setSymbolicDomain("On()");
+		one.setMarking(markings.UNJUSTIFIED);
+		SymbolicVariableActivity two = (SymbolicVariableActivity)groundSolver.createVariable("LaserScanner1");
+		two.setSymbolicDomain("On()");
+		two.setMarking(markings.UNJUSTIFIED);
+		AllenIntervalConstraint durationOne = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(5,APSPSolver.INF));
+		durationOne.setFrom(one);
+		durationOne.setTo(one);
+		AllenIntervalConstraint durationTwo = new AllenIntervalConstraint(AllenIntervalConstraint.Type.Duration, new Bounds(5,APSPSolver.INF));
+		durationTwo.setFrom(two);
+		durationTwo.setTo(two);
+		groundSolver.addConstraints(new Constraint[] {durationOne, durationTwo});
+
+		assertTrue(planner.backtrack());
+		//The two activities cannot overlap, so one must end before the other starts
+		boolean oneFirst = one.getTemporalVariable().getEET() <= two.getTemporalVariable().getEST();
+		boolean twoFirst = two.getTemporalVariable().getEET() <= one.getTemporalVariable().getEST();
+		assertTrue(oneFirst || twoFirst);
+	}
+
+}
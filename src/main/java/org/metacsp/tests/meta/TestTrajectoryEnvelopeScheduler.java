@@ -0,0 +1,96 @@
+package org.metacsp.tests.meta;
+
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.ConstraintNetwork;
+import org.metacsp.framework.Variable;
+import org.metacsp.meta.spatioTemporal.paths.Map;
+import org.metacsp.meta.spatioTemporal.paths.TrajectoryEnvelopeScheduler;
+import org.metacsp.multi.spatial.DE9IM.GeometricShapeDomain;
+import org.metacsp.multi.spatioTemporal.paths.Pose;
+import org.metacsp.multi.spatioTemporal.paths.Trajectory;
+import org.metacsp.multi.spatioTemporal.paths.TrajectoryEnvelope;
+import org.metacsp.multi.spatioTemporal.paths.TrajectoryEnvelopeSolver;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+public class TestTrajectoryEnvelopeScheduler extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	//A straight path from (x1,y1) to (x2,y2)
+	private static Trajectory createTrajectory(double x1, double y1, double x2, double y2, int length) {
+		Pose[] poses = new Pose[length];
+		double theta = Math.atan2(y2-y1, x2-x1);
+		for (int i = 0; i < length; i++) {
+			poses[i] = new Pose(x1+(x2-x1)*i/(length-1), y1+(y2-y1)*i/(length-1), theta);
+		}
+		return new Trajectory(poses);
+	}
+
+	//Robots whose paths cross each other in several places, and one far from all others
+	private static TrajectoryEnvelopeScheduler createScheduler(boolean spatialIndex) {
+		TrajectoryEnvelopeScheduler metaSolver = new TrajectoryEnvelopeScheduler(0, 100000);
+		metaSolver.setSpatialIndex(spatialIndex);
+		TrajectoryEnvelopeSolver solver = (TrajectoryEnvelopeSolver)metaSolver.getConstraintSolvers()[0];
+		Trajectory[] trajs = new Trajectory[] {
+				createTrajectory(0, 0, 30, 0, 31),
+				createTrajectory(15, -15, 15, 15, 31),
+				createTrajectory(25, 10, 25, -10, 21),
+				createTrajectory(0, -10, 30, 10, 37),
+				createTrajectory(5, 12, 5, -12, 25),
+				createTrajectory(100, 100, 120, 100, 21)
+		};
+		Variable[] vars = solver.createVariables(trajs.length);
+		for (int i = 0; i < trajs.length; i++) {
+			TrajectoryEnvelope te = (TrajectoryEnvelope)vars[i];
+			te.setFootprint(1.0, 2.0, 0.0, 0.0);
+			te.setTrajectory(trajs[i]);
+			te.setRobotID(i+1);
+		}
+		metaSolver.addMetaConstraint(new Map(null, null));
+		return metaSolver;
+	}
+
+	private static Geometry getGeometry(TrajectoryEnvelope te) {
+		return ((GeometricShapeDomain)te.getEnvelopeVariable().getDomain()).getGeometry();
+	}
+
+	//Refinement through the spatial index yields the same envelopes as examining all pairs
+	public void testRefinementSpatialIndex() {
+		TrajectoryEnvelopeScheduler indexed = createScheduler(true);
+		TrajectoryEnvelopeScheduler allPairs = createScheduler(false);
+		ConstraintNetwork indexedRefined = indexed.refineTrajectoryEnvelopes();
+		ConstraintNetwork allPairsRefined = allPairs.refineTrajectoryEnvelopes();
+		assertTrue(allPairsRefined.getVariables().length > 0);
+		assertEquals(allPairsRefined.getVariables().length, indexedRefined.getVariables().length);
+
+		Variable[] indexedVars = indexed.getConstraintSolvers()[0].getVariables();
+		Variable[] allPairsVars = allPairs.getConstraintSolvers()[0].getVariables();
+		assertEquals(allPairsVars.length, indexedVars.length);
+		for (int i = 0; i < allPairsVars.length; i++) {
+			TrajectoryEnvelope te1 = (TrajectoryEnvelope)allPairsVars[i];
+			TrajectoryEnvelope te2 = (TrajectoryEnvelope)indexedVars[i];
+			assertEquals(te1.getRobotID(), te2.getRobotID());
+			assertEquals(te1.hasSubEnvelopes(), te2.hasSubEnvelopes());
+			assertEquals(te1.getSequenceNumberStart(), te2.getSequenceNumberStart());
+			assertEquals(te1.getSequenceNumberEnd(), te2.getSequenceNumberEnd());
+			assertTrue(getGeometry(te1).equalsExact(getGeometry(te2)));
+		}
+
+		//Refining again changes nothing
+		assertEquals(0, indexed.refineTrajectoryEnvelopes().getVariables().length);
+		assertEquals(0, allPairs.refineTrajectoryEnvelopes().getVariables().length);
+	}
+
+}
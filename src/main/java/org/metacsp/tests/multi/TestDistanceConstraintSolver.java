@@ -0,0 +1,76 @@
+package org.metacsp.tests.multi;
+
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.ConstraintSolver;
+import org.metacsp.framework.Variable;
+import org.metacsp.multi.TCSP.DistanceConstraint;
+import org.metacsp.multi.TCSP.DistanceConstraintSolver;
+import org.metacsp.time.Bounds;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestDistanceConstraintSolver extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	public void testComposition() {
+		DistanceConstraintSolver solver = new DistanceConstraintSolver(0, 100);
+		Variable[] vars = solver.createVariables(3);
+		DistanceConstraint con0 = new DistanceConstraint(new Bounds(20, 30), new Bounds(0, 5));
+		con0.setFrom(vars[0]);
+		con0.setTo(vars[1]);
+		DistanceConstraint con1 = new DistanceConstraint(new Bounds(0, 10), new Bounds(40, 50));
+		con1.setFrom(vars[1]);
+		con1.setTo(vars[2]);
+		//[0,5]+[40,50] and [20,30]+[0,10] overlap
+		Bounds[] comp = solver.getComposition(con0, con1).getBounds();
+		assertEquals(3, comp.length);
+		assertEquals(new Bounds(0, 15), comp[0]);
+		assertEquals(new Bounds(20, 55), comp[1]);
+		assertEquals(new Bounds(60, 80), comp[2]);
+
+		solver.setMaxFragments(2);
+		comp = solver.getComposition(con0, con1).getBounds();
+		assertEquals(2, comp.length);
+		assertEquals(new Bounds(0, 55), comp[0]);
+		assertEquals(new Bounds(60, 80), comp[1]);
+
+		solver.setMaxFragments(1);
+		comp = solver.getComposition(con0, con1).getBounds();
+		assertEquals(1, comp.length);
+		assertEquals(new Bounds(0, 80), comp[0]);
+	}
+
+	public void testPropagation() {
+		DistanceConstraintSolver solver = new DistanceConstraintSolver(0, 100);
+		solver.setOptions(ConstraintSolver.OPTIONS.MANUAL_PROPAGATE);
+		Variable[] vars = solver.createVariables(3);
+		DistanceConstraint con0 = new DistanceConstraint(new Bounds(10, 20), new Bounds(60, 70));
+		con0.setFrom(vars[0]);
+		con0.setTo(vars[1]);
+		DistanceConstraint con1 = new DistanceConstraint(new Bounds(10, 10));
+		con1.setFrom(vars[1]);
+		con1.setTo(vars[2]);
+		DistanceConstraint con2 = new DistanceConstraint(new Bounds(25, 45), new Bounds(90, 100));
+		con2.setFrom(vars[0]);
+		con2.setTo(vars[2]);
+		solver.addConstraints(con0, con1, con2);
+		assertTrue(solver.propagate());
+
+		DistanceConstraint con3 = new DistanceConstraint(new Bounds(0, 15));
+		con3.setFrom(vars[2]);
+		con3.setTo(vars[0]);
+		solver.addConstraint(con3);
+		assertFalse(solver.propagate());
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.metacsp.tests.multi;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+import java.util.logging.Level;
+
+import junit.framework.TestCase;
+
+import org.metacsp.framework.Constraint;
+import org.metacsp.framework.Variable;
+import org.metacsp.multi.symbols.SymbolicValueConstraint;
+import org.metacsp.multi.symbols.SymbolicVariable;
+import org.metacsp.multi.symbols.SymbolicVariableConstraintSolver;
+import org.metacsp.utility.logging.MetaCSPLogging;
+
+public class TestSymbolicVariableConstraintSolver extends TestCase {
+	
+	private static final String[] SYMBOLS = new String[] {"A","B","C","D"};
+	
+	@Override
+	public void setUp() throws Exception {
+		MetaCSPLogging.setLevel(Level.OFF);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+	
+	public void testDifferentChain() {
+		SymbolicVariableConstraintSolver solver = new SymbolicVariableConstraintSolver(SYMBOLS, 10);
+		assertFalse(solver.getArcConsistency());
+		solver.setArcConsistency(true);
+		Variable[] vars = solver.createVariables(3);
+		((SymbolicVariable)vars[0]).setDomain("A");
+		((SymbolicVariable)vars[1]).setDomain("A","B");
+		SymbolicValueConstraint diff1 = new SymbolicValueConstraint(SymbolicValueConstraint.Type.DIFFERENT);
+		diff1.setFrom(vars[0]);
+		diff1.setTo(vars[1]);
+		SymbolicValueConstraint diff2 = new SymbolicValueConstraint(SymbolicValueConstraint.Type.DIFFERENT);
+		diff2.setFrom(vars[1]);
+		diff2.setTo(vars[2]);
+		assertTrue(solver.addConstraints(diff1,diff2));
+		assertTrue(Arrays.equals(new String[] {"B"}, ((SymbolicVariable)vars[1]).getSymbols()));
+		assertTrue(Arrays.equals(new String[] {"A","C","D"}, ((SymbolicVariable)vars[2]).getSymbols()));
+		SymbolicValueConstraint equals = new SymbolicValueConstraint(SymbolicValueConstraint.Type.EQUALS);
+		equals.setFrom(vars[0]);
+		equals.setTo(vars[1]);
+		assertFalse(solver.addConstraint(equals));
+	}
+
+	//Variables with several symbols are propagated by the SAT solver
+	public void testMultiValue() {
+		SymbolicVariableConstraintSolver solver = new SymbolicVariableConstraintSolver(SYMBOLS, 10);
+		solver.setArcConsistency(true);
+		solver.setSingleValue(false);
+		Variable[] vars = solver.createVariables(2);
+		SymbolicValueConstraint valueEquals = new SymbolicValueConstraint(SymbolicValueConstraint.Type.VALUEEQUALS);
+		valueEquals.setValue("A","B");
+		valueEquals.setFrom(vars[0]);
+		valueEquals.setTo(vars[0]);
+		assertTrue(solver.addConstraint(valueEquals));
+		assertTrue(Arrays.equals(new String[] {"A","B"}, ((SymbolicVariable)vars[0]).getSymbols()));
+		SymbolicValueConstraint equals = new SymbolicValueConstraint(SymbolicValueConstraint.Type.EQUALS);
+		equals.setFrom(vars[0]);
+		equals.setTo(vars[1]);
+		assertTrue(solver.addConstraint(equals));
+		SymbolicValueConstraint valueDifferent = new SymbolicValueConstraint(SymbolicValueConstraint.Type.VALUEDIFFERENT);
+		valueDifferent.setValue("B");
+		valueDifferent.setFrom(vars[1]);
+		valueDifferent.setTo(vars[1]);
+		assertFalse(solver.addConstraint(valueDifferent));
+	}
+
+	//The symbols chosen by the default value choice function of the BooleanVariables of a variable
+	private static Vector<String> getChosenSymbols(SymbolicVariable var) {
+		Vector<String> ret = new Vector<String>();
+		for (int i = 0; i < SYMBOLS.length; i++) {
+			if ((Boolean)var.getInternalVariables()[i].getDomain().chooseValue()) ret.add(SYMBOLS[i]);
+		}
+		return ret;
+	}
+
+	//Value choice reflects the changes propagated by arc consistency
+	public void testValueChoiceAfterArcConsistency() {
+		SymbolicVariableConstraintSolver solver = new SymbolicVariableConstraintSolver(SYMBOLS, 10);
+		solver.setArcConsistency(true);
+		Variable[] vars = solver.createVariables(3);
+		((SymbolicVariable)vars[0]).setDomain("A");
+		((SymbolicVariable)vars[1]).setDomain("A","B");
+		SymbolicValueConstraint diff1 = new SymbolicValueConstraint(SymbolicValueConstraint.Type.DIFFERENT);
+		diff1.setFrom(vars[0]);
+		diff1.setTo(vars[1]);
+		SymbolicValueConstraint diff2 = new SymbolicValueConstraint(SymbolicValueConstraint.Type.DIFFERENT);
+		diff2.setFrom(vars[1]);
+		diff2.setTo(vars[2]);
+		assertTrue(solver.addConstraints(diff1,diff2));
+		assertEquals(Arrays.asList("A"), getChosenSymbols((SymbolicVariable)vars[0]));
+		assertEquals(Arrays.asList("B"), getChosenSymbols((SymbolicVariable)vars[1]));
+		Vector<String> chosen = getChosenSymbols((SymbolicVariable)vars[2]);
+		assertEquals(1, chosen.size());
+		assertFalse(chosen.contains("B"));
+
+		//Rule out the chosen symbol
+		SymbolicValueConstraint valueDifferent = new SymbolicValueConstraint(SymbolicValueConstraint.Type.VALUEDIFFERENT);
+		valueDifferent.setValue(chosen.get(0));
+		valueDifferent.setFrom(vars[2]);
+		valueDifferent.setTo(vars[2]);
+		assertTrue(solver.addConstraint(valueDifferent));
+		Vector<String> newChosen = getChosenSymbols((SymbolicVariable)vars[2]);
+		assertEquals(1, newChosen.size());
+		assertFalse(newChosen.contains("B"));
+		assertFalse(newChosen.contains(chosen.get(0)));
+		assertTrue(Arrays.asList(((SymbolicVariable)vars[2]).getSymbols()).contains(newChosen.get(0)));
+	}
+
+	//Arc consistency and SAT must yield the same domains, also when falling back to SAT (cycles)
+	public void testArcConsistencyAgainstSAT() {
+		Random rand = new Random(1234);
+		for (int run = 0; run < 20; run++) {
+			SymbolicVariableConstraintSolver ac = new SymbolicVariableConstraintSolver(SYMBOLS, 10);
+			ac.setArcConsistency(true);
+			SymbolicVariableConstraintSolver sat = new SymbolicVariableConstraintSolver(SYMBOLS, 10);
+			Variable[] acVars = ac.createVariables(6);
+			Variable[] satVars = sat.createVariables(6);
+			Vector<Constraint[]> added = new Vector<Constraint[]>();
+			for (int step = 0; step < 15; step++) {
+				Constraint[] cons;
+				if (!added.isEmpty() && rand.nextInt(5) == 0) {
+					cons = added.remove(rand.nextInt(added.size()));
+					ac.removeConstraint(cons[0]);
+					sat.removeConstraint(cons[1]);
+				}
+				else {
+					cons = createRandomConstraints(rand, acVars, satVars);
+					boolean acAdded = ac.addConstraint(cons[0]);
+					assertEquals(sat.addConstraint(cons[1]), acAdded);
+					if (acAdded) added.add(cons);
+				}
+				for (int i = 0; i < acVars.length; i++) {
+					assertTrue(Arrays.equals(((SymbolicVariable)satVars[i]).getSymbols(), ((SymbolicVariable)acVars[i]).getSymbols()));
+				}
+			}
+		}
+	}
+	
+	//The same random constraint for both solvers
+	private static Constraint[] createRandomConstraints(Random rand, Variable[] acVars, Variable[] satVars) {
+		SymbolicValueConstraint.Type[] types = new SymbolicValueConstraint.Type[] {
+				SymbolicValueConstraint.Type.DIFFERENT,
+				SymbolicValueConstraint.Type.DIFFERENT,
+				SymbolicValueConstraint.Type.EQUALS,
+				SymbolicValueConstraint.Type.VALUESUBSET,
+				SymbolicValueConstraint.Type.VALUEDIFFERENT
+		};
+		SymbolicValueConstraint.Type type = types[rand.nextInt(types.length)];
+		int from = rand.nextInt(acVars.length);
+		int to = from;
+		boolean[] value = null;
+		if (type.equals(SymbolicValueConstraint.Type.DIFFERENT) || type.equals(SymbolicValueConstraint.Type.EQUALS)) {
+			while (to == from) to = rand.nextInt(acVars.length);
+		}
+		else {
+			value = new boolean[SYMBOLS.length];
+			for (int i = 0; i < value.length; i++) value[i] = rand.nextInt(3) == 0;
+		}
+		Constraint[] ret = new Constraint[2];
+		for (int k = 0; k < 2; k++) {
+			Variable[] vars = k == 0 ? acVars : satVars;
+			SymbolicValueConstraint con = new SymbolicValueConstraint(type);
+			if (value != null) con.setValue(value);
+			con.setFrom(vars[from]);
+			con.setTo(vars[to]);
+			ret[k] = con;
+		}
+		return ret;
+	}
+
+}
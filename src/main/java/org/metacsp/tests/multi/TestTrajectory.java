@@ -0,0 +1,73 @@
+package org.metacsp.tests.multi;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.metacsp.multi.spatioTemporal.paths.Pose;
+import org.metacsp.multi.spatioTemporal.paths.Trajectory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TestTrajectory extends TestCase {
+
+	@Override
+	public void setUp() throws Exception {
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+	
+	//Positions on a coarse grid, so that there are many equally close path points
+	private static Trajectory createRandomTrajectory(Random rand, int length) {
+		Pose[] poses = new Pose[length];
+		double[] dts = new double[length];
+		for (int i = 0; i < length; i++) {
+			poses[i] = new Pose(rand.nextInt(20)*0.5, rand.nextInt(20)*0.5, rand.nextDouble());
+			dts[i] = rand.nextDouble();
+		}
+		return new Trajectory(poses, dts);
+	}
+
+	public void testSequenceNumber() {
+		Random rand = new Random(4321);
+		for (int run = 0; run < 20; run++) {
+			Trajectory traj = createRandomTrajectory(rand, 1+rand.nextInt(200));
+			Coordinate[] positions = traj.getPositions();
+			for (int q = 0; q < 100; q++) {
+				Coordinate coord = new Coordinate(rand.nextInt(24)*0.25-0.5, rand.nextInt(24)*0.25-0.5);
+				int expected = 0;
+				double minDist = Double.MAX_VALUE;
+				for (int i = 0; i < positions.length; i++) {
+					if (positions[i].distance(coord) < minDist) {
+						minDist = positions[i].distance(coord);
+						expected = i;
+					}
+				}
+				assertEquals(expected, traj.getSequenceNumber(coord));
+				assertEquals(expected, traj.getSequenceNumber(coord, rand.nextInt(positions.length)));
+			}
+		}
+	}
+
+	public void testTimeEstimates() {
+		Random rand = new Random(8765);
+		Trajectory traj = createRandomTrajectory(rand, 100);
+		double[] dts = traj.getDTs();
+		for (int from = 0; from < dts.length; from++) {
+			double left = 0.0;
+			for (int i = from; i < dts.length; i++) left += dts[i];
+			assertEquals(left, traj.getTimeLeftEstimate(from), 1e-9);
+			double to = 0.0;
+			for (int end = from; end < dts.length; end++) {
+				to += dts[end];
+				assertEquals(to, traj.getTimeToEstimate(from, end), 1e-9);
+			}
+		}
+		//Replacing the DTs is taken into account
+		traj.setDTs(new double[dts.length]);
+		assertEquals(0.0, traj.getTimeLeftEstimate(0), 0.0);
+	}
+
+}
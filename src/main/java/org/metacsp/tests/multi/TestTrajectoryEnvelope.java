@@ -0,0 +1,77 @@
+package org.metacsp.tests.multi;
+
+import junit.framework.TestCase;
+
+import org.metacsp.multi.spatioTemporal.paths.PoseSteering;
+import org.metacsp.multi.spatioTemporal.paths.TrajectoryEnvelope;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class TestTrajectoryEnvelope extends TestCase {
+
+	private static final Coordinate[] FOOTPRINT = new Coordinate[] {
+			new Coordinate(-1.0, 0.5),
+			new Coordinate(1.0, 0.5),
+			new Coordinate(1.0, -0.5),
+			new Coordinate(-1.0, -0.5)
+	};
+
+	@Override
+	public void setUp() throws Exception {
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+	}
+
+	//A winding path, long enough to be split into several chunks
+	private static PoseSteering[] createPath(int length, boolean pose3D) {
+		PoseSteering[] path = new PoseSteering[length];
+		for (int i = 0; i < length; i++) {
+			double x = 0.2*i;
+			double y = 3.0*Math.sin(0.05*i);
+			double theta = Math.atan2(0.15*Math.cos(0.05*i), 0.2);
+			if (pose3D) path[i] = new PoseSteering(x, y, 0.0, 0.0, 0.0, theta, 0.0);
+			else path[i] = new PoseSteering(x, y, theta, 0.0);
+		}
+		return path;
+	}
+
+	//The union of the convex hulls of the footprints in every two successive poses, computed one pose at a time
+	private static Geometry getPlainUnion(PoseSteering[] path, Polygon footprint) {
+		Geometry onePoly = null;
+		Geometry prevPoly = null;
+		for (PoseSteering ps : path) {
+			Geometry rect = TrajectoryEnvelope.makeFootprint(ps, footprint);
+			if (onePoly == null) onePoly = rect;
+			else onePoly = onePoly.union(prevPoly.union(rect).convexHull());
+			prevPoly = rect;
+		}
+		return onePoly;
+	}
+
+	private static void assertSameArea(Geometry expected, Geometry actual) {
+		assertTrue(expected.symDifference(actual).getArea() < 1e-6*expected.getArea());
+	}
+
+	public void testEnvelopeEqualsPlainUnion() {
+		PoseSteering[] path = createPath(400, false);
+		Polygon footprint = TrajectoryEnvelope.createFootprintPolygon(FOOTPRINT);
+		Geometry envelope = TrajectoryEnvelope.createSpatialEnvelope(path, FOOTPRINT).getPolygon();
+		assertSameArea(getPlainUnion(path, footprint), envelope);
+		//Again, from the cache
+		assertSameArea(getPlainUnion(path, footprint), TrajectoryEnvelope.createSpatialEnvelope(path, FOOTPRINT).getPolygon());
+	}
+
+	//Chunks of 2D and 3D poses with the same position and orientation are compared in the cache
+	public void testMixedPoses() {
+		PoseSteering[] path2D = createPath(200, false);
+		PoseSteering[] path3D = createPath(200, true);
+		Geometry envelope2D = TrajectoryEnvelope.createSpatialEnvelope(path2D, FOOTPRINT).getPolygon();
+		Geometry envelope3D = TrajectoryEnvelope.createSpatialEnvelope(path3D, FOOTPRINT).getPolygon();
+		assertSameArea(envelope2D, envelope3D);
+	}
+
+}
@@ -28,9 +28,11 @@ import java.awt.Toolkit;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JFrame;
@@ -44,6 +46,7 @@ import org.metacsp.framework.Variable;
 import org.metacsp.throwables.ConstraintNotFound;
 import org.metacsp.throwables.time.MalformedSimpleDistanceConstraint;
 import org.metacsp.utility.UI.PlotSTPTemporalModule;
+import org.metacsp.utility.logging.LogMessage;
 import org.metacsp.utility.logging.MetaCSPLogging;
 
 /**
@@ -52,6 +55,10 @@ import org.metacsp.utility.logging.MetaCSPLogging;
  * Derived from original implementation by
  * the Planning and Scheduling Team (ISTC-CNR) under project APSI.
  * 
+ * Two backends are available (see {@link BACKEND}): the default dense backend maintains the complete
+ * distance matrix for a fixed maximum number of timepoints, while the sparse backend only maintains the
+ * constraint graph and the bounds of timepoints, computes other distances on demand, and grows as needed.
+ * 
  * @author Federico Pecora and Planning and Scheduling Team
  */
 public class APSPSolver extends ConstraintSolver {
@@ -75,8 +82,56 @@ public class APSPSolver extends ConstraintSolver {
 
 	public static final int DEFAULT_MAX_TPS = 2000;
 
-	//MAX number of TPs in temporal network.
-	private final int MAX_TPS;
+	/**
+	 * Backends for storing the temporal network:
+	 * <ul>
+	 * <li> {@code DENSE}: the complete distance matrix is allocated at construction for the maximum number
+	 * of timepoints and maintained through (incremental) Floyd-Warshall propagation (memory is quadratic in the
+	 * maximum number of timepoints).</li>
+	 * <li> {@code SPARSE}: only the constraint graph and the distances from/to the origin (i.e., the bounds of
+	 * timepoints) are maintained (incrementally), distances between other pairs of timepoints are computed on demand.
+	 * Memory is linear in the number of timepoints and constraints, and the network grows as needed.</li>
+	 * </ul>
+	 */
+	public static enum BACKEND {DENSE, SPARSE};
+
+	private final BACKEND backend;
+
+	/**
+	 * Incremental propagation modes of the {@link BACKEND#DENSE} backend:
+	 * <ul>
+	 * <li> {@code FULL_SWEEP}: every new constraint re-examines all pairs of used timepoints (always O(n^2)).</li>
+	 * <li> {@code AFFECTED_PAIRS}: only the pairs (u,v) whose distance can tighten are examined, that is, the
+	 * sources u whose distance to the head of the new edge tightens times the targets v whose distance from the
+	 * tail of the new edge tightens (in the style of incremental directional path consistency, IFPC/&Delta;STP).
+	 * The resulting distance matrix is the same as with {@code FULL_SWEEP}.</li>
+	 * </ul>
+	 * The {@link BACKEND#SPARSE} backend always propagates incrementally and ignores this setting.
+	 */
+	public static enum PROPAGATION {FULL_SWEEP, AFFECTED_PAIRS};
+
+	private PROPAGATION propagation = PROPAGATION.FULL_SWEEP;
+
+	//Number of distance matrix cells examined by incremental propagation
+	private long touchedCells = 0;
+
+	//Whether "from scratch" propagation processes independent tiles in parallel
+	private boolean parallelPropagation = false;
+
+	//Work matrix of "from scratch" propagation
+	private transient long[] flatDistance = null;
+
+	//Fraction of unused TPs below MAX_USED above which TPs are compacted before creating new ones (1.0 = never)
+	private double compactionThreshold = 1.0;
+	private int compactionCount = 0;
+
+	//Sparse distance graph (only with the SPARSE backend)
+	private SparseDistanceGraph sparseGraph = null;
+	private ArrayList<SparseDistanceGraph> sparseGraphRollback = new ArrayList<SparseDistanceGraph>();
+	private ArrayList<Integer> freeTPs = new ArrayList<Integer>();
+
+	//MAX number of TPs in temporal network (current capacity with the SPARSE backend).
+	private int MAX_TPS;
 
 	//All TimePoints in the STP
 	private TimePoint[] tPoints = null;
@@ -94,8 +149,16 @@ public class APSPSolver extends ConstraintSolver {
 
 	// Roll-back data structures
 	private ArrayList<TimePoint[]> tPointsRollback = new ArrayList<TimePoint[]>();
-	private ArrayList<long[][]> distanceRollback = new ArrayList<long[][]>();	
 	private ArrayList<Integer> maxUsedRollback = new ArrayList<Integer>();
+
+	//Trail (undo log) of the dense backend: changes are logged only while there are bookmarks,
+	//and each bookmark is a position in the trail of distance cells and in the trail of other changes
+	private boolean trailing = false;
+	private int[] distanceTrailCell = new int[64];
+	private long[] distanceTrailValue = new long[64];
+	private int distanceTrailSize = 0;
+	private ArrayList<TrailEntry> trail = new ArrayList<TrailEntry>();
+	private ArrayList<int[]> trailRollback = new ArrayList<int[]>();
 	private ArrayList<ConstraintNetwork> networkRollback = new ArrayList<ConstraintNetwork>();
 
 	//Temporal Horizon
@@ -133,16 +196,48 @@ public class APSPSolver extends ConstraintSolver {
 	 * (propagation is O((maxTPs+2)^3)). 
 	 */
 	public APSPSolver (long origin, long horizon, int maxTPs) {
+		this(origin, horizon, maxTPs, BACKEND.DENSE);
+	}
+
+	/**
+	 * Create a new APSPSolver with given temporal horizon and given backend.  With the
+	 * {@link BACKEND#SPARSE} backend, the network grows as needed from an initial capacity of
+	 * {@link #DEFAULT_MAX_TPS} timepoints.
+	 * @param origin The start time of the horizon.
+	 * @param horizon The end time of the horizon. 
+	 * @param backend The backend used to store the temporal network.
+	 */
+	public APSPSolver (long origin, long horizon, BACKEND backend) {
+		this(origin, horizon, DEFAULT_MAX_TPS, backend);
+	}
+
+	/**
+	 * Create a new APSPSolver with given temporal horizon, given maximum number of timepoints and given backend.
+	 * @param origin The start time of the horizon.
+	 * @param horizon The end time of the horizon. 
+	 * @param maxTPs maximum number of timepoints in the network 
+	 * (excluding the Origin (O) and Horizon (H) timepoint); this is the initial
+	 * capacity with the {@link BACKEND#SPARSE} backend. 
+	 * @param backend The backend used to store the temporal network.
+	 */
+	public APSPSolver (long origin, long horizon, int maxTPs, BACKEND backend) {
 		super(new Class[]{SimpleDistanceConstraint.class}, TimePoint.class);
 		this.setOptions(OPTIONS.MANUAL_PROPAGATE);
 		this.MAX_TPS = maxTPs+2; //+2 To account for O and H
-		tPoints = new TimePoint[MAX_TPS];
-		distance = new long[MAX_TPS][MAX_TPS];
-
+		this.backend = backend;
 
 		//Init
 		H = horizon;
 		O = origin;
+
+		if (backend == BACKEND.SPARSE) initSparse();
+		else initDense();
+	}
+
+	//Init of the dense backend (full distance matrix and MAX_TPS timepoints)
+	private void initDense() {
+		tPoints = new TimePoint[MAX_TPS];
+		distance = new long[MAX_TPS][MAX_TPS];
 		
 //		for (int i = 0; i < MAX_TPS; i++) {
 //			for (int j = 0; j < MAX_TPS; j++) {
@@ -231,6 +326,43 @@ public class APSPSolver extends ConstraintSolver {
 //		System.out.println("Init print:\n" + this.printDist());
 	}
 
+	//Init of the sparse backend (only origin and horizon, edges from/to them are implicit)
+	private void initSparse() {
+		tPoints = new TimePoint[MAX_TPS];
+		sparseGraph = new SparseDistanceGraph(MAX_TPS, H-O);
+
+		tPoints[0] = new TimePoint(tpCounter++,this);
+		tPoints[1] = new TimePoint(tpCounter++,this);
+		this.theNetwork.addVariable(tPoints[0]);
+		this.theNetwork.addVariable(tPoints[1]);
+
+		SimpleDistanceConstraint con = new SimpleDistanceConstraint();
+		horizonConstraint = con;
+		con.setFrom(tPoints[0]);
+		con.setTo(tPoints[1]);
+		con.setMinimum(H-O);
+		con.setMaximum(H-O);
+		con.addInterval(new Bounds(H-O,H-O));
+		tPoints[0].setOut(1,con);
+		sparseGraph.setEdge(0, 1, H-O, -(H-O));
+
+		tPoints[0].setUsed(true);
+		tPoints[0].setLowerBound(O);
+		tPoints[0].setUpperBound(O);
+		tPoints[1].setUsed(true);
+		tPoints[1].setLowerBound(H);
+		tPoints[1].setUpperBound(H);
+		MAX_USED = 1;
+	}
+
+	/**
+	 * Get the backend used by this {@link APSPSolver} to store the temporal network.
+	 * @return The backend used by this {@link APSPSolver}.
+	 */
+	public BACKEND getBackend() {
+		return backend;
+	}
+
 	//TP creation
 	private int tpCreate() {
 		logger.finest("Creating 1 TP");
@@ -238,7 +370,7 @@ public class APSPSolver extends ConstraintSolver {
 		boolean found = false;
 		while (i < MAX_TPS && !found) {
 			if (!tPoints[i].isUsed()) {
-				tPoints[i].setUsed(true);
+				setUsed(tPoints[i], true);
 				found = true;
 				//reusing a timepoint, check!
 				//System.out.println("REUSING TP " + i + " and with Origin->" + i + " is " + tPoints[0].getOut(i));
@@ -247,23 +379,158 @@ public class APSPSolver extends ConstraintSolver {
 			} else i++;
 		}
 		for (int l = 2; l <= MAX_USED; l++) {
-			distance[i][l] = H;
-			distance[l][i] = H;			
+			setDistance(i, l, H);
+			setDistance(l, i, H);
 		}
 		
-		distance[i][i] = 0;
-		distance[i][0] = 0;
-		distance[i][1] = H;//APSPSolver.INF;
+		setDistance(i, i, 0);
+		setDistance(i, 0, 0);
+		setDistance(i, 1, H);//APSPSolver.INF;
 		
-		distance[0][i] = H; // Needed for bookmark/revert (Uwe)
-		distance[1][i] = 0; // Needed for bookmark/revert (Uwe)
+		setDistance(0, i, H); // Needed for bookmark/revert (Uwe)
+		setDistance(1, i, 0); // Needed for bookmark/revert (Uwe)
 		
 		return i;
 	}
 
 
+	//TP creation (sparse backend), reuses deleted TPs or grows the network
+	private int tpCreateSparse() {
+		int i;
+		if (!freeTPs.isEmpty()) i = freeTPs.remove(freeTPs.size()-1);
+		else {
+			i = tpCounter++;
+			if (i >= MAX_TPS) {
+				MAX_TPS = Math.max(i+1, 2*MAX_TPS);
+				tPoints = Arrays.copyOf(tPoints, MAX_TPS);
+			}
+			tPoints[i] = new TimePoint(i,this);
+		}
+		tPoints[i].setUsed(true);
+		if (i > MAX_USED) MAX_USED = i;
+		sparseGraph.addTimePoint(i);
+		tPoints[i].setLowerBound(sum(-sparseGraph.getDistanceToOrigin(i),O));
+		tPoints[i].setUpperBound(sum(sparseGraph.getDistanceFromOrigin(i),O));
+		return i;
+	}
+
+	//Entry of the trail of the dense backend (changes to timepoints and constraints)
+	private static final class TrailEntry implements Serializable {
+		private static final long serialVersionUID = 2785063314683126395L;
+		private static final int BOUNDS = 0, USED = 1, OUT = 2, CONSTRAINT = 3;
+		private final int type;
+		private TimePoint tp;
+		private int to;
+		private SimpleDistanceConstraint con;
+		private long min, max;
+		private boolean used;
+		private Bounds[] intervals;
+		private TrailEntry(int type) { this.type = type; }
+	}
+
+	//Set a distance (logging the old value in the trail if there are bookmarks)
+	private void setDistance(int i, int j, long value) {
+		if (trailing && distance[i][j] != value) {
+			if (distanceTrailSize == distanceTrailCell.length) {
+				distanceTrailCell = Arrays.copyOf(distanceTrailCell, 2*distanceTrailSize);
+				distanceTrailValue = Arrays.copyOf(distanceTrailValue, 2*distanceTrailSize);
+			}
+			distanceTrailCell[distanceTrailSize] = i*MAX_TPS+j;
+			distanceTrailValue[distanceTrailSize++] = distance[i][j];
+		}
+		distance[i][j] = value;
+	}
+
+	//Set the bounds of a TP (logging the old bounds in the trail if there are bookmarks)
+	private void setBounds(TimePoint tp, long lb, long ub) {
+		if (tp.getLowerBound() == lb && tp.getUpperBound() == ub) return;
+		if (trailing) {
+			TrailEntry entry = new TrailEntry(TrailEntry.BOUNDS);
+			entry.tp = tp;
+			entry.min = tp.getLowerBound();
+			entry.max = tp.getUpperBound();
+			trail.add(entry);
+		}
+		tp.setLowerBound(lb);
+		tp.setUpperBound(ub);
+	}
+
+	//Mark a TP as used/unused (logging the old flag in the trail if there are bookmarks)
+	private void setUsed(TimePoint tp, boolean used) {
+		if (trailing) {
+			//A TP marked as unused loses its edges, which must be logged to be restored
+			if (tp.isUsed() && !used) {
+				for (int i = 0; i < MAX_USED+1; i++) if (tp.getOut(i) != null) setOut(tp, i, null);
+			}
+			TrailEntry entry = new TrailEntry(TrailEntry.USED);
+			entry.tp = tp;
+			entry.used = tp.isUsed();
+			trail.add(entry);
+		}
+		tp.setUsed(used);
+	}
+
+	//Set an edge of a TP (logging the old edge in the trail if there are bookmarks)
+	private void setOut(TimePoint tp, int to, SimpleDistanceConstraint con) {
+		if (trailing) {
+			TrailEntry entry = new TrailEntry(TrailEntry.OUT);
+			entry.tp = tp;
+			entry.to = to;
+			entry.con = tp.getOut(to);
+			trail.add(entry);
+		}
+		tp.setOut(to, con);
+	}
+
+	//Log the state of a constraint in the trail before it is modified (if there are bookmarks)
+	private void saveConstraint(SimpleDistanceConstraint con) {
+		if (trailing) {
+			TrailEntry entry = new TrailEntry(TrailEntry.CONSTRAINT);
+			entry.con = con;
+			entry.min = con.getMinimum();
+			entry.max = con.getMaximum();
+			entry.intervals = con.getIntervals();
+			trail.add(entry);
+		}
+	}
+
+	//Undo the changes in the trail up to the given positions
+	private void undoTrail(int distancePos, int trailPos) {
+		while (distanceTrailSize > distancePos) {
+			distanceTrailSize--;
+			int cell = distanceTrailCell[distanceTrailSize];
+			distance[cell/MAX_TPS][cell%MAX_TPS] = distanceTrailValue[distanceTrailSize];
+		}
+		for (int i = trail.size()-1; i >= trailPos; i--) {
+			TrailEntry entry = trail.remove(i);
+			if (entry.type == TrailEntry.BOUNDS) {
+				entry.tp.setLowerBound(entry.min);
+				entry.tp.setUpperBound(entry.max);
+			}
+			else if (entry.type == TrailEntry.USED) entry.tp.setUsed(entry.used);
+			else if (entry.type == TrailEntry.OUT) entry.tp.setOut(entry.to, entry.con);
+			else {
+				entry.con.setMinimum(entry.min);
+				entry.con.setMaximum(entry.max);
+				entry.con.setIntervals(entry.intervals);
+			}
+		}
+	}
+
+	//[lb,ub] = [-di0,d0i]
+	private void updateBounds() {
+		for (int j = 0; j < MAX_USED+1; j++)
+			if (tPoints[j].isUsed())
+				setBounds(tPoints[j], sum(-distance[j][0],O), sum(distance[0][j],O));
+	}
+
 	//Batch TP creation
 	private int[] tpCreate(int n) {
+		if (backend == BACKEND.SPARSE) {
+			int[] ret = new int[n];
+			for (int i = 0; i < n; i++) ret[i] = tpCreateSparse();
+			return ret;
+		}
 		if (n > MAX_TPS) return null;
 		int[] ret = new int[n];
 		for (int i = 0; i < n; i++) ret[i] = tpCreate();
@@ -286,7 +553,7 @@ public class APSPSolver extends ConstraintSolver {
 		long[][] distanceBackup = backups.lastElement();
 		for (int i = 0; i < backupMaxUsed.lastElement()+1; i++) {
 			for (int j = 0; j < backupMaxUsed.lastElement()+1; j++) {
-				distance[i][j] = distanceBackup[i][j];
+				setDistance(i, j, distanceBackup[i][j]);
 			}			
 		}
 		backupConstraints.remove(backupConstraints.size()-1);
@@ -306,7 +573,7 @@ public class APSPSolver extends ConstraintSolver {
 	private void restoreDMatrixInternal() {
 		for (int i = 0; i < MAX_USED+1; i++) {
 			for (int j = 0; j < MAX_USED+1; j++) {
-				distance[i][j] = distanceBackupInternal[i][j];
+				setDistance(i, j, distanceBackupInternal[i][j]);
 			}			
 		}
 		distanceBackupInternal = null;
@@ -315,11 +582,22 @@ public class APSPSolver extends ConstraintSolver {
 
 	//Batch Time point erase
 	private void tpDelete(int[] IDtimePoint) {
-		logger.finest("Deleting " + IDtimePoint.length + " TP");
+		if (logger.isLoggable(Level.FINEST)) logger.finest("Deleting " + IDtimePoint.length + " TP");
+		if (backend == BACKEND.SPARSE) {
+			//Incident constraints have already been removed, so no propagation is needed
+			for (int i = 0; i < IDtimePoint.length; i++) {
+				tPoints[IDtimePoint[i]].setUsed(false);
+				tPoints[IDtimePoint[i]].setLowerBound(O);
+				tPoints[IDtimePoint[i]].setUpperBound(H);
+				sparseGraph.removeTimePoint(IDtimePoint[i]);
+				freeTPs.add(IDtimePoint[i]);
+			}
+			while (MAX_USED > 1 && !tPoints[MAX_USED].isUsed()) MAX_USED--;
+			return;
+		}
+		int maxUsed = MAX_USED;
 		for (int i = 0; i < IDtimePoint.length; i++) {
-			tPoints[IDtimePoint[i]].setUsed(false);
-
-			if (IDtimePoint[i] == MAX_USED) MAX_USED--;
+			setUsed(tPoints[IDtimePoint[i]], false);
 
 			SimpleDistanceConstraint conO = new SimpleDistanceConstraint();
 			SimpleDistanceConstraint conH = new SimpleDistanceConstraint();
@@ -337,13 +615,25 @@ public class APSPSolver extends ConstraintSolver {
 			conH.addInterval(new Bounds(0,H-O));
 
 			//[lb,ub] = [-di0,d0i]
-			tPoints[IDtimePoint[i]].setLowerBound(O);
-			tPoints[IDtimePoint[i]].setUpperBound(H);
-			tPoints[0].setOut(IDtimePoint[i],conO);
-			tPoints[IDtimePoint[i]].setOut(1,conH);
+			setBounds(tPoints[IDtimePoint[i]], O, H);
+			setOut(tPoints[0], IDtimePoint[i], conO);
+			setOut(tPoints[IDtimePoint[i]], 1, conH);
 		}
+		while (MAX_USED > 1 && !tPoints[MAX_USED].isUsed()) MAX_USED--;
 
-		fromScratchDistanceMatrixComputation();
+		//If incident constraints have been removed (the usual case), the deleted TPs are only linked to O, H and each other,
+		//so distances between used TPs do not change (and rows of unused TPs are reset when they are reused)
+		if (!isDisconnected(IDtimePoint, maxUsed)) fromScratchDistanceMatrixComputation();
+	}
+
+	//Whether the given (unused) TPs have no edges to used TPs other than O and H
+	private boolean isDisconnected(int[] IDtimePoint, int maxUsed) {
+		for (int id : IDtimePoint) {
+			for (int j = 2; j < maxUsed+1; j++) {
+				if (tPoints[j].isUsed() && (tPoints[id].getOut(j) != null || tPoints[j].getOut(id) != null)) return false;
+			}
+		}
+		return true;
 	}
 
 	//Create an interval for a constraint
@@ -366,6 +656,7 @@ public class APSPSolver extends ConstraintSolver {
 			//check intersection between active con and new con
 			if ( (con.getMinimum() > i.max) || (con.getMaximum() < i.min) ) return false;
 			//check con does not contain active con
+			saveConstraint(con);
 			if ( (con.getMinimum() > i.min) && (con.getMaximum() < i.max) ) {
 				//OK it is. I save con without doing anything else
 				if (!con.addInterval(i)) return false;
@@ -388,11 +679,7 @@ public class APSPSolver extends ConstraintSolver {
 			}
 
 			//[lb,ub] = [-di0,d0i]
-			for (int j = 0; j < MAX_USED+1; j++)
-				if (tPoints[j].isUsed()) {
-					tPoints[j].setLowerBound(sum(-distance[j][0],O));
-					tPoints[j].setUpperBound(sum(distance[0][j],O));
-				}
+			updateBounds();
 		}				
 		else {
 			con = new SimpleDistanceConstraint();
@@ -402,22 +689,17 @@ public class APSPSolver extends ConstraintSolver {
 			con.setMaximum(i.max);
 			con.addInterval(new Bounds(i.min,i.max));
 			//Add edge to tp
-			tPoints[from].setOut(to,con);
+			setOut(tPoints[from], to, con);
 
 			if (backupDMatrixSimple) saveDMatrixInternal();
 			if (!fromScratchDistanceMatrixComputation()) {
-				tPoints[from].setOut(to,null);
+				setOut(tPoints[from], to, null);
 				if (backupDMatrixSimple) restoreDMatrixInternal();
 				return false;
 			}
 
 			//[lb,ub] = [-di0,d0i]
-			for (int j = 0; j < MAX_USED+1; j++) {
-				if (tPoints[j].isUsed() == true) {
-					tPoints[j].setLowerBound (sum(-distance[j][0],O));
-					tPoints[j].setUpperBound (sum(distance[0][j],O));
-				}
-			}
+			updateBounds();
 		}
 		return true;	
 	}
@@ -439,8 +721,8 @@ public class APSPSolver extends ConstraintSolver {
 		if (tPoints[from] == null) return false;
 
 		if (noPropagation) {
-			distance[from][to] = max;
-			distance[to][from] = -min;
+			setDistance(from, to, max);
+			setDistance(to, from, -min);
 		}
 		
 		//Already existing edge
@@ -449,6 +731,7 @@ public class APSPSolver extends ConstraintSolver {
 			//check intersection between active con and new con
 			if ( (con.getMinimum() > i.max) || (con.getMaximum() < i.min) ) return false;
 			//check con does not contain active con
+			saveConstraint(con);
 			if ( (con.getMinimum() > i.min) && (con.getMaximum() < i.max) ) {
 				//OK it is. I save con without doing anything else
 				if (!con.addInterval(i)) return false;
@@ -473,11 +756,7 @@ public class APSPSolver extends ConstraintSolver {
 			if (!con.addInterval(i)) return false;
 
 			//[lb,ub] = [-di0,d0i]
-			for (int j = 0; j < MAX_USED+1; j++)
-				if (tPoints[j].isUsed()) {
-					tPoints[j].setLowerBound(sum(-distance[j][0],O));
-					tPoints[j].setUpperBound(sum(distance[0][j],O));
-				}
+			updateBounds();
 		}				
 		else {
 //			saveDMatrix();
@@ -494,15 +773,10 @@ public class APSPSolver extends ConstraintSolver {
 			con.addInterval(new Bounds(i.min,i.max));
 
 			//Add edge to tp
-			tPoints[from].setOut(to,con);
+			setOut(tPoints[from], to, con);
 
 			//[lb,ub] = [-di0,d0i]
-			for (int j = 0; j < MAX_USED+1; j++) {
-				if (tPoints[j].isUsed() == true) {
-					tPoints[j].setLowerBound (sum(-distance[j][0],O));
-					tPoints[j].setUpperBound (sum(distance[0][j],O));
-				}
-			}
+			updateBounds();
 		}
 		return true;	
 	}
@@ -534,6 +808,7 @@ public class APSPSolver extends ConstraintSolver {
 				//added[i] = false;
 				if ( (con.getMinimum() > in[i].max) || (con.getMaximum() < in[i].min) ) { rollback = true; rollBackPoint = i; break; /*return false;*/ }
 				//Update active con
+				saveConstraint(con);
 				old_d[i] = con.getMinimum();
 				old_D[i] = con.getMaximum();
 				if (con.getMinimum() < in[i].min) con.setMinimum(in[i].min);
@@ -549,7 +824,7 @@ public class APSPSolver extends ConstraintSolver {
 				con.setMinimum(in[i].min);
 				con.setMaximum(in[i].max);
 				con.addInterval(new Bounds(in[i].min,in[i].max));
-				tPoints[from[i]].setOut(to[i], con);
+				setOut(tPoints[from[i]], to[i], con);
 			}
 		}
 
@@ -564,7 +839,7 @@ public class APSPSolver extends ConstraintSolver {
 				else {
 					//Rollback in case of new edge
 					con.removeInterval(in[i]);
-					tPoints[from[i]].setOut(to[i], null);
+					setOut(tPoints[from[i]], to[i], null);
 				}
 			}
 			return false;
@@ -585,11 +860,7 @@ public class APSPSolver extends ConstraintSolver {
 		}
 
 		//[lb,ub] = [-di0,d0i]
-		for (int j = 0; j < MAX_USED+1; j++)
-			if (tPoints[j].isUsed() == true) {
-				tPoints[j].setLowerBound(sum(-distance[j][0],O));
-				tPoints[j].setUpperBound(sum(distance[0][j],O));
-			}
+		updateBounds();
 		
 		return true;    
 	}
@@ -627,6 +898,104 @@ public class APSPSolver extends ConstraintSolver {
 //		return true;
 //	}
 
+	//Synchronize the edges of the sparse distance graph between two TPs with the active constraints between them
+	private void syncSparseEdge(int a, int b) {
+		long wab = APSPSolver.INF;
+		long wba = APSPSolver.INF;
+		SimpleDistanceConstraint ab = tPoints[a].getOut(b);
+		SimpleDistanceConstraint ba = tPoints[b].getOut(a);
+		if (ab != null) {
+			wab = ab.getMaximum();
+			wba = -ab.getMinimum();
+		}
+		if (ba != null) {
+			wab = Math.min(wab, -ba.getMinimum());
+			wba = Math.min(wba, ba.getMaximum());
+		}
+		sparseGraph.setEdge(a, b, wab, wba);
+	}
+
+	//Rebuild all edges of the sparse graph from the constraints of the used timepoints
+	private void syncSparseEdges() {
+		sparseGraph.clearEdges();
+		for (int i = 0; i <= MAX_USED; i++) {
+			if (tPoints[i] == null || !tPoints[i].isUsed()) continue;
+			for (int j : tPoints[i].getOutIDs()) syncSparseEdge(i, j);
+		}
+	}
+
+	//Batch create intervals with the sparse backend (incremental propagation of each constraint)
+	private boolean cCreateSparse(Bounds[] in, int[] from, int[] to) {
+		long[] old_d = new long[in.length];
+		long[] old_D = new long[in.length];
+		boolean[] added = new boolean[in.length];
+		boolean[] subsumed = new boolean[in.length];
+		int mark = sparseGraph.mark();
+		int i = 0;
+		boolean rollback = false;
+
+		for (i = 0; i < in.length; i++) {
+			//Conversion
+			long min = in[i].min;
+			long max = in[i].max;
+			if (in[i].max == APSPSolver.INF) max = H-O;
+			if (in[i].min == -APSPSolver.INF) min = -1 * (H - O);
+			in[i] = new Bounds(min,max);
+			//Checks
+			if (in[i].min > in[i].max || from[i] == to[i]) { rollback = true; break; }
+
+			SimpleDistanceConstraint con = tPoints[from[i]].getOut(to[i]);
+			if (con != null) {
+				//check intersection between active con and new con
+				if ( (con.getMinimum() > in[i].max) || (con.getMaximum() < in[i].min) ) { rollback = true; break; }
+				//new con contains active con, nothing to propagate
+				if ( (con.getMinimum() > in[i].min) && (con.getMaximum() < in[i].max) ) {
+					subsumed[i] = true;
+					continue;
+				}
+				//Update active con
+				old_d[i] = con.getMinimum();
+				old_D[i] = con.getMaximum();
+				if (con.getMinimum() < in[i].min) con.setMinimum(in[i].min);
+				if (con.getMaximum() > in[i].max) con.setMaximum(in[i].max);
+			}
+			else {
+				added[i] = true;
+				con = new SimpleDistanceConstraint();
+				con.setFrom(this.getVariable(from[i]));
+				con.setTo(this.getVariable(to[i]));
+				con.setMinimum(in[i].min);
+				con.setMaximum(in[i].max);
+				con.addInterval(new Bounds(in[i].min,in[i].max));
+				tPoints[from[i]].setOut(to[i], con);
+			}
+			syncSparseEdge(from[i], to[i]);
+			if (!sparseGraph.propagate(from[i], to[i])) { i++; rollback = true; break; }
+		}
+
+		if (rollback) {
+			for (int j = i-1; j >= 0; j--) {
+				if (subsumed[j]) continue;
+				if (added[j]) tPoints[from[j]].setOut(to[j], null);
+				else {
+					SimpleDistanceConstraint con = tPoints[from[j]].getOut(to[j]);
+					con.setMinimum(old_d[j]);
+					con.setMaximum(old_D[j]);
+				}
+				syncSparseEdge(from[j], to[j]);
+			}
+			sparseGraph.undo(mark);
+			return false;
+		}
+
+		//Ok update
+		for (int j = 0; j < in.length; j++) {
+			if (!added[j]) tPoints[from[j]].getOut(to[j]).addInterval(in[j]);
+		}
+		sparseGraph.commit(tPoints, O);
+		return true;
+	}
+
 	//Delete many constraints...
 	//throw error in case of parameter inconsistency
 	private boolean cDelete(Bounds[] in, int[] from, int[] to, boolean canRestore) throws ConstraintNotFound, MalformedSimpleDistanceConstraint {
@@ -644,24 +1013,40 @@ public class APSPSolver extends ConstraintSolver {
 				throw new ConstraintNotFound(String.format("Interval %s, from %d, to %d", in[i].toString(), from[i], to[i]));
 			}
 
+			saveConstraint(con);
 			if (con.getCounter() == 1) { 
-				if (con.removeInterval(in[i])) tPoints[from[i]].setOut(to[i],null);
+				if (con.removeInterval(in[i])) setOut(tPoints[from[i]], to[i], null);
 				else throw new MalformedSimpleDistanceConstraint(con, 1);
 			}
 			else if (!con.removeInterval(in[i])) throw new MalformedSimpleDistanceConstraint(con, 2);
 		}
 
+		if (backend == BACKEND.SPARSE) {
+			//Distances from/to origin must be recomputed from the remaining edges
+			for (int i = 0; i < in.length; i++) syncSparseEdge(from[i], to[i]);
+			int mark = sparseGraph.mark();
+			if (!sparseGraph.recompute()) {
+				//Rebuild the edge set from the remaining constraints and try again
+				sparseGraph.undo(mark);
+				syncSparseEdges();
+				if (!sparseGraph.recompute()) {
+					sparseGraph.undo(mark);
+					logger.severe("Temporal network is inconsistent after removing constraints");
+					return false;
+				}
+			}
+			sparseGraph.commit(tPoints, O);
+			return true;
+		}
+
 		if (!canRestore) fromScratchDistanceMatrixComputation();
 		else {
 			logger.finest("QuickRestoring distance matrix, no propagation");
 			if (backupDMatrixSimple) restoreDMatrix();
 		}
 
-		for (int j = 0; j < MAX_USED+1; j++)
-			if (tPoints[j].isUsed() == true) {
-				tPoints[j].setLowerBound(sum(-distance[j][0],O));
-				tPoints[j].setUpperBound(sum(distance[0][j],O));
-			}
+		//[lb,ub] = [-di0,d0i]
+		updateBounds();
 
 		return true;
 	}
@@ -675,7 +1060,7 @@ public class APSPSolver extends ConstraintSolver {
 	 * @return The timepoint referenced by passed ID. 
 	 */
 	public TimePoint getTimePoint(int Id) {
-		if (Id >= MAX_TPS) return null;
+		if (Id < 0 || Id >= MAX_TPS) return null;
 		if (tPoints[Id] == null) return null;
 		if (!tPoints[Id].isUsed()) return null;
 		return tPoints[Id];
@@ -693,7 +1078,7 @@ public class APSPSolver extends ConstraintSolver {
 		StringBuilder strb = new StringBuilder();
 		strb.append("Temporal Network (" + MAX_TPS +" time points): \n");
 		for (int i = 0; i < MAX_TPS; i++) {
-			if (tPoints[i].isUsed()) {
+			if (tPoints[i] != null && tPoints[i].isUsed()) {
 				strb.append(tPoints[i] + "\n");
 			}
 		}
@@ -702,7 +1087,11 @@ public class APSPSolver extends ConstraintSolver {
 
 	//"from scratch" re-computation
 	private boolean fromScratchDistanceMatrixComputation() {
-		logger.fine("Propagating (cube) with (#TPs,#cons) = (" + this.MAX_USED + "," + this.theNetwork.getConstraints().length + ") (call num.: " + (++cubePropCount) + ")");
+		cubePropCount++;
+		MetaCSPLogging.fine(logger, new LogMessage() {
+			@Override
+			public String get() { return "Propagating (cube) with (#TPs,#cons) = (" + MAX_USED + "," + theNetwork.getConstraints().length + ") (call num.: " + cubePropCount + ")"; }
+		});
 		//*
 		//This code is not tested thoroughly but seems to work
 		for (int i = 0; i < MAX_USED+1; i++) {
@@ -724,37 +1113,42 @@ public class APSPSolver extends ConstraintSolver {
 						return false;
 					}
 
-					distance[i][j] = dij;
-					distance[j][i] = dji;
+					setDistance(i, j, dij);
+					setDistance(j, i, dji);
 
 				}
-				else distance[i][j] = 0;
+				else setDistance(i, j, 0);
 			}
 		}
 
-		for (int k = 0; k < MAX_USED+1; k++) {
-			if (tPoints[k].isUsed() == true) {
-				for (int i = 0; i < MAX_USED+1; i++) {
-					if (tPoints[i].isUsed() == true) {
-						for (int j = 0; j < MAX_USED+1; j++) { 
-							if (tPoints[j].isUsed() == true) {
-								long temp = sum(distance[i][k],distance[k][j]);
-								if (distance[i][j] > temp)
-									distance[i][j] = temp;
-							}
-							if (i == j && distance[i][j] < 0) return false;
-						}
-					}
-				}
-			}
+		//Tiled F-W over the used TPs, compacted in a flat matrix
+		int n = 0;
+		int[] used = new int[MAX_USED+1];
+		for (int i = 0; i < MAX_USED+1; i++) if (tPoints[i].isUsed()) used[n++] = i;
+		if (flatDistance == null || flatDistance.length < n*n) flatDistance = new long[n*n];
+		long[] d = flatDistance;
+		for (int i = 0; i < n; i++) {
+			long[] row = distance[used[i]];
+			for (int j = 0; j < n; j++) d[i*n+j] = row[used[j]];
 		}
 
-		return true;
+		boolean consistent = BlockedFloydWarshall.closure(d, n, parallelPropagation);
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) setDistance(used[i], used[j], d[i*n+j]);
+		}
+
+		return consistent;
 	} 
 
 	//Gd graph propagation function
 	private boolean incrementalDistanceMatrixComputation(int from,int to,Bounds i) {
-		logger.fine("Propagating (quad) with (#TPs,#cons) = (" + this.MAX_USED + "," + this.theNetwork.getConstraints().length + ") (call num.: " + (++quadPropCount) + ")");
+		if (propagation == PROPAGATION.AFFECTED_PAIRS) return affectedPairsDistanceMatrixComputation(from, to, i);
+		quadPropCount++;
+		MetaCSPLogging.fine(logger, new LogMessage() {
+			@Override
+			public String get() { return "Propagating (quad) with (#TPs,#cons) = (" + MAX_USED + "," + theNetwork.getConstraints().length + ") (call num.: " + quadPropCount + ")"; }
+		});
 
 		if (distance[to][from] != APSPSolver.INF && sum(i.max,distance[to][from]) < 0) return false;
 		if (distance[from][to] != APSPSolver.INF && sum(-i.min,distance[from][to]) < 0) return false;
@@ -778,10 +1172,11 @@ public class APSPSolver extends ConstraintSolver {
 						sum3 = sum(distance[u][from],i.max);
 						sum4 = sum(sum3,distance[to][v]);
 						temp = Math.min(sum2,sum4);
+						touchedCells++;
 												
 						if (distance[u][v] > temp) {
 							//long oldD = distance[u][v];
-							distance[u][v] = temp;
+							setDistance(u, v, temp);
 							if (u == v && distance[u][v] != 0) {
 								//logger.info("==================> Updated distance[" + u + "][" + v + "] from " + oldD + " to " + temp);
 								//throw new Error("Found negative cycle in incremental propagation while adding (from,to,i) (" + from + "," + to + "," + i + ")");
@@ -796,11 +1191,63 @@ public class APSPSolver extends ConstraintSolver {
 	}
 
 
+	//Gd graph propagation function examining only the pairs whose distance can tighten.
+	//The [min,max] constraint is added as the two edges from->to (max) and to->from (-min).
+	private boolean affectedPairsDistanceMatrixComputation(int from,int to,Bounds i) {
+		quadPropCount++;
+		MetaCSPLogging.fine(logger, new LogMessage() {
+			@Override
+			public String get() { return "Propagating (affected pairs) with (#TPs,#cons) = (" + MAX_USED + "," + theNetwork.getConstraints().length + ") (call num.: " + quadPropCount + ")"; }
+		});
+
+		if (distance[to][from] != APSPSolver.INF && sum(i.max,distance[to][from]) < 0) return false;
+		if (distance[from][to] != APSPSolver.INF && sum(-i.min,distance[from][to]) < 0) return false;
+
+		int[] sources = new int[MAX_USED+1];
+		int[] targets = new int[MAX_USED+1];
+		if (!addEdgeToDistanceMatrix(from, to, i.max, sources, targets)) return false;
+		return addEdgeToDistanceMatrix(to, from, -i.min, sources, targets);
+	}
+
+	//Tighten the distance matrix with edge a->b of weight w.  A pair (u,v) can only tighten if
+	//d(u,a)+w < d(u,b) and w+d(b,v) < d(a,v), so only these sources and targets are combined.
+	private boolean addEdgeToDistanceMatrix(int a, int b, long w, int[] sources, int[] targets) {
+		touchedCells++;
+		if (distance[a][b] <= w) return true;
+
+		int numSources = 0;
+		int numTargets = 0;
+		for (int u = 0; u < MAX_USED+1; u++) {
+			if (tPoints[u].isUsed()) {
+				touchedCells += 2;
+				if (sum(distance[u][a],w) < distance[u][b]) sources[numSources++] = u;
+				if (sum(w,distance[b][u]) < distance[a][u]) targets[numTargets++] = u;
+			}
+		}
+
+		//Column a and row b are not modified below (it would imply a negative cycle through a->b)
+		for (int k = 0; k < numSources; k++) {
+			int u = sources[k];
+			long dua = sum(distance[u][a],w);
+			for (int l = 0; l < numTargets; l++) {
+				int v = targets[l];
+				long temp = sum(dua,distance[b][v]);
+				touchedCells++;
+				if (distance[u][v] > temp) {
+					setDistance(u, v, temp);
+					if (u == v && distance[u][v] != 0) return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	//Interface to framework classes 
 
 	//Create many new variables (batch) - i.e., many timepoints.
 	@Override
 	protected Variable[] createVariablesSub(int num) {
+		if (backend == BACKEND.DENSE && getFragmentation() > compactionThreshold) compact();
 		int[] tp = tpCreate(num);
 		Variable[] ret = new Variable[num];
 		for (int i = 0; i < tp.length; i++) {
@@ -845,7 +1292,11 @@ public class APSPSolver extends ConstraintSolver {
 			}
 		}
 
-		logger.finest("Trying to add constraints " + Arrays.toString(con) + "...");
+		MetaCSPLogging.finest(logger, "Trying to add constraints ", con);
+		if (backend == BACKEND.SPARSE) {
+			addingIndependentConstraints = false;
+			return cCreateSparse(tot, from, to);
+		}
 		Vector<Constraint> added = new Vector<Constraint>();
 
 		if (backupDMatrixSimple) saveDMatrix(con);
@@ -864,11 +1315,11 @@ public class APSPSolver extends ConstraintSolver {
 		}
 		
 		if (con.length > MAX_USED) {
-			logger.finest("From scratch prop is more convenient (MAX_USED = " + MAX_USED + " < " + con.length + " = #constraintsToAdd)...");
+			if (logger.isLoggable(Level.FINEST)) logger.finest("From scratch prop is more convenient (MAX_USED = " + MAX_USED + " < " + con.length + " = #constraintsToAdd)...");
 			return cCreate(tot, from, to);
 		}
 		
-		logger.finest("Incremental prop is more convenient (MAX_USED = " + MAX_USED + " >= " + con.length + " = #constraintsToAdd)...");
+		if (logger.isLoggable(Level.FINEST)) logger.finest("Incremental prop is more convenient (MAX_USED = " + MAX_USED + " >= " + con.length + " = #constraintsToAdd)...");
 		ConstraintNetwork cn = new ConstraintNetwork(null);
 		for (int i = 0; i < con.length; i++) {
 			//System.out.println("TOT: " + tot[i] + " FROM: " + printLong(from[i]) + " TO: " + printLong(to[i]));
@@ -876,7 +1327,7 @@ public class APSPSolver extends ConstraintSolver {
 				added.add(con[i]);
 			}
 			else {
-				logger.finest("Failed to add " + con[i]);
+				MetaCSPLogging.finest(logger, "Failed to add ", con[i]);
 				Bounds[] toDeleteBounds = new Bounds[added.size()];
 				int[] toDeleteFrom = new int[added.size()];
 				int[] toDeleteTo = new int[added.size()];
@@ -918,7 +1369,7 @@ public class APSPSolver extends ConstraintSolver {
 	//Remove a constraint (SimpleDistanceConstraint)
 	@Override
 	protected void removeConstraintsSub(Constraint[] con) {
-		logger.finest("Trying to remove constraints " + Arrays.toString(con) + "...");
+		MetaCSPLogging.finest(logger, "Trying to remove constraints ", con);
 		if (con != null && con.length != 0) {
 			Bounds[] tot = new Bounds[con.length];
 			int[] from = new int[con.length];
@@ -947,6 +1398,15 @@ public class APSPSolver extends ConstraintSolver {
 	 */
 	@Override
 	public boolean propagate(){
+		if (backend == BACKEND.SPARSE) {
+			int mark = sparseGraph.mark();
+			if (!sparseGraph.recompute()) {
+				sparseGraph.undo(mark);
+				return false;
+			}
+			sparseGraph.commit(tPoints, O);
+			return true;
+		}
 		return fromScratchDistanceMatrixComputation();
 	}
 
@@ -973,17 +1433,26 @@ public class APSPSolver extends ConstraintSolver {
 	 */
 	public boolean changeHorizon(long val)
 	{
-		this.removeConstraint(horizonConstraint);
+		//The initial horizon constraint is not in the constraint network
+		if (theNetwork.containsConstraint(horizonConstraint)) this.removeConstraint(horizonConstraint);
+		else removeConstraintsSub(new Constraint[] {horizonConstraint});
 		SimpleDistanceConstraint sdc = new SimpleDistanceConstraint();
 		sdc.setFrom(this.getVariable(0));
 		sdc.setTo(this.getVariable(1));
-		sdc.setMinimum(val);
-		sdc.setMaximum(val);
+		sdc.setMinimum(val-O);
+		sdc.setMaximum(val-O);
+		//The implicit edges from the origin and to the horizon must span the new horizon
+		if (backend == BACKEND.SPARSE) sparseGraph.setSpan(val-O);
 		if (this.addConstraint(sdc)) {
 			this.H = val;
 			horizonConstraint = sdc;
+			if (backend == BACKEND.SPARSE) return propagate();
 			return true;
 		}
+		if (backend == BACKEND.SPARSE) {
+			sparseGraph.setSpan(H-O);
+			propagate();
+		}
 		return false;
 	}
 
@@ -1021,6 +1490,7 @@ public class APSPSolver extends ConstraintSolver {
 	 * two {@link TimePoint}s (<code>null</code> if none exists).
 	 */
 	public SimpleDistanceConstraint getConstraint(TimePoint tpFrom, TimePoint tpTo) {
+		if (backend == BACKEND.SPARSE) return tPoints[tpFrom.getID()].getOut(tpTo.getID());
 		if (this.distance[tpFrom.getID()][tpTo.getID()] != INF)
 			return tPoints[tpFrom.getID()].getOut(tpTo.getID());
 		return null;
@@ -1029,19 +1499,161 @@ public class APSPSolver extends ConstraintSolver {
 	/**
 	 * Gets the effective bounds between a pair of {@link TimePoint}s.
 	 * (After propagation, considering all constraints in the network)
+	 * With the {@link BACKEND#SPARSE} backend, these are computed on demand
+	 * (unless one of the two {@link TimePoint}s is the origin).
 	 */
 	public Bounds getDistanceBounds(TimePoint tpFrom, TimePoint tpTo) {
-		final long max = distance[tpFrom.getID()][tpTo.getID()];
-		final long min = -distance[tpTo.getID()][tpFrom.getID()];
+		final long max = getDistance(tpFrom.getID(), tpTo.getID());
+		final long min = -getDistance(tpTo.getID(), tpFrom.getID());
 		return new Bounds(min, max);
 	}
 
+	/**
+	 * Set the incremental propagation mode used when adding constraints (only relevant for the
+	 * {@link BACKEND#DENSE} backend).
+	 * @param propagation The incremental propagation mode.
+	 */
+	public void setPropagation(PROPAGATION propagation) {
+		this.propagation = propagation;
+	}
+
+	/**
+	 * Get the incremental propagation mode used when adding constraints.
+	 * @return The incremental propagation mode used when adding constraints.
+	 */
+	public PROPAGATION getPropagation() {
+		return propagation;
+	}
+
+	/**
+	 * Get the fraction of unused timepoints among those up to the highest used one.  With the {@link BACKEND#DENSE}
+	 * backend, all propagation loops range over these timepoints.
+	 * @return The fraction of unused timepoints among those up to the highest used one.
+	 */
+	public double getFragmentation() {
+		int used = 0;
+		for (int i = 0; i < MAX_USED+1; i++) if (tPoints[i].isUsed()) used++;
+		return 1.0-(double)used/(MAX_USED+1);
+	}
+
+	/**
+	 * Set the fragmentation (see {@link #getFragmentation()}) above which timepoints are compacted (see {@link #compact()})
+	 * before new timepoints are created.  The default is 1.0, that is, timepoints are never compacted automatically.
+	 * @param compactionThreshold The fragmentation above which timepoints are compacted automatically.
+	 */
+	public void setCompactionThreshold(double compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	public double getCompactionThreshold() {
+		return compactionThreshold;
+	}
+
+	/**
+	 * @return The number of times timepoints have been compacted.
+	 */
+	public int getCompactionCount() {
+		return compactionCount;
+	}
+
+	/**
+	 * Renumber the used timepoints of the {@link BACKEND#DENSE} backend so that they occupy the lowest IDs,
+	 * thus reducing the range of all propagation loops.  The {@link TimePoint} objects (and the constraints among them)
+	 * are kept, only their IDs change.  Timepoints are not compacted if there are bookmarks (or checkpoints), as these refer to IDs,
+	 * nor with the {@link BACKEND#SPARSE} backend, whose propagation does not range over unused timepoints.
+	 * Equality and hash codes of {@link TimePoint}s do not depend on their current ID, so they remain valid keys of hash-based
+	 * collections after compaction; their ordering ({@link TimePoint#compareTo(org.metacsp.framework.Variable)}) does
+	 * change, so sorted collections of {@link TimePoint}s held outside this solver must be rebuilt, and IDs obtained
+	 * before compaction must not be used afterwards.
+	 * @return <code>true</code> iff timepoints were compacted.
+	 */
+	public boolean compact() {
+		if (backend == BACKEND.SPARSE || numBookmarks() > 0) return false;
+		if (backupDMatrixSimple) resetDMatrixBackups();
+		int free = 2;
+		int last = MAX_USED;
+		while (true) {
+			while (free < last && tPoints[free].isUsed()) free++;
+			while (last > free && !tPoints[last].isUsed()) last--;
+			if (free >= last) break;
+			moveTimePoint(last, free);
+		}
+		while (MAX_USED > 1 && !tPoints[MAX_USED].isUsed()) MAX_USED--;
+		compactionCount++;
+		if (logger.isLoggable(Level.FINE)) logger.fine("Compacted TPs, MAX_USED = " + MAX_USED);
+		return true;
+	}
+
+	//Move the used TP with ID from to the unused ID to (and the unused TP with ID to to ID from)
+	private void moveTimePoint(int from, int to) {
+		TimePoint tp = tPoints[from];
+		TimePoint unused = tPoints[to];
+
+		//The network is indexed by ID
+		Constraint[] incident = theNetwork.getIncidentEdges(tp);
+		theNetwork.removeVariable(tp);
+		tp.setID(to);
+		unused.setID(from);
+		theNetwork.addVariable(tp);
+		for (Constraint con : incident) theNetwork.addConstraint(con);
+
+		tPoints[to] = tp;
+		tPoints[from] = unused;
+		for (int i = 0; i < MAX_USED+1; i++) {
+			SimpleDistanceConstraint temp = tPoints[i].getOut(from);
+			tPoints[i].setOut(from, tPoints[i].getOut(to));
+			tPoints[i].setOut(to, temp);
+		}
+		long[] row = distance[from];
+		distance[from] = distance[to];
+		distance[to] = row;
+		for (int i = 0; i < MAX_USED+1; i++) {
+			long temp = distance[i][from];
+			distance[i][from] = distance[i][to];
+			distance[i][to] = temp;
+		}
+	}
+
+	/**
+	 * Set whether "from scratch" propagation (e.g., {@link #propagate()}, or adding a batch of constraints
+	 * larger than the number of used timepoints) should process the independent tiles of the (tiled)
+	 * Floyd-Warshall algorithm in parallel.  Results are the same in both cases.
+	 * @param parallelPropagation Whether "from scratch" propagation should be parallel.
+	 */
+	public void setParallelPropagation(boolean parallelPropagation) {
+		this.parallelPropagation = parallelPropagation;
+	}
+
+	/**
+	 * Get the number of distance matrix cells examined by incremental propagation since creation
+	 * (or since the last call to {@link #resetTouchedCells()}).
+	 * @return The number of distance matrix cells examined by incremental propagation.
+	 */
+	public long getTouchedCells() {
+		return touchedCells;
+	}
+
+	/**
+	 * Reset the counter of distance matrix cells examined by incremental propagation.
+	 */
+	public void resetTouchedCells() {
+		touchedCells = 0;
+	}
+
+	//Shortest distance between two TPs, from the matrix or computed on demand (sparse backend)
+	private long getDistance(int from, int to) {
+		if (backend == BACKEND.SPARSE) return sparseGraph.distance(from, to);
+		return distance[from][to];
+	}
+
 	/**
 	 * @return The maximum number of timepoints that can be added to this STP network
-	 * (excluding the Origin (O) and Horizon (H) timepoint).
+	 * (excluding the Origin (O) and Horizon (H) timepoint).  This is {@link Integer#MAX_VALUE} with
+	 * the {@link BACKEND#SPARSE} backend, as the network grows as needed.
 	 * @see APSPSolver#APSPSolver(long, long, int)
 	 */
 	public int getMaxTps() {
+		if (backend == BACKEND.SPARSE) return Integer.MAX_VALUE;
 		//Subtract 2 (O and H) 
 		return this.MAX_TPS - 2;
 	}
@@ -1116,63 +1728,115 @@ public class APSPSolver extends ConstraintSolver {
 		logger = MetaCSPLogging.getLogger(this.getClass());
 	}
 
+	/**
+	 * Bookmark the current state of the temporal network, so that it can be restored later through {@link #revert(int)}.
+	 * With the {@link BACKEND#DENSE} backend, this is O(1): from now on, all changes are logged in a trail (undo log)
+	 * and reverting costs only the number of changes since the bookmark.  With the {@link BACKEND#SPARSE}
+	 * backend, the constraint graph and timepoints are copied.
+	 * @return The index of the new bookmark.
+	 */
 	public int bookmark() {
-		logger.fine("Bookmark #"+this.distanceRollback.size()+" MAX_USED="+this.MAX_USED);
-		
-		long[][] distanceSnapshot = new long[this.distance.length][this.distance[0].length];
-		TimePoint[] tPointSnapshot = new TimePoint[this.tPoints.length];
-
-		for ( int i = 0 ; i < tPoints.length ; i++ ) {
-			TimePoint clone = tPoints[i].clone();
-			tPointSnapshot[i] = clone;
-		}		
-
-
-//		for ( int i = 0 ; i < this.MAX_TPS ; i++ ) {
-//			for ( int j = 0 ; j < this.MAX_TPS ; j++ ) {
-//				distanceSnapshot[i][j] = distance[i][j];
-//			}
-//		}
+		if (logger.isLoggable(Level.FINE)) logger.fine("Bookmark #"+this.numBookmarks()+" MAX_USED="+this.MAX_USED);
 		
-		for ( int i = 0 ; i < this.MAX_USED+1 ; i++ ) {
-			for ( int j = 0 ; j < this.MAX_USED+1 ; j++ ) {
-				distanceSnapshot[i][j] = distance[i][j];
+		if (backend == BACKEND.SPARSE) {
+			//With the sparse backend, only the TPs created so far are kept
+			TimePoint[] tPointSnapshot = new TimePoint[tpCounter];
+			for ( int i = 0 ; i < tPointSnapshot.length ; i++ ) {
+				TimePoint clone = tPoints[i].clone();
+				tPointSnapshot[i] = clone;
 			}
+			sparseGraphRollback.add(sparseGraph.copy());
+			tPointsRollback.add(tPointSnapshot);
+		}
+		else {
+			trailRollback.add(new int[] {distanceTrailSize, trail.size()});
+			trailing = true;
 		}
-
-		distanceRollback.add(distanceSnapshot);
-		tPointsRollback.add(tPointSnapshot);
 		maxUsedRollback.add( new Integer(this.MAX_USED) );
 
-		return distanceRollback.size()-1;
+		return maxUsedRollback.size()-1;
 	}
 
+	/**
+	 * Remove a bookmark (the state of the network is not changed).
+	 * @param i The index of the bookmark to remove.
+	 */
 	public void removeBookmark( int i ) {
-		this.distanceRollback.remove(i);
-		this.tPointsRollback.remove(i);
+		if (backend == BACKEND.SPARSE) {
+			this.sparseGraphRollback.remove(i);
+			this.tPointsRollback.remove(i);
+		}
+		else this.trailRollback.remove(i);
 		this.maxUsedRollback.remove(i);
+		if (this.maxUsedRollback.isEmpty()) clearTrail();
 	}
 
+	//No more bookmarks, changes need not be logged anymore
+	private void clearTrail() {
+		trailing = false;
+		distanceTrailSize = 0;
+		trail.clear();
+	}
+
+	/**
+	 * Restore the state of the temporal network at the given bookmark, removing this and all later bookmarks.
+	 * With the {@link BACKEND#DENSE} backend, {@link TimePoint}s and constraints are restored in place.
+	 * @param i The index of the bookmark to restore.
+	 */
 	public void revert( int i ) {		
-		this.distance = this.distanceRollback.get(i);	
-		this.tPoints = this.tPointsRollback.get(i);
+		if (backend == BACKEND.SPARSE) {
+			this.sparseGraph = this.sparseGraphRollback.get(i);
+			//TPs created after the bookmark are dropped
+			TimePoint[] tPointsBookmarked = this.tPointsRollback.get(i);
+			Arrays.fill(this.tPoints, null);
+			for (int j = 0; j < tPointsBookmarked.length; j++) this.tPoints[j] = tPointsBookmarked[j];
+			this.tpCounter = tPointsBookmarked.length;
+			this.freeTPs.clear();
+			for (int j = 2; j < tpCounter; j++) if (!tPoints[j].isUsed()) this.freeTPs.add(j);
+		}
+		else {
+			int[] trailPos = this.trailRollback.get(i);
+			undoTrail(trailPos[0], trailPos[1]);
+		}
 		this.MAX_USED = this.maxUsedRollback.get(i).intValue();
 
-		for ( int j = this.distanceRollback.size()-1 ; j >= i ; j-- ) {
-			this.distanceRollback.remove(j);
-			this.tPointsRollback.remove(j);
+		for ( int j = this.maxUsedRollback.size()-1 ; j >= i ; j-- ) {
+			if (backend == BACKEND.SPARSE) {
+				this.sparseGraphRollback.remove(j);
+				this.tPointsRollback.remove(j);
+			}
+			else this.trailRollback.remove(j);
 			this.maxUsedRollback.remove(j);
 		}
-		logger.fine("Reverting to #"+this.distanceRollback.size()+" MAX_USED="+this.MAX_USED);
+		if (this.maxUsedRollback.isEmpty()) clearTrail();
+		if (logger.isLoggable(Level.FINE)) logger.fine("Reverting to #"+this.numBookmarks()+" MAX_USED="+this.MAX_USED);
 	}
 
 	public int numBookmarks() {
-		return this.distanceRollback.size();
+		return this.maxUsedRollback.size();
+	}
+
+	//Checkpoints of the dense backend are bookmarks (O(1), restored through the trail),
+	//the sparse backend retracts constraints instead
+	@Override
+	protected int checkpointSub() {
+		if (backend == BACKEND.SPARSE) return -1;
+		return bookmark();
+	}
+
+	@Override
+	protected void rollbackSub(int token) {
+		revert(token);
+	}
+
+	@Override
+	protected void removeCheckpointSub(int token) {
+		for (int j = this.numBookmarks()-1; j >= token; j--) removeBookmark(j);
 	}
 
 	public TimePoint getEqualTimePoint( TimePoint queryTp ) {
 		for ( TimePoint tp : this.tPoints ) {
-			if ( tp.equals(queryTp) ) {
+			if ( tp != null && tp.equals(queryTp) ) {
 				return tp;
 			}
 		}
@@ -1183,32 +1847,49 @@ public class APSPSolver extends ConstraintSolver {
 		String s = "";
 		for ( int i = 0 ; i < this.MAX_USED+1; i++ ) {
 			for ( int j = 0 ; j < this.MAX_USED+1; j ++ ) {
-				s +=  printLong(distance[i][j]) + " ";
+				s +=  printLong(getDistance(i,j)) + " ";
 			}
 			s += "\n";
 		}
 		return s;
 	}
 
-	private static long sum(long a, long b) {
+	static long sum(long a, long b) {
 		if (a == APSPSolver.INF || b == APSPSolver.INF) return APSPSolver.INF;
 		if (a == -APSPSolver.INF || b == -APSPSolver.INF) return -APSPSolver.INF;
 		return a+b;
 	}
 
 	public String printDistHist() {
+		if (backend == BACKEND.SPARSE) return "";
+		//Rebuild the distance matrix at each bookmark by undoing the trail on a copy
+		int size = this.MAX_USED+1;
+		for ( Integer maxUsed : this.maxUsedRollback ) size = Math.max(size, maxUsed+1);
+		long[][] dist = new long[size][];
+		for ( int i = 0 ; i < size ; i++ ) dist[i] = Arrays.copyOf(this.distance[i], size);
+		String[] hist = new String[this.trailRollback.size()];
+		int pos = this.distanceTrailSize;
+		for ( int ci = hist.length-1 ; ci >= 0 ; ci-- ) {
+			for ( ; pos > this.trailRollback.get(ci)[0] ; pos-- ) {
+				int cell = this.distanceTrailCell[pos-1];
+				int i = cell/MAX_TPS, j = cell%MAX_TPS;
+				if (i < size && j < size) dist[i][j] = this.distanceTrailValue[pos-1];
+			}
+			int maxUsed = this.maxUsedRollback.get(ci);
+			hist[ci] = "";
+			for ( int i = 0 ; i < maxUsed+1 ; i++ ) {
+				for ( int j = 0 ; j < maxUsed+1 ; j ++ ) {
+					hist[ci] +=  printLong(dist[i][j]) + " ";
+				}
+				hist[ci] += "\n";
+			}
+		}
 		String s = "";
-		int ci = 0;
-		for ( long[][] distance : this.distanceRollback ) {
+		for ( int ci = 0 ; ci < hist.length ; ci++ ) {
 			s += "=============================\n";
-			s += "= " + (ci++) + "\n";
+			s += "= " + ci + "\n";
 			s += "=============================\n";
-			for ( int i = 0 ; i < this.MAX_USED+1 ; i++ ) {
-				for ( int j = 0 ; j < this.MAX_USED+1 ; j ++ ) {
-					s +=  printLong(distance[i][j]) + " ";
-				}
-				s += "\n";
-			}
+			s += hist[ci];
 		}
 		return s;
 	}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2013 Federico Pecora <federico.pecora@oru.se>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package org.metacsp.time;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tiled (blocked) Floyd-Warshall closure of a distance matrix stored as a flat, row-major
+ * <code>long[n*n]</code>, used by the {@link APSPSolver} for "from scratch" propagation.
+ * For each diagonal tile, the tile itself is closed first, then the tiles in its row and column,
+ * then all remaining tiles.  The tiles of the last two phases are independent of each other,
+ * and are processed in parallel (fork-join) if requested.
+ *
+ * The resulting distances are the shortest path distances, hence identical to those of the
+ * plain triple loop.  If there is a negative cycle, the closure stops after the first diagonal tile
+ * through which one is found, and the matrix is left partially updated.
+ *
+ * @author Federico Pecora
+ */
+final class BlockedFloydWarshall {
+
+	//Tile side (a 64x64 tile of longs is 32KB)
+	static final int BLOCK = 64;
+
+	private static ForkJoinPool pool = null;
+
+	private BlockedFloydWarshall() { }
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * Compute the shortest path distances between all pairs of nodes in place.
+	 * @param d The distance matrix (row-major, <code>d[i*n+j]</code> is the distance from i to j).
+	 * @param n The number of nodes.
+	 * @param parallel Whether independent tiles should be processed in parallel.
+	 * @return <code>false</code> iff there is a negative cycle.
+	 */
+	static boolean closure(long[] d, int n, boolean parallel) {
+		int numBlocks = (n+BLOCK-1)/BLOCK;
+		parallel = parallel && numBlocks > 1;
+		for (int kb = 0; kb < numBlocks; kb++) {
+			int k0 = kb*BLOCK;
+			int k1 = Math.min(n, k0+BLOCK);
+
+			//Phase 1: diagonal tile
+			update(d, n, k0, k1, k0, k1, k0, k1);
+
+			//Phase 2: tiles in the row and column of the diagonal tile
+			if (parallel) {
+				ArrayList<TileTask> tasks = new ArrayList<TileTask>();
+				for (int b = 0; b < numBlocks; b++) {
+					if (b == kb) continue;
+					tasks.add(new TileTask(d, n, kb, b, k0, k1, false));
+					tasks.add(new TileTask(d, n, b, kb, k0, k1, false));
+				}
+				getPool().invoke(new TileTasks(tasks));
+			}
+			else {
+				for (int b = 0; b < numBlocks; b++) {
+					if (b == kb) continue;
+					int b0 = b*BLOCK;
+					int b1 = Math.min(n, b0+BLOCK);
+					update(d, n, k0, k1, b0, b1, k0, k1);
+					update(d, n, b0, b1, k0, k1, k0, k1);
+				}
+			}
+
+			//Phase 3: all other tiles (one task per row of tiles)
+			if (parallel) {
+				ArrayList<TileTask> tasks = new ArrayList<TileTask>();
+				for (int ib = 0; ib < numBlocks; ib++) {
+					if (ib != kb) tasks.add(new TileTask(d, n, ib, kb, k0, k1, true));
+				}
+				getPool().invoke(new TileTasks(tasks));
+			}
+			else {
+				for (int ib = 0; ib < numBlocks; ib++) {
+					if (ib != kb) updateRow(d, n, ib, kb, k0, k1);
+				}
+			}
+
+			//A negative cycle through the nodes so far cannot go away, so there is no need to go on
+			for (int i = 0; i < n; i++) if (d[i*n+i] < 0) return false;
+		}
+		return true;
+	}
+
+	//Update all tiles in row of tiles ib (except the column of tiles kb) through nodes k0..k1-1
+	private static void updateRow(long[] d, int n, int ib, int kb, int k0, int k1) {
+		int i0 = ib*BLOCK;
+		int i1 = Math.min(n, i0+BLOCK);
+		for (int j0 = 0; j0 < n; j0 += BLOCK) {
+			if (j0 == kb*BLOCK) continue;
+			update(d, n, i0, i1, j0, Math.min(n, j0+BLOCK), k0, k1);
+		}
+	}
+
+	//Update tile [i0,i1)x[j0,j1) through nodes k0..k1-1
+	private static void update(long[] d, int n, int i0, int i1, int j0, int j1, int k0, int k1) {
+		for (int k = k0; k < k1; k++) {
+			int kRow = k*n;
+			for (int i = i0; i < i1; i++) {
+				int iRow = i*n;
+				long dik = d[iRow+k];
+				for (int j = j0; j < j1; j++) {
+					long temp = APSPSolver.sum(dik, d[kRow+j]);
+					if (d[iRow+j] > temp) d[iRow+j] = temp;
+				}
+			}
+		}
+	}
+
+	//A tile (or a row of tiles) to update
+	private static final class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 5263840196418326177L;
+		private final long[] d;
+		private final int n, ib, jb, k0, k1;
+		private final boolean row;
+
+		private TileTask(long[] d, int n, int ib, int jb, int k0, int k1, boolean row) {
+			this.d = d;
+			this.n = n;
+			this.ib = ib;
+			this.jb = jb;
+			this.k0 = k0;
+			this.k1 = k1;
+			this.row = row;
+		}
+
+		@Override
+		protected void compute() {
+			if (row) updateRow(d, n, ib, jb, k0, k1);
+			else {
+				int i0 = ib*BLOCK;
+				int j0 = jb*BLOCK;
+				update(d, n, i0, Math.min(n, i0+BLOCK), j0, Math.min(n, j0+BLOCK), k0, k1);
+			}
+		}
+	}
+
+	//Fork all tasks and wait for them
+	private static final class TileTasks extends RecursiveAction {
+		private static final long serialVersionUID = -4387012286137504427L;
+		private final ArrayList<TileTask> tasks;
+
+		private TileTasks(ArrayList<TileTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
+
+}
@@ -147,6 +147,17 @@ public class SimpleDistanceConstraint extends BinaryConstraint {
 		return true;
 	}
 
+	//Get the imposed intervals (used by the trail of the APSPSolver)
+	Bounds[] getIntervals() {
+		return bs.toArray(new Bounds[bs.size()]);
+	}
+
+	//Set the imposed intervals (used by the trail of the APSPSolver)
+	void setIntervals(Bounds[] intervals) {
+		bs.clear();
+		for (Bounds b : intervals) bs.add(b);
+	}
+
 	/**
 	 * Remove an [lb,ub] interval between the two {@link TimePoint}s of this constraint.
 	 * @param i The interval to remove.
@@ -155,7 +166,7 @@ public class SimpleDistanceConstraint extends BinaryConstraint {
 	 */
 	public boolean removeInterval(Bounds i) {	
 		if(bs.remove(i)) {
-			Bounds intersection = new Bounds(0, APSPSolver.INF);
+			Bounds intersection = new Bounds(-APSPSolver.INF, APSPSolver.INF);
 			
 			for(Bounds toIntersect : bs) {
 				//intersection = intervalIntersect(intersection, toIntersect);//intervalIntersect(intersection, inter);
@@ -0,0 +1,554 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2013 Federico Pecora <federico.pecora@oru.se>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package org.metacsp.time;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Sparse distance graph of a Simple Temporal Network, used by the {@link APSPSolver} when it is
+ * created with the {@link APSPSolver.BACKEND#SPARSE} backend.  Only the explicit edges of the network
+ * are stored (as adjacency lists), together with the shortest distances from and to the origin, which
+ * give the bounds of all timepoints.  These are maintained incrementally (with negative cycle detection)
+ * as edges are tightened.  The shortest distance between any other pair of timepoints is computed on demand
+ * with Dijkstra's algorithm, using the distances from the origin as potentials.
+ *
+ * The edges between the origin (timepoint 0), the horizon (timepoint 1) and all other timepoints
+ * are implicit, and all storage grows with the number of timepoints that are actually used.
+ *
+ * @author Federico Pecora
+ */
+final class SparseDistanceGraph implements Serializable {
+
+	private static final long serialVersionUID = -3311924829542196614L;
+
+	private static final int SOURCE = 0;
+	private static final int SINK = 1;
+	private static final long INF = APSPSolver.INF;
+
+	//Weight of the implicit edges origin -> tp and tp -> horizon
+	private long span;
+
+	private int capacity;
+	private int numUsed = 0;
+	private boolean[] used;
+
+	//Shortest distances d(0,i) and d(i,0)
+	private long[] dFrom;
+	private long[] dTo;
+
+	//Adjacency: nbr[i][k] is the k-th neighbor of i, wOut[i][k] is the weight
+	//of edge i -> nbr[i][k] and wIn[i][k] the weight of edge nbr[i][k] -> i
+	private int[][] nbr;
+	private long[][] wOut;
+	private long[][] wIn;
+	private int[] deg;
+
+	//Undo log of distance changes (entry 2*i is d(0,i), entry 2*i+1 is d(i,0))
+	private int[] logEntry = new int[64];
+	private long[] logValue = new long[64];
+	private int logSize = 0;
+
+	//Work structures (not worth serializing)
+	private transient int[] queue;
+	private transient boolean[] inQueue;
+	private transient int[] enqueued;
+	private transient int qHead, qSize;
+	private transient long[] key;
+	private transient int[] seen;
+	private transient int[] heap;
+	private transient int[] heapPos;
+	private transient int heapSize, curStamp;
+
+	/**
+	 * Create a new sparse distance graph.
+	 * @param initialCapacity The initial number of timepoints (including origin and horizon).
+	 * @param span The distance between origin and horizon.
+	 */
+	SparseDistanceGraph(int initialCapacity, long span) {
+		this.span = span;
+		this.capacity = Math.max(initialCapacity, 2);
+		used = new boolean[capacity];
+		dFrom = new long[capacity];
+		dTo = new long[capacity];
+		nbr = new int[capacity][];
+		wOut = new long[capacity][];
+		wIn = new long[capacity][];
+		deg = new int[capacity];
+		used[SOURCE] = true;
+		used[SINK] = true;
+		numUsed = 2;
+		dFrom[SINK] = span;
+		dTo[SINK] = -span;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= capacity) return;
+		int newCapacity = Math.max(n, capacity*2);
+		used = Arrays.copyOf(used, newCapacity);
+		dFrom = Arrays.copyOf(dFrom, newCapacity);
+		dTo = Arrays.copyOf(dTo, newCapacity);
+		nbr = Arrays.copyOf(nbr, newCapacity);
+		wOut = Arrays.copyOf(wOut, newCapacity);
+		wIn = Arrays.copyOf(wIn, newCapacity);
+		deg = Arrays.copyOf(deg, newCapacity);
+		capacity = newCapacity;
+	}
+
+	private void ensureWorkspace() {
+		if (queue != null && queue.length >= capacity) return;
+		queue = new int[capacity];
+		inQueue = new boolean[capacity];
+		enqueued = new int[capacity];
+		key = new long[capacity];
+		seen = new int[capacity];
+		heap = new int[capacity];
+		heapPos = new int[capacity];
+		curStamp = 0;
+	}
+
+	/**
+	 * Add a timepoint with the given index (the graph grows if needed).  The new timepoint is only
+	 * constrained by the implicit edges from the origin and to the horizon.
+	 * @param i The index of the timepoint.
+	 */
+	void addTimePoint(int i) {
+		ensureCapacity(i+1);
+		if (!used[i]) numUsed++;
+		used[i] = true;
+		deg[i] = 0;
+		dFrom[i] = Math.min(span, dFrom[SINK]);
+		dTo[i] = Math.min(0, span + dTo[SINK]);
+	}
+
+	/**
+	 * Remove a timepoint and all edges incident to it.
+	 * @param i The index of the timepoint to remove.
+	 */
+	void removeTimePoint(int i) {
+		if (!used[i]) return;
+		while (deg[i] > 0) setEdge(i, nbr[i][0], INF, INF);
+		used[i] = false;
+		numUsed--;
+	}
+
+	/**
+	 * Set the weights of the edges between two timepoints ({@link APSPSolver#INF} means no edge).
+	 * Note that this does not propagate, see {@link #propagate(int, int)} and {@link #recompute()}.
+	 * @param i The first timepoint.
+	 * @param j The second timepoint.
+	 * @param wij The weight of edge i -> j.
+	 * @param wji The weight of edge j -> i.
+	 */
+	void setEdge(int i, int j, long wij, long wji) {
+		int ki = indexOf(i, j);
+		int kj = indexOf(j, i);
+		if (wij == INF && wji == INF) {
+			if (ki >= 0) removeEntry(i, ki);
+			if (kj >= 0) removeEntry(j, kj);
+			return;
+		}
+		if (ki < 0) ki = addEntry(i, j);
+		if (kj < 0) kj = addEntry(j, i);
+		wOut[i][ki] = wij;
+		wIn[i][ki] = wji;
+		wOut[j][kj] = wji;
+		wIn[j][kj] = wij;
+	}
+
+	/**
+	 * Remove all (explicit) edges.  Note that this does not propagate, see {@link #recompute()}.
+	 */
+	void clearEdges() {
+		Arrays.fill(deg, 0);
+	}
+
+	/**
+	 * Set the distance between origin and horizon, i.e., the weight of the implicit edges from the origin
+	 * to all timepoints.  Note that this does not propagate, see {@link #recompute()}.
+	 * @param span The distance between origin and horizon.
+	 */
+	void setSpan(long span) {
+		this.span = span;
+	}
+
+	private int indexOf(int i, int j) {
+		for (int k = 0; k < deg[i]; k++) if (nbr[i][k] == j) return k;
+		return -1;
+	}
+
+	private int addEntry(int i, int j) {
+		if (nbr[i] == null) {
+			nbr[i] = new int[4];
+			wOut[i] = new long[4];
+			wIn[i] = new long[4];
+		}
+		else if (deg[i] == nbr[i].length) {
+			nbr[i] = Arrays.copyOf(nbr[i], deg[i]*2);
+			wOut[i] = Arrays.copyOf(wOut[i], deg[i]*2);
+			wIn[i] = Arrays.copyOf(wIn[i], deg[i]*2);
+		}
+		nbr[i][deg[i]] = j;
+		return deg[i]++;
+	}
+
+	private void removeEntry(int i, int k) {
+		int last = --deg[i];
+		nbr[i][k] = nbr[i][last];
+		wOut[i][k] = wOut[i][last];
+		wIn[i][k] = wIn[i][last];
+	}
+
+	/**
+	 * Get the shortest distance from the origin to a timepoint.
+	 * @param i The timepoint.
+	 * @return The shortest distance from the origin to the given timepoint.
+	 */
+	long getDistanceFromOrigin(int i) {
+		return dFrom[i];
+	}
+
+	/**
+	 * Get the shortest distance from a timepoint to the origin.
+	 * @param i The timepoint.
+	 * @return The shortest distance from the given timepoint to the origin.
+	 */
+	long getDistanceToOrigin(int i) {
+		return dTo[i];
+	}
+
+	/**
+	 * Get the number of timepoints in this graph (including origin and horizon).
+	 * @return The number of timepoints in this graph.
+	 */
+	int getNumTimePoints() {
+		return numUsed;
+	}
+
+	/**
+	 * Get the number of (undirected) edges incident to a timepoint, not counting the implicit edges.
+	 * @param i The timepoint.
+	 * @return The number of edges incident to the given timepoint.
+	 */
+	int getDegree(int i) {
+		return deg[i];
+	}
+
+	//Logged write access to the distances from/to the origin
+
+	private void setFrom(int i, long val) {
+		log(2*i, dFrom[i]);
+		dFrom[i] = val;
+	}
+
+	private void setTo(int i, long val) {
+		log(2*i+1, dTo[i]);
+		dTo[i] = val;
+	}
+
+	private void log(int entry, long oldVal) {
+		if (logSize == logEntry.length) {
+			logEntry = Arrays.copyOf(logEntry, logSize*2);
+			logValue = Arrays.copyOf(logValue, logSize*2);
+		}
+		logEntry[logSize] = entry;
+		logValue[logSize++] = oldVal;
+	}
+
+	/**
+	 * Get a marker of the current state of the undo log (see {@link #undo(int)}).
+	 * @return A marker of the current state of the undo log.
+	 */
+	int mark() {
+		return logSize;
+	}
+
+	/**
+	 * Restore all distances changed since the given marker was obtained.
+	 * @param mark A marker obtained through {@link #mark()}.
+	 */
+	void undo(int mark) {
+		while (logSize > mark) {
+			logSize--;
+			int entry = logEntry[logSize];
+			if (entry % 2 == 0) dFrom[entry/2] = logValue[logSize];
+			else dTo[entry/2] = logValue[logSize];
+		}
+	}
+
+	/**
+	 * Accept all changes in the undo log, updating the bounds of all affected {@link TimePoint}s.
+	 * @param tPoints The {@link TimePoint}s of the network.
+	 * @param origin The origin of time.
+	 */
+	void commit(TimePoint[] tPoints, long origin) {
+		for (int l = 0; l < logSize; l++) {
+			int i = logEntry[l]/2;
+			if (used[i]) {
+				tPoints[i].setLowerBound(origin-dTo[i]);
+				tPoints[i].setUpperBound(origin+dFrom[i]);
+			}
+		}
+		logSize = 0;
+	}
+
+	/**
+	 * Incrementally propagate the (tightened) edges between two timepoints.  If this leads to
+	 * an inconsistency, distances are left as they are and should be restored through {@link #undo(int)}.
+	 * @param i The first timepoint.
+	 * @param j The second timepoint.
+	 * @return <code>true</code> iff the network is consistent.
+	 */
+	boolean propagate(int i, int j) {
+		int k = indexOf(i, j);
+		if (k < 0) return true;
+		long wij = wOut[i][k];
+		long wji = wIn[i][k];
+		return propagateEdge(i, j, wij) && propagateEdge(j, i, wji);
+	}
+
+	//A negative cycle exists iff propagation of the new edge u -> v improves
+	//the distance of u (forward) or v (backward)
+	private boolean propagateEdge(int u, int v, long w) {
+		if (w == INF) return true;
+		ensureWorkspace();
+		if (dFrom[u] != INF && dFrom[u] + w < dFrom[v]) {
+			if (!relaxFrom(v, dFrom[u] + w, u, -1) || !spreadFrom(u, -1)) return clearQueue();
+		}
+		if (dTo[v] != INF && w + dTo[v] < dTo[u]) {
+			if (!relaxTo(u, w + dTo[v], v, -1) || !spreadTo(v, -1)) return clearQueue();
+		}
+		return true;
+	}
+
+	/**
+	 * Recompute all distances from and to the origin (e.g., after edges have been loosened or removed).
+	 * If this leads to an inconsistency, distances should be restored through {@link #undo(int)}.
+	 * @return <code>true</code> iff the network is consistent.
+	 */
+	boolean recompute() {
+		ensureWorkspace();
+		int maxEnqueued = numUsed+1;
+		for (int i = 0; i < capacity; i++) {
+			if (!used[i]) continue;
+			long initFrom = (i == SOURCE ? 0 : (i == SINK ? INF : span));
+			long initTo = (i == SINK ? INF : 0);
+			if (dFrom[i] != initFrom) setFrom(i, initFrom);
+			if (dTo[i] != initTo) setTo(i, initTo);
+			enqueued[i] = 0;
+		}
+		enqueue(SOURCE);
+		for (int i = 2; i < capacity; i++) if (used[i]) enqueue(i);
+		if (!spreadFrom(-1, maxEnqueued)) return clearQueue();
+		for (int i = 0; i < capacity; i++) enqueued[i] = 0;
+		enqueue(SOURCE);
+		for (int i = 2; i < capacity; i++) if (used[i]) enqueue(i);
+		if (!spreadTo(-1, maxEnqueued)) return clearQueue();
+		return true;
+	}
+
+	private boolean clearQueue() {
+		while (qSize > 0) poll();
+		return false;
+	}
+
+	private void enqueue(int i) {
+		if (inQueue[i]) return;
+		inQueue[i] = true;
+		enqueued[i]++;
+		queue[(qHead+qSize)%queue.length] = i;
+		qSize++;
+	}
+
+	private int poll() {
+		int ret = queue[qHead];
+		qHead = (qHead+1)%queue.length;
+		qSize--;
+		inQueue[ret] = false;
+		return ret;
+	}
+
+	private boolean relaxFrom(int y, long cand, int guard, int maxEnqueued) {
+		if (cand >= dFrom[y]) return true;
+		if (y == guard || y == SOURCE) return false;
+		setFrom(y, cand);
+		enqueue(y);
+		return (maxEnqueued < 0 || enqueued[y] <= maxEnqueued);
+	}
+
+	private boolean relaxTo(int y, long cand, int guard, int maxEnqueued) {
+		if (cand >= dTo[y]) return true;
+		if (y == guard || y == SOURCE) return false;
+		setTo(y, cand);
+		enqueue(y);
+		return (maxEnqueued < 0 || enqueued[y] <= maxEnqueued);
+	}
+
+	private boolean spreadFrom(int guard, int maxEnqueued) {
+		while (qSize > 0) {
+			int x = poll();
+			long dx = dFrom[x];
+			if (dx == INF) continue;
+			for (int k = 0; k < deg[x]; k++) {
+				if (wOut[x][k] != INF && !relaxFrom(nbr[x][k], dx + wOut[x][k], guard, maxEnqueued)) return false;
+			}
+			if (x == SOURCE || x == SINK) {
+				long w = (x == SOURCE ? span : 0);
+				for (int i = 2; i < capacity; i++) {
+					if (used[i] && !relaxFrom(i, dx + w, guard, maxEnqueued)) return false;
+				}
+			}
+			else {
+				if (!relaxFrom(SOURCE, dx, guard, maxEnqueued)) return false;
+				if (!relaxFrom(SINK, dx + span, guard, maxEnqueued)) return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean spreadTo(int guard, int maxEnqueued) {
+		while (qSize > 0) {
+			int x = poll();
+			long dx = dTo[x];
+			if (dx == INF) continue;
+			for (int k = 0; k < deg[x]; k++) {
+				if (wIn[x][k] != INF && !relaxTo(nbr[x][k], wIn[x][k] + dx, guard, maxEnqueued)) return false;
+			}
+			if (x == SOURCE || x == SINK) {
+				long w = (x == SOURCE ? 0 : span);
+				for (int i = 2; i < capacity; i++) {
+					if (used[i] && !relaxTo(i, w + dx, guard, maxEnqueued)) return false;
+				}
+			}
+			else {
+				if (!relaxTo(SOURCE, span + dx, guard, maxEnqueued)) return false;
+				if (!relaxTo(SINK, dx, guard, maxEnqueued)) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the shortest distance between two timepoints.  This is computed on demand with Dijkstra's algorithm
+	 * on the reduced weights given by the distances from the origin (and stops as soon as the destination is reached).
+	 * @param a The source timepoint.
+	 * @param b The destination timepoint.
+	 * @return The shortest distance from a to b.
+	 */
+	long distance(int a, int b) {
+		if (a == b) return 0;
+		if (a == SOURCE) return dFrom[b];
+		if (b == SOURCE) return dTo[a];
+		ensureWorkspace();
+		if (++curStamp == Integer.MAX_VALUE) {
+			Arrays.fill(seen, 0);
+			curStamp = 1;
+		}
+		heapSize = 0;
+		decreaseKey(a, 0);
+		while (heapSize > 0) {
+			int x = popMin();
+			long kx = key[x];
+			if (x == b) return kx - dFrom[a] + dFrom[b];
+			for (int k = 0; k < deg[x]; k++) {
+				if (wOut[x][k] != INF) reach(x, nbr[x][k], kx, wOut[x][k]);
+			}
+			if (x == SOURCE || x == SINK) {
+				long w = (x == SOURCE ? span : 0);
+				for (int i = 2; i < capacity; i++) if (used[i]) reach(x, i, kx, w);
+			}
+			else {
+				reach(x, SOURCE, kx, 0);
+				reach(x, SINK, kx, span);
+			}
+		}
+		return INF;
+	}
+
+	private void reach(int x, int y, long kx, long w) {
+		if (seen[y] == curStamp && heapPos[y] < 0) return;
+		decreaseKey(y, kx + w + dFrom[x] - dFrom[y]);
+	}
+
+	private void decreaseKey(int y, long k) {
+		int pos;
+		if (seen[y] != curStamp) {
+			seen[y] = curStamp;
+			pos = heapSize++;
+		}
+		else if (k < key[y]) pos = heapPos[y];
+		else return;
+		key[y] = k;
+		while (pos > 0) {
+			int parent = (pos-1)/2;
+			if (key[heap[parent]] <= k) break;
+			heap[pos] = heap[parent];
+			heapPos[heap[pos]] = pos;
+			pos = parent;
+		}
+		heap[pos] = y;
+		heapPos[y] = pos;
+	}
+
+	private int popMin() {
+		int ret = heap[0];
+		heapPos[ret] = -1;
+		int last = heap[--heapSize];
+		if (heapSize == 0) return ret;
+		int pos = 0;
+		while (true) {
+			int child = 2*pos+1;
+			if (child >= heapSize) break;
+			if (child+1 < heapSize && key[heap[child+1]] < key[heap[child]]) child++;
+			if (key[heap[child]] >= key[last]) break;
+			heap[pos] = heap[child];
+			heapPos[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = last;
+		heapPos[last] = pos;
+		return ret;
+	}
+
+	/**
+	 * Get a deep copy of this graph (used for bookmarks).
+	 * @return A deep copy of this graph.
+	 */
+	SparseDistanceGraph copy() {
+		SparseDistanceGraph ret = new SparseDistanceGraph(capacity, span);
+		ret.numUsed = numUsed;
+		ret.used = Arrays.copyOf(used, capacity);
+		ret.dFrom = Arrays.copyOf(dFrom, capacity);
+		ret.dTo = Arrays.copyOf(dTo, capacity);
+		ret.deg = Arrays.copyOf(deg, capacity);
+		for (int i = 0; i < capacity; i++) {
+			if (nbr[i] != null) {
+				ret.nbr[i] = Arrays.copyOf(nbr[i], nbr[i].length);
+				ret.wOut[i] = Arrays.copyOf(wOut[i], wOut[i].length);
+				ret.wIn[i] = Arrays.copyOf(wIn[i], wIn[i].length);
+			}
+		}
+		return ret;
+	}
+
+}
@@ -23,6 +23,7 @@
 package org.metacsp.time;
 
 import java.util.Arrays;
+import java.util.HashMap;
 
 import org.metacsp.framework.Domain;
 import org.metacsp.framework.Variable;
@@ -42,11 +43,16 @@ public final class TimePoint extends Variable {
 
 	//out edges
 	private SimpleDistanceConstraint[] out;
+	//out edges for the sparse backend of the APSPSolver (indexed by ID of destination)
+	private HashMap<Integer,SimpleDistanceConstraint> sparseOut = null;
 	//private int MAX_TPS;
 
 	//whether this TP is used or can be overwritten
 	private boolean used = false;
 
+	//identity of this TP for equals() and hashCode(), i.e., the ID it was created with (IDs can change, see APSPSolver.compact())
+	private int key;
+
 	//Bounds
 	private long lowerBound;
 	private long upperBound;
@@ -66,10 +72,24 @@ public final class TimePoint extends Variable {
 	public TimePoint(int id, int MAX_TPS, APSPSolver sol) {
 		//must invoke 2-arg superconstructor, lest compilation error
 		super(sol,id);
+		this.key = id;
 		//this.MAX_TPS = MAX_TPS;
 		out = new SimpleDistanceConstraint[MAX_TPS];
 	}
 
+	/**
+	 * Instantiate a new {@link TimePoint} with a given identifier whose outgoing edges are stored sparsely.
+	 * This constructor should NOT be used, it is used within the {@link APSPSolver} when the
+	 * {@link APSPSolver.BACKEND#SPARSE} backend is selected.
+	 * @param id  The identifier of this time point.
+	 * @param sol the {@link APSPSolver} managing this {@link TimePoint}.
+	 */
+	public TimePoint(int id, APSPSolver sol) {
+		super(sol,id);
+		this.key = id;
+		sparseOut = new HashMap<Integer,SimpleDistanceConstraint>(4);
+	}
+
 	//	public TimePoint(int id, int MAX_TPS, APSPSolverIncrementelPPC sol) {
 	//		//must invoke 2-arg superconstructor, lest compilation error
 	//		super(sol,id);
@@ -97,12 +117,14 @@ public final class TimePoint extends Variable {
 	//	Utility methods
 
 	/**
-	 * Compare this time point with a reference time point.
-	 * @return True iff the two time points have the same identifier.
+	 * Compare this time point with a reference time point.  Time points are compared by the identifier they were created with,
+	 * so that equality (and {@link #hashCode()}) does not change when the {@link APSPSolver} renumbers its time points
+	 * (see {@link APSPSolver#compact()}).
+	 * @return True iff the two time points were created with the same identifier (or one is a clone of the other).
 	 */
 	public boolean equals (Object obj)
 	{return (obj instanceof TimePoint)&&
-			(((TimePoint) obj).id == id); 
+			(((TimePoint) obj).key == key); 
 	//&&
 	//(((TimePoint) obj).lowerBound == lowerBound) &&
 	//(((TimePoint) obj).out.equals(out));
@@ -110,6 +132,11 @@ public final class TimePoint extends Variable {
 	}
 
 
+	@Override
+	public int hashCode() {
+		return key;
+	}
+
 	//	Print methods
 
 	/**
@@ -135,6 +162,12 @@ public final class TimePoint extends Variable {
     } */
 
 	//	Access methods
+
+	//IDs are changed only when the APSPSolver compacts its timepoints
+	void setID(int id) {
+		this.id = id;
+	}
+
 	/**
 	 * Get this time point's lower bound.
 	 * @return This time point's lower bound.
@@ -182,7 +215,8 @@ public final class TimePoint extends Variable {
 	public void setUsed(boolean newVal){
 
 		if(isUsed() && newVal == false) {
-			Arrays.fill(out, null);
+			if (sparseOut != null) sparseOut.clear();
+			else Arrays.fill(out, null);
 		}
 
 		used = newVal;
@@ -194,20 +228,50 @@ public final class TimePoint extends Variable {
 	 * @return The {@link SimpleDistanceConstraint} correspionding to the i-th outgoing edge.
 	 */
 	public SimpleDistanceConstraint getOut(int i){
+		if (sparseOut != null) return sparseOut.get(i);
 		return out[i];
 	}
 
+	/**
+	 * Get all outgoing edges of this time point, indexed by destination.  Note that this is <code>null</code>
+	 * for time points managed by an {@link APSPSolver} with the {@link APSPSolver.BACKEND#SPARSE} backend
+	 * (see {@link #getOutIDs()}).
+	 * @return All outgoing edges of this time point.
+	 */
 	public SimpleDistanceConstraint[] getOut(){
 		return out;
 	}
 
+	/**
+	 * Get the identifiers of the destinations of all outgoing edges of this time point. 
+	 * @return The identifiers of the destinations of all outgoing edges of this time point.
+	 */
+	public int[] getOutIDs() {
+		int[] ret;
+		int count = 0;
+		if (sparseOut != null) {
+			ret = new int[sparseOut.size()];
+			for (Integer i : sparseOut.keySet()) ret[count++] = i;
+			return ret;
+		}
+		for (int i = 0; i < out.length; i++) if (out[i] != null) count++;
+		ret = new int[count];
+		count = 0;
+		for (int i = 0; i < out.length; i++) if (out[i] != null) ret[count++] = i;
+		return ret;
+	}
+
 	/**
 	 * Set the i-th outgoing edge of this time point.
 	 * @param i The index of the edge to set.
 	 * @param newVal The {@link SimpleDistanceConstraint} correspionding to set as i-th outgoing edge.
 	 */
 	public void setOut(int i, SimpleDistanceConstraint newVal){
-		out[i] = newVal;
+		if (sparseOut != null) {
+			if (newVal == null) sparseOut.remove(i);
+			else sparseOut.put(i, newVal);
+		}
+		else out[i] = newVal;
 	}
 
 	@Override
@@ -232,10 +296,21 @@ public final class TimePoint extends Variable {
 	@Override
 	public TimePoint clone( ) {
 
+		if (this.sparseOut != null) {
+			TimePoint c = new TimePoint(id, (APSPSolver) this.solver);
+			c.setLowerBound(this.getLowerBound());
+			c.setUpperBound(this.getUpperBound());
+			c.setUsed(this.used);
+			c.key = this.key;
+			for (Integer i : this.sparseOut.keySet()) c.sparseOut.put(i, this.sparseOut.get(i).clone());
+			return c;
+		}
+
 		TimePoint c = new TimePoint(id, this.out.length, (APSPSolver) this.solver);
 		c.setLowerBound(this.getLowerBound());
 		c.setUpperBound(this.getUpperBound());
 		c.setUsed(this.used);
+		c.key = this.key;
 
 		for ( int i = 0 ; i < this.out.length ; i++ ) {
 			if ( this.out[i] != null ) {
@@ -23,11 +23,13 @@
 package org.metacsp.time.qualitative;
 
 import java.awt.Point;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Vector;
 
 import org.metacsp.framework.BinaryConstraint;
 import org.metacsp.framework.Constraint;
+import org.metacsp.utility.QualitativeCalculus;
 
 /**
  * There are 13 types of Allen interval constraints (see [Allen 1984]).
@@ -389,7 +391,62 @@ public class QualitativeAllenIntervalConstraint extends BinaryConstraint {
 
 	};
 
-	
+
+	//The calculus is compiled from the transitionTable when first needed
+	private static QualitativeCalculus calculus = null;
+
+	/**
+	 * Get the bitmask of a disjunction of Allen relations, in which bit <code>i</code> is set iff the disjunction
+	 * contains the relation with ordinal <code>i</code>.
+	 * @param types The relations in the disjunction.
+	 * @return The bitmask of the disjunction.
+	 */
+	public static int getMask(Type ... types) {
+		int mask = 0;
+		for (Type t : types) mask |= 1 << t.ordinal();
+		return mask;
+	}
+
+	/**
+	 * Get the relations in a disjunction represented as a bitmask (see {@link #getMask(Type...)}).
+	 * @param mask The bitmask of the disjunction.
+	 * @return The relations in the disjunction, by ordinal.
+	 */
+	public static Type[] getTypes(int mask) {
+		Type[] ret = new Type[Integer.bitCount(mask)];
+		int n = 0;
+		for (Type t : Type.values()) if ((mask & (1 << t.ordinal())) != 0) ret[n++] = t;
+		return ret;
+	}
+
+	/**
+	 * Get the composition of two disjunctions of Allen relations represented as bitmasks (see {@link #getMask(Type...)}),
+	 * according to the {@link #transitionTable}.
+	 * @param mask1 The bitmask of the first disjunction.
+	 * @param mask2 The bitmask of the second disjunction.
+	 * @return The bitmask of the composition.
+	 */
+	public static int getComposition(int mask1, int mask2) {
+		return getCalculus().getComposition(mask1, mask2);
+	}
+
+	/**
+	 * Get the {@link QualitativeCalculus} of Allen relations, whose tractable subclass consists of the pre-convex relations
+	 * (see {@link #isPreconvex(Type...)}).
+	 * @return The {@link QualitativeCalculus} of Allen relations.
+	 */
+	public static synchronized QualitativeCalculus getCalculus() {
+		if (calculus == null) {
+			Type[] inverses = getInverseRelation(Type.values());
+			QualitativeAllenIntervalConstraint probe = new QualitativeAllenIntervalConstraint(Type.Equals);
+			int[] preconvex = new int[1 << Type.values().length];
+			int n = 0;
+			for (int m = 1; m < preconvex.length; m++) if (probe.isPreconvex(getTypes(m))) preconvex[n++] = m;
+			calculus = new QualitativeCalculus(transitionTable, inverses, Arrays.copyOf(preconvex, n));
+		}
+		return calculus;
+	}
+
 	/**
 	 * Get the inverse relation of a given set of Allen relations.
 	 * @param t The relations to invert.
@@ -1,13 +1,11 @@
 package org.metacsp.time.qualitative;
 
-import java.util.Arrays;
-import java.util.Vector;
-
 import org.metacsp.framework.Constraint;
 import org.metacsp.framework.ConstraintNetwork;
 import org.metacsp.framework.ConstraintSolver;
 import org.metacsp.framework.Variable;
 import org.metacsp.time.qualitative.QualitativeAllenIntervalConstraint.Type;
+import org.metacsp.utility.QualitativeNetwork;
 
 
 
@@ -20,6 +18,7 @@ public class QualitativeAllenSolver extends ConstraintSolver {
 	private int IDs = 0;
 	private ConstraintNetwork completeNetwork = null;
 	private boolean successfulPropagation = false;
+	private boolean backtracking = false;
 	
 	public QualitativeAllenSolver() {
 		super(new Class[]{QualitativeAllenIntervalConstraint.class}, SimpleAllenInterval.class);
@@ -76,68 +75,43 @@ public class QualitativeAllenSolver extends ConstraintSolver {
 		}
 	}
 
+	/**
+	 * Set whether propagation should decide consistency by backtracking over the pre-convex relations, rather than
+	 * only enforcing path consistency (which is incomplete for general Allen networks).
+	 * @param backtracking <code>true</code> iff propagation should backtrack.
+	 */
+	public void setBacktracking(boolean backtracking) {
+		this.backtracking = backtracking;
+	}
+
 	private boolean pathConsistency() {
-		boolean fixedpoint = false;
 		Variable[] vars = this.completeNetwork.getVariables();
-		while (!fixedpoint) {
-			fixedpoint = true;
-			for (int k = 0; k < vars.length; k++) {
-				for (int i = 0; i < vars.length; i++) {
-					if (i != k) {
-						for (int j = 0; j < vars.length; j++) {
-							if (j != k && j != i) {
-								QualitativeAllenIntervalConstraint r_ij = (QualitativeAllenIntervalConstraint)completeNetwork.getConstraint(vars[i], vars[j]);
-								QualitativeAllenIntervalConstraint r_ik = (QualitativeAllenIntervalConstraint)completeNetwork.getConstraint(vars[i], vars[k]);
-								QualitativeAllenIntervalConstraint r_kj = (QualitativeAllenIntervalConstraint)completeNetwork.getConstraint(vars[k], vars[j]);
-								//comp = R_ik * R_kj
-								QualitativeAllenIntervalConstraint comp = getComposition(r_ik, r_kj);
-								//inters = R_ij ^ comp
-								QualitativeAllenIntervalConstraint inters = getIntersection(r_ij, comp);
-								//if inters = 0 return false
-								if (inters.getTypes().length == 0) return false;
-								//if inters != R_ij
-								if (inters.getTypes().length < r_ij.getTypes().length) {
-									completeNetwork.removeConstraint(r_ij);
-									completeNetwork.addConstraint(inters);
-									fixedpoint = false;
-								}
-							}
-						}	
-					}
-				}				
+		int n = vars.length;
+		QualitativeNetwork network = new QualitativeNetwork(QualitativeAllenIntervalConstraint.getCalculus(), n);
+		int[] initial = new int[n*n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j) {
+					Type[] types = ((QualitativeAllenIntervalConstraint)completeNetwork.getConstraint(vars[i], vars[j])).getTypes();
+					initial[i*n+j] = QualitativeAllenIntervalConstraint.getMask(types);
+					network.setRelation(i, j, initial[i*n+j]);
+				}
 			}
 		}
-		return true;
-	}
-	
-	
-
-
-	private QualitativeAllenIntervalConstraint getIntersection(QualitativeAllenIntervalConstraint o1, QualitativeAllenIntervalConstraint o2) {
-		Vector<QualitativeAllenIntervalConstraint.Type> intersetction =  new Vector<QualitativeAllenIntervalConstraint.Type>();
-		for (Type t : o1.getTypes()) {
-			if (Arrays.asList(o2.getTypes()).contains(t)) intersetction.add(t);
-		}
-		QualitativeAllenIntervalConstraint ret = new QualitativeAllenIntervalConstraint(intersetction.toArray(new Type[intersetction.size()]));
-		ret.setFrom(o1.getFrom());
-		ret.setTo(o1.getTo());
-		return ret;
-	}
-	
-	private QualitativeAllenIntervalConstraint getComposition(QualitativeAllenIntervalConstraint o1, QualitativeAllenIntervalConstraint o2) {
-		Vector<QualitativeAllenIntervalConstraint.Type> cmprelation =  new Vector<QualitativeAllenIntervalConstraint.Type>();
-		for (int t = 0; t < o1.getTypes().length; t++) {
-			for (int t2 = 0; t2 < o2.getTypes().length; t2++) {
-				QualitativeAllenIntervalConstraint.Type[] tmpType = QualitativeAllenIntervalConstraint.transitionTable[o1.getTypes()[t].ordinal()][o2.getTypes()[t2].ordinal()];
-				for(QualitativeAllenIntervalConstraint.Type t3: tmpType) {
-					if(!cmprelation.contains(t3)) cmprelation.add(t3);
-				}	
+		if (!(backtracking ? network.solve() : network.enforcePathConsistency())) return false;
+		//Replace the constraints which have been refined
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j && network.getRelation(i, j) != initial[i*n+j]) {
+					completeNetwork.removeConstraint(completeNetwork.getConstraint(vars[i], vars[j]));
+					QualitativeAllenIntervalConstraint refined = new QualitativeAllenIntervalConstraint(QualitativeAllenIntervalConstraint.getTypes(network.getRelation(i, j)));
+					refined.setFrom(vars[i]);
+					refined.setTo(vars[j]);
+					completeNetwork.addConstraint(refined);
+				}
 			}
 		}
-		QualitativeAllenIntervalConstraint ret = new QualitativeAllenIntervalConstraint(cmprelation.toArray(new Type[cmprelation.size()]));
-		ret.setFrom(o1.getFrom());
-		ret.setTo(o2.getTo());
-		return ret;
+		return true;
 	}
 
 	@Override
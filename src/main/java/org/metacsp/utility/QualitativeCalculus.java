@@ -0,0 +1,192 @@
+package org.metacsp.utility;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A qualitative calculus (e.g., Allen's interval algebra or RCC-8) described by its composition table.
+ * The basic relations of the calculus are given by an enum, and a relation (a disjunction of basic relations) is
+ * represented as a bitmask in which bit <code>i</code> is set iff the relation contains the basic relation with ordinal <code>i</code>.
+ * The composition table is compiled into bitmasks once, so that composing two relations costs one table lookup per basic
+ * relation of the first one.  Calculi can also define the inverse of each basic relation, and a tractable subclass of relations
+ * which is used by {@link QualitativeNetwork#solve()} to split relations when backtracking.
+ *
+ * @author Federico Pecora
+ */
+public class QualitativeCalculus {
+
+	//Calculi with more basic relations are composed pairwise instead of through the full table
+	private static final int MAX_TABLE_ATOMS = 16;
+
+	private final int numAtoms;
+	private final int universal;
+	//Composition of basic relations, atomic[a*numAtoms+b] is the composition of a and b
+	private final int[] atomic;
+	//Composition of each basic relation with every relation, null if there are too many basic relations
+	private final int[][] compositions;
+	private final int[] inverses;
+	//Tractable relations (other than the basic ones) sorted by decreasing size, and the same relations sorted by value
+	private final int[] tractable;
+	private final int[] tractableSorted;
+
+	/**
+	 * Create a new {@link QualitativeCalculus}.
+	 * @param transitionTable The composition table, where <code>transitionTable[a][b]</code> contains the basic relations in the composition
+	 * of the basic relations with ordinals <code>a</code> and <code>b</code>.
+	 * @param inverses The inverse of each basic relation, by ordinal (can be <code>null</code> if the calculus is not closed under inversion).
+	 */
+	public QualitativeCalculus(Enum<?>[][][] transitionTable, Enum<?>[] inverses) {
+		this(transitionTable, inverses, new int[0]);
+	}
+
+	/**
+	 * Create a new {@link QualitativeCalculus} with a tractable subclass of relations.
+	 * @param transitionTable The composition table, where <code>transitionTable[a][b]</code> contains the basic relations in the composition
+	 * of the basic relations with ordinals <code>a</code> and <code>b</code>.
+	 * @param inverses The inverse of each basic relation, by ordinal (can be <code>null</code> if the calculus is not closed under inversion).
+	 * @param tractable The bitmasks of the relations in a subclass for which path consistency decides consistency (basic relations
+	 * are always considered tractable).
+	 */
+	public QualitativeCalculus(Enum<?>[][][] transitionTable, Enum<?>[] inverses, int[] tractable) {
+		this.numAtoms = transitionTable.length;
+		if (numAtoms > 31) throw new IllegalArgumentException("A calculus can have at most 31 basic relations");
+		this.universal = (1 << numAtoms)-1;
+		this.atomic = new int[numAtoms*numAtoms];
+		for (int a = 0; a < numAtoms; a++) {
+			for (int b = 0; b < numAtoms; b++) atomic[a*numAtoms+b] = getMask(transitionTable[a][b]);
+		}
+		if (numAtoms <= MAX_TABLE_ATOMS) {
+			this.compositions = new int[numAtoms][1 << numAtoms];
+			for (int a = 0; a < numAtoms; a++) {
+				for (int m = 1; m <= universal; m++) {
+					compositions[a][m] = compositions[a][m & (m-1)] | atomic[a*numAtoms+Integer.numberOfTrailingZeros(m)];
+				}
+			}
+		}
+		else this.compositions = null;
+		if (inverses == null) this.inverses = null;
+		else {
+			this.inverses = new int[numAtoms];
+			for (int a = 0; a < numAtoms; a++) this.inverses[a] = inverses[a].ordinal();
+		}
+		int n = 0;
+		Integer[] bySize = new Integer[tractable.length];
+		for (int t : tractable) if (Integer.bitCount(t & universal) > 1) bySize[n++] = t & universal;
+		bySize = Arrays.copyOf(bySize, n);
+		Arrays.sort(bySize, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Integer.bitCount(o2)-Integer.bitCount(o1);
+			}
+		});
+		this.tractable = new int[n];
+		for (int i = 0; i < n; i++) this.tractable[i] = bySize[i];
+		this.tractableSorted = this.tractable.clone();
+		Arrays.sort(this.tractableSorted);
+	}
+
+	/**
+	 * Get the bitmask of a relation.
+	 * @param types The basic relations in the relation.
+	 * @return The bitmask of the relation.
+	 */
+	public static int getMask(Enum<?> ... types) {
+		int mask = 0;
+		for (Enum<?> t : types) mask |= 1 << t.ordinal();
+		return mask;
+	}
+
+	/**
+	 * Get the basic relations in a relation represented as a bitmask.
+	 * @param mask The bitmask of the relation.
+	 * @param values All the basic relations of the calculus, by ordinal.
+	 * @return The basic relations in the relation, by ordinal.
+	 */
+	public static <T extends Enum<T>> T[] getTypes(int mask, T[] values) {
+		T[] ret = Arrays.copyOf(values, Integer.bitCount(mask));
+		int n = 0;
+		for (T t : values) if ((mask & (1 << t.ordinal())) != 0) ret[n++] = t;
+		return ret;
+	}
+
+	/**
+	 * @return The number of basic relations of this calculus.
+	 */
+	public int getNumAtoms() {
+		return numAtoms;
+	}
+
+	/**
+	 * @return The bitmask of the universal relation (the disjunction of all basic relations).
+	 */
+	public int getUniversal() {
+		return universal;
+	}
+
+	/**
+	 * @return <code>true</code> iff the inverse of every basic relation is known.
+	 */
+	public boolean hasInverses() {
+		return inverses != null;
+	}
+
+	/**
+	 * Get the composition of two relations.
+	 * @param mask1 The bitmask of the first relation.
+	 * @param mask2 The bitmask of the second relation.
+	 * @return The bitmask of the composition.
+	 */
+	public int getComposition(int mask1, int mask2) {
+		int ret = 0;
+		if (compositions != null) {
+			for (int m = mask1; m != 0; m &= m-1) ret |= compositions[Integer.numberOfTrailingZeros(m)][mask2];
+		}
+		else {
+			for (int m1 = mask1; m1 != 0; m1 &= m1-1) {
+				int row = Integer.numberOfTrailingZeros(m1)*numAtoms;
+				for (int m2 = mask2; m2 != 0; m2 &= m2-1) ret |= atomic[row+Integer.numberOfTrailingZeros(m2)];
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the inverse of a relation.
+	 * @param mask The bitmask of the relation.
+	 * @return The bitmask of the inverse relation.
+	 */
+	public int getInverse(int mask) {
+		if (inverses == null) throw new UnsupportedOperationException("The calculus does not define inverse relations");
+		int ret = 0;
+		for (int m = mask; m != 0; m &= m-1) ret |= 1 << inverses[Integer.numberOfTrailingZeros(m)];
+		return ret;
+	}
+
+	/**
+	 * @param mask The bitmask of a relation.
+	 * @return <code>true</code> iff the relation is a basic relation or belongs to the tractable subclass of this calculus.
+	 */
+	public boolean isTractable(int mask) {
+		return Integer.bitCount(mask) <= 1 || Arrays.binarySearch(tractableSorted, mask) >= 0;
+	}
+
+	/**
+	 * Split a relation into disjoint tractable relations, largest first.
+	 * @param mask The bitmask of the relation.
+	 * @return The bitmasks of tractable relations whose disjunction is the given relation.
+	 */
+	public int[] split(int mask) {
+		int[] ret = new int[Integer.bitCount(mask)];
+		int n = 0;
+		int rest = mask;
+		for (int t : tractable) {
+			if (Integer.bitCount(t) <= Integer.bitCount(rest) && (t & rest) == t) {
+				ret[n++] = t;
+				rest &= ~t;
+			}
+		}
+		for (int m = rest; m != 0; m &= m-1) ret[n++] = m & -m;
+		return Arrays.copyOf(ret, n);
+	}
+
+}
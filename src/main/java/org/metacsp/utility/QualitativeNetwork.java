@@ -0,0 +1,161 @@
+package org.metacsp.utility;
+
+/**
+ * A complete network of relations of a {@link QualitativeCalculus} over <code>n</code> entities, kept as bitmasks in a dense
+ * matrix.  Path consistency is enforced with PC-2, i.e., only the triples involving a relation which has changed are revised.
+ * Consistency can also be decided by backtracking over the tractable subclass of the calculus, where path consistency is
+ * enforced after each choice.
+ *
+ * @author Federico Pecora
+ */
+public class QualitativeNetwork {
+
+	private final QualitativeCalculus calculus;
+	private final int n;
+	private final int[] relations;
+
+	//Queue of the pairs whose relation has changed, reused across propagations
+	private final int[] queue;
+	private final boolean[] queued;
+
+	/**
+	 * Create a new {@link QualitativeNetwork} in which all relations are universal.
+	 * @param calculus The {@link QualitativeCalculus} of the relations.
+	 * @param n The number of entities.
+	 */
+	public QualitativeNetwork(QualitativeCalculus calculus, int n) {
+		this.calculus = calculus;
+		this.n = n;
+		this.relations = new int[n*n];
+		this.queue = new int[n*n];
+		this.queued = new boolean[n*n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) if (i != j) relations[i*n+j] = calculus.getUniversal();
+		}
+	}
+
+	/**
+	 * @return The number of entities in this network.
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Get the relation between two entities.
+	 * @param i The first entity.
+	 * @param j The second entity.
+	 * @return The bitmask of the relation from <code>i</code> to <code>j</code>.
+	 */
+	public int getRelation(int i, int j) {
+		return relations[i*n+j];
+	}
+
+	/**
+	 * Set the relation between two entities (the relation from <code>j</code> to <code>i</code> is not changed).
+	 * @param i The first entity.
+	 * @param j The second entity.
+	 * @param mask The bitmask of the relation from <code>i</code> to <code>j</code>.
+	 */
+	public void setRelation(int i, int j, int mask) {
+		relations[i*n+j] = mask;
+	}
+
+	/**
+	 * Enforce path consistency on this network.
+	 * @return <code>false</code> iff some relation has become empty.
+	 */
+	public boolean enforcePathConsistency() {
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) if (i != j && relations[i*n+j] == 0) return false;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i != j) {
+					queue[size++] = i*n+j;
+					queued[i*n+j] = true;
+				}
+			}
+		}
+		return propagate(size);
+	}
+
+	/**
+	 * Decide the consistency of this network by backtracking: relations which are not in the tractable subclass of the
+	 * {@link QualitativeCalculus} are split into tractable relations, and path consistency is enforced after each choice.
+	 * If the network is consistent, all its relations are tractable when this method returns.
+	 * @return <code>true</code> iff the network is consistent (provided path consistency decides consistency for the
+	 * tractable subclass of the calculus).
+	 */
+	public boolean solve() {
+		return enforcePathConsistency() && backtrack();
+	}
+
+	private boolean backtrack() {
+		//Choose the relation with the fewest basic relations among those that are not tractable
+		int choice = -1;
+		for (int ij = 0; ij < relations.length; ij++) {
+			if (ij/n != ij%n && !calculus.isTractable(relations[ij])) {
+				if (choice == -1 || Integer.bitCount(relations[ij]) < Integer.bitCount(relations[choice])) choice = ij;
+			}
+		}
+		if (choice == -1) return true;
+		int ji = (choice%n)*n+choice/n;
+		int[] saved = relations.clone();
+		for (int part : calculus.split(relations[choice])) {
+			relations[choice] = part;
+			if (calculus.hasInverses()) relations[ji] &= calculus.getInverse(part);
+			if (relations[ji] != 0) {
+				queue[0] = choice;
+				queue[1] = ji;
+				queued[choice] = queued[ji] = true;
+				if (propagate(2) && backtrack()) return true;
+			}
+			System.arraycopy(saved, 0, relations, 0, relations.length);
+		}
+		return false;
+	}
+
+	//PC-2 from the given number of pairs at the head of the queue
+	private boolean propagate(int size) {
+		int head = 0;
+		boolean consistent = true;
+		while (size > 0 && consistent) {
+			int ij = queue[head];
+			head = (head+1) % queue.length;
+			size--;
+			queued[ij] = false;
+			int i = ij / n;
+			int j = ij % n;
+			for (int k = 0; k < n && consistent; k++) {
+				if (k != i && k != j) {
+					//R_ik = R_ik ^ (R_ij * R_jk) and R_kj = R_kj ^ (R_ki * R_ij)
+					int ik = i*n+k;
+					int kj = k*n+j;
+					int interIK = relations[ik] & calculus.getComposition(relations[ij], relations[j*n+k]);
+					int interKJ = relations[kj] & calculus.getComposition(relations[k*n+i], relations[ij]);
+					if (interIK == 0 || interKJ == 0) consistent = false;
+					if (interIK != relations[ik]) {
+						relations[ik] = interIK;
+						if (!queued[ik]) {
+							queue[(head+size++) % queue.length] = ik;
+							queued[ik] = true;
+						}
+					}
+					if (interKJ != relations[kj]) {
+						relations[kj] = interKJ;
+						if (!queued[kj]) {
+							queue[(head+size++) % queue.length] = kj;
+							queued[kj] = true;
+						}
+					}
+				}
+			}
+		}
+		//Leave the queue empty for the next propagation
+		for (int s = 0; s < size; s++) queued[queue[(head+s) % queue.length]] = false;
+		return consistent;
+	}
+
+}
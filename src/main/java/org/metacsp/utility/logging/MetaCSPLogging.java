@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Map.Entry;
@@ -72,6 +73,16 @@ import org.metacsp.framework.meta.MetaConstraintSolver;
  * method.
  * </p>
  * 
+ * <p>
+ * Messages which are expensive to build (e.g., containing the {@code toString()} of constraints or networks)
+ * should not be built if they are not going to be logged.  The static methods {@code log(Logger, Level, LogMessage)},
+ * {@code fine(Logger, ...)} and {@code finest(Logger, ...)} build messages only if the logger's level allows it, e.g.,
+ * </p>
+ * 
+ * <p>
+ * <code>MetaCSPLogging.finest(logger, "Added constraints ", constraints);</code>
+ * </p>
+ * 
  * @author Federico Pecora
  *
  */
@@ -176,6 +187,68 @@ public final class MetaCSPLogging implements Serializable{
 		return loggers.get(c);
 	}
 
+	/**
+	 * Log a message at a given level, building it only if the logger's level allows it.
+	 * @param logger The logger to use.
+	 * @param level The level of the message.
+	 * @param msg The message.
+	 */
+	public static void log(Logger logger, Level level, LogMessage msg) {
+		if (logger.isLoggable(level)) logger.log(level, msg.get());
+	}
+
+	/**
+	 * Log a message composed of a prefix and an object (arrays are printed element by element)
+	 * at a given level, building it only if the logger's level allows it.
+	 * @param logger The logger to use.
+	 * @param level The level of the message.
+	 * @param prefix The beginning of the message.
+	 * @param obj The object to append to the message.
+	 */
+	public static void log(Logger logger, Level level, String prefix, Object obj) {
+		if (logger.isLoggable(level)) logger.log(level, prefix + (obj instanceof Object[] ? Arrays.toString((Object[])obj) : String.valueOf(obj)));
+	}
+
+	/**
+	 * Log a message at level {@link Level#FINE}, building it only if the logger's level allows it.
+	 * @param logger The logger to use.
+	 * @param msg The message.
+	 */
+	public static void fine(Logger logger, LogMessage msg) {
+		log(logger, Level.FINE, msg);
+	}
+
+	/**
+	 * Log a message composed of a prefix and an object at level {@link Level#FINE},
+	 * building it only if the logger's level allows it.
+	 * @param logger The logger to use.
+	 * @param prefix The beginning of the message.
+	 * @param obj The object to append to the message.
+	 */
+	public static void fine(Logger logger, String prefix, Object obj) {
+		log(logger, Level.FINE, prefix, obj);
+	}
+
+	/**
+	 * Log a message at level {@link Level#FINEST}, building it only if the logger's level allows it.
+	 * @param logger The logger to use.
+	 * @param msg The message.
+	 */
+	public static void finest(Logger logger, LogMessage msg) {
+		log(logger, Level.FINEST, msg);
+	}
+
+	/**
+	 * Log a message composed of a prefix and an object at level {@link Level#FINEST},
+	 * building it only if the logger's level allows it.
+	 * @param logger The logger to use.
+	 * @param prefix The beginning of the message.
+	 * @param obj The object to append to the message.
+	 */
+	public static void finest(Logger logger, String prefix, Object obj) {
+		log(logger, Level.FINEST, prefix, obj);
+	}
+
 	public static String printDouble(double d, int precision) {
 		String fmt = "#0."; 
 		for (int i = 0; i < precision; i++) fmt += "0"; 